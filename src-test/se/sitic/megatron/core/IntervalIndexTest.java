@@ -0,0 +1,83 @@
+package se.sitic.megatron.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * JUnit test.
+ */
+public class IntervalIndexTest {
+
+
+    @Test
+    public void findTest() {
+        // nested and overlapping intervals
+        long[] starts = { 11, 1, 20, 7, 11, 25, 12, 3 };
+        long[] ends =   { 17, 5, 20, 9, 15, 30, 13, 4 };
+        int[] values =  {  1, 2,  3, 4,  5,  6,  7, 8 };
+        IntervalIndex index = new IntervalIndex(starts, ends, values);
+        assertEquals("[1-5, 3-4, 7-9, 11-15, 11-17, 12-13, 20-20, 25-30]", index.toString());
+
+        assertEquals(-1, index.findFirstValue(0, -1));
+        assertEquals(2, index.findFirstValue(1, -1));
+        assertEquals(2, index.findFirstValue(4, -1));
+        assertEquals(-1, index.findFirstValue(6, -1));
+        assertEquals(4, index.findFirstValue(7, -1));
+        assertEquals(-1, index.findFirstValue(10, -1));
+        assertEquals(5, index.findFirstValue(12, -1));
+        assertEquals(5, index.findFirstValue(15, -1));
+        assertEquals(1, index.findFirstValue(16, -1));
+        assertEquals(1, index.findFirstValue(17, -1));
+        assertEquals(-1, index.findFirstValue(18, -1));
+        assertEquals(3, index.findFirstValue(20, -1));
+        assertEquals(6, index.findFirstValue(30, -1));
+        assertEquals(-1, index.findFirstValue(31, -1));
+
+        assertEquals(-1, index.findFirstIndex(18, 19));
+        assertEquals(2, index.findFirstIndex(6, 8));
+        assertEquals(2, index.findFirstIndex(8, 10));
+        assertEquals(4, index.findFirstIndex(16, 40));
+        assertEquals(6, index.findFirstIndex(19, 21));
+
+        IntervalIndex emptyIndex = new IntervalIndex(new long[0], new long[0], new int[0]);
+        assertEquals(-1, emptyIndex.findFirstIndex(42));
+    }
+
+
+    @Test
+    public void compareWithIntervalListTest() {
+        Random random = new Random(4242L);
+        for (int round = 0; round < 20; round++) {
+            int size = 1 + random.nextInt(200);
+            long[] starts = new long[size];
+            long[] ends = new long[size];
+            int[] values = new int[size];
+            IntervalList intervalList = new IntervalList();
+            for (int i = 0; i < size; i++) {
+                starts[i] = random.nextInt(1000);
+                ends[i] = starts[i] + random.nextInt((i % 5 == 0) ? 300 : 10);
+                values[i] = i;
+                intervalList.add(new Interval(starts[i], ends[i]));
+            }
+            IntervalIndex index = new IntervalIndex(starts, ends, values);
+
+            for (long val = -1; val < 1400; val++) {
+                Interval expected = intervalList.findFirstInterval(val);
+                int i = index.findFirstIndex(val);
+                Interval actual = (i != -1) ? new Interval(index.getStart(i), index.getEnd(i)) : null;
+                assertEquals("Value: " + val, expected, actual);
+
+                Interval range = new Interval(val, val + random.nextInt(20));
+                expected = intervalList.findFirstInterval(range);
+                i = index.findFirstIndex(range.getStart(), range.getEnd());
+                actual = (i != -1) ? new Interval(index.getStart(i), index.getEnd(i)) : null;
+                assertEquals("Range: " + range, expected, actual);
+            }
+        }
+    }
+
+}
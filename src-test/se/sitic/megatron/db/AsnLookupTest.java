@@ -1,4 +1,7 @@
 package se.sitic.megatron.db;
+import java.io.File;
+import java.util.Random;
+
 import junit.framework.Assert;
 
 import org.apache.log4j.PropertyConfigurator;
@@ -15,6 +18,7 @@ import se.sitic.megatron.util.IpAddressUtil;
  */
 public class AsnLookupTest {
     private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String TMP_DIR = "tmp-junit";
     TypedProperties props;
 
     
@@ -74,4 +78,111 @@ public class AsnLookupTest {
         dbManager.close();
     }
 
+
+    @Test
+    public void asnLookupTableTest() throws Exception {
+        String[][] prefixes = {
+                { "202.88.48.0/20", "2519" },
+                { "202.88.64.0/18", "9839" },
+                { "212.116.0.0/18", "13170" },
+                { "212.116.64.0/19", "8473" },
+                { "212.116.96.0/19", "48704" },
+                { "192.121.0.0/16", "3292" },
+                { "192.121.218.0/24", "41884" },
+                { "224.0.0.0/3", "4200000000" },
+            };
+        long[] starts = new long[prefixes.length];
+        long[] ends = new long[prefixes.length];
+        long[] asns = new long[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            long[] ipRange = IpAddressUtil.convertBgpPrefix(prefixes[i][0]);
+            starts[i] = ipRange[0];
+            ends[i] = ipRange[1];
+            asns[i] = Long.parseLong(prefixes[i][1]);
+        }
+        AsnLookupTable table = new AsnLookupTable(starts, ends, asns, prefixes.length);
+
+        String[][] ipToAsnArray = {
+                { "0.0.0.0", "-1" },
+                { "202.88.47.255", "-1" },
+                { "202.88.48.0", "2519" },
+                { "202.88.63.255", "2519" },
+                { "202.88.64.0", "9839" },
+                { "212.116.63.255", "13170" },
+                { "212.116.64.0", "8473" },
+                { "212.116.95.255", "8473" },
+                { "212.116.96.0", "48704" },
+                { "192.121.218.4", "41884" },
+                { "192.121.211.100", "3292" },
+                { "192.122.0.0", "-1" },
+                { "255.255.255.255", "4200000000" },
+            };
+        for (int i = 0; i < ipToAsnArray.length; i++) {
+            long ipAddress = IpAddressUtil.convertIpAddress(ipToAsnArray[i][0]);
+            Assert.assertEquals(ipToAsnArray[i][0], ipToAsnArray[i][1], "" + table.searchAsn(ipAddress));
+        }
+        
+        // compare with search in AsnLookupDbManager (smallest range wins) 
+        Random random = new Random(42L);
+        int size = 2000;
+        starts = new long[size];
+        ends = new long[size];
+        asns = new long[size];
+        for (int i = 0; i < size; i++) {
+            int mask = 8 + random.nextInt(17);
+            long[] ipRange = IpAddressUtil.convertBgpPrefix(IpAddressUtil.convertIpAddress(random.nextInt() & 0xFFFFFFFFL, false) + "/" + mask);
+            starts[i] = ipRange[0];
+            ends[i] = ipRange[1];
+            asns[i] = i;
+        }
+        table = new AsnLookupTable(starts, ends, asns, size);
+        for (int n = 0; n < 100000; n++) {
+            long ipAddress = (n % 2 == 0) ? (random.nextInt() & 0xFFFFFFFFL) : (starts[random.nextInt(size)] + random.nextInt(256));
+            long expected = -1L;
+            long rangeDiff = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                long rangeDiffCandidate = ends[i] - starts[i];
+                if ((starts[i] <= ipAddress) && (ipAddress <= ends[i]) && (rangeDiffCandidate < rangeDiff)) {
+                    expected = asns[i];
+                    rangeDiff = rangeDiffCandidate;
+                }
+            }
+            Assert.assertEquals("IP: " + ipAddress, expected, table.searchAsn(ipAddress));
+        }
+    }
+
+
+    @Test
+    public void snapshotTest() throws Exception {
+        Random random = new Random(42L);
+        int size = 10000;
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        long[] asns = new long[size];
+        for (int i = 0; i < size; i++) {
+            int mask = 8 + random.nextInt(17);
+            long ipAddress = (random.nextInt() & 0xFFFFFFFFL) & (0xFFFFFFFFL << (32 - mask));
+            starts[i] = ipAddress;
+            ends[i] = ipAddress + (1L << (32 - mask)) - 1L;
+            asns[i] = random.nextInt() & 0xFFFFFFFFL;
+        }
+        AsnLookupTable table = new AsnLookupTable(starts, ends, asns, size);
+
+        File file = new File(TMP_DIR, "bgp-snapshot-test.dat");
+        table.writeSnapshot(file);
+        AsnLookupTable mappedTable = AsnLookupTable.readSnapshot(file);
+        Assert.assertEquals(table.size(), mappedTable.size());
+        for (int i = 0; i < 100000; i++) {
+            long ipAddress = random.nextInt() & 0xFFFFFFFFL;
+            Assert.assertEquals(table.searchAsn(ipAddress), mappedTable.searchAsn(ipAddress));
+        }
+
+        // overwrite snapshot while the old one is mapped
+        new AsnLookupTable(new long[0], new long[0], new long[0], 0).writeSnapshot(file);
+        Assert.assertEquals(table.size(), mappedTable.size());
+        Assert.assertEquals(0, AsnLookupTable.readSnapshot(file).size());
+    }
+
+    
+
 }
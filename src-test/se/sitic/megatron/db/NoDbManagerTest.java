@@ -0,0 +1,84 @@
+package se.sitic.megatron.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.IpRange;
+import se.sitic.megatron.entity.JobType;
+import se.sitic.megatron.entity.Organization;
+import se.sitic.megatron.util.IpAddressUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class NoDbManagerTest {
+
+
+    @Before
+    public void init() throws Exception {
+        // IpAddressUtil (used by ImportSystemData) requires initialized AppProperties
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    @Test
+    public void systemDataTest() throws Exception {
+        Map<String, String> propMap = new HashMap<String, String>();
+        propMap.put(AppProperties.NO_DB_DATA_FILE_KEY, "conf/dev/systemdata.txt");
+        NoDbManager dbManager = new NoDbManager(new TypedProperties(propMap, null));
+
+        assertEquals(14, dbManager.getAllPriorities().size());
+        assertEquals(100, dbManager.getAllPriorities().get(0).getPrio().intValue());
+        assertEquals("Botnet", dbManager.searchJobType("shadowserver-ddos").getEntryType().getName());
+
+        List<IpRange> ipRanges = dbManager.getAllIpRanges(false);
+        assertEquals(24, ipRanges.size());
+        long ipAddress = IpAddressUtil.convertIpAddress("213.115.31.3");
+        Organization found = null;
+        for (Iterator<IpRange> iterator = ipRanges.iterator(); iterator.hasNext(); ) {
+            IpRange ipRange = iterator.next();
+            if ((ipRange.getStartAddress() <= ipAddress) && (ipAddress <= ipRange.getEndAddress())) {
+                found = dbManager.getOrganization(ipRange.getOrganizationId());
+            }
+        }
+        assertNotNull(found);
+        assertEquals("Vnsterpartiet", found.getName());
+        assertEquals(80, found.getPriority().getPrio().intValue());
+        assertEquals("", found.getEmailAddresses());
+        assertEquals(found, dbManager.searchOrganization("Vnsterpartiet"));
+        assertEquals(13, dbManager.getAllDomainNames(false).size());
+
+        // writes are ignored
+        assertFalse(dbManager.existsFileHash("foo"));
+        assertNull(dbManager.searchLogJob("foo"));
+        dbManager.close();
+    }
+
+
+    @Test
+    public void noSystemDataTest() throws Exception {
+        NoDbManager dbManager = new NoDbManager(new TypedProperties(new HashMap<String, String>(), null));
+
+        JobType jobType = dbManager.searchJobType("foo-bar");
+        assertEquals("foo-bar", jobType.getName());
+        assertEquals("Default", jobType.getEntryType().getName());
+        assertEquals(jobType, dbManager.searchJobType("foo-bar"));
+        assertEquals(0, dbManager.getAllIpRanges(false).size());
+        assertNull(dbManager.getOrganization(1));
+    }
+
+}
@@ -0,0 +1,97 @@
+package se.sitic.megatron.decorator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.db.DbException;
+import se.sitic.megatron.db.NoDbManager;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.entity.Organization;
+import se.sitic.megatron.util.IpAddressUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class OrganizationMatcherDecoratorTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+
+    private JobContext jobContext;
+    private CountingDbManager dbManager;
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> dbProps = new HashMap<String, String>();
+        dbProps.put(AppProperties.NO_DB_DATA_FILE_KEY, "conf/dev/systemdata.txt");
+        props.addAdditionalProps(dbProps);
+        dbManager = new CountingDbManager(props);
+        jobContext = new JobContext(props, null);
+        jobContext.setDbManager(dbManager);
+    }
+
+
+    @Test
+    public void noOrganizationQueries() throws Exception {
+        OrganizationMatcherDecorator decorator = new OrganizationMatcherDecorator();
+        decorator.init(jobContext);
+
+        for (int i = 0; i < 1000; i++) {
+            LogEntry logEntry = new LogEntry();
+            logEntry.setIpAddress(IpAddressUtil.convertIpAddress("213.115.31.3"));
+            logEntry.setIpAddress2(IpAddressUtil.convertIpAddress("213.115.31.3"));
+            decorator.execute(logEntry);
+
+            Organization organization = logEntry.getOrganization();
+            Assert.assertNotNull(organization);
+            Assert.assertEquals("Vnsterpartiet", organization.getName());
+            Assert.assertEquals(80, organization.getPriority().getPrio().intValue());
+            Assert.assertSame(organization, logEntry.getOrganization2());
+        }
+        decorator.close();
+
+        Assert.assertEquals(0, dbManager.getNoOfOrganizationQueries());
+        Assert.assertEquals(1, decorator.getHighPriorityOrganizations().size());
+    }
+
+
+    /**
+     * Counts calls to getOrganization.
+     */
+    private static class CountingDbManager extends NoDbManager {
+        private int noOfOrganizationQueries;
+
+
+        public CountingDbManager(TypedProperties props) throws DbException {
+            super(props);
+        }
+
+
+        @Override
+        public Organization getOrganization(int orgId) throws DbException {
+            ++noOfOrganizationQueries;
+            return super.getOrganization(orgId);
+        }
+
+
+        public int getNoOfOrganizationQueries() {
+            return noOfOrganizationQueries;
+        }
+
+    }
+
+}
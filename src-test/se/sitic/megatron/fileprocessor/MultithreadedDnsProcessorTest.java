@@ -0,0 +1,227 @@
+package se.sitic.megatron.fileprocessor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.ConcurrentLongObjectHashMap;
+import se.sitic.megatron.util.ConcurrentObjectLongHashMap;
+import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.LocalDnsServer;
+
+
+/**
+ * JUnit test.
+ */
+public class MultithreadedDnsProcessorTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final int NO_OF_IP_ADDRESSES = 1000;
+
+    private LocalDnsServer server;
+    private File file;
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+        server = new LocalDnsServer();
+        server.setResponseDelay(20L);
+    }
+
+
+    @After
+    public void cleanUp() throws Exception {
+        server.close();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void asyncReverseDnsLookup() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < NO_OF_IP_ADDRESSES; i++) {
+            content.append("ip: 10.0.").append(i / 256).append('.').append(i % 256).append('\n');
+        }
+        // duplicate, and no PTR record
+        content.append("ip: 10.0.0.1\n");
+        content.append("ip: 192.168.0.1\n");
+        writeFile(content.toString());
+
+        JobContext jobContext = createJobContext(true);
+        MultithreadedDnsProcessor processor = new MultithreadedDnsProcessor();
+        processor.init(jobContext);
+        Assert.assertEquals(file, processor.execute(file));
+        processor.close(true);
+
+        ConcurrentLongObjectHashMap<String> reverseDnsMap = (ConcurrentLongObjectHashMap<String>)jobContext.getAdditionalData(MultithreadedDnsProcessor.REVERSE_DNS_MAP_KEY);
+        Assert.assertEquals(NO_OF_IP_ADDRESSES, reverseDnsMap.size());
+        Assert.assertEquals("host-10-0-0-1.example.com", reverseDnsMap.get(IpAddressUtil.convertIpAddress("10.0.0.1")));
+        Assert.assertEquals("host-10-0-3-231.example.com", reverseDnsMap.get(IpAddressUtil.convertIpAddress("10.0.3.231")));
+        Assert.assertNull(reverseDnsMap.get(IpAddressUtil.convertIpAddress("192.168.0.1")));
+        Assert.assertEquals(NO_OF_IP_ADDRESSES + 1, server.getNoOfQueries());
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void asyncDnsLookup() throws Exception {
+        writeFile("url: http://host-1-2-3-4.example.com\n" +
+                "url: http://servfailhost-5-6-7-8.example.com\n" +
+                "url: http://10.1.2.3\n" +
+                "url: http://unknown.example.com\n");
+
+        JobContext jobContext = createJobContext(false);
+        MultithreadedDnsProcessor processor = new MultithreadedDnsProcessor();
+        processor.init(jobContext);
+        Assert.assertEquals(file, processor.execute(file));
+        processor.close(true);
+
+        ConcurrentObjectLongHashMap<String> dnsMap = (ConcurrentObjectLongHashMap<String>)jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_MAP_KEY);
+        Assert.assertEquals(3, dnsMap.size());
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("1.2.3.4"), dnsMap.get("host-1-2-3-4.example.com", 0L));
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("5.6.7.8"), dnsMap.get("servfailhost-5-6-7-8.example.com", 0L));
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), dnsMap.get("10.1.2.3", 0L));
+        Assert.assertFalse(dnsMap.containsKey("unknown.example.com"));
+    }
+
+
+    /**
+     * Streaming mode: prefetch is limited by the window, and lookups that are 
+     * not prefetched are submitted when needed.
+     */
+    @Test
+    public void asyncStreaming() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < NO_OF_IP_ADDRESSES; i++) {
+            content.append("ip: 10.1.").append(i / 256).append('.').append(i % 256).append('\n');
+        }
+        writeFile(content.toString());
+
+        JobContext jobContext = createJobContext(true);
+        Map<String, String> streamingProps = new HashMap<String, String>();
+        streamingProps.put(AppProperties.FILE_PROCESSOR_DNS_STREAMING_KEY, "true");
+        streamingProps.put(AppProperties.FILE_PROCESSOR_DNS_STREAMING_WINDOW_KEY, "100");
+        jobContext.getProps().addAdditionalProps(streamingProps);
+        MultithreadedDnsProcessor processor = new MultithreadedDnsProcessor();
+        processor.init(jobContext);
+        Assert.assertSame(processor, jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_PREFETCH_KEY));
+        Assert.assertEquals(file, processor.execute(file));
+
+        // job has not started; prefetch waits at the window
+        Thread.sleep(300L);
+        Assert.assertTrue(server.getNoOfQueries() <= 101);
+
+        // job processes lines in order (as HostnameDecorator)
+        for (int i = 0; i < NO_OF_IP_ADDRESSES; i++) {
+            jobContext.incLineNo(1);
+            String ipAddress = "10.1." + (i / 256) + "." + (i % 256);
+            String expected = "host-" + ipAddress.replace('.', '-') + ".example.com";
+            Assert.assertEquals(expected, processor.getHostname(IpAddressUtil.convertIpAddress(ipAddress)));
+        }
+        // not in file 
+        Assert.assertEquals("host-10-9-9-9.example.com", processor.getHostname(IpAddressUtil.convertIpAddress("10.9.9.9")));
+        Assert.assertEquals("", processor.getHostname(IpAddressUtil.convertIpAddress("192.168.0.1")));
+        Assert.assertEquals("", processor.getHostname(IpAddressUtil.convertIpAddress("192.168.0.1")));
+        processor.close(true);
+        Assert.assertEquals(NO_OF_IP_ADDRESSES + 2, server.getNoOfQueries());
+    }
+
+
+    /**
+     * Streaming mode: a failed submit must not leave a pending lookup that 
+     * later calls wait for.
+     */
+    @Test
+    public void streamingSubmitFails() throws Exception {
+        writeFile("ip: 10.1.0.1\n");
+
+        JobContext jobContext = createJobContext(true);
+        Map<String, String> streamingProps = new HashMap<String, String>();
+        streamingProps.put(AppProperties.FILE_PROCESSOR_DNS_STREAMING_KEY, "true");
+        jobContext.getProps().addAdditionalProps(streamingProps);
+        MultithreadedDnsProcessor processor = new MultithreadedDnsProcessor();
+        processor.init(jobContext);
+        Assert.assertEquals(file, processor.execute(file));
+        processor.close(true);
+
+        // resolver is closed
+        long ipAddress = IpAddressUtil.convertIpAddress("10.9.9.9");
+        for (int i = 0; i < 2; i++) {
+            try {
+                processor.getHostname(ipAddress);
+                Assert.fail("Exception expected.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+
+    /**
+     * Streaming mode with consumer threads. Items are IP addresses, which 
+     * are not looked up.
+     */
+    @Test
+    public void threadedStreaming() throws Exception {
+        writeFile("url: http://10.1.2.3\n" +
+                "url: http://10.1.2.4\n");
+
+        JobContext jobContext = createJobContext(false);
+        Map<String, String> streamingProps = new HashMap<String, String>();
+        streamingProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_RESOLVER_KEY, "false");
+        streamingProps.put(AppProperties.FILE_PROCESSOR_DNS_STREAMING_KEY, "true");
+        jobContext.getProps().addAdditionalProps(streamingProps);
+        MultithreadedDnsProcessor processor = new MultithreadedDnsProcessor();
+        processor.init(jobContext);
+        Assert.assertEquals(file, processor.execute(file));
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.4"), processor.getIpAddress("10.1.2.4"));
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.5"), processor.getIpAddress("10.1.2.5"));
+        processor.close(true);
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), processor.getIpAddress("10.1.2.3"));
+    }
+
+
+    private JobContext createJobContext(boolean reverseDnsLookup) throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> processorProps = new HashMap<String, String>();
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_REVERSE_DNS_LOOKUP_KEY, Boolean.toString(reverseDnsLookup));
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_RESOLVER_KEY, "true");
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_DNS_SERVERS_KEY, "127.0.0.1:" + server.getAddress().getPort());
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_IN_FLIGHT_KEY, "200");
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_TIME_OUT_KEY, "1000");
+        processorProps.put(AppProperties.FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_PER_SECOND_KEY, "0");
+        props.addAdditionalProps(processorProps);
+        return new JobContext(props, null);
+    }
+
+
+    private void writeFile(String content) throws Exception {
+        file = File.createTempFile("megatron-dns-", ".txt");
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Constants.UTF8));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+package se.sitic.megatron.filter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.fileprocessor.OccurrenceCountProcessor;
+import se.sitic.megatron.parser.CsvParser;
+import se.sitic.megatron.parser.IParser;
+import se.sitic.megatron.parser.ParseException;
+import se.sitic.megatron.parser.RegExpParser;
+import se.sitic.megatron.util.Constants;
+
+
+/**
+ * JUnit test.
+ */
+public class OccurrenceFilterTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final int NO_OF_LOG_ENTRIES = 50000;
+    private static final String DRONE_FILE = "test-data/2009-06-08-drone-report-se.log";
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    /**
+     * Compares compact and approximate memory mode with exact mode.
+     */
+    @Test
+    public void compareMemoryModes() throws Exception {
+        LogEntry[] logEntries = createLogEntries(new Random(4711L));
+        boolean[] exact = filter(createFilter("exact", "21-"), logEntries);
+        boolean[] compact = filter(createFilter("compact", "21-"), logEntries);
+        boolean[] approximate = filter(createFilter("approximate", "21-"), logEntries);
+
+        int noOfAccepted = 0;
+        int noOfApproximateAccepted = 0;
+        for (int i = 0; i < logEntries.length; i++) {
+            Assert.assertEquals("Log entry: " + i, exact[i], compact[i]);
+            // estimated count is never too low, i.e. more log entries may be filtered out
+            Assert.assertTrue("Log entry: " + i, exact[i] || !approximate[i]);
+            noOfAccepted += exact[i] ? 1 : 0;
+            noOfApproximateAccepted += approximate[i] ? 1 : 0;
+        }
+        Assert.assertTrue(noOfAccepted < logEntries.length);
+        Assert.assertTrue(noOfApproximateAccepted > 0.95*noOfAccepted);
+    }
+
+
+    /**
+     * Two-pass mode with an unsorted file: all log entries with a value that 
+     * occurs at least 3 times are included. 
+     */
+    @Test
+    public void twoPass() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        assertTwoPass(props);
+    }
+
+
+    /**
+     * Two-pass mode with a CSV parser that reads column names from the
+     * header in the input file.
+     */
+    @Test
+    public void twoPassWithCsvHeader() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> csvProps = new HashMap<String, String>();
+        csvProps.put(AppProperties.PARSER_CLASS_NAME_KEY, CsvParser.class.getName());
+        csvProps.put(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, "");
+        csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + "logTimestamp", "Timestamp");
+        csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + "ipAddress", "Drone");
+        csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + "countryCode2", "C&C Geo");
+        props.addAdditionalProps(csvProps);
+        assertTwoPass(props);
+    }
+
+
+    /**
+     * Two-pass mode with a line filter; filtered lines must not be counted.
+     */
+    @Test
+    public void twoPassWithLineFilter() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> lineFilterProps = new HashMap<String, String>();
+        lineFilterProps.put(AppProperties.FILTER_PRE_PARSER_KEY + ".0", RegExpLineFilter.class.getName());
+        // 3 of 4 lines with countryCode2 "NL"; the remaining line must be filtered out
+        lineFilterProps.put(AppProperties.FILTER_EXCLUDE_REG_EXP_KEY, "Diemen\\.NL");
+        props.addAdditionalProps(lineFilterProps);
+        assertTwoPass(props);
+    }
+
+
+    /**
+     * Two-pass mode with an attribute that is set by a decorator, i.e. is 
+     * empty in the first pass.
+     */
+    @Test
+    public void twoPassWithDecoratorAttribute() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> csvProps = new HashMap<String, String>();
+        csvProps.put(AppProperties.PARSER_CLASS_NAME_KEY, CsvParser.class.getName());
+        csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + "logTimestamp", "Timestamp");
+        csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + "ipAddress", "Drone");
+        // countryCode is set by a decorator (e.g. GeolocationDecorator)
+        csvProps.put(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, "ipAddress,countryCode");
+        csvProps.put(AppProperties.FILTER_OCCURRENCE_INCLUDE_INTERVALS_KEY, "3-");
+        csvProps.put(AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY, "true");
+        props.addAdditionalProps(csvProps);
+        assertTwoPassRejected(props, "countryCode");
+    }
+
+
+    /**
+     * Two-pass mode with a log entry filter before OccurrenceFilter.
+     */
+    @Test
+    public void twoPassWithPreviousFilter() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> filterProps = new HashMap<String, String>();
+        filterProps.put(AppProperties.FILTER_PRE_DECORATOR_KEY + ".0", AttributeFilter.class.getName());
+        filterProps.put(AppProperties.FILTER_PRE_STORAGE_KEY + ".0", OccurrenceFilter.class.getName());
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, "countryCode2");
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_INCLUDE_INTERVALS_KEY, "3-");
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY, "true");
+        props.addAdditionalProps(filterProps);
+        assertTwoPassRejected(props, AttributeFilter.class.getName());
+    }
+
+
+    private void assertTwoPassRejected(TypedProperties props, String expectedInMessage) throws Exception {
+        JobContext jobContext = new JobContext(props, null);
+        OccurrenceCountProcessor processor = new OccurrenceCountProcessor();
+        processor.init(jobContext);
+        try {
+            new OccurrenceFilter().init(jobContext);
+            Assert.fail("Exception expected.");
+        } catch (MegatronException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(expectedInMessage));
+        }
+    }
+
+
+    private void assertTwoPass(TypedProperties props) throws Exception {
+        Map<String, String> filterProps = new HashMap<String, String>();
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, "countryCode2");
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_INCLUDE_INTERVALS_KEY, "3-");
+        filterProps.put(AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY, "true");
+        props.addAdditionalProps(filterProps);
+        // input file is set after file processors are executed
+        JobContext jobContext = new JobContext(props, null);
+        String excludeRegExp = props.getString(AppProperties.FILTER_EXCLUDE_REG_EXP_KEY, null);
+        Pattern excludePattern = (excludeRegExp != null) ? Pattern.compile(excludeRegExp) : null;
+
+        OccurrenceCountProcessor processor = new OccurrenceCountProcessor();
+        processor.init(jobContext);
+        OccurrenceFilter filter = new OccurrenceFilter();
+        filter.init(jobContext);
+        File file = new File(DRONE_FILE);
+        Assert.assertEquals(file, processor.execute(file));
+        processor.close(true);
+
+        // -- parse file and count values
+        JobContext parserContext = new JobContext(props, null);
+        parserContext.setInputFile(file);
+        IParser parser = (IParser)Class.forName(props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName())).newInstance();
+        parser.init(parserContext);
+        List<LogEntry> logEntries = new ArrayList<LogEntry>();
+        Map<String, Integer> countMap = new HashMap<String, Integer>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF8));
+        try {
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                if ((excludePattern != null) && excludePattern.matcher(line).find()) {
+                    continue;
+                }
+                try {
+                    LogEntry logEntry = parser.parse(line);
+                    if (logEntry == null) {
+                        // header skipped by CsvParser
+                        continue;
+                    }
+                    logEntries.add(logEntry);
+                    String value = (logEntry.getCountryCode2() != null) ? logEntry.getCountryCode2() : "";
+                    countMap.put(value, countMap.containsKey(value) ? (countMap.get(value) + 1) : 1);
+                } catch (ParseException e) {
+                    // skip header
+                }
+            }
+        } finally {
+            in.close();
+        }
+        Assert.assertTrue(logEntries.size() > 0);
+
+        int noOfAccepted = 0;
+        for (LogEntry logEntry : logEntries) {
+            String value = (logEntry.getCountryCode2() != null) ? logEntry.getCountryCode2() : "";
+            boolean expected = countMap.get(value) >= 3;
+            Assert.assertEquals("Value: " + value, expected, filter.accept(logEntry));
+            noOfAccepted += expected ? 1 : 0;
+        }
+        filter.close();
+        Assert.assertTrue(noOfAccepted > 0);
+        Assert.assertTrue(noOfAccepted < logEntries.size());
+    }
+
+
+    @Test
+    public void twoPassWithoutProcessor() throws Exception {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, "ipAddress");
+        map.put(AppProperties.FILTER_OCCURRENCE_INCLUDE_INTERVALS_KEY, "11-");
+        map.put(AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY, "true");
+        try {
+            new OccurrenceFilter().init(new JobContext(new TypedProperties(map, null), null));
+            Assert.fail("Two-pass mode without OccurrenceCountProcessor is accepted.");
+        } catch (MegatronException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void invalidMemoryMode() throws Exception {
+        try {
+            createFilter("foo", "21-");
+            Assert.fail("Invalid memory mode is accepted.");
+        } catch (MegatronException e) {
+            // expected
+        }
+    }
+
+
+    private OccurrenceFilter createFilter(String memoryMode, String excludeIntervals) throws MegatronException {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, "ipAddress,port");
+        map.put(AppProperties.FILTER_OCCURRENCE_EXCLUDE_INTERVALS_KEY, excludeIntervals);
+        map.put(AppProperties.FILTER_OCCURRENCE_FILE_SORTED_KEY, "false");
+        map.put(AppProperties.FILTER_OCCURRENCE_MEMORY_MODE_KEY, memoryMode);
+        map.put(AppProperties.FILTER_OCCURRENCE_APPROXIMATE_ERROR_RATE_KEY, "0.0001");
+        OccurrenceFilter result = new OccurrenceFilter();
+        result.init(new JobContext(new TypedProperties(map, null), null));
+        return result;
+    }
+
+
+    private boolean[] filter(OccurrenceFilter filter, LogEntry[] logEntries) throws MegatronException {
+        boolean[] result = new boolean[logEntries.length];
+        for (int i = 0; i < logEntries.length; i++) {
+            result[i] = filter.accept(logEntries[i]);
+        }
+        filter.close();
+        return result;
+    }
+
+
+    private LogEntry[] createLogEntries(Random random) {
+        LogEntry[] result = new LogEntry[NO_OF_LOG_ENTRIES];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LogEntry(Long.valueOf(i));
+            // skewed distribution; some addresses occur many times
+            int ipAddressNo = (int)Math.pow(random.nextInt(1000), 2.0) / 10;
+            result[i].setIpAddress(Long.valueOf(0x0a000000L + ipAddressNo));
+            result[i].setPort(random.nextBoolean() ? null : Integer.valueOf(random.nextInt(3)));
+        }
+        return result;
+    }
+
+}
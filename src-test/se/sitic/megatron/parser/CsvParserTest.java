@@ -0,0 +1,253 @@
+package se.sitic.megatron.parser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.FileUtil;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.TestUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class CsvParserTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String TMP_DIR = "tmp-junit";
+
+    // job type, test file, and columns (variable=header name or column no.)
+    public static final String[][] SHADOWSERVER_JOBS = {
+        { "shadowserver-drone", "test-data/2009-06-08-drone-report-se.log",
+            "logTimestamp=Timestamp,ipAddress=Drone,asn=ASN,countryCode=Geo,hostname=Hostname,additionalItem_rbl=RBL,ipAddress2=C&C,asn2=C&C ASN," +
+            "countryCode2=C&C Geo,hostname2=C&C DNS,port2=C&C Port,additionalItem_infection=Infection" },
+        { "shadowserver-drone2", "test-data/2010-03-02-drone-report2-se.log",
+            "logTimestamp=timestamp,ipAddress=ip,port=port,asn=asn,countryCode=geo,hostname=hostname,additionalItem_infection=infection," +
+            "ipAddress2=cc,port2=cc_port,asn2=cc_asn,countryCode2=cc_geo,hostname2=cc_dns" },
+        { "shadowserver-chargen", "test-data/2014-04-02-chargen-report-se.log",
+            "logTimestamp=1,ipAddress=2,port=4,hostname=5,additionalItem_size=7,asn=8,countryCode=9" },
+        { "shadowserver-netbios", "test-data/2014-04-02-netbios-report-se.log",
+            "logTimestamp=timestamp,ipAddress=ip,port=port,hostname=hostname,asn=asn,countryCode=geo" },
+        { "shadowserver-snmp", "test-data/2014-04-02-snmp-report-se.log",
+            "logTimestamp=timestamp,ipAddress=ip,port=port,hostname=hostname,asn=asn,countryCode=geo" },
+    };
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    @Test
+    public void tokenize() throws Exception {
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put("additionalItem_a", "1");
+        columns.put("additionalItem_b", "2");
+        columns.put("freeText0", "3");
+        CsvParser parser = createParser("shadowserver-drone", columns, null);
+
+        String[][] lines = {
+            // line, a, b, freeText0
+            { "x,y,z", "x", "y", "z" },
+            { "\"x\",\"y\",\"z\"", "x", "y", "z" },
+            { "\"x,1\",\"y\"\"2\"\"\",\"\"\"\"", "x,1", "y\"2\"", "\"" },
+            { "x,,", "x", null, "" },
+            { "x,\"\",z,not,mapped", "x", null, "z" },
+            { ",y,\"\"", null, "y", "" },
+            { "x,y\"z,\"a\"\"b\"", "x", "y\"z", "a\"b" },
+        };
+        for (int i = 0; i < lines.length; i++) {
+            LogEntry logEntry = parser.parse(lines[i][0]);
+            String msg = "Line: " + lines[i][0];
+            Assert.assertEquals(msg, lines[i][1], logEntry.getAdditionalItems().get("a"));
+            Assert.assertEquals(msg, lines[i][2], logEntry.getAdditionalItems().get("b"));
+            Assert.assertEquals(msg, Arrays.asList(lines[i][3]), logEntry.getFreeTexts());
+        }
+
+        String[] invalidLines = { "x,y", "x", "x,\"y,z", "x,\"y\"z,z" };
+        for (int i = 0; i < invalidLines.length; i++) {
+            try {
+                parser.parse(invalidLines[i]);
+                Assert.fail("Line should not be parsed: " + invalidLines[i]);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+
+    @Test
+    public void headerNames() throws Exception {
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put("ipAddress", "Drone");
+        CsvParser parser = createParser("shadowserver-drone", columns, null);
+        try {
+            parser.parse("\"2009-06-08 01:36:06\",\"85.227.202.199\"");
+            Assert.fail("Input file is unknown; header cannot be read.");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+
+        columns.put("ipAddress", "Foo");
+        parser = createParser("shadowserver-drone", columns, new File(SHADOWSERVER_JOBS[0][1]));
+        try {
+            parser.parse("\"2009-06-08 01:36:06\",\"85.227.202.199\"");
+            Assert.fail("Column name does not exist.");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+
+        // quoted header names may contain delimiters and quotes
+        File tmpDir = new File(TMP_DIR);
+        tmpDir.mkdir();
+        File file = new File(tmpDir, "csv-header-test.txt");
+        FileUtil.writeFile(file, "\"Time, UTC\",IP,\"Port \"\"tcp\"\"\"\n\"2009-06-08 01:36:06\",85.227.202.199,80\n", Constants.UTF8);
+        columns.clear();
+        columns.put("additionalItem_time", "Time, UTC");
+        columns.put("ipAddress", "IP");
+        columns.put("port", "Port \"tcp\"");
+        parser = createParser("shadowserver-drone", columns, file);
+        LogEntry logEntry = parser.parse("\"2009-06-08 01:36:06\",85.227.202.199,80");
+        Assert.assertEquals("2009-06-08 01:36:06", logEntry.getAdditionalItems().get("time"));
+        Assert.assertEquals("85.227.202.199", IpAddressUtil.convertIpAddress(logEntry.getIpAddress(), false));
+        Assert.assertEquals(80, logEntry.getPort().intValue());
+
+        FileUtil.writeFile(file, "\"Time, UTC,IP\n", Constants.UTF8);
+        parser = createParser("shadowserver-drone", columns, file);
+        try {
+            parser.parse("\"2009-06-08 01:36:06\",85.227.202.199,80");
+            Assert.fail("Quote is not closed in header.");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void skipHeader() throws Exception {
+        File tmpDir = new File(TMP_DIR);
+        tmpDir.mkdir();
+        File file = new File(tmpDir, "csv-header-test.txt");
+        String header = "Time,IP,Port";
+        FileUtil.writeFile(file, header + "\n2009-06-08 01:36:06,85.227.202.199,80\n", Constants.UTF8);
+
+        // header names; header is skipped by default
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put("ipAddress", "IP");
+        columns.put("port", "Port");
+        CsvParser parser = createParser("shadowserver-drone", columns, file);
+        Assert.assertNull(parser.parse(header));
+        Assert.assertEquals(80, parser.parse("2009-06-08 01:36:06,85.227.202.199,80").getPort().intValue());
+        Assert.assertNull(parser.parse(header));
+
+        // column numbers; header is parsed unless skipHeader is true
+        columns.clear();
+        columns.put("additionalItem_time", "1");
+        columns.put("additionalItem_ip", "2");
+        parser = createParser("shadowserver-drone", columns, file);
+        Assert.assertEquals("Time", parser.parse(header).getAdditionalItems().get("time"));
+        columns.put("ipAddress", "2");
+        columns.remove("additionalItem_ip");
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Map<String, String> csvProps = new HashMap<String, String>();
+        csvProps.put(AppProperties.PARSER_CSV_SKIP_HEADER_KEY, "true");
+        props.addAdditionalProps(csvProps);
+        parser = createParser(props, columns, file);
+        Assert.assertNull(parser.parse(header));
+        Assert.assertEquals("85.227.202.199", IpAddressUtil.convertIpAddress(parser.parse("2009-06-08 01:36:06,85.227.202.199,80").getIpAddress(), false));
+    }
+
+
+    /**
+     * Compares log entries from CsvParser with RegExpParser for shadowserver
+     * test files.
+     */
+    @Test
+    public void compareWithRegExpParser() throws Exception {
+        for (int i = 0; i < SHADOWSERVER_JOBS.length; i++) {
+            TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(SHADOWSERVER_JOBS[i][0]);
+            RegExpParser regExpParser = new RegExpParser();
+            regExpParser.init(new JobContext(props, null));
+            CsvParser csvParser = createParser(SHADOWSERVER_JOBS[i][0], getColumns(SHADOWSERVER_JOBS[i][2]), new File(SHADOWSERVER_JOBS[i][1]));
+
+            List<String> lines = TestUtil.readLines(new File(SHADOWSERVER_JOBS[i][1]), true);
+            int noOfComparedLines = 0;
+            for (int j = 0; j < lines.size(); j++) {
+                LogEntry expected = null;
+                try {
+                    expected = regExpParser.parse(lines.get(j));
+                } catch (MegatronException e) {
+                    // line is not matched by the reg-exp, e.g. filtered by RegExpLineFilter
+                    continue;
+                }
+                LogEntry actual = csvParser.parse(lines.get(j));
+                Assert.assertEquals(SHADOWSERVER_JOBS[i][0] + ": " + lines.get(j), toString(expected), toString(actual));
+                ++noOfComparedLines;
+            }
+            Assert.assertTrue(SHADOWSERVER_JOBS[i][0], noOfComparedLines > 0);
+        }
+    }
+
+
+    public static CsvParser createParser(String jobType, Map<String, String> columns, File inputFile) throws Exception {
+        return createParser(AppProperties.getInstance().createTypedPropertiesForCli(jobType), columns, inputFile);
+    }
+
+
+    public static CsvParser createParser(TypedProperties props, Map<String, String> columns, File inputFile) throws Exception {
+        Map<String, String> csvProps = new HashMap<String, String>();
+        csvProps.put(AppProperties.PARSER_CLASS_NAME_KEY, CsvParser.class.getName());
+        // quotes are handled by the CSV parser
+        csvProps.put(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, "");
+        for (String variable : columns.keySet()) {
+            csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + variable, columns.get(variable));
+        }
+        props.addAdditionalProps(csvProps);
+        JobContext jobContext = new JobContext(props, null);
+        jobContext.setInputFile(inputFile);
+        CsvParser result = new CsvParser();
+        result.init(jobContext);
+        return result;
+    }
+
+
+    public static Map<String, String> getColumns(String columnsStr) {
+        Map<String, String> result = new HashMap<String, String>();
+        String[] columns = columnsStr.split(",");
+        for (int i = 0; i < columns.length; i++) {
+            String[] nameValue = columns[i].split("=");
+            result.put(nameValue[0], nameValue[1]);
+        }
+        return result;
+    }
+
+
+    private String toString(LogEntry logEntry) {
+        StringBuilder result = new StringBuilder(256);
+        result.append(logEntry.getLogTimestamp()).append("|").append(logEntry.getUrl()).append("|");
+        result.append(logEntry.getIpAddress()).append("|").append(logEntry.getHostname()).append("|").append(logEntry.getPort()).append("|");
+        result.append(logEntry.getAsn()).append("|").append(logEntry.getCountryCode()).append("|");
+        result.append(logEntry.getIpAddress2()).append("|").append(logEntry.getHostname2()).append("|").append(logEntry.getPort2()).append("|");
+        result.append(logEntry.getAsn2()).append("|").append(logEntry.getCountryCode2()).append("|");
+        result.append(new java.util.TreeMap<String, String>(logEntry.getAdditionalItems())).append("|").append(logEntry.getFreeTexts());
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,199 @@
+package se.sitic.megatron.parser;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.StringUtil;
+import se.sitic.megatron.util.TestUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class JsonLinesParserTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    public static final String CHARGEN_JOB_TYPE = "shadowserver-chargen";
+    public static final String CHARGEN_FILENAME = "test-data/2014-04-02-chargen-report-se.log";
+    public static final String CHARGEN_PATHS = "logTimestamp=timestamp,ipAddress=ip,port=port,hostname=hostname,additionalItem_size=size,asn=asn,countryCode=geo";
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    @Test
+    public void parsePaths() throws Exception {
+        JsonLinesParser parser = createParser("ipAddress=src.ip,port=src.port,asn=asn,hostname=names.1,additionalItem_flag=flag," +
+                "additionalItem_obj=obj,additionalItem_missing=foo.bar,freeText0=text");
+        String line = " { \"skip\": {\"src\": {\"ip\": \"1.1.1.1\"}, \"a\": [1, {\"b\": \"}\"}]}, \"src\" : { \"port\" : 53, \"ip\" : \"10.1.2.3\" }, " +
+                "\"names\": [\"a.se\", \"b\\\"\\u00e5\\n.se\"], \"asn\": null, \"flag\": true, \"obj\": {\"x\": [1,2]}, \"text\": \"\" } ";
+        LogEntry logEntry = parser.parse(line);
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), logEntry.getIpAddress().longValue());
+        Assert.assertEquals(53, logEntry.getPort().intValue());
+        Assert.assertNull(logEntry.getAsn());
+        Assert.assertEquals("b\"\u00e5\n.se", logEntry.getHostname());
+        Assert.assertEquals("true", logEntry.getAdditionalItems().get("flag"));
+        Assert.assertEquals("{\"x\": [1,2]}", logEntry.getAdditionalItems().get("obj"));
+        Assert.assertFalse(logEntry.getAdditionalItems().containsKey("missing"));
+        Assert.assertEquals(Arrays.asList(""), logEntry.getFreeTexts());
+
+        // buffers are reused; values from previous line must not remain
+        logEntry = parser.parse("{\"src\": {\"ip\": \"10.1.2.4\"}}");
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.4"), logEntry.getIpAddress().longValue());
+        Assert.assertNull(logEntry.getPort());
+        Assert.assertNull(logEntry.getHostname());
+        Assert.assertEquals(0, logEntry.getAdditionalItems().size());
+        Assert.assertEquals(0, logEntry.getFreeTexts().size());
+
+        String[] invalidLines = { "", "[1]", "{\"src\": {\"ip\": \"10.1.2.3\"}", "{\"asn\" 1}", "{\"asn\": 1,}", "{\"text\": \"abc}", "{\"text\": \"\\x\"}",
+                "{\"asn\": 1} x", "{asn: 1}" };
+        for (int i = 0; i < invalidLines.length; i++) {
+            try {
+                parser.parse(invalidLines[i]);
+                Assert.fail("Line should not be parsed: " + invalidLines[i]);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+
+    @Test
+    public void stopWhenAllValuesFound() throws Exception {
+        JsonLinesParser parser = createParser("ipAddress=ip,asn=asn");
+        // rest of line is not scanned
+        LogEntry logEntry = parser.parse("{\"asn\": 1, \"ip\": \"10.1.2.3\", \"foo\": [invalid");
+        Assert.assertEquals(1L, logEntry.getAsn().longValue());
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), logEntry.getIpAddress().longValue());
+    }
+
+
+    @Test
+    public void duplicateNames() throws Exception {
+        // first value is used, whether or not scanning stops early
+        JsonLinesParser parser = createParser("ipAddress=ip,asn=asn");
+        LogEntry logEntry = parser.parse("{\"asn\": 1, \"asn\": 2, \"ip\": \"10.1.2.3\", \"ip\": \"10.1.2.4\"}");
+        Assert.assertEquals(1L, logEntry.getAsn().longValue());
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), logEntry.getIpAddress().longValue());
+
+        parser = createParser("ipAddress=ip,asn=asn,port=port");
+        logEntry = parser.parse("{\"asn\": 1, \"asn\": 2, \"ip\": \"10.1.2.3\", \"ip\": \"10.1.2.4\", \"asn\": 3}");
+        Assert.assertEquals(1L, logEntry.getAsn().longValue());
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), logEntry.getIpAddress().longValue());
+        Assert.assertNull(logEntry.getPort());
+
+        parser = createParser("ipAddress=src.ip,port=src.port,asn=asn");
+        logEntry = parser.parse("{\"src\": {\"ip\": \"10.1.2.3\"}, \"src\": {\"ip\": \"10.1.2.4\", \"port\": 53}, \"asn\": 1}");
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), logEntry.getIpAddress().longValue());
+        Assert.assertEquals(53, logEntry.getPort().intValue());
+    }
+
+
+    @Test
+    public void maxDepth() throws Exception {
+        JsonLinesParser parser = createParser("ipAddress=ip,asn=asn");
+        StringBuilder line = new StringBuilder("{\"x\": ");
+        for (int i = 0; i < 62; i++) {
+            line.append((i % 2 == 0) ? "[" : "{\"y\": ");
+        }
+        line.append("1");
+        for (int i = 61; i >= 0; i--) {
+            line.append((i % 2 == 0) ? "]" : "}");
+        }
+        line.append(", \"ip\": \"10.1.2.3\"}");
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("10.1.2.3"), parser.parse(line.toString()).getIpAddress().longValue());
+
+        // deep nesting must not give a StackOverflowError
+        String[] invalidLines = { "{\"x\": " + StringUtil.nCopyString("[", 100000), "{\"x\": [" + line + "]}" };
+        for (int i = 0; i < invalidLines.length; i++) {
+            try {
+                parser.parse(invalidLines[i]);
+                Assert.fail("Line should not be parsed: " + invalidLines[i].substring(0, 20));
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+
+    /**
+     * Converts the chargen test file to JSON lines, and compares log entries
+     * with RegExpParser.
+     */
+    @Test
+    public void compareWithRegExpParser() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(CHARGEN_JOB_TYPE);
+        RegExpParser regExpParser = new RegExpParser();
+        regExpParser.init(new JobContext(props, null));
+        JsonLinesParser jsonParser = createParser(CHARGEN_PATHS);
+
+        List<String> lines = TestUtil.readLines(new File(CHARGEN_FILENAME), false);
+        String[] header = lines.get(0).replace("\"", "").split(",");
+        List<String> csvLines = lines.subList(1, lines.size());
+        for (int i = 0; i < csvLines.size(); i++) {
+            String jsonLine = toJson(header, csvLines.get(i));
+            Assert.assertEquals(jsonLine, toString(regExpParser.parse(csvLines.get(i))), toString(jsonParser.parse(jsonLine)));
+        }
+    }
+
+
+    public static JsonLinesParser createParser(String pathsStr) throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(CHARGEN_JOB_TYPE);
+        Map<String, String> jsonProps = new HashMap<String, String>();
+        jsonProps.put(AppProperties.PARSER_CLASS_NAME_KEY, JsonLinesParser.class.getName());
+        jsonProps.put(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, "");
+        String[] paths = pathsStr.split(",");
+        for (int i = 0; i < paths.length; i++) {
+            String[] nameValue = paths[i].split("=");
+            jsonProps.put(AppProperties.PARSER_JSON_PATH_PREFIX + nameValue[0], nameValue[1]);
+        }
+        props.addAdditionalProps(jsonProps);
+        JsonLinesParser result = new JsonLinesParser();
+        result.init(new JobContext(props, null));
+        return result;
+    }
+
+
+    /**
+     * Converts a CSV line without delimiters in values to a JSON object.
+     */
+    public static String toJson(String[] header, String csvLine) {
+        String[] values = csvLine.split(",", -1);
+        StringBuilder result = new StringBuilder(256);
+        result.append("{");
+        for (int i = 0; i < header.length; i++) {
+            result.append((i > 0) ? ", " : "").append("\"").append(header[i]).append("\": ");
+            result.append((values[i].length() > 0) ? values[i] : "null");
+        }
+        result.append("}");
+        return result.toString();
+    }
+
+
+    private String toString(LogEntry logEntry) {
+        StringBuilder result = new StringBuilder(256);
+        result.append(logEntry.getLogTimestamp()).append("|").append(logEntry.getIpAddress()).append("|").append(logEntry.getHostname()).append("|");
+        result.append(logEntry.getPort()).append("|").append(logEntry.getAsn()).append("|").append(logEntry.getCountryCode()).append("|");
+        result.append(new java.util.TreeMap<String, String>(logEntry.getAdditionalItems())).append("|").append(logEntry.getFreeTexts());
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,174 @@
+package se.sitic.megatron.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.TestUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class LiteralPrescreenTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String JOB_TYPE_DIR = "conf/job-type";
+    private static final String TEST_DATA_DIR = "test-data";
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    @Test
+    public void extractLiterals() throws Exception {
+        assertPrescreen("^\"(\\d{4})\",\"(.*?)\",(\\d*)$", "\"", "\",\"", "\",");
+        assertPrescreen("^ab?c", "a", "c");
+        assertPrescreen("a+b{2}c{0,1}d\\.e\\Qx.y\\E", null, "a", "b", "d.ex.y");
+        assertPrescreen("(?:foo|bar)baz", null, "baz");
+        assertPrescreen("x(?=abc)y[a-z,]+(z)?w", null, "x", "y", "w");
+        assertPrescreen("^(\\d+)\\s*\\|\\s*(foo)", null, "|", "foo");
+        assertPrescreen("[]a]\\x41\\u0041b\\p{Alpha}c\\0101d", null, "b", "c", "d");
+
+        String[] noPrescreens = { "foo|bar", "(?i)foo", ".*", "\\d+", "^$", "(a|b)" };
+        for (int i = 0; i < noPrescreens.length; i++) {
+            Assert.assertNull(noPrescreens[i], LiteralPrescreen.create(noPrescreens[i]));
+        }
+    }
+
+
+    /**
+     * Checks that the pre-screen never rejects a line that matches the
+     * expression, using test files for job types and random mutations of
+     * their lines.
+     */
+    @Test
+    public void neverRejectsMatchingLines() throws Exception {
+        Random random = new Random(4711L);
+        int noOfJobTypes = 0;
+        int noOfLines = 0;
+        int noOfUnmatchedLines = 0;
+        int noOfRejectedLines = 0;
+        List<String> jobTypes = getJobTypesWithTestFile();
+        for (int i = 0; i < jobTypes.size(); i += 2) {
+            TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(jobTypes.get(i));
+            String lineRegExp = props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, "");
+            if (lineRegExp.length() == 0) {
+                continue;
+            }
+            Matcher matcher = null;
+            try {
+                matcher = new LineExpression(props, lineRegExp).createRegExp();
+            } catch (InvalidExpressionException e) {
+                continue;
+            }
+            LiteralPrescreen prescreen = LiteralPrescreen.create(matcher.pattern().pattern());
+            if (prescreen == null) {
+                continue;
+            }
+            ++noOfJobTypes;
+            for (String line : TestUtil.readLines(new File(TEST_DATA_DIR, jobTypes.get(i + 1)), false)) {
+                List<String> candidates = new ArrayList<String>();
+                candidates.add(line);
+                for (int j = 0; j < 10; j++) {
+                    candidates.add(mutate(line, random));
+                }
+                for (String candidate : candidates) {
+                    ++noOfLines;
+                    boolean matches = matcher.reset(candidate).find();
+                    boolean accepted = prescreen.accept(candidate);
+                    if (matches) {
+                        Assert.assertTrue(jobTypes.get(i) + ": " + prescreen + ". Line: " + candidate, accepted);
+                    } else {
+                        ++noOfUnmatchedLines;
+                        noOfRejectedLines += accepted ? 0 : 1;
+                    }
+                }
+            }
+        }
+        Assert.assertTrue(noOfJobTypes > 10);
+        Assert.assertTrue(noOfRejectedLines > 0);
+    }
+
+
+    private void assertPrescreen(String regExp, String prefix, String... literals) {
+        // expression must be valid
+        Pattern.compile(regExp);
+        LiteralPrescreen prescreen = LiteralPrescreen.create(regExp);
+        Assert.assertNotNull(regExp, prescreen);
+        Assert.assertEquals(regExp, prefix, prescreen.getPrefix());
+        Assert.assertEquals(regExp, Arrays.asList(literals), Arrays.asList(prescreen.getLiterals()));
+    }
+
+
+    /**
+     * Returns list with job type and test file name (pairs).
+     */
+    private List<String> getJobTypesWithTestFile() throws Exception {
+        List<String> result = new ArrayList<String>();
+        File[] files = new File(JOB_TYPE_DIR).listFiles();
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            BufferedReader in = null;
+            try {
+                in = new BufferedReader(new FileReader(files[i]));
+                String line = null;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("# Test file:")) {
+                        String filename = line.substring("# Test file:".length()).trim().split(" ")[0];
+                        if (new File(TEST_DATA_DIR, filename).isFile()) {
+                            result.add(files[i].getName().replace(".properties", ""));
+                            result.add(filename);
+                        }
+                        break;
+                    }
+                }
+            } finally {
+                try { if (in != null) in.close(); } catch (Exception ignored) {}
+            }
+        }
+        return result;
+    }
+
+
+    private String mutate(String line, Random random) {
+        if (line.length() == 0) {
+            return "x";
+        }
+        StringBuilder result = new StringBuilder(line);
+        int noOfMutations = 1 + random.nextInt(3);
+        for (int i = 0; (i < noOfMutations) && (result.length() > 0); i++) {
+            int index = random.nextInt(result.length());
+            switch (random.nextInt(3)) {
+            case 0:
+                result.deleteCharAt(index);
+                break;
+            case 1:
+                result.insert(index, result.charAt(random.nextInt(result.length())));
+                break;
+            default:
+                result.setCharAt(index, "\",|; .:x0-".charAt(random.nextInt(10)));
+            }
+        }
+        return result.toString();
+    }
+
+}
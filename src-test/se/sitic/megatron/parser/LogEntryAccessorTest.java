@@ -0,0 +1,208 @@
+package se.sitic.megatron.parser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.Contact;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.entity.Organization;
+import se.sitic.megatron.entity.OriginalLogEntry;
+
+
+/**
+ * JUnit test.
+ */
+public class LogEntryAccessorTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String JOB_TYPE_DIR = "conf/job-type";
+    // items in job types, and items added by decorators
+    private static final String[] ITEM_NAMES = { "infection", "rbl", "city", "prioName", "dbId", "x" };
+    private static final String[] EXTRA_ATTRIBUTE_NAMES = { "logEntryid", "created", "originalLogEntry", "organizationName",
+        "organizationEmailAddresses", "organizationName2", "organizationEmailAddresses2", "ipRangeStart", "ipRangeEnd",
+        "additionalItem_infection", "additionalItem_unknown", "additionalItem_", "freeText0", "freeText1", "freeText3", "freeText01",
+        "freeText", "freeTextList", "additionalItemList", "ipAddres", "foo", "" };
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    /**
+     * Compares accessors with the attribute map in LogEntryMapper for all
+     * job types, using random log entries.
+     */
+    @Test
+    public void compareWithLogEntryMapper() throws Exception {
+        Random random = new Random(4711L);
+        List<TypedProperties> propsList = new ArrayList<TypedProperties>();
+        File[] files = new File(JOB_TYPE_DIR).listFiles();
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            propsList.add(AppProperties.getInstance().createTypedPropertiesForCli(files[i].getName().replace(".properties", "")));
+        }
+        propsList.add(createCsvProps("shadowserver-drone", "ipAddress=ip,additionalItem_infection=infection,freeText0=comment"));
+        propsList.add(createCsvProps("shadowserver-drone", "ipAddress=ip,hostname=host"));
+
+        int noOfValues = 0;
+        for (TypedProperties props : propsList) {
+            Set<String> attributeNames = new LinkedHashSet<String>(Arrays.asList(LogEntryMapper.EXPRESSION_VARIABLES));
+            attributeNames.addAll(Arrays.asList(EXTRA_ATTRIBUTE_NAMES));
+            attributeNames.addAll(LineExpression.getAdditionalItemVariables(props));
+            for (int i = 0; i < ITEM_NAMES.length; i++) {
+                attributeNames.add(LogEntryMapper.ADDITIONAL_ITEM_PREFIX + ITEM_NAMES[i]);
+            }
+            Map<String, LogEntryAccessor> accessorMap = new HashMap<String, LogEntryAccessor>();
+            for (int i = 0; i < 50; i++) {
+                LogEntry logEntry = createLogEntry(random);
+                LogEntryMapper mapper = new LogEntryMapper(props, logEntry);
+                for (String attributeName : attributeNames) {
+                    LogEntryAccessor accessor = accessorMap.get(attributeName);
+                    if (accessor == null) {
+                        accessor = LogEntryAccessor.create(props, attributeName);
+                        accessorMap.put(attributeName, accessor);
+                    }
+                    Assert.assertEquals(attributeName, mapper.getAttribute(attributeName), accessor.getValue(logEntry));
+                    ++noOfValues;
+                }
+            }
+        }
+        Assert.assertTrue(noOfValues > 10000);
+    }
+
+
+    @Test
+    public void createAccessors() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        LogEntryAccessor[] accessors = LogEntryAccessor.createAccessors(props, Arrays.asList("ipAddress", "foo", "additionalItem_infection"));
+        Assert.assertEquals(2, accessors.length);
+        Assert.assertEquals("ipAddress", accessors[0].getAttributeName());
+        Assert.assertEquals("additionalItem_infection", accessors[1].getAttributeName());
+        // all attributes are needed for lists
+        Assert.assertNull(LogEntryAccessor.createAccessors(props, Arrays.asList("ipAddress", "freeTextList")));
+        Assert.assertNull(LogEntryAccessor.createAccessors(props, Arrays.asList("additionalItemList")));
+    }
+
+
+    /**
+     * Returns a log entry with random attributes, some null or empty.
+     */
+    public static LogEntry createLogEntry(Random random) {
+        LogEntry result = new LogEntry(Long.valueOf(random.nextInt(1000)));
+        result.setCreated(createLong(random, 1400000000L));
+        result.setLogTimestamp(createLong(random, 1400000000L));
+        result.setIpAddress(createLong(random, 0x100000000L));
+        result.setIpAddress2(createLong(random, 0x100000000L));
+        result.setIpRangeStart(createLong(random, 0x100000000L));
+        result.setIpRangeEnd(createLong(random, 0x100000000L));
+        result.setAsn(createLong(random, 70000L));
+        result.setAsn2(createLong(random, 70000L));
+        result.setPort(random.nextBoolean() ? null : Integer.valueOf(random.nextInt(65536)));
+        result.setPort2(random.nextBoolean() ? null : Integer.valueOf(random.nextInt(65536)));
+        result.setHostname(createString(random, "host.example.com"));
+        result.setHostname2(createString(random, "host2.example.com"));
+        result.setCountryCode(createString(random, "SE"));
+        result.setCountryCode2(createString(random, "US"));
+        result.setUrl(createString(random, "http://example.com/"));
+        if (random.nextBoolean()) {
+            OriginalLogEntry originalLogEntry = new OriginalLogEntry();
+            originalLogEntry.setEntry(createString(random, "original line"));
+            result.setOriginalLogEntry(originalLogEntry);
+        }
+        result.setOrganization(createOrganization(random));
+        result.setOrganization2(createOrganization(random));
+
+        int noOfItems = random.nextInt(4) - 1;
+        if (noOfItems >= 0) {
+            Map<String, String> items = new HashMap<String, String>();
+            for (int i = 0; i < noOfItems; i++) {
+                items.put(ITEM_NAMES[random.nextInt(ITEM_NAMES.length)], createString(random, "value" + i));
+            }
+            result.setAdditionalItems(items);
+        } else {
+            result.setAdditionalItems(null);
+        }
+        int noOfFreeTexts = random.nextInt(4) - 1;
+        if (noOfFreeTexts >= 0) {
+            List<String> freeTexts = new ArrayList<String>();
+            for (int i = 0; i < noOfFreeTexts; i++) {
+                freeTexts.add(random.nextBoolean() ? "" : ("text" + i));
+            }
+            result.setFreeTexts(freeTexts);
+        } else {
+            result.setFreeTexts(null);
+        }
+        return result;
+    }
+
+
+    private static Organization createOrganization(Random random) {
+        if (random.nextBoolean()) {
+            return null;
+        }
+        Organization result = new Organization();
+        result.setName(createString(random, "Org " + random.nextInt(10)));
+        Set<Contact> contacts = new HashSet<Contact>();
+        int noOfContacts = random.nextInt(3);
+        for (int i = 0; i < noOfContacts; i++) {
+            Contact contact = new Contact();
+            contact.setEmailAddress("abuse" + i + "@example.com");
+            contact.setEmailType("To");
+            contact.setEnabled(random.nextBoolean());
+            contacts.add(contact);
+        }
+        result.setContacts(contacts);
+        return result;
+    }
+
+
+    private static Long createLong(Random random, long max) {
+        switch (random.nextInt(5)) {
+        case 0:
+            return null;
+        case 1:
+            return Long.valueOf(random.nextBoolean() ? 0L : -1L);
+        default:
+            return Long.valueOf(1L + (long)(random.nextDouble()*(max - 1L)));
+        }
+    }
+
+
+    private static String createString(Random random, String value) {
+        return (random.nextInt(4) == 0) ? null : value;
+    }
+
+
+    private TypedProperties createCsvProps(String jobType, String columnsStr) throws Exception {
+        TypedProperties result = AppProperties.getInstance().createTypedPropertiesForCli(jobType);
+        Map<String, String> csvProps = new HashMap<String, String>();
+        csvProps.put(AppProperties.PARSER_CLASS_NAME_KEY, CsvParser.class.getName());
+        String[] columns = columnsStr.split(",");
+        for (int i = 0; i < columns.length; i++) {
+            String[] nameValue = columns[i].split("=");
+            csvProps.put(AppProperties.PARSER_CSV_COLUMN_PREFIX + nameValue[0], nameValue[1]);
+        }
+        result.addAdditionalProps(csvProps);
+        return result;
+    }
+
+}
@@ -0,0 +1,150 @@
+package se.sitic.megatron.parser;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.TestUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class RegExpParserTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+
+    // job type and test file (first line is a header)
+    private static final String[][] SHADOWSERVER_JOBS = {
+        { "shadowserver-drone", "test-data/2009-06-08-drone-report-se.log" },
+        { "shadowserver-drone2", "test-data/2010-03-02-drone-report2-se.log" },
+        { "shadowserver-ddos", "test-data/2009-03-23-ddos-report-se.log" },
+        { "shadowserver-chargen", "test-data/2014-04-02-chargen-report-se.log" },
+        { "shadowserver-netbios", "test-data/2014-04-02-netbios-report-se.log" },
+        { "shadowserver-snmp", "test-data/2014-04-02-snmp-report-se.log" },
+    };
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+    }
+
+
+    @Test
+    public void parseShadowserverDrone() throws Exception {
+        RegExpParser parser = createParser("shadowserver-drone");
+        String line = "\"2009-06-08 02:40:57\",\"83.177.123.137\",1257,\"SE\",\"d83-177-123-137.cust.tele2.se\",\"\",\"82.165.104.20\",8560,\"DE\",\"kundenserver.de\",80,\"beagle\"";
+        LogEntry logEntry = parser.parse(line);
+
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("83.177.123.137"), logEntry.getIpAddress().longValue());
+        Assert.assertEquals(1257L, logEntry.getAsn().longValue());
+        Assert.assertEquals("SE", logEntry.getCountryCode());
+        Assert.assertEquals("d83-177-123-137.cust.tele2.se", logEntry.getHostname());
+        Assert.assertEquals(IpAddressUtil.convertIpAddress("82.165.104.20"), logEntry.getIpAddress2().longValue());
+        Assert.assertEquals(8560L, logEntry.getAsn2().longValue());
+        Assert.assertEquals("DE", logEntry.getCountryCode2());
+        Assert.assertEquals("kundenserver.de", logEntry.getHostname2());
+        Assert.assertEquals(80, logEntry.getPort2().intValue());
+        Assert.assertNull(logEntry.getPort());
+        // empty value is treated as NULL
+        Assert.assertEquals("beagle", logEntry.getAdditionalItems().get("infection"));
+        Assert.assertFalse(logEntry.getAdditionalItems().containsKey("rbl"));
+        Assert.assertEquals(0, logEntry.getFreeTexts().size());
+        // time zone is taken from parser.defaultTimeZone (global property)
+        String timeZone = AppProperties.getInstance().getGlobalProperties().getString(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, "");
+        String format = (timeZone.length() > 0) ? "yyyy-MM-dd HH:mm:ssz" : "yyyy-MM-dd HH:mm:ss";
+        long expected = new SimpleDateFormat(format).parse("2009-06-08 02:40:57" + timeZone).getTime() / 1000L;
+        Assert.assertEquals(expected, logEntry.getLogTimestamp().longValue());
+
+        try {
+            parser.parse("\"2009-06-08 02:40:57\",\"83.177.123.137\",1257,\"SE\"");
+            Assert.fail("Line should not match.");
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void parseShadowserverFiles() throws Exception {
+        for (int i = 0; i < SHADOWSERVER_JOBS.length; i++) {
+            RegExpParser parser = createParser(SHADOWSERVER_JOBS[i][0]);
+            List<String> lines = TestUtil.readLines(new File(SHADOWSERVER_JOBS[i][1]), true);
+            for (int j = 0; j < lines.size(); j++) {
+                LogEntry logEntry = parser.parse(lines.get(j));
+                Assert.assertNotNull(SHADOWSERVER_JOBS[i][0], logEntry.getLogTimestamp());
+            }
+        }
+    }
+
+
+    /**
+     * Parses a file with two line formats using parser.lineRegExp.N; the
+     * chargen test file mixed with the same entries in another format.
+     */
+    @Test
+    public void parseMixedFormats() throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-chargen");
+        Map<String, String> lineRegExps = new HashMap<String, String>();
+        lineRegExps.put(AppProperties.PARSER_LINE_REG_EXP_KEY + ".0", props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, ""));
+        lineRegExps.put(AppProperties.PARSER_LINE_REG_EXP_KEY + ".1", "^$logTimestamp ip=$ipAddress port=$port asn=$asn cc=$countryCode$");
+        props.addAdditionalProps(lineRegExps);
+        RegExpParser parser = new RegExpParser();
+        parser.init(new JobContext(props, null));
+        RegExpParser chargenParser = createParser("shadowserver-chargen");
+
+        List<String> lines = TestUtil.readLines(new File("test-data/2014-04-02-chargen-report-se.log"), true);
+        for (int i = 0; i < lines.size(); i++) {
+            LogEntry expected = chargenParser.parse(lines.get(i));
+            LogEntry logEntry = parser.parse(lines.get(i));
+            Assert.assertEquals("0", logEntry.getAdditionalItems().remove(RegExpParser.LINE_REG_EXP_NO_ITEM));
+            Assert.assertEquals(expected.getAdditionalItems(), logEntry.getAdditionalItems());
+            Assert.assertEquals(expected.getLogTimestamp(), logEntry.getLogTimestamp());
+
+            // other format is more common; order of expressions is changed
+            String[] values = lines.get(i).replace("\"", "").split(",", -1);
+            String line = values[0] + " ip=" + values[1] + " port=" + values[3] + " asn=" + values[7] + " cc=" + values[8];
+            for (int j = 0; j < 2; j++) {
+                logEntry = parser.parse(line);
+                Assert.assertEquals("1", logEntry.getAdditionalItems().get(RegExpParser.LINE_REG_EXP_NO_ITEM));
+                Assert.assertEquals(expected.getLogTimestamp(), logEntry.getLogTimestamp());
+                Assert.assertEquals(expected.getIpAddress(), logEntry.getIpAddress());
+                Assert.assertEquals(expected.getPort(), logEntry.getPort());
+                Assert.assertEquals(expected.getAsn(), logEntry.getAsn());
+                Assert.assertEquals(expected.getCountryCode(), logEntry.getCountryCode());
+            }
+        }
+
+        try {
+            parser.parse("# comment");
+            Assert.fail("Line should not match.");
+        } catch (ParseException e) {
+            // expected
+        }
+        parser.close();
+    }
+
+
+    private RegExpParser createParser(String jobType) throws Exception {
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(jobType);
+        RegExpParser result = new RegExpParser();
+        result.init(new JobContext(props, null));
+        return result;
+    }
+
+}
@@ -0,0 +1,167 @@
+package se.sitic.megatron.parser;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ConversionException;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.SqlUtil;
+
+
+/**
+ * JUnit test.
+ */
+public class TimestampParserTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String ISO_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String ISO_T_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+    private static final String[] ZONES = { " UTC", " GMT", " CET", " CEST", " GMT+01:00", " +0100", " EST", " PDT" };
+    private static final String[] DEFAULT_ZONES = { "Europe/Stockholm", "America/New_York", "UTC" };
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+    }
+
+
+    /**
+     * Compares the fast path with SimpleDateFormat for random time-stamps,
+     * including invalid values and values close to daylight saving time
+     * transitions.
+     */
+    @Test
+    public void compareWithSimpleDateFormat() throws Exception {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            Random random = new Random(4711L);
+            for (int i = 0; i < DEFAULT_ZONES.length; i++) {
+                TimeZone.setDefault(TimeZone.getTimeZone(DEFAULT_ZONES[i]));
+                // time zone in local time
+                compare(random, ISO_FORMAT, null, "");
+                compare(random, ISO_T_FORMAT, null, "");
+                // time zone in value
+                for (int j = 0; j < ZONES.length; j++) {
+                    compare(random, ISO_FORMAT + " z", null, ZONES[j]);
+                }
+                // time zone in parser.defaultTimeZone
+                compare(random, ISO_FORMAT, "CET", "");
+                compare(random, ISO_FORMAT, "GMT+01:00", "");
+                compare(random, ISO_T_FORMAT, "CET", "");
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+
+    @Test
+    public void cacheHits() throws Exception {
+        JobContext jobContext = new JobContext(createProps(ISO_FORMAT, null), null);
+        TimestampParser parser = new TimestampParser(jobContext.getProps(), jobContext);
+        long timestamp = parser.parse("2014-04-02 10:11:12");
+        Assert.assertEquals(timestamp, parser.parse("2014-04-02 10:11:12"));
+        Assert.assertEquals(timestamp + 1L, parser.parse("2014-04-02 10:11:13"));
+        Assert.assertEquals(timestamp, parser.parse("2014-04-02 10:11:12"));
+        Assert.assertEquals(4L, jobContext.getNoOfTimestampLookups());
+        Assert.assertEquals(2L, jobContext.getNoOfTimestampCacheHits());
+
+        // errors are not cached
+        for (int i = 0; i < 2; i++) {
+            try {
+                parser.parse("2014-02-30 10:11:12");
+                Assert.fail("Invalid date should not be parsed.");
+            } catch (ConversionException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(2L, jobContext.getNoOfTimestampCacheHits());
+
+        // epoch is not cached
+        jobContext = new JobContext(createProps("epochInSec", null), null);
+        parser = new TimestampParser(jobContext.getProps(), jobContext);
+        Assert.assertEquals(1396433472L, parser.parse("1396433472"));
+        Assert.assertEquals(0L, jobContext.getNoOfTimestampLookups());
+    }
+
+
+    private void compare(Random random, String format, String defaultTimeZone, String zone) throws Exception {
+        TimestampParser parser = new TimestampParser(createProps(format, defaultTimeZone), null);
+        String suffix = (defaultTimeZone != null) ? defaultTimeZone : "";
+        SimpleDateFormat dateFormat = new SimpleDateFormat(format + ((suffix.length() > 0) ? "z" : ""));
+        dateFormat.setLenient(false);
+        char separator = format.startsWith(ISO_T_FORMAT) ? 'T' : ' ';
+
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            values.add(createValue(random, separator) + zone);
+        }
+        // same value twice, and values from the same hour
+        for (int i = 0; i < 1000; i++) {
+            values.add(values.get(random.nextInt(values.size())));
+        }
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            String expected = null;
+            try {
+                expected = "" + SqlUtil.convertTimestampToSec(dateFormat.parse(value + suffix).getTime());
+            } catch (java.text.ParseException e) {
+                expected = "error";
+            }
+            String actual = null;
+            try {
+                actual = "" + parser.parse(value);
+            } catch (ConversionException e) {
+                actual = "error";
+            }
+            Assert.assertEquals(TimeZone.getDefault().getID() + ", " + format + ", " + defaultTimeZone + ": '" + value + "'", expected, actual);
+        }
+    }
+
+
+    /**
+     * Returns a time-stamp, mostly valid, and mostly close to daylight
+     * saving time transitions.
+     */
+    private String createValue(Random random, char separator) {
+        int year = 1965 + random.nextInt(140);
+        int month = (random.nextInt(4) == 0) ? random.nextInt(14) : new int[] { 3, 4, 10, 11 }[random.nextInt(4)];
+        int day = (random.nextInt(10) == 0) ? random.nextInt(33) : (1 + random.nextInt(31));
+        int hour = (random.nextInt(2) == 0) ? random.nextInt(25) : random.nextInt(4);
+        int minute = random.nextInt(61);
+        int second = random.nextInt(61);
+        String result = String.format("%04d-%02d-%02d%c%02d:%02d:%02d", year, month, day, separator, hour, minute, second);
+        if (random.nextInt(50) == 0) {
+            // invalid char, or digit after seconds
+            StringBuilder buf = new StringBuilder(result);
+            int index = random.nextInt(buf.length() + 1);
+            buf.insert(index, "0x- :".charAt(random.nextInt(5)));
+            result = buf.toString();
+        }
+        return result;
+    }
+
+
+    private TypedProperties createProps(String format, String defaultTimeZone) {
+        Map<String, String> propMap = new HashMap<String, String>();
+        propMap.put(AppProperties.PARSER_TIME_STAMP_FORMAT_KEY, format);
+        if (defaultTimeZone != null) {
+            propMap.put(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, defaultTimeZone);
+        }
+        return new TypedProperties(propMap, null);
+    }
+
+}
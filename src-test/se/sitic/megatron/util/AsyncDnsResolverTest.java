@@ -0,0 +1,211 @@
+package se.sitic.megatron.util;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xbill.DNS.Rcode;
+
+
+/**
+ * JUnit test.
+ */
+public class AsyncDnsResolverTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+
+    private LocalDnsServer dnsServer;
+    private AsyncDnsResolver resolver;
+    private Map<Object, AsyncDnsResolver.Query> resultMap;
+    private AsyncDnsResolver.Listener listener;
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        dnsServer = new LocalDnsServer();
+        resultMap = new ConcurrentHashMap<Object, AsyncDnsResolver.Query>();
+        listener = new AsyncDnsResolver.Listener() {
+                @Override
+                public void queryFinished(AsyncDnsResolver.Query query) {
+                    resultMap.put(query.getAttachment(), query);
+                }
+            };
+    }
+
+
+    @After
+    public void cleanUp() throws Exception {
+        if (resolver != null) {
+            resolver.close();
+        }
+        dnsServer.close();
+    }
+
+
+    /**
+     * Many queries with a slow DNS server; queries must be in flight 
+     * concurrently to finish in time. 
+     */
+    @Test
+    public void lookups() throws Exception {
+        final int noOfQueries = 2000;
+        dnsServer.setResponseDelay(50L);
+        resolver = createResolver(2, 200, 2000L, 2, 0);
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < noOfQueries; i++) {
+            long ipAddress = (((i % 2) == 0) ? 0x0a000000L : 0xc0a80000L) + i;
+            resolver.submitReverseLookup(ipAddress, Long.valueOf(ipAddress), listener);
+        }
+        resolver.submitLookup("host-10-1-2-3.example.com", "A", listener);
+        resolver.submitLookup("unknown.example.com", "NXDOMAIN", listener);
+        resolver.flush();
+        long duration = System.currentTimeMillis() - t1;
+
+        Assert.assertEquals(noOfQueries + 2, resultMap.size());
+        for (int i = 0; i < noOfQueries; i++) {
+            long ipAddress = (((i % 2) == 0) ? 0x0a000000L : 0xc0a80000L) + i;
+            AsyncDnsResolver.Query query = resultMap.get(Long.valueOf(ipAddress));
+            Assert.assertFalse(query.isTimedOut());
+            if ((i % 2) == 0) {
+                Assert.assertEquals("host-10-0-" + (i >> 8) + "-" + (i & 0xFF) + ".example.com", query.getHostname());
+                Assert.assertEquals(3600L, query.getTtl());
+            } else {
+                Assert.assertNull(query.getHostname());
+                Assert.assertEquals(Rcode.NXDOMAIN, query.getRcode());
+            }
+        }
+        Assert.assertEquals(0x0a010203L, resultMap.get("A").getIpAddress());
+        Assert.assertEquals(0L, resultMap.get("NXDOMAIN").getIpAddress());
+        Assert.assertEquals(Rcode.NXDOMAIN, resultMap.get("NXDOMAIN").getRcode());
+        // 2000 sequential queries would take 100 s
+        Assert.assertTrue("Duration: " + duration, duration < 10000L);
+        Assert.assertEquals(0L, resolver.getNoOfTimeOuts());
+    }
+
+
+    @Test
+    public void retries() throws Exception {
+        resolver = createResolver(1, 100, 200L, 2, 0);
+        resolver.submitLookup("drophost-10-0-0-1.example.com", "drop", listener);
+        resolver.submitLookup("servfailhost-10-0-0-2.example.com", "servfail", listener);
+        resolver.submitLookup("blackhole.example.com", "blackhole", listener);
+        resolver.flush();
+
+        Assert.assertEquals(0x0a000001L, resultMap.get("drop").getIpAddress());
+        Assert.assertEquals(2, resultMap.get("drop").getNoOfAttempts());
+        Assert.assertEquals(0x0a000002L, resultMap.get("servfail").getIpAddress());
+        Assert.assertEquals(2, resultMap.get("servfail").getNoOfAttempts());
+        Assert.assertTrue(resultMap.get("blackhole").isTimedOut());
+        Assert.assertEquals(-1, resultMap.get("blackhole").getRcode());
+        Assert.assertEquals(3, resultMap.get("blackhole").getNoOfAttempts());
+        Assert.assertEquals(1L, resolver.getNoOfTimeOuts());
+        Assert.assertEquals(7L, dnsServer.getNoOfQueries());
+    }
+
+
+    /**
+     * SERVFAIL is answered and resent before the dropped query times out;
+     * the stale entry of the resent query must not delay the time-out.
+     */
+    @Test
+    public void resentQueryDoesNotDelayTimeOuts() throws Exception {
+        dnsServer.setResponseDelay(500L);
+        resolver = createResolver(1, 100, 1000L, 2, 0);
+        long t1 = System.currentTimeMillis();
+        resolver.submitLookup("servfailhost-10-0-0-2.example.com", "servfail", listener);
+        resolver.submitLookup("drophost-10-0-0-1.example.com", "drop", listener);
+        resolver.flush();
+        long duration = System.currentTimeMillis() - t1;
+
+        Assert.assertEquals(0x0a000002L, resultMap.get("servfail").getIpAddress());
+        Assert.assertEquals(0x0a000001L, resultMap.get("drop").getIpAddress());
+        // drop: time-out after 1000 ms, answer after another 500 ms
+        Assert.assertTrue("Duration: " + duration, duration < 1800L);
+        Assert.assertEquals(4L, dnsServer.getNoOfQueries());
+    }
+
+
+    @Test
+    public void rateLimit() throws Exception {
+        resolver = createResolver(2, 1000, 2000L, 0, 500);
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            resolver.submitReverseLookup(0x0a000000L + i, Integer.valueOf(i), listener);
+        }
+        resolver.flush();
+        long duration = System.currentTimeMillis() - t1;
+        Assert.assertEquals(300, resultMap.size());
+        // 50 queries in first burst, then 500/s
+        Assert.assertTrue("Duration: " + duration, duration >= 400L);
+    }
+
+
+    @Test
+    public void closeWithUnfinishedQueries() throws Exception {
+        resolver = createResolver(1, 100, 60000L, 0, 0);
+        resolver.submitLookup("blackhole.example.com", "blackhole", listener);
+        resolver.close();
+        resolver.flush();
+        Assert.assertTrue(resultMap.get("blackhole").isTimedOut());
+        resolver = null;
+    }
+
+
+    @Test
+    public void failedResolverThread() throws Exception {
+        AsyncDnsResolver.Listener failingListener = new AsyncDnsResolver.Listener() {
+                private boolean failed;
+
+                @Override
+                public void queryFinished(AsyncDnsResolver.Query query) {
+                    if (!failed) {
+                        failed = true;
+                        throw new Error("Test error");
+                    }
+                    resultMap.put(query.getAttachment(), query);
+                }
+            };
+        resolver = createResolver(1, 100, 60000L, 0, 0);
+        resolver.submitLookup("host-10-1-2-3.example.com", "A", failingListener);
+        resolver.submitLookup("blackhole.example.com", "blackhole", failingListener);
+        try {
+            resolver.flush();
+            Assert.fail("Exception expected.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertTrue(resultMap.get("blackhole").isTimedOut());
+        try {
+            resolver.submitLookup("host-10-1-2-4.example.com", "A2", listener);
+            Assert.fail("Exception expected.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void maxQueriesInFlight() throws Exception {
+        try {
+            createResolver(1, 65537, 2000L, 0, 0);
+            Assert.fail("Exception expected.");
+        } catch (IllegalArgumentException e) {
+            // expected; not enough DNS message ids
+        }
+        resolver = createResolver(2, 65537, 2000L, 0, 0);
+    }
+
+
+    private AsyncDnsResolver createResolver(int noOfSockets, int maxQueriesInFlight, long timeOut, int noOfRetries, int maxQueriesPerSecond)
+        throws Exception {
+        return new AsyncDnsResolver(new InetSocketAddress[] { dnsServer.getAddress() }, noOfSockets, maxQueriesInFlight, timeOut, noOfRetries,
+                maxQueriesPerSecond);
+    }
+
+}
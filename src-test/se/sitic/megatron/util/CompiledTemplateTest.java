@@ -0,0 +1,237 @@
+package se.sitic.megatron.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.sitic.megatron.parser.LogEntryMapper;
+
+
+/**
+ * JUnit test.
+ */
+public class CompiledTemplateTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String TEMPLATE_DIR = "conf/template";
+    private static final String ROW_TEMPLATE = "conf/template/export/whois-cymru-verbose_row.txt";
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+    }
+
+
+    @Test
+    public void render() throws Exception {
+        Map<String, String> attrMap = new HashMap<String, String>();
+        attrMap.put("ipAddress", "10.0.0.1");
+        attrMap.put("ipAddress2", "10.0.0.2");
+        attrMap.put("hostname", "<a&b>");
+        attrMap.put("asn", null);
+        attrMap.put("freeText0", "foo");
+        attrMap.put("freeText1", "bar");
+        attrMap.put("additionalItem_b", "2");
+        attrMap.put("additionalItem_a", "1");
+
+        assertRender("10.0.0.1 10.0.0.2 10.0.0.13", "$ipAddress $ipAddress2 $ipAddress3", attrMap, false);
+        assertRender("[10.0.0.1   ][   10.0.0.1]", "[$ipAddress#padRight11][$ipAddress#padLeft11]", attrMap, false);
+        assertRender("$port#padLeft5|", "$port#padLeft5|", attrMap, false);
+        assertRender("&lt;a&amp;b&gt;", "$hostname", attrMap, true);
+        assertRender("<a&b>", "$hostname", attrMap, false);
+        assertRender("asn=.", "asn=$asn.", attrMap, false);
+        assertRender("\"foo\", \"bar\"", "$freeTextList", attrMap, false);
+        assertRender("a=\"1\", b=\"2\"", "$additionalItemList", attrMap, false);
+        assertRender("$ $$ 5$", "$ $$ 5$", attrMap, false);
+        assertRender("", "", attrMap, false);
+    }
+
+
+    /**
+     * Compares with the previous implementation of AppUtil.replaceVariables
+     * for all templates, using random attribute values.
+     */
+    @Test
+    public void compareWithPreviousImplementation() throws Exception {
+        Random random = new Random(4711L);
+        int noOfTemplates = 0;
+        // unresolved variables are logged
+        Level level = Logger.getLogger(CompiledTemplate.class).getLevel();
+        Logger.getLogger(CompiledTemplate.class).setLevel(Level.ERROR);
+        try {
+            for (Iterator<File> iterator = listFiles(new File(TEMPLATE_DIR)).iterator(); iterator.hasNext(); ) {
+                File file = iterator.next();
+                String template = FileUtil.readFile(file, Constants.UTF8);
+                CompiledTemplate compiledTemplate = CompiledTemplate.compile(template, file.getName());
+                ++noOfTemplates;
+                for (int i = 0; i < 20; i++) {
+                    Map<String, String> attrMap = createAttributeMap(random, template);
+                    boolean isXml = random.nextBoolean();
+                    String expected = replaceVariablesPrevious(template, new HashMap<String, String>(attrMap), isXml);
+                    Assert.assertEquals(file.getPath(), expected, compiledTemplate.render(attrMap, isXml));
+                }
+            }
+        } finally {
+            Logger.getLogger(CompiledTemplate.class).setLevel(level);
+        }
+        Assert.assertTrue(noOfTemplates > 50);
+    }
+
+
+    private void assertRender(String expected, String template, Map<String, String> attrMap, boolean isXml) {
+        Assert.assertEquals(template, expected, CompiledTemplate.compile(template, "test").render(attrMap, isXml));
+    }
+
+
+    /**
+     * Returns map with random values for most variables in specified
+     * template. Values do not contain '$'.
+     */
+    private Map<String, String> createAttributeMap(Random random, String template) {
+        Map<String, String> result = new HashMap<String, String>();
+        Matcher matcher = Pattern.compile("\\$([\\w.-]+)").matcher(template);
+        while (matcher.find()) {
+            String name = matcher.group(1);
+            if (random.nextInt(5) != 0) {
+                result.put(name, createValue(random));
+            }
+            // prefix, e.g. "ipRangeStart" for "$ipRangeStart-"
+            if (random.nextInt(3) == 0) {
+                result.put(name.substring(0, 1 + random.nextInt(name.length())), createValue(random));
+            }
+        }
+        result.remove("freeTextList");
+        result.remove("additionalItemList");
+        int noOfFreeTexts = random.nextInt(3);
+        for (int i = 0; i < noOfFreeTexts; i++) {
+            result.put(LogEntryMapper.FREE_TEXT_PREFIX + i, createValue(random));
+        }
+        int noOfItems = random.nextInt(4);
+        for (int i = 0; i < noOfItems; i++) {
+            result.put(LogEntryMapper.ADDITIONAL_ITEM_PREFIX + "item" + random.nextInt(10), createValue(random));
+        }
+        return result;
+    }
+
+
+    private String createValue(Random random) {
+        // starts with a non-name char; otherwise "$$name" may be expanded twice by previous implementation
+        StringBuilder result = new StringBuilder("<");
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            result.append("ab1 .-_#<>&\"".charAt(random.nextInt(12)));
+        }
+        return result.toString();
+    }
+
+
+    private List<File> listFiles(File dir) {
+        List<File> result = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                result.addAll(listFiles(files[i]));
+            } else {
+                result.add(files[i]);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Previous implementation of AppUtil.replaceVariables (log message
+     * removed).
+     */
+    static String replaceVariablesPrevious(String str, Map<String, String> attrMap, boolean isXml) {
+        if ((str.indexOf("#padLeft") != -1) || (str.indexOf("#padRight") != -1)) {
+            String regExp = "\\" + LogEntryMapper.VARIABLE_PREFIX + "(\\w+?)#(padLeft|padRight)(\\d+)";
+            Matcher matcher = Pattern.compile(regExp).matcher(str);
+            while (matcher.find() && (matcher.groupCount() == 3)) {
+                String variable = matcher.group(1);
+                String padType = matcher.group(2);
+                int len = Integer.parseInt(matcher.group(3));
+                String value = attrMap.get(variable);
+                if (value != null) {
+                    if (padType.equals("padLeft")) {
+                        value = StringUtil.leftPad(value, len);
+                    } else if (padType.equals("padRight")) {
+                        value = StringUtil.rightPad(value, len);
+                    }
+                    String key = variable + "#" + padType + len;
+                    attrMap.put(key, value);
+                }
+            }
+        }
+
+        if (str.indexOf(LogEntryMapper.VARIABLE_PREFIX + "freeTextList") != -1) {
+            StringBuilder freeTextListStr = new StringBuilder(128);
+            int freeTextIndex = 0;
+            boolean freeTextFound = true;
+            while (freeTextFound) {
+                String key = LogEntryMapper.FREE_TEXT_PREFIX + (freeTextIndex++);
+                if (attrMap.get(key) != null) {
+                    if (freeTextListStr.length() > 0) {
+                        freeTextListStr.append(", ");
+                    }
+                    freeTextListStr.append('"').append(attrMap.get(key)).append('"');
+                } else {
+                    freeTextFound = false;
+                }
+            }
+            attrMap.put("freeTextList", freeTextListStr.toString());
+        }
+        if (str.indexOf(LogEntryMapper.VARIABLE_PREFIX + "additionalItemList") != -1) {
+            StringBuilder additonalItemListStr = new StringBuilder(128);
+            List<String> keys = new ArrayList<String>(attrMap.keySet());
+            Collections.sort(keys, ObjectStringSorter.createDefaultSorter());
+            for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
+                String key = iterator.next();
+                if (key.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX)) {
+                    if (additonalItemListStr.length() > 0) {
+                        additonalItemListStr.append(", ");
+                    }
+                    String[] headTail = StringUtil.splitHeadTail(key, "_", false);
+                    additonalItemListStr.append(headTail[1]).append("=").append('"').append(attrMap.get(key)).append('"');
+                }
+            }
+            attrMap.put("additionalItemList", additonalItemListStr.toString());
+        }
+
+        List<String> keys = new ArrayList<String>(attrMap.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    return (o1.length() > o2.length()) ? -1 : (o1.length() == o2.length() ? 0 : 1);
+                }
+            });
+
+        String result = str;
+        int indexOfVariable = result.indexOf(LogEntryMapper.VARIABLE_PREFIX);
+        for (Iterator<String> iterator = keys.iterator(); (indexOfVariable != -1) && iterator.hasNext(); ) {
+            String key = iterator.next();
+            String value = isXml ? StringUtil.encodeCharacterEntities(attrMap.get(key)) : attrMap.get(key);
+            value = (value != null) ? value : "";
+            result = StringUtil.replace(result, LogEntryMapper.VARIABLE_PREFIX + key, value);
+            indexOfVariable = result.indexOf(LogEntryMapper.VARIABLE_PREFIX);
+        }
+        return result;
+    }
+
+}
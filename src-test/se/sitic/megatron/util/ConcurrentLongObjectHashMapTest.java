@@ -0,0 +1,78 @@
+package se.sitic.megatron.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+/**
+ * JUnit test.
+ */
+public class ConcurrentLongObjectHashMapTest {
+    private static final int NO_OF_THREADS = 8;
+    private static final int NO_OF_KEYS_PER_THREAD = 50000;
+
+
+    @Test
+    public void compareWithHashMap() throws Exception {
+        Random random = new Random(4711L);
+        ConcurrentLongObjectHashMap<String> map = new ConcurrentLongObjectHashMap<String>(4);
+        Map<Long, String> expectedMap = new HashMap<Long, String>();
+        for (int i = 0; i < 100000; i++) {
+            // few distinct keys in low range to get collisions and repeated keys
+            long key = random.nextBoolean() ? random.nextInt(5000) - 1 : random.nextLong();
+            String value = "value-" + i;
+            Assert.assertEquals(expectedMap.put(key, value), map.put(key, value));
+        }
+
+        Assert.assertEquals(expectedMap.size(), map.size());
+        for (Iterator<Map.Entry<Long, String>> iterator = expectedMap.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Long, String> entry = iterator.next();
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Assert.assertNull(map.get(5000L));
+        Assert.assertFalse(map.containsKey(5000L));
+        Assert.assertTrue(map.getMemoryUsage() > 0L);
+    }
+
+
+    @Test
+    public void concurrentPut() throws Exception {
+        final ConcurrentLongObjectHashMap<String> map = new ConcurrentLongObjectHashMap<String>();
+        Thread[] threads = new Thread[NO_OF_THREADS];
+        for (int i = 0; i < NO_OF_THREADS; i++) {
+            final long firstKey = (long)i*NO_OF_KEYS_PER_THREAD;
+            threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (long key = firstKey; key < firstKey + NO_OF_KEYS_PER_THREAD; key++) {
+                            map.put(key, "host-" + key);
+                            // key written by another thread may or may not exist
+                            map.get(key + NO_OF_KEYS_PER_THREAD);
+                        }
+                    }
+                });
+            threads[i].start();
+        }
+        for (int i = 0; i < NO_OF_THREADS; i++) {
+            threads[i].join();
+        }
+
+        Assert.assertEquals(NO_OF_THREADS*NO_OF_KEYS_PER_THREAD, map.size());
+        for (long key = 0L; key < NO_OF_THREADS*NO_OF_KEYS_PER_THREAD; key++) {
+            Assert.assertEquals("host-" + key, map.get(key));
+        }
+    }
+
+
+    @Test(expected = NullPointerException.class)
+    public void nullValue() throws Exception {
+        new ConcurrentLongObjectHashMap<String>().put(1L, null);
+    }
+
+}
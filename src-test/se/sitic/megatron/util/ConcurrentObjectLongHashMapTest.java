@@ -0,0 +1,70 @@
+package se.sitic.megatron.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+/**
+ * JUnit test.
+ */
+public class ConcurrentObjectLongHashMapTest {
+    private static final int NO_OF_THREADS = 8;
+    private static final int NO_OF_KEYS_PER_THREAD = 20000;
+
+
+    @Test
+    public void compareWithHashMap() throws Exception {
+        Random random = new Random(4711L);
+        ConcurrentObjectLongHashMap<String> map = new ConcurrentObjectLongHashMap<String>(1);
+        Map<String, Long> expectedMap = new HashMap<String, Long>();
+        for (int i = 0; i < 100000; i++) {
+            String key = "host-" + random.nextInt(20000) + ".example.com";
+            long value = random.nextLong();
+            map.put(key, value);
+            expectedMap.put(key, value);
+        }
+
+        Assert.assertEquals(expectedMap.size(), map.size());
+        for (Iterator<Map.Entry<String, Long>> iterator = expectedMap.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Long> entry = iterator.next();
+            Assert.assertEquals(entry.getValue().longValue(), map.get(entry.getKey(), -4711L));
+            Assert.assertTrue(map.containsKey(entry.getKey()));
+        }
+        Assert.assertEquals(-4711L, map.get("unknown.example.com", -4711L));
+        Assert.assertFalse(map.containsKey("unknown.example.com"));
+    }
+
+
+    @Test
+    public void concurrentPut() throws Exception {
+        final ConcurrentObjectLongHashMap<String> map = new ConcurrentObjectLongHashMap<String>();
+        Thread[] threads = new Thread[NO_OF_THREADS];
+        for (int i = 0; i < NO_OF_THREADS; i++) {
+            final int firstKey = i*NO_OF_KEYS_PER_THREAD;
+            threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int key = firstKey; key < firstKey + NO_OF_KEYS_PER_THREAD; key++) {
+                            map.put("host-" + key, key);
+                        }
+                    }
+                });
+            threads[i].start();
+        }
+        for (int i = 0; i < NO_OF_THREADS; i++) {
+            threads[i].join();
+        }
+
+        Assert.assertEquals(NO_OF_THREADS*NO_OF_KEYS_PER_THREAD, map.size());
+        for (int key = 0; key < NO_OF_THREADS*NO_OF_KEYS_PER_THREAD; key++) {
+            Assert.assertEquals(key, map.get("host-" + key, -1L));
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package se.sitic.megatron.util;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.PropertyConfigurator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * JUnit test.
+ */
+public class DnsCacheTest {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+
+    private File file;
+
+
+    @Before
+    public void init() throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        file = File.createTempFile("megatron-dns-cache-", ".txt");
+        file.delete();
+    }
+
+
+    @After
+    public void cleanUp() throws Exception {
+        file.delete();
+    }
+
+
+    @Test
+    public void getAndPut() throws Exception {
+        DnsCache cache = new DnsCache(file, 1000, 3600L, 600L);
+        Assert.assertTrue(cache.isEnabled());
+        Assert.assertNull(cache.getHostname(1L));
+        Assert.assertNull(cache.getIpAddress("www.example.com"));
+
+        cache.putHostname(1L, "host-1.example.com", 300L);
+        cache.putHostname(2L, null, -1L);
+        cache.putIpAddress("www.example.com", 4711L, -1L);
+        cache.putIpAddress("unknown.example.com", 0L, -1L);
+        Assert.assertEquals("host-1.example.com", cache.getHostname(1L));
+        Assert.assertEquals("", cache.getHostname(2L));
+        Assert.assertEquals(4711L, cache.getIpAddress("www.example.com").longValue());
+        Assert.assertEquals(0L, cache.getIpAddress("unknown.example.com").longValue());
+        Assert.assertEquals(4L, cache.getNoOfHits());
+        Assert.assertEquals(2L, cache.getNoOfMisses());
+
+        // TTL 0 expires directly, and tab cannot be written to file
+        cache.putHostname(3L, "host-3.example.com", 0L);
+        cache.putIpAddress("bad\thostname", 4711L, -1L);
+        Assert.assertNull(cache.getHostname(3L));
+        Assert.assertNull(cache.getIpAddress("bad\thostname"));
+        cache.close();
+    }
+
+
+    @Test
+    public void persistence() throws Exception {
+        DnsCache cache = new DnsCache(file, 1000, 3600L, 600L);
+        cache.putHostname(1L, "host-1.example.com", 300L);
+        cache.putHostname(2L, "", -1L);
+        cache.putHostname(3L, "host-3.example.com", 0L);
+        cache.putIpAddress("www.example.com", 4711L, -1L);
+        cache.putIpAddress("www.example.com", 4712L, -1L);
+        cache.close();
+        Assert.assertEquals(5, FileUtil.readFile(file, Constants.UTF8).split("\n").length);
+
+        // expired entry and overwritten entry are not read
+        cache = new DnsCache(file, 1000, 3600L, 600L);
+        Assert.assertEquals("host-1.example.com", cache.getHostname(1L));
+        Assert.assertEquals("", cache.getHostname(2L));
+        Assert.assertNull(cache.getHostname(3L));
+        Assert.assertEquals(4712L, cache.getIpAddress("www.example.com").longValue());
+        cache.close();
+    }
+
+
+    @Test
+    public void compaction() throws Exception {
+        DnsCache cache = new DnsCache(file, 1000, 3600L, 600L);
+        for (int i = 0; i < 100; i++) {
+            cache.putHostname(1L, "host-" + i + ".example.com", -1L);
+        }
+        cache.putHostname(2L, "host-2.example.com", -1L);
+        cache.close();
+
+        cache = new DnsCache(file, 1000, 3600L, 600L);
+        cache.close();
+        Assert.assertEquals(2, FileUtil.readFile(file, Constants.UTF8).split("\n").length);
+        cache = new DnsCache(file, 1000, 3600L, 600L);
+        Assert.assertEquals("host-99.example.com", cache.getHostname(1L));
+        Assert.assertEquals("host-2.example.com", cache.getHostname(2L));
+        cache.close();
+    }
+
+
+    @Test
+    public void eviction() throws Exception {
+        DnsCache cache = new DnsCache(file, 10, 3600L, 600L);
+        for (long i = 1L; i <= 20L; i++) {
+            cache.putHostname(i, "host-" + i + ".example.com", -1L);
+            // keep first entry recently used
+            Assert.assertNotNull(cache.getHostname(1L));
+        }
+        Assert.assertEquals("host-1.example.com", cache.getHostname(1L));
+        Assert.assertNull(cache.getHostname(2L));
+        Assert.assertNull(cache.getHostname(11L));
+        Assert.assertEquals("host-20.example.com", cache.getHostname(20L));
+        cache.close();
+    }
+
+
+    @Test
+    public void disabled() throws Exception {
+        DnsCache cache = new DnsCache(null, 1000, 3600L, 600L);
+        Assert.assertFalse(cache.isEnabled());
+        cache.putHostname(1L, "host-1.example.com", -1L);
+        Assert.assertNull(cache.getHostname(1L));
+        cache.close();
+    }
+
+}
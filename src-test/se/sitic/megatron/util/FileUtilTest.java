@@ -1,6 +1,11 @@
 package se.sitic.megatron.util;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -29,4 +34,106 @@ public class FileUtilTest {
         Assert.assertEquals(writeContent, readContent);
     }
     
+    
+    @Test
+    public void countLinesAndHash() throws Exception {
+        File tmpDir = new File(TMP_DIR);
+        tmpDir.mkdir();
+
+        // CR+LF split at read buffer boundary (64 KB)
+        StringBuilder boundary = new StringBuilder();
+        for (int i = 0; i < (64*1024 - 1); i++) {
+            boundary.append((i % 80) == 79 ? '\n' : 'x');
+        }
+        boundary.append("\r\nlast line");
+
+        String[] contents = { "", "one", "one\n", "one\ntwo\n\nfour", "one\r\ntwo\r\n", "one\rtwo\rthree\r", 
+                "one\r\rthree\n\r\n", "\n\n\r\n", boundary.toString() };
+        String[] charSets = { Constants.ISO8859, Constants.UTF8, "UTF-16" };
+        for (int i = 0; i < contents.length; i++) {
+            for (int j = 0; j < charSets.length; j++) {
+                File file = new File(tmpDir, "count-lines-" + i + "-" + charSets[j] + ".txt");
+                FileUtil.writeFile(file, contents[i], charSets[j]);
+                long expectedNoOfLines = countLinesWithReader(file, charSets[j]);
+                String msg = "Content #" + i + " (" + charSets[j] + ")";
+                Assert.assertEquals(msg, expectedNoOfLines, FileUtil.countLines(file, charSets[j]));
+
+                FileUtil.FileSummary fileSummary = FileUtil.summarizeFile(file, charSets[j]);
+                Assert.assertEquals(msg, expectedNoOfLines, fileSummary.getNoOfLines());
+                Assert.assertEquals(msg, FileUtil.hashFile(file), fileSummary.getHash());
+                Assert.assertEquals(msg, file.length(), fileSummary.getSize());
+            }
+        }
+    }
+
+
+    @Test
+    public void splitFile() throws Exception {
+        File tmpDir = new File(TMP_DIR);
+        tmpDir.mkdir();
+
+        String[] contents = { "one\ntwo\nthree\nfour\nfive\nsix\n", "one\r\ntwo\r\nthree\r\nfour\r\nfive\r\nsix", 
+                "one\rtwo\r\rfour\nfive\r\n\r\n", "a\nb", "\n\n\n\n\n\n\n\n\n", "one line only" };
+        String[] charSets = { Constants.ISO8859, Constants.UTF8 };
+        for (int i = 0; i < contents.length; i++) {
+            for (int j = 0; j < charSets.length; j++) {
+                File file = new File(tmpDir, "split-file-" + i + "-" + charSets[j] + ".txt");
+                FileUtil.writeFile(file, contents[i], charSets[j]);
+                List<String> expectedLines = readLines(file, charSets[j], 0L, file.length());
+                for (int noOfChunks = 1; noOfChunks <= 5; noOfChunks++) {
+                    String msg = "Content #" + i + " (" + charSets[j] + "), chunks: " + noOfChunks;
+                    long[] offsets = FileUtil.splitFile(file, charSets[j], noOfChunks);
+                    Assert.assertNotNull(msg, offsets);
+                    Assert.assertTrue(msg, offsets.length <= (noOfChunks + 1));
+                    Assert.assertEquals(msg, 0L, offsets[0]);
+                    Assert.assertEquals(msg, file.length(), offsets[offsets.length - 1]);
+                    List<String> lines = new ArrayList<String>();
+                    for (int k = 0; k < (offsets.length - 1); k++) {
+                        Assert.assertTrue(msg, offsets[k] < offsets[k + 1]);
+                        lines.addAll(readLines(file, charSets[j], offsets[k], offsets[k + 1]));
+                    }
+                    Assert.assertEquals(msg, expectedLines, lines);
+                }
+            }
+        }
+
+        // line breaks are not single bytes
+        File file = new File(tmpDir, "split-file-utf16.txt");
+        FileUtil.writeFile(file, contents[0], "UTF-16");
+        Assert.assertNull(FileUtil.splitFile(file, "UTF-16", 2));
+    }
+
+    
+    private List<String> readLines(File file, String charSet, long start, long end) throws Exception {
+        List<String> result = new ArrayList<String>();
+        BufferedReader in = null;
+        try {
+            FileInputStream fileIn = new FileInputStream(file);
+            fileIn.getChannel().position(start);
+            in = new BufferedReader(new InputStreamReader(FileUtil.createRangeInputStream(fileIn, end - start), charSet));
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                result.add(line);
+            }
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+        return result;
+    }
+    
+    
+    private long countLinesWithReader(File file, String charSet) throws Exception {
+        long result = 0L;
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), charSet));
+            while (in.readLine() != null) {
+                ++result;
+            }
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+        return result;
+    }
+    
 }
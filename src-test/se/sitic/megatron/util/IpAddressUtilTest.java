@@ -6,6 +6,9 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.Assert;
 
@@ -769,6 +772,116 @@ public class IpAddressUtilTest {
     }
 
     
+    /**
+     * Compares parseIpAddress/convertIpAddress(String) with the previous 
+     * implementation (split and Integer.parseInt) for random strings.
+     */
+    @Test
+    public void fuzzConvertIpAddressFromString() throws Exception {
+        Random random = new Random(4711L);
+        String chars = "0123456789...  +-x\u0661\t";
+        for (int i = 0; i < 200000; i++) {
+            String str = null;
+            if ((i % 2) == 0) {
+                // mutated valid address
+                StringBuilder buf = new StringBuilder(IpAddressUtil.appendIpAddress(new StringBuilder(), random.nextLong() & 0xFFFFFFFFL));
+                int noOfMutations = random.nextInt(3);
+                for (int j = 0; (j < noOfMutations) && (buf.length() > 0); j++) {
+                    int index = random.nextInt(buf.length());
+                    switch (random.nextInt(3)) {
+                    case 0:
+                        buf.deleteCharAt(index);
+                        break;
+                    case 1:
+                        buf.insert(index, chars.charAt(random.nextInt(chars.length())));
+                        break;
+                    default:
+                        buf.setCharAt(index, chars.charAt(random.nextInt(chars.length())));
+                    }
+                }
+                str = buf.toString();
+            } else {
+                StringBuilder buf = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    buf.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                str = buf.toString();
+            }
+            long expected = legacyConvertIpAddress(str);
+            long actual = -1L;
+            try {
+                actual = IpAddressUtil.convertIpAddress(str);
+            } catch (UnknownHostException e) {
+                // invalid
+            }
+            Assert.assertEquals("'" + str + "'", expected, actual);
+            String padded = "ab" + str + "cd";
+            Assert.assertEquals("'" + str + "'", expected, IpAddressUtil.parseIpAddress(padded, 2, padded.length() - 2));
+        }
+    }
+
+
+    /**
+     * Compares convertIpAddress(long, false) and convertAndMaskIpAddress 
+     * with the previous implementation (InetAddress and reg-exp).
+     */
+    @Test
+    public void fuzzConvertIpAddressToString() throws Exception {
+        Random random = new Random(4711L);
+        long[] limits = { 1L, 255L, 256L, 0xFFFFFFFFL, 0x100000000L, 4311810303L };
+        for (int i = 0; i < 200000; i++) {
+            long ipAddress = (i < limits.length) ? limits[i] : (random.nextLong() & 0xFFFFFFFFL);
+            String expected = InetAddress.getByAddress(new byte[] { (byte)(ipAddress >> 24), (byte)(ipAddress >> 16), (byte)(ipAddress >> 8), 
+                    (byte)ipAddress }).getHostAddress();
+            Assert.assertEquals(expected, IpAddressUtil.convertIpAddress(ipAddress, false));
+            Assert.assertEquals(legacyMaskIpAddress(expected), IpAddressUtil.convertAndMaskIpAddress(ipAddress));
+        }
+        Assert.assertEquals("", IpAddressUtil.convertIpAddress(0L, false));
+        Assert.assertEquals("", IpAddressUtil.convertAndMaskIpAddress(0L));
+        Assert.assertEquals("", IpAddressUtil.convertAndMaskIpAddress(4311810304L));
+        Assert.assertEquals("130.239.x.x", IpAddressUtil.convertAndMaskIpAddress(2196703257L));
+    }
+
+
+    /**
+     * Previous implementation of IpAddressUtil.convertIpAddress(String). 
+     * 
+     * @return IP-address, or -1 if invalid.
+     */
+    static long legacyConvertIpAddress(String ipAddress) {
+        String[] tokens = ipAddress.trim().split("\\.");
+        if ((tokens == null) || (tokens.length != 4)) {
+            return -1L;
+        }
+        long result = 0L;
+        long factor = 1;
+        for (int i = 3; i >= 0; i--) {
+            try {
+                int intToken = Integer.parseInt(tokens[i]);
+                if ((intToken < 0) || (intToken > 255)) {
+                    return -1L;
+                }
+                result += intToken*factor;
+                factor = factor << 8;
+            } catch (NumberFormatException e) {
+                return -1L;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Previous implementation of IpAddressUtil.convertAndMaskIpAddress. 
+     */
+    private String legacyMaskIpAddress(String ipAddress) {
+        Matcher matcher = Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})").matcher(ipAddress);
+        String result = matcher.replaceFirst("$1.$2.x.x");
+        return result.equals(ipAddress) ? "x.x.x.x" : result;
+    }
+
+    
     private String ipRangeToString(long[] ipRange) {
         if ((ipRange == null) || (ipRange.length != 2)) {
             return null;
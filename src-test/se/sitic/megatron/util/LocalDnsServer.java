@@ -0,0 +1,179 @@
+package se.sitic.megatron.util;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+
+/**
+ * Stand-in DNS server for tests, listening on a UDP port on localhost.
+ * Answers are generated from the query name:
+ * <ul>
+ * <li>PTR for 10.b.c.d: "host-10-b-c-d.example.com".
+ * <li>A for "host-a-b-c-d.example.com": a.b.c.d.
+ * <li>Names that start with "drop": first query is not answered.
+ * <li>Names that start with "servfail": first query is answered with SERVFAIL.
+ * <li>Names that start with "blackhole": never answered.
+ * <li>Other names: NXDOMAIN.
+ * </ul>
+ * Responses may be delayed to simulate network latency.
+ */
+public class LocalDnsServer {
+    private static final long TTL = 3600L;
+
+    private DatagramSocket socket;
+    private Thread thread;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+    private volatile long responseDelay;
+    private Map<Name, Integer> queryCountMap = new HashMap<Name, Integer>();
+    private AtomicLong noOfQueries = new AtomicLong();
+
+
+    public LocalDnsServer() throws SocketException {
+        socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket.setReceiveBufferSize(1024*1024);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve();
+                }
+            });
+        thread.setName("LocalDnsServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress)socket.getLocalSocketAddress();
+    }
+
+
+    /**
+     * Sets delay before a response is sent (ms).
+     */
+    public void setResponseDelay(long responseDelay) {
+        this.responseDelay = responseDelay;
+    }
+
+
+    /**
+     * Returns no. of received queries.
+     */
+    public long getNoOfQueries() {
+        return noOfQueries.get();
+    }
+
+
+    public void close() {
+        closed = true;
+        socket.close();
+        scheduler.shutdownNow();
+    }
+
+
+    private void serve() {
+        byte[] buf = new byte[4096];
+        while (!closed) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                socket.receive(packet);
+                noOfQueries.incrementAndGet();
+                byte[] data = new byte[packet.getLength()];
+                System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+                Message response = createResponse(new Message(data));
+                if (response != null) {
+                    send(response.toWire(), packet.getSocketAddress());
+                }
+            } catch (IOException e) {
+                // socket closed, or bad query
+            }
+        }
+    }
+
+
+    private Message createResponse(Message query) throws IOException {
+        Record question = query.getQuestion();
+        Name name = question.getName();
+        String nameStr = name.toString();
+        int queryCount = 0;
+        synchronized (queryCountMap) {
+            Integer count = queryCountMap.get(name);
+            queryCount = (count != null) ? count + 1 : 1;
+            queryCountMap.put(name, queryCount);
+        }
+        if (nameStr.startsWith("blackhole") || (nameStr.startsWith("drop") && (queryCount == 1))) {
+            return null;
+        }
+
+        Message result = new Message(query.getHeader().getID());
+        result.getHeader().setFlag(Flags.QR);
+        result.getHeader().setFlag(Flags.RA);
+        result.addRecord(question, Section.QUESTION);
+        if (nameStr.startsWith("servfail") && (queryCount == 1)) {
+            result.getHeader().setRcode(Rcode.SERVFAIL);
+            return result;
+        }
+        Record answer = null;
+        if ((question.getType() == Type.PTR) && nameStr.endsWith(".10.in-addr.arpa.")) {
+            String[] octets = nameStr.split("\\.");
+            String target = "host-" + octets[3] + "-" + octets[2] + "-" + octets[1] + "-" + octets[0] + ".example.com.";
+            answer = new PTRRecord(name, DClass.IN, TTL, Name.fromString(target));
+        } else if ((question.getType() == Type.A) && nameStr.matches("(drop|servfail)?host-\\d+-\\d+-\\d+-\\d+\\.example\\.com\\.")) {
+            String[] octets = nameStr.substring(nameStr.indexOf("host-") + 5, nameStr.indexOf(".example")).split("-");
+            byte[] address = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                address[i] = (byte)Integer.parseInt(octets[i]);
+            }
+            answer = new ARecord(name, DClass.IN, TTL, InetAddress.getByAddress(address));
+        }
+        if (answer != null) {
+            result.addRecord(answer, Section.ANSWER);
+        } else {
+            result.getHeader().setRcode(Rcode.NXDOMAIN);
+        }
+        return result;
+    }
+
+
+    private void send(final byte[] data, final SocketAddress address) throws IOException {
+        if (responseDelay <= 0L) {
+            socket.send(new DatagramPacket(data, data.length, address));
+            return;
+        }
+        scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        socket.send(new DatagramPacket(data, data.length, address));
+                    } catch (IOException e) {
+                        // socket closed
+                    }
+                }
+            }, responseDelay, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,64 @@
+package se.sitic.megatron.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+/**
+ * JUnit test.
+ */
+public class LongIntHashMapTest {
+
+
+    @Test
+    public void compareWithHashMap() throws Exception {
+        Random random = new Random(4711L);
+        LongIntHashMap map = new LongIntHashMap(0);
+        Map<Long, Integer> expectedMap = new HashMap<Long, Integer>();
+        for (int i = 0; i < 200000; i++) {
+            // few distinct keys in low range to get collisions and repeated keys; 0 and -1 are special
+            long key = random.nextBoolean() ? random.nextInt(5000) - 1 : random.nextLong();
+            if (random.nextInt(10) == 0) {
+                int value = random.nextInt();
+                map.put(key, value);
+                expectedMap.put(key, value);
+            } else {
+                Integer expected = expectedMap.get(key);
+                expected = (expected != null) ? ((expected.intValue() < Integer.MAX_VALUE) ? expected + 1 : expected) : 1;
+                expectedMap.put(key, expected);
+                Assert.assertEquals(expected.intValue(), map.increment(key));
+            }
+        }
+
+        Assert.assertEquals(expectedMap.size(), map.size());
+        for (Iterator<Map.Entry<Long, Integer>> iterator = expectedMap.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Long, Integer> entry = iterator.next();
+            Assert.assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), -4711));
+        }
+        Assert.assertEquals(-4711, map.get(5000L, -4711));
+        Assert.assertTrue(map.size()*4L <= map.getCapacity()*3L);
+        Assert.assertTrue(map.getAverageProbeLength() >= 1.0);
+    }
+
+
+    @Test
+    public void increment() throws Exception {
+        LongIntHashMap map = new LongIntHashMap(10);
+        Assert.assertEquals(1, map.increment(0L));
+        Assert.assertEquals(2, map.increment(0L));
+        Assert.assertEquals(1, map.increment(16L));
+        Assert.assertEquals(1, map.increment(32L));
+        Assert.assertEquals(2, map.increment(32L));
+        map.put(16L, Integer.MAX_VALUE);
+        Assert.assertEquals(Integer.MAX_VALUE, map.increment(16L));
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals(0, map.get(48L, 0));
+    }
+
+}
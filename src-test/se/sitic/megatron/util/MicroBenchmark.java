@@ -0,0 +1,464 @@
+package se.sitic.megatron.util;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.Interval;
+import se.sitic.megatron.core.IntervalIndex;
+import se.sitic.megatron.core.IntervalList;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.db.AsnLookupTable;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.parser.CsvParser;
+import se.sitic.megatron.parser.CsvParserTest;
+import se.sitic.megatron.parser.IParser;
+import se.sitic.megatron.parser.JsonLinesParser;
+import se.sitic.megatron.parser.JsonLinesParserTest;
+import se.sitic.megatron.parser.LineExpression;
+import se.sitic.megatron.parser.LiteralPrescreen;
+import se.sitic.megatron.parser.LogEntryAccessor;
+import se.sitic.megatron.parser.LogEntryAccessorTest;
+import se.sitic.megatron.parser.LogEntryMapper;
+import se.sitic.megatron.parser.RegExpParser;
+import se.sitic.megatron.parser.TimestampParser;
+
+
+/**
+ * Microbenchmarks for the current and previous implementations. Not a JUnit
+ * test; correctness is checked by the JUnit tests, and results are only
+ * printed.
+ * <p>
+ * Usage (from the project directory, with test classes in the classpath):
+ * <pre>
+ * java se.sitic.megatron.util.MicroBenchmark [benchmark...]
+ * </pre>
+ * All benchmarks are run if none is specified.
+ */
+public class MicroBenchmark {
+    private static final String LOG4J_FILENAME = "conf/dev/log4j.properties";
+    private static final String[] BENCHMARKS = { "intervalIndex", "asnLookupTable", "csvParser", "jsonLinesParser", "literalPrescreen",
+        "logEntryAccessor", "timestampParser", "compiledTemplate", "ipAddress" };
+    private static final String ROW_TEMPLATE = "conf/template/export/whois-cymru-verbose_row.txt";
+
+
+    public static void main(String[] args) throws Exception {
+        PropertyConfigurator.configure(LOG4J_FILENAME);
+        System.setProperty("megatron.configfile", "conf/dev/megatron-globals.properties");
+        AppProperties.getInstance().init(new String[0]);
+        // parser statements are logged at debug level
+        Logger.getRootLogger().setLevel(Level.INFO);
+
+        List<String> benchmarks = (args.length > 0) ? Arrays.asList(args) : Arrays.asList(BENCHMARKS);
+        for (String benchmark : benchmarks) {
+            if (!Arrays.asList(BENCHMARKS).contains(benchmark)) {
+                System.err.println("Unknown benchmark: " + benchmark + ". Benchmarks: " + Arrays.asList(BENCHMARKS));
+                System.exit(1);
+            }
+        }
+        MicroBenchmark microBenchmark = new MicroBenchmark();
+        for (String benchmark : benchmarks) {
+            System.out.println("-- " + benchmark);
+            Method method = MicroBenchmark.class.getDeclaredMethod(benchmark);
+            try {
+                method.invoke(microBenchmark);
+            } catch (InvocationTargetException e) {
+                throw (Exception)e.getCause();
+            }
+        }
+    }
+
+
+    /**
+     * IntervalList compared with IntervalIndex (100 000 IP ranges).
+     */
+    void intervalIndex() {
+        final int noOfRanges = 100000;
+        final int noOfLookups = 10000;
+
+        Random random = new Random(42L);
+        long[] starts = new long[noOfRanges];
+        long[] ends = new long[noOfRanges];
+        int[] values = new int[noOfRanges];
+        IntervalList intervalList = new IntervalList();
+        for (int i = 0; i < noOfRanges; i++) {
+            starts[i] = random.nextInt() & 0xFFFFFFFFL;
+            ends[i] = starts[i] + random.nextInt(4096);
+            values[i] = i;
+            intervalList.add(new Interval(starts[i], ends[i]));
+        }
+        long[] ipAddresses = new long[noOfLookups];
+        for (int i = 0; i < noOfLookups; i++) {
+            // every other lookup is a hit
+            ipAddresses[i] = ((i % 2) == 0) ? (starts[random.nextInt(noOfRanges)] + 1L) : (random.nextInt() & 0xFFFFFFFFL);
+        }
+
+        long t1 = System.nanoTime();
+        IntervalIndex index = new IntervalIndex(starts, ends, values);
+        long t2 = System.nanoTime();
+        intervalList.sort();
+        int noOfHits = 0;
+        for (int i = 0; i < noOfLookups; i++) {
+            noOfHits += (intervalList.findFirstInterval(ipAddresses[i]) != null) ? 1 : 0;
+        }
+        long t3 = System.nanoTime();
+        for (int i = 0; i < noOfLookups; i++) {
+            noOfHits -= (index.findFirstIndex(ipAddresses[i]) != -1) ? 1 : 0;
+        }
+        long t4 = System.nanoTime();
+        check(noOfHits == 0, "IntervalList and IntervalIndex differ");
+        System.out.println("IntervalIndex created: " + ((t2 - t1) / 1000000L) + " ms. Lookups: IntervalList " + perSecond(noOfLookups, t3 - t2) +
+                "/s, IntervalIndex " + perSecond(noOfLookups, t4 - t3) + "/s");
+    }
+
+
+    /**
+     * AsnLookupTable with 900 000 prefixes: creation, snapshot mapping, and
+     * lookups.
+     */
+    void asnLookupTable() throws Exception {
+        Random random = new Random(42L);
+        int size = 900000;
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        long[] asns = new long[size];
+        for (int i = 0; i < size; i++) {
+            int mask = (i % 10 == 0) ? (8 + random.nextInt(16)) : 24;
+            long ipAddress = (random.nextInt() & 0xFFFFFFFFL) & (0xFFFFFFFFL << (32 - mask));
+            starts[i] = ipAddress;
+            ends[i] = ipAddress + (1L << (32 - mask)) - 1L;
+            asns[i] = 1 + random.nextInt(65000);
+        }
+        long t1 = System.nanoTime();
+        AsnLookupTable table = new AsnLookupTable(starts, ends, asns, size);
+        long t2 = System.nanoTime();
+        System.out.println("Table created: " + ((t2 - t1) / 1000000L) + " ms. Segments: " + table.size() +
+                ", memory usage: " + (table.getMemoryUsage() / 1024L) + " KB.");
+
+        File file = File.createTempFile("bgp-snapshot-benchmark", ".dat");
+        try {
+            table.writeSnapshot(file);
+            t1 = System.nanoTime();
+            AsnLookupTable.readSnapshot(file);
+            System.out.println("Snapshot mapped: " + ((System.nanoTime() - t1) / 1000000L) + " ms.");
+        } finally {
+            file.delete();
+        }
+
+        int noOfLookups = 10000000;
+        long noOfHits = 0L;
+        t1 = System.nanoTime();
+        for (int i = 0; i < noOfLookups; i++) {
+            noOfHits += (table.searchAsn(random.nextInt() & 0xFFFFFFFFL) != -1L) ? 1 : 0;
+        }
+        long duration = System.nanoTime() - t1;
+        System.out.println("Lookups: " + noOfLookups + " (" + noOfHits + " hits), " + perSecond(noOfLookups, duration) + "/s");
+    }
+
+
+    /**
+     * RegExpParser compared with CsvParser for shadowserver test files.
+     */
+    void csvParser() throws Exception {
+        final int noOfLines = 50000;
+        String[][] jobs = CsvParserTest.SHADOWSERVER_JOBS;
+        for (int i = 0; i < jobs.length; i++) {
+            TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(jobs[i][0]);
+            RegExpParser regExpParser = new RegExpParser();
+            regExpParser.init(new JobContext(props, null));
+            CsvParser csvParser = CsvParserTest.createParser(jobs[i][0], CsvParserTest.getColumns(jobs[i][2]), new File(jobs[i][1]));
+            List<String> lines = new ArrayList<String>();
+            for (String line : TestUtil.readLines(new File(jobs[i][1]), true)) {
+                try {
+                    regExpParser.parse(line);
+                    lines.add(line);
+                } catch (MegatronException e) {
+                    // skip, e.g. filtered by RegExpLineFilter
+                }
+            }
+
+            long regExpLinesPerSec = linesPerSecond(regExpParser, lines, noOfLines);
+            long csvLinesPerSec = linesPerSecond(csvParser, lines, noOfLines);
+            System.out.println(jobs[i][0] + ": RegExpParser " + regExpLinesPerSec + " lines/s, CsvParser " + csvLinesPerSec + " lines/s (" +
+                    String.format("%.1f", (double)csvLinesPerSec / Math.max(regExpLinesPerSec, 1L)) + "x)");
+        }
+    }
+
+
+    /**
+     * RegExpParser compared with JsonLinesParser for the chargen test file
+     * converted to JSON lines.
+     */
+    void jsonLinesParser() throws Exception {
+        final int noOfLines = 50000;
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli(JsonLinesParserTest.CHARGEN_JOB_TYPE);
+        RegExpParser regExpParser = new RegExpParser();
+        regExpParser.init(new JobContext(props, null));
+        JsonLinesParser jsonParser = JsonLinesParserTest.createParser(JsonLinesParserTest.CHARGEN_PATHS);
+
+        List<String> lines = TestUtil.readLines(new File(JsonLinesParserTest.CHARGEN_FILENAME), false);
+        String[] header = lines.get(0).replace("\"", "").split(",");
+        List<String> csvLines = lines.subList(1, lines.size());
+        List<String> jsonLines = new ArrayList<String>();
+        for (int i = 0; i < csvLines.size(); i++) {
+            jsonLines.add(JsonLinesParserTest.toJson(header, csvLines.get(i)));
+        }
+
+        long regExpLinesPerSec = linesPerSecond(regExpParser, csvLines, noOfLines);
+        long jsonLinesPerSec = linesPerSecond(jsonParser, jsonLines, noOfLines);
+        System.out.println(JsonLinesParserTest.CHARGEN_JOB_TYPE + ": RegExpParser " + regExpLinesPerSec + " lines/s, JsonLinesParser " +
+                jsonLinesPerSec + " lines/s");
+    }
+
+
+    /**
+     * Unmatched lines with and without LiteralPrescreen.
+     */
+    void literalPrescreen() throws Exception {
+        final int noOfLines = 50000;
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Matcher matcher = new LineExpression(props, props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, "")).createRegExp();
+        LiteralPrescreen prescreen = LiteralPrescreen.create(matcher.pattern().pattern());
+        // header, comment, and lines from another feed
+        List<String> lines = new ArrayList<String>();
+        lines.add("\"Timestamp\",\"Drone\",\"ASN\",\"Geo\",\"Hostname\",\"RBL\",\"C&C\",\"C&C ASN\",\"C&C Geo\",\"C&C DNS\",\"C&C Port\",\"Infection\"");
+        lines.add("# Report generated 2009-06-08. Contact: abuse@example.com");
+        lines.addAll(TestUtil.readLines(new File("test-data/2014-04-02-snmp-report-se.log"), false));
+
+        for (int i = 0; i < 2; i++) {
+            // first round is warm-up
+            long t1 = System.nanoTime();
+            int noOfMatches = 0;
+            for (int j = 0; j < noOfLines; j++) {
+                noOfMatches += matcher.reset(lines.get(j % lines.size())).find() ? 1 : 0;
+            }
+            long t2 = System.nanoTime();
+            for (int j = 0; j < noOfLines; j++) {
+                String line = lines.get(j % lines.size());
+                noOfMatches += (prescreen.accept(line) && matcher.reset(line).find()) ? 1 : 0;
+            }
+            long t3 = System.nanoTime();
+            check(noOfMatches == 0, "Line matched");
+            if (i > 0) {
+                System.out.println("Unmatched lines: reg-exp " + perSecond(noOfLines, t2 - t1) + " lines/s, pre-screen + reg-exp " +
+                        perSecond(noOfLines, t3 - t2) + " lines/s");
+            }
+        }
+    }
+
+
+    /**
+     * An attribute read by LogEntryMapper compared with LogEntryAccessor.
+     */
+    void logEntryAccessor() throws Exception {
+        final int noOfLogEntries = 20000;
+        TypedProperties props = AppProperties.getInstance().createTypedPropertiesForCli("shadowserver-drone");
+        Random random = new Random(4711L);
+        LogEntry[] logEntries = new LogEntry[100];
+        for (int i = 0; i < logEntries.length; i++) {
+            logEntries[i] = LogEntryAccessorTest.createLogEntry(random);
+        }
+        LogEntryAccessor accessor = LogEntryAccessor.create(props, "ipAddress");
+
+        for (int i = 0; i < 2; i++) {
+            long length = 0L;
+            long t1 = System.nanoTime();
+            for (int j = 0; j < noOfLogEntries; j++) {
+                length += new LogEntryMapper(props, logEntries[j % logEntries.length]).getAttribute("ipAddress").length();
+            }
+            long t2 = System.nanoTime();
+            for (int j = 0; j < noOfLogEntries; j++) {
+                length -= accessor.getValue(logEntries[j % logEntries.length]).length();
+            }
+            long t3 = System.nanoTime();
+            check(length == 0L, "LogEntryMapper and accessor differ");
+            if (i > 0) {
+                System.out.println("Attribute lookup: LogEntryMapper " + perSecond(noOfLogEntries, t2 - t1) + " entries/s, accessor " +
+                        perSecond(noOfLogEntries, t3 - t2) + " entries/s");
+            }
+        }
+    }
+
+
+    /**
+     * SimpleDateFormat compared with TimestampParser for unique time-stamps
+     * (fast path) and repeated time-stamps (cache hits).
+     */
+    void timestampParser() throws Exception {
+        final int noOfValues = 200000;
+        final String format = "yyyy-MM-dd HH:mm:ss";
+        Map<String, String> propMap = new HashMap<String, String>();
+        propMap.put(AppProperties.PARSER_TIME_STAMP_FORMAT_KEY, format);
+        propMap.put(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, "CET");
+        TimestampParser parser = new TimestampParser(new TypedProperties(propMap, null), null);
+        SimpleDateFormat dateFormat = new SimpleDateFormat(format + "z");
+        dateFormat.setLenient(false);
+        String[] values = new String[noOfValues];
+        SimpleDateFormat formatter = new SimpleDateFormat(format);
+        formatter.setTimeZone(TimeZone.getTimeZone("CET"));
+        for (int i = 0; i < noOfValues; i++) {
+            values[i] = formatter.format(new Date(1396400000000L + i*1000L));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            long sum = 0L;
+            long t1 = System.nanoTime();
+            for (int j = 0; j < noOfValues; j++) {
+                sum += SqlUtil.convertTimestampToSec(dateFormat.parse(values[j] + "CET").getTime());
+            }
+            long t2 = System.nanoTime();
+            for (int j = 0; j < noOfValues; j++) {
+                sum -= parser.parse(values[j]);
+            }
+            long t3 = System.nanoTime();
+            for (int j = 0; j < noOfValues; j++) {
+                // 10 lines per time-stamp
+                parser.parse(values[j / 10]);
+            }
+            long t4 = System.nanoTime();
+            check(sum == 0L, "SimpleDateFormat and TimestampParser differ");
+            if (i > 0) {
+                System.out.println("Time-stamps: SimpleDateFormat " + perSecond(noOfValues, t2 - t1) + "/s, fast path " + perSecond(noOfValues, t3 - t2) +
+                        "/s, repeated values " + perSecond(noOfValues, t4 - t3) + "/s");
+            }
+        }
+    }
+
+
+    /**
+     * Previous implementation of AppUtil.replaceVariables compared with
+     * CompiledTemplate.
+     */
+    void compiledTemplate() throws Exception {
+        final int noOfRows = 50000;
+        String template = FileUtil.readFile(new File(ROW_TEMPLATE), Constants.UTF8);
+        CompiledTemplate compiledTemplate = CompiledTemplate.compile(template, ROW_TEMPLATE);
+        Map<String, String> attrMap = new HashMap<String, String>();
+        Matcher matcher = Pattern.compile("\\$(\\w+)").matcher(template);
+        while (matcher.find()) {
+            attrMap.put(matcher.group(1), "value");
+        }
+        for (int i = 0; i < 20; i++) {
+            // log entry has more attributes than the template uses
+            attrMap.put("unused" + i, "<value" + i + ">");
+        }
+        StringBuilder out = new StringBuilder(1024);
+
+        for (int i = 0; i < 2; i++) {
+            long length = 0L;
+            long t1 = System.nanoTime();
+            for (int j = 0; j < noOfRows; j++) {
+                length += CompiledTemplateTest.replaceVariablesPrevious(template, new HashMap<String, String>(attrMap), false).length();
+            }
+            long t2 = System.nanoTime();
+            for (int j = 0; j < noOfRows; j++) {
+                out.setLength(0);
+                compiledTemplate.render(attrMap, false, out);
+                length -= out.length();
+            }
+            long t3 = System.nanoTime();
+            check(length == 0L, "Previous implementation and CompiledTemplate differ");
+            if (i > 0) {
+                System.out.println("Template rows: previous " + perSecond(noOfRows, t2 - t1) + " rows/s, compiled " + perSecond(noOfRows, t3 - t2) + " rows/s");
+            }
+        }
+    }
+
+
+    /**
+     * Previous implementations of IP-address parsing and formatting compared
+     * with IpAddressUtil.
+     */
+    void ipAddress() throws Exception {
+        final int noOfIterations = 1000000;
+        Random random = new Random(4711L);
+        String[] ipAddresses = new String[1024];
+        long[] longIpAddresses = new long[ipAddresses.length];
+        for (int i = 0; i < ipAddresses.length; i++) {
+            longIpAddresses[i] = 1L + (random.nextLong() & 0xFFFFFFFEL);
+            ipAddresses[i] = IpAddressUtil.convertIpAddress(longIpAddresses[i], false);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            // first round is warm-up
+            long sum = 0L;
+            long t1 = System.nanoTime();
+            for (int i = 0; i < noOfIterations; i++) {
+                sum += IpAddressUtilTest.legacyConvertIpAddress(ipAddresses[i & 1023]);
+            }
+            long t2 = System.nanoTime();
+            for (int i = 0; i < noOfIterations; i++) {
+                sum -= IpAddressUtil.convertIpAddress(ipAddresses[i & 1023]);
+            }
+            long t3 = System.nanoTime();
+            for (int i = 0; i < noOfIterations; i++) {
+                sum += InetAddress.getByAddress(new byte[] { (byte)(longIpAddresses[i & 1023] >> 24), (byte)(longIpAddresses[i & 1023] >> 16),
+                        (byte)(longIpAddresses[i & 1023] >> 8), (byte)longIpAddresses[i & 1023] }).getHostAddress().length();
+            }
+            long t4 = System.nanoTime();
+            StringBuilder buf = new StringBuilder(15);
+            for (int i = 0; i < noOfIterations; i++) {
+                buf.setLength(0);
+                sum -= IpAddressUtil.appendIpAddress(buf, longIpAddresses[i & 1023]).length();
+            }
+            long t5 = System.nanoTime();
+            check(sum == 0L, "Previous implementation and IpAddressUtil differ");
+            if (round > 0) {
+                System.out.println("Parse: split/parseInt " + perSecond(noOfIterations, t2 - t1) + "/s, convertIpAddress(String) " +
+                        perSecond(noOfIterations, t3 - t2) + "/s. Format: InetAddress " + perSecond(noOfIterations, t4 - t3) + "/s, appendIpAddress " +
+                        perSecond(noOfIterations, t5 - t4) + "/s");
+            }
+        }
+    }
+
+
+    /**
+     * Parses noOfLines lines (after a warm-up), and returns lines/second.
+     */
+    private long linesPerSecond(IParser parser, List<String> lines, int noOfLines) throws Exception {
+        // warm up
+        for (int i = 0; i < (noOfLines / 10); i++) {
+            parser.parse(lines.get(i % lines.size()));
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < noOfLines; i++) {
+            parser.parse(lines.get(i % lines.size()));
+        }
+        return perSecond(noOfLines, System.nanoTime() - t1);
+    }
+
+
+    private long perSecond(int noOfIterations, long durationNanos) {
+        return (1000000000L*noOfIterations) / Math.max(durationNanos, 1L);
+    }
+
+
+    /**
+     * Results are also compared to keep the JIT from removing the loops.
+     */
+    private void check(boolean condition, String msg) {
+        if (!condition) {
+            throw new IllegalStateException(msg);
+        }
+    }
+
+}
@@ -2,6 +2,8 @@ package se.sitic.megatron.util;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.StringWriter;
+
 import org.junit.Test;
 
 
@@ -73,4 +75,16 @@ public class StringUtilTest {
         assertEquals("", StringUtil.replace("", "Hubba", "X"));
     }
 
+    
+    @Test
+    public void encodeCharacterEntitiesTest() throws Exception {
+        assertEquals("a&lt;b&gt; &amp;&quot;c&quot;'", StringUtil.encodeCharacterEntities("a<b> &\"c\"'"));
+        assertEquals("", StringUtil.encodeCharacterEntities(""));
+        assertEquals(null, StringUtil.encodeCharacterEntities(null));
+        assertEquals("x: &lt;&amp;", StringUtil.appendCharacterEntities(new StringBuilder("x: "), "<&").toString());
+        StringWriter out = new StringWriter();
+        StringUtil.appendCharacterEntities(out, "<&");
+        assertEquals("&lt;&amp;", out.toString());
+    }
+
 }
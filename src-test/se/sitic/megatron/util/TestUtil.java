@@ -0,0 +1,37 @@
+package se.sitic.megatron.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Helper methods shared by tests and MicroBenchmark.
+ */
+public class TestUtil {
+
+
+    private TestUtil() {
+        // empty
+    }
+
+
+    /**
+     * Returns non-empty lines in specified file (UTF-8).
+     *
+     * @param skipHeader skip first line, e.g. a CSV header.
+     */
+    public static List<String> readLines(File file, boolean skipHeader) throws IOException {
+        String content = FileUtil.readFile(file, Constants.UTF8);
+        String[] lines = content.split("\r?\n");
+        List<String> result = new ArrayList<String>(lines.length);
+        for (int i = skipHeader ? 1 : 0; i < lines.length; i++) {
+            if (lines[i].trim().length() > 0) {
+                result.add(lines[i]);
+            }
+        }
+        return result;
+    }
+
+}
@@ -8,6 +8,8 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import se.sitic.megatron.parser.LogEntryAccessor;
+import se.sitic.megatron.util.CompiledTemplate;
 import se.sitic.megatron.util.Constants;
 import se.sitic.megatron.util.DateUtil;
 import se.sitic.megatron.util.FileUtil;
@@ -26,6 +28,10 @@ public abstract class AbstractExporter {
     protected AttributeValueRewriter rewriter;
     
     private Map<File, String> templateFileCache;
+    /** Key: template text. */
+    private Map<String, CompiledTemplate> compiledTemplateCache;
+    /** Value: null if all attributes are used by the template. */
+    private Map<CompiledTemplate, LogEntryAccessor[]> accessorCache;
     
     
     public AbstractExporter(JobContext jobContext) {
@@ -44,6 +50,8 @@ public abstract class AbstractExporter {
         String[] rewriterArray = props.getStringList(AppProperties.EXPORT_REWRITERS_KEY, null);
         rewriter = AttributeValueRewriter.createAttributeValueRewriter(rewriterArray);
         templateFileCache = new HashMap<File, String>();
+        compiledTemplateCache = new HashMap<String, CompiledTemplate>();
+        accessorCache = new HashMap<CompiledTemplate, LogEntryAccessor[]>();
     }
 
     
@@ -86,6 +94,37 @@ public abstract class AbstractExporter {
     }
 
     
+    /**
+     * Returns specified template compiled. Compiled templates are cached.
+     * 
+     * @param template template text, e.g. returned by readTemplate.
+     * @param templateName name used in log messages.
+     */
+    protected CompiledTemplate compileTemplate(String template, String templateName) {
+        CompiledTemplate result = compiledTemplateCache.get(template);
+        if (result == null) {
+            result = CompiledTemplate.compile(template, templateName);
+            compiledTemplateCache.put(template, result);
+        }
+        return result;
+    }
+
+    
+    /**
+     * Returns accessors for the attributes used by specified template, or
+     * null if all attributes are used. Used to create a LogEntryMapper 
+     * with only these attributes. Accessors are cached.
+     */
+    protected LogEntryAccessor[] getAccessors(CompiledTemplate template) {
+        if (accessorCache.containsKey(template)) {
+            return accessorCache.get(template);
+        }
+        LogEntryAccessor[] result = LogEntryAccessor.createAccessors(props, template.getAttributeNames());
+        accessorCache.put(template, result);
+        return result;
+    }
+
+    
     protected void addString(Map<String, String> map, String key, String value) {
         String str = (value != null) ? value : ""; 
         map.put(key, str);
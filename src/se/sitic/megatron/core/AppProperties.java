@@ -56,12 +56,20 @@ public class AppProperties {
     public static final String TIMESTAMP_WARNING_MAX_AGE_KEY = "general.timestampWarning.maxAge";
     public static final String PRINT_PROGRESS_INTERVAL_KEY = "general.printProgressInterval";
     public static final String FILE_ALREADY_PROCESSED_ACTION_KEY = "general.fileAlreadyProcessedAction";
+    public static final String NO_OF_WORKER_THREADS_KEY = "general.noOfWorkerThreads";
+    public static final String PROCESS_FILE_IN_CHUNKS_KEY = "general.processFileInChunks";
     
     // dnsjava
     public static final String DNS_JAVA_USE_DNS_JAVA_KEY = "dnsJava.useDnsJava";
     public static final String DNS_JAVA_USE_SIMPLE_RESOLVER_KEY = "dnsJava.useSimpleResolver";
     public static final String DNS_JAVA_DNS_SERVERS_KEY = "dnsJava.dnsServers";
     public static final String DNS_JAVA_TIME_OUT_KEY = "dnsJava.timeOut";
+
+    // DNS cache
+    public static final String DNS_CACHE_FILE_KEY = "dnsCache.file";
+    public static final String DNS_CACHE_MAX_ENTRIES_KEY = "dnsCache.maxEntries";
+    public static final String DNS_CACHE_DEFAULT_TTL_KEY = "dnsCache.defaultTtl";
+    public static final String DNS_CACHE_NEGATIVE_TTL_KEY = "dnsCache.negativeTtl";
     
     // Database
     public static final String DB_USERNAME_KEY = "db.username";
@@ -71,10 +79,13 @@ public class AppProperties {
     public static final String DB_NAME_KEY = "db.name";
     public static final String JDBC_URL_KEY = "db.jdbc.url";
     public static final String JDBC_DRIVER_CLASS_KEY = "db.jdbc.driverClassName";
+    public static final String DB_LOG_ENTRY_BATCH_SIZE_KEY = "db.logEntryBatchSize";
+    public static final String NO_DB_DATA_FILE_KEY = "db.noDb.dataFile";
 
     // BGP
     public static final String BGP_IMPORT_FILE_KEY = "bgp.importFile";
     public static final String BGP_HARD_CODED_PREFIXES_KEY = "bgp.hardCodedPrefixes";
+    public static final String BGP_SNAPSHOT_FILE_KEY = "bgp.snapshotFile";
     
     // Export
     public static final String EXPORT_TEMPLATE_DIR_KEY = "export.templateDir";
@@ -147,6 +158,9 @@ public class AppProperties {
     public static final String FILTER_OCCURRENCE_EXCLUDE_INTERVALS_KEY = "filter.occurrenceFilter.excludeIntervals";
     public static final String FILTER_OCCURRENCE_INCLUDE_INTERVALS_KEY = "filter.occurrenceFilter.includeIntervals";
     public static final String FILTER_OCCURRENCE_FILE_SORTED_KEY = "filter.occurrenceFilter.fileSorted";
+    public static final String FILTER_OCCURRENCE_MEMORY_MODE_KEY = "filter.occurrenceFilter.memoryMode";
+    public static final String FILTER_OCCURRENCE_APPROXIMATE_ERROR_RATE_KEY = "filter.occurrenceFilter.approximateErrorRate";
+    public static final String FILTER_OCCURRENCE_TWO_PASS_KEY = "filter.occurrenceFilter.twoPass";
     public static final String FILTER_MATCH_IP_ADDRESS_KEY = "filter.organizationFilter.matchIpAddress";
     public static final String FILTER_MATCH_HOSTNAME_KEY = "filter.organizationFilter.matchHostname";
     public static final String FILTER_MATCH_ASN_KEY = "filter.organizationFilter.matchAsn";
@@ -168,6 +182,15 @@ public class AppProperties {
     public static final String FILE_PROCESSOR_DNS_REVERSE_DNS_LOOKUP_KEY = "fileProcessor.multithreadedDnsProcessor.reverseDnsLookup";
     public static final String FILE_PROCESSOR_DNS_REG_EXP_IP_KEY = "fileProcessor.multithreadedDnsProcessor.regExpIp";
     public static final String FILE_PROCESSOR_DNS_REG_EXP_HOSTNAME_KEY = "fileProcessor.multithreadedDnsProcessor.regExpHostname";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_RESOLVER_KEY = "fileProcessor.multithreadedDnsProcessor.asyncResolver";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_DNS_SERVERS_KEY = "fileProcessor.multithreadedDnsProcessor.asyncDnsServers";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_NO_OF_SOCKETS_KEY = "fileProcessor.multithreadedDnsProcessor.asyncNoOfSockets";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_IN_FLIGHT_KEY = "fileProcessor.multithreadedDnsProcessor.asyncMaxQueriesInFlight";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_TIME_OUT_KEY = "fileProcessor.multithreadedDnsProcessor.asyncTimeOut";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_NO_OF_RETRIES_KEY = "fileProcessor.multithreadedDnsProcessor.asyncNoOfRetries";
+    public static final String FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_PER_SECOND_KEY = "fileProcessor.multithreadedDnsProcessor.asyncMaxQueriesPerSecond";
+    public static final String FILE_PROCESSOR_DNS_STREAMING_KEY = "fileProcessor.multithreadedDnsProcessor.streaming";
+    public static final String FILE_PROCESSOR_DNS_STREAMING_WINDOW_KEY = "fileProcessor.multithreadedDnsProcessor.streamingWindow";
     
     // Line Processor
     public static final String LINE_PROCESSOR_CLASS_NAME_KEY = "lineProcessor.className";
@@ -211,6 +234,11 @@ public class AppProperties {
     public static final String PARSER_REWRITERS_KEY = "parser.rewriters";
     public static final String PARSER_REMOVE_TRAILING_SPACES_KEY = "parser.removeTrailingSpaces";
     public static final String PARSER_EXPAND_IP_RANGE_WITH_ZERO_OCTETS_KEY = "parser.expandIpRangeWithZeroOctets";
+    public static final String PARSER_CSV_DELIMITER_KEY = "parser.csv.delimiter";
+    public static final String PARSER_CSV_QUOTE_CHAR_KEY = "parser.csv.quoteChar";
+    public static final String PARSER_CSV_COLUMN_PREFIX = "parser.csv.column.";
+    public static final String PARSER_CSV_SKIP_HEADER_KEY = "parser.csv.skipHeader";
+    public static final String PARSER_JSON_PATH_PREFIX = "parser.json.path.";
     
     // RSS
     public static final String RSS_FACTORY_CLASS_NAME_KEY = "rss.factoryClassName";
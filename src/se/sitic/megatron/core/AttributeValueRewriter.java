@@ -73,26 +73,50 @@ public class AttributeValueRewriter {
         long result = 0L;
         for (Iterator<String> iterator = rewriterMap.keySet().iterator(); iterator.hasNext(); ) {
             String attributeName = iterator.next();
-            Rewriter rewriter = rewriterMap.get(attributeName);
-            if (rewriter != null) {
-                String attributeValue = attributeMap.get(attributeName);
-                if (attributeValue == null) {
-                    continue;
-                }
-                String newValue = rewriter.rewrite(attributeValue);
-                if (!newValue.equals(attributeValue)) {
-                    ++result;
-                    attributeMap.put(attributeName, newValue);
-                    if (log.isDebugEnabled()) {
-                        log.debug(attributeName + " rewritten: '" + attributeValue + "' --> '" + newValue + "'");
-                    }
-                }
+            String attributeValue = attributeMap.get(attributeName);
+            if (attributeValue == null) {
+                continue;
+            }
+            String newValue = rewrite(attributeName, attributeValue);
+            if (newValue != attributeValue) {
+                ++result;
+                attributeMap.put(attributeName, newValue);
             }
         }
         return result;
     }
     
     
+    /**
+     * Returns true if a rewriter is defined for specified attribute.
+     */
+    public boolean isRewritten(String attributeName) {
+        return rewriterMap.containsKey(attributeName);
+    }
+
+    
+    /**
+     * Rewrites specified attribute value if it matches the rewriter regular
+     * expression for the attribute.
+     * 
+     * @return rewritten value, or the same object as attributeValue if not rewritten.
+     */
+    public String rewrite(String attributeName, String attributeValue) {
+        Rewriter rewriter = rewriterMap.get(attributeName);
+        if ((rewriter == null) || (attributeValue == null)) {
+            return attributeValue;
+        }
+        String newValue = rewriter.rewrite(attributeValue);
+        if (newValue.equals(attributeValue)) {
+            return attributeValue;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(attributeName + " rewritten: '" + attributeValue + "' --> '" + newValue + "'");
+        }
+        return newValue;
+    }
+    
+    
     /**
      * Matches an attribute value and rewrites it if match.
      */
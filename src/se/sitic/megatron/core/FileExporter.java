@@ -1,9 +1,12 @@
 package se.sitic.megatron.core;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,8 +16,9 @@ import org.apache.log4j.Logger;
 import se.sitic.megatron.entity.Job;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.parser.LogEntryMapper;
-import se.sitic.megatron.util.AppUtil;
+import se.sitic.megatron.util.CompiledTemplate;
 import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.FileUtil;
 import se.sitic.megatron.util.SqlUtil;
 import se.sitic.megatron.util.StringUtil;
 
@@ -44,6 +48,9 @@ public class FileExporter extends AbstractExporter {
     private String separator;
     private int noOfLogEntriesWritten;
     private BufferedWriter out;
+    private boolean chunkFile;
+    /** Reused for rows that cannot be written directly to the export file. */
+    private StringBuilder rowBuffer;
     
     
     public FileExporter(JobContext jobContext) throws MegatronException {
@@ -87,21 +94,97 @@ public class FileExporter extends AbstractExporter {
             if (headerMap != null) {
                 attrMap.putAll(headerMap);
             }
-            template = AppUtil.replaceVariables(template, attrMap, xmlFormat, templateName);
-            writeString(template);
+            writeString(compileTemplate(template, templateName).render(attrMap, xmlFormat));
         }
     }
 
     
+    /**
+     * Writes log entries to specified file instead of the export file (or 
+     * stdout). Header and footer are not written. Used when chunks of the 
+     * input file are processed in parallel; the chunk file is appended to
+     * the export file by appendChunkFile. 
+     */
+    public void openChunkFile(File file) throws MegatronException {
+        this.file = file;
+        this.chunkFile = true;
+        try {
+            FileUtil.ensureDir(file.getParentFile());
+        } catch (IOException e) {
+            String msg = "Cannot create directory for chunk file: " + file.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        }
+        openFile();
+    }
+
+    
+    /**
+     * Appends log entries written to the chunk file of specified exporter,
+     * which must be closed.
+     */
+    public void appendChunkFile(FileExporter chunkExporter) throws MegatronException {
+        if (chunkExporter.noOfLogEntriesWritten == 0) {
+            return;
+        }
+        
+        if ((separator != null) && (noOfLogEntriesWritten > 0)) {
+            writeString(separator);
+        }
+        BufferedReader in = null;
+        try {
+            String charSet = props.getString(AppProperties.EXPORT_CHAR_SET_KEY, Constants.UTF8);
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(chunkExporter.file), charSet));
+            if (props.isStdout()) {
+                String line = null;
+                while ((line = in.readLine()) != null) {
+                    jobContext.writeToConsole(line);
+                }
+            } else {
+                // variables already replaced in chunk file
+                char[] buffer = new char[16*1024];
+                int len = 0;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+            }
+        } catch (IOException e) {
+            String msg = "Cannot append chunk file to export file: " + chunkExporter.file.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+        noOfLogEntriesWritten += chunkExporter.noOfLogEntriesWritten;
+    }
+
+    
     public void writeLogEntry(LogEntry logEntry) throws MegatronException {
         String template = readTemplate(AppProperties.EXPORT_ROW_FILE_KEY, true);
-        LogEntryMapper mapper = new LogEntryMapper(props, rewriter, logEntry);
         String templateName = props.getString(AppProperties.EXPORT_ROW_FILE_KEY, null);
-        template = mapper.replaceVariables(template, xmlFormat, templateName);
-        if ((separator != null) && (noOfLogEntriesWritten > 0)) {
-            template = separator + template;
+        CompiledTemplate compiledTemplate = compileTemplate(template, templateName);
+        LogEntryMapper mapper = new LogEntryMapper(props, rewriter, logEntry, getAccessors(compiledTemplate));
+        boolean writeSeparator = (separator != null) && (noOfLogEntriesWritten > 0);
+        try {
+            if ((replaceArray == null) && (out != null)) {
+                // render straight into the export file
+                if (writeSeparator) {
+                    out.write(separator);
+                }
+                mapper.replaceVariables(compiledTemplate, xmlFormat, out);
+            } else {
+                if (rowBuffer == null) {
+                    rowBuffer = new StringBuilder(512);
+                }
+                rowBuffer.setLength(0);
+                if (writeSeparator) {
+                    rowBuffer.append(separator);
+                }
+                mapper.replaceVariables(compiledTemplate, xmlFormat, rowBuffer);
+                writeString(rowBuffer.toString());
+            }
+        } catch (IOException e) {
+            String msg = "Cannot write to export file: " + file.getAbsolutePath();
+            throw new MegatronException(msg, e);
         }
-        writeString(template);
         ++noOfLogEntriesWritten;
     }
 
@@ -114,8 +197,7 @@ public class FileExporter extends AbstractExporter {
             if (footerMap != null) {
                 attrMap.putAll(footerMap);
             }
-            template = AppUtil.replaceVariables(template, attrMap, xmlFormat, templateName);
-            writeString(template);
+            writeString(compileTemplate(template, templateName).render(attrMap, xmlFormat));
         }
     }
 
@@ -216,7 +298,7 @@ public class FileExporter extends AbstractExporter {
             }
         }
         
-        if (props.isStdout()) {
+        if (props.isStdout() && !chunkFile) {
             str = StringUtil.removeSuffix(str, Constants.LINE_BREAK);
             jobContext.writeToConsole(str);
         } else {
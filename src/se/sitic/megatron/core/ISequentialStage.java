@@ -0,0 +1,16 @@
+package se.sitic.megatron.core;
+
+
+/**
+ * Marker interface for a component, e.g. a filter or line processor, that 
+ * keeps state between lines, or depends on line numbers, and therefore must 
+ * process lines one at a time in file order.
+ * <p>
+ * When a job is processed by several worker threads, the step that contains 
+ * such a component, and all steps after it, are executed in the sequential 
+ * stage of the pipeline instead of by the workers. A file that is processed 
+ * by such a component is never split in chunks (see JobManager).
+ */
+public interface ISequentialStage {
+    // marker interface
+}
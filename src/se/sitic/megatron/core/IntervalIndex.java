@@ -0,0 +1,199 @@
+package se.sitic.megatron.core;
+
+
+/**
+ * Immutable, sorted index of intervals where each interval has an int value
+ * attached, e.g. an organization id. Intervals are stored in primitive arrays
+ * and lookups are done with binary search, i.e. O(log n).
+ * <p>
+ * Overlapping and nested intervals are supported. A lookup returns the same
+ * interval as IntervalList.findFirstInterval, i.e. the first matching interval
+ * when sorted by start and end (intervals that are equal keeps the order
+ * they were added in). To make binary search possible even if intervals
+ * overlap, the running maximum of the end values is stored for each position.
+ * <p>
+ * This class is thread safe; the index cannot be modified once created.
+ */
+public class IntervalIndex {
+    private final long[] starts;
+    private final long[] ends;
+    /** maxEnds[i] is the largest end value in ends[0..i]. */
+    private final long[] maxEnds;
+    private final int[] values;
+
+
+    /**
+     * Constructor. Specified arrays must be of equal length, and are not
+     * modified.
+     *
+     * @param starts start value for each interval (inclusive).
+     * @param ends end value for each interval (inclusive).
+     * @param values value attached to each interval.
+     */
+    public IntervalIndex(long[] starts, long[] ends, int[] values) {
+        if ((starts.length != ends.length) || (starts.length != values.length)) {
+            throw new IllegalArgumentException("Arrays must be of equal length: " + starts.length + ", " + ends.length + ", " + values.length);
+        }
+
+        int size = starts.length;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sort(order, new int[size], 0, size, starts, ends);
+
+        this.starts = new long[size];
+        this.ends = new long[size];
+        this.maxEnds = new long[size];
+        this.values = new int[size];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int j = order[i];
+            this.starts[i] = starts[j];
+            this.ends[i] = ends[j];
+            this.values[i] = values[j];
+            maxEnd = Math.max(maxEnd, ends[j]);
+            this.maxEnds[i] = maxEnd;
+        }
+    }
+
+
+    /**
+     * Returns position of first interval that contains specified value, or
+     * -1 if not found.
+     */
+    public int findFirstIndex(long val) {
+        return findFirstIndex(val, val);
+    }
+
+
+    /**
+     * Returns position of first interval that overlaps with specified
+     * interval, or -1 if not found.
+     */
+    public int findFirstIndex(long start, long end) {
+        // candidates are intervals that starts before or at end
+        int noOfCandidates = upperBound(end);
+        if ((noOfCandidates == 0) || (maxEnds[noOfCandidates - 1] < start)) {
+            return -1;
+        }
+
+        // maxEnds is sorted; find first position where an interval ends at or after start
+        int low = 0;
+        int high = noOfCandidates - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] >= start) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Returns value for the first interval that contains specified value,
+     * or notFoundValue if not found.
+     */
+    public int findFirstValue(long val, int notFoundValue) {
+        int index = findFirstIndex(val);
+        return (index != -1) ? values[index] : notFoundValue;
+    }
+
+
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+
+    public long getEnd(int index) {
+        return ends[index];
+    }
+
+
+    public int getValue(int index) {
+        return values[index];
+    }
+
+
+    /**
+     * Returns number of intervals.
+     */
+    public int size() {
+        return starts.length;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(32 + 24*starts.length);
+        result.append('[');
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(new Interval(starts[i], ends[i]).toString());
+        }
+        result.append(']');
+        return result.toString();
+    }
+
+
+    /**
+     * Returns number of intervals with a start value less than or equal to
+     * specified value.
+     */
+    private int upperBound(long val) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= val) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Stable merge sort of positions in order[from..to) by start and end
+     * value. A stable sort is used to get the same order as
+     * Collections.sort in IntervalList.
+     */
+    private static void sort(int[] order, int[] buffer, int from, int to, long[] starts, long[] ends) {
+        if ((to - from) <= 1) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(order, buffer, from, mid, starts, ends);
+        sort(order, buffer, mid, to, starts, ends);
+        if (compare(order[mid - 1], order[mid], starts, ends) <= 0) {
+            // already in order
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if ((j >= to) || ((i < mid) && (compare(buffer[i], buffer[j], starts, ends) <= 0))) {
+                order[k] = buffer[i++];
+            } else {
+                order[k] = buffer[j++];
+            }
+        }
+    }
+
+
+    private static int compare(int i, int j, long[] starts, long[] ends) {
+        if (starts[i] != starts[j]) {
+            return (starts[i] < starts[j]) ? -1 : 1;
+        }
+        return (ends[i] < ends[j]) ? -1 : ((ends[i] == ends[j]) ? 0 : 1);
+    }
+
+}
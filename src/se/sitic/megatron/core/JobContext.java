@@ -1,7 +1,9 @@
 package se.sitic.megatron.core;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import se.sitic.megatron.db.DbManager;
 import se.sitic.megatron.entity.Job;
@@ -20,11 +22,22 @@ public class JobContext {
     /** Time job was started (in ms). */
     private long startedTimestamp;
 
+    /** File that is processed line by line, i.e. after file processors have been executed. */
+    private File inputFile;
+
     /** Total number of lines in file. */
     private long noOfLines = -1L;
 
-    /** Line number in file that is currently processing. */
-    private long lineNo = 0L;
+    /** 
+     * Line number in file that is currently processing. Volatile; written by 
+     * one thread (the pipeline reader if pipelined), and read by others, e.g. 
+     * when progress is printed and by the DNS prefetch thread. 
+     */
+    private volatile long lineNo = 0L;
+
+    /** Notified when lineNo reaches lineNoWaitTarget; used by awaitLineNo. */
+    private final Object lineNoMonitor = new Object();
+    private volatile long lineNoWaitTarget = Long.MAX_VALUE;
 
     /** As lineNo, but after optional ILineProcessor-step which merge or split lines. */
     private long lineNoAfterProcessor = 0L;
@@ -35,6 +48,13 @@ public class JobContext {
     /** No. of parse errors. */
     private long noOfParseExceptions = 0L;
 
+    /** No. of lines rejected by a literal pre-screen before the reg-exp was used. Also counted as parse errors. */
+    private long noOfPrescreenRejects = 0L;
+
+    /** No. of time-stamps converted by the parser, and no. of them found in the time-stamp cache. */
+    private long noOfTimestampLookups = 0L;
+    private long noOfTimestampCacheHits = 0L;
+
     /** No. of saved log entries. */
     private long noOfSavedEntries = 0L;
 
@@ -96,6 +116,49 @@ public class JobContext {
 
     public void incLineNo(int incValue) {
         this.lineNo += incValue;
+        if (this.lineNo >= lineNoWaitTarget) {
+            notifyLineNoWaiter();
+        }
+    }
+
+
+    public void setLineNo(long lineNo) {
+        this.lineNo = lineNo;
+        if (lineNo >= lineNoWaitTarget) {
+            notifyLineNoWaiter();
+        }
+    }
+
+
+    /**
+     * Waits until line number is at least specified line number, or until 
+     * time-out. Only one thread at a time may wait, e.g. the DNS prefetch 
+     * thread. 
+     * 
+     * @param timeOut max time to wait (ms).
+     * @return true if line number is reached, false if time-out.
+     */
+    public boolean awaitLineNo(long minLineNo, long timeOut) throws InterruptedException {
+        if (lineNo >= minLineNo) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeOut);
+        synchronized (lineNoMonitor) {
+            // set target before lineNo is checked; a writer that sees the target notifies 
+            lineNoWaitTarget = minLineNo;
+            try {
+                while (lineNo < minLineNo) {
+                    long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0L) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lineNoMonitor, waitNanos);
+                }
+            } finally {
+                lineNoWaitTarget = Long.MAX_VALUE;
+            }
+        }
+        return true;
     }
 
     
@@ -108,6 +171,11 @@ public class JobContext {
         this.lineNoAfterProcessor += incValue;
     }
 
+
+    public void setLineNoAfterProcessor(long lineNoAfterProcessor) {
+        this.lineNoAfterProcessor = lineNoAfterProcessor;
+    }
+
     
     public long getNoOfFilteredLines() {
         return noOfFilteredLines;
@@ -129,6 +197,36 @@ public class JobContext {
     }
 
     
+    public long getNoOfPrescreenRejects() {
+        return noOfPrescreenRejects;
+    }
+
+
+    public void incNoOfPrescreenRejects(int incValue) {
+        this.noOfPrescreenRejects += incValue;
+    }
+
+
+    public long getNoOfTimestampLookups() {
+        return noOfTimestampLookups;
+    }
+
+
+    public void incNoOfTimestampLookups(int incValue) {
+        this.noOfTimestampLookups += incValue;
+    }
+
+
+    public long getNoOfTimestampCacheHits() {
+        return noOfTimestampCacheHits;
+    }
+
+
+    public void incNoOfTimestampCacheHits(int incValue) {
+        this.noOfTimestampCacheHits += incValue;
+    }
+
+
     public long getNoOfSavedEntries() {
         return noOfSavedEntries;
     }
@@ -177,7 +275,58 @@ public class JobContext {
     public void setNoOfLines(long noOfLines) {
         this.noOfLines = noOfLines;
     }
+
+
+    /**
+     * Returns file that is processed line by line, or null if not known. 
+     * Set when the job is created, and updated after file processors have 
+     * been executed.
+     */
+    public File getInputFile() {
+        return inputFile;
+    }
+
+
+    public void setInputFile(File inputFile) {
+        this.inputFile = inputFile;
+    }
+    
+    
+    /**
+     * Creates a context for the same job to be used by a worker thread. 
+     * Properties, job, timestamps, no. of lines, input file, and additional data are 
+     * shared with this context, but counters and db-manager are not.
+     * 
+     * @see #addCounters(JobContext)
+     */
+    public JobContext createChildContext(DbManager childDbManager) {
+        JobContext result = new JobContext(props, job);
+        result.dbManager = childDbManager;
+        result.startedTimestamp = startedTimestamp;
+        result.noOfLines = noOfLines;
+        result.inputFile = inputFile;
+        // decorators read additional data in init, e.g. maps from MultithreadedDnsProcessor
+        result.additionalData = additionalData;
+        return result;
+    }
+
     
+    /**
+     * Adds counters, e.g. no. of filtered lines, from specified context 
+     * (created by createChildContext) to this context. Line numbers are not 
+     * added.
+     */
+    public void addCounters(JobContext childContext) {
+        this.noOfFilteredLines += childContext.noOfFilteredLines;
+        this.noOfParseExceptions += childContext.noOfParseExceptions;
+        this.noOfPrescreenRejects += childContext.noOfPrescreenRejects;
+        this.noOfTimestampLookups += childContext.noOfTimestampLookups;
+        this.noOfTimestampCacheHits += childContext.noOfTimestampCacheHits;
+        this.noOfSavedEntries += childContext.noOfSavedEntries;
+        this.noOfHighPriorityEntries += childContext.noOfHighPriorityEntries;
+        this.noOfExportedEntries += childContext.noOfExportedEntries;
+    }
+
     
     public Object getAdditionalData(String key) {
         if (additionalData == null) {
@@ -195,4 +344,10 @@ public class JobContext {
     }
 
 
+    private void notifyLineNoWaiter() {
+        synchronized (lineNoMonitor) {
+            lineNoMonitor.notifyAll();
+        }
+    }
+
 }
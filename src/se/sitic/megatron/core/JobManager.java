@@ -4,18 +4,33 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import se.sitic.megatron.db.ConnectionPool;
 import se.sitic.megatron.db.DbManager;
+import se.sitic.megatron.db.LogEntryBatchWriter;
+import se.sitic.megatron.db.NoDbManager;
+import se.sitic.megatron.db.SessionFactoryHolder;
 import se.sitic.megatron.decorator.DecoratorManager;
 import se.sitic.megatron.decorator.OrganizationMatcherDecorator;
 import se.sitic.megatron.entity.Job;
@@ -45,6 +60,11 @@ import se.sitic.megatron.util.StringUtil;
 public class JobManager {
     private static final Logger log = Logger.getLogger(JobManager.class);
     private static final int MAX_NO_OF_PARSE_ERROR_TO_CONSOLE = 20;
+    private static final int PIPELINE_BATCH_SIZE = 256;
+    private static final int PIPELINE_MAX_NO_OF_BATCHES_PER_WORKER = 4;
+    private static final long PIPELINE_STOP_TIMEOUT = 30*1000L;
+    private static final PipelineBatch END_BATCH_MARKER = new PipelineBatch(-1L);
+    private static final long CHUNK_MIN_SIZE = 1024*1024L;
     
     private TypedProperties props;
     private JobContext jobContext;
@@ -63,10 +83,36 @@ public class JobManager {
     private DecoratorManager preStorageDecoratorManager;
     private DecoratorManager preExportDecoratorManager;
     private FileExporter fileExporter;
+    private LogEntryBatchWriter logEntryWriter;
     private Long oldestLogTimestamp;
     private long printProgressInterval;
     private long lastProgressPrintTime;
     private long lastProgressPrintLineNo;
+    private FileChannel inputChannel;
+    private long inputFileSize;
+    private List<String> preprocessedLines;
+    
+    // pipelined execution (noOfWorkerThreads > 1)
+    private int noOfWorkerThreads;
+    private int noOfParallelSteps;
+    private List<PipelineWorker> pipelineWorkers;
+    private BlockingQueue<PipelineBatch> pipelineWorkQueue;
+    private BlockingQueue<PipelineBatch> pipelineDoneQueue;
+    private Semaphore pipelineBatchPermits;
+    private CountDownLatch pipelineWorkersFinishedLatch;
+    
+    // chunked execution (processFileInChunks)
+    private boolean processInChunks;
+    private List<JobManager> chunkJobManagers;
+    private volatile boolean chunksAborted;
+    // attributes for a job manager processing a chunk 
+    private JobManager parent;
+    private String chunkName;
+    private long chunkStart;
+    private long chunkEnd;
+    private File exportChunkFile;
+    private volatile boolean chunkFinished;
+    private MegatronException chunkError;
     
     
     /**
@@ -77,6 +123,29 @@ public class JobManager {
     }
     
 
+    /**
+     * Constructor for a job manager that processes a chunk of the file for
+     * specified parent (see processFileInChunks).
+     */
+    private JobManager(JobManager parent, long[] chunkOffsets, int chunkNo) throws MegatronException {
+        this.props = parent.props;
+        this.parent = parent;
+        this.job = parent.job;
+        int noOfChunks = chunkOffsets.length - 1;
+        this.chunkName = "chunk " + (chunkNo + 1) + " of " + noOfChunks;
+        this.chunkStart = chunkOffsets[chunkNo];
+        this.chunkEnd = chunkOffsets[chunkNo + 1];
+        // NoDbManager is read-only when the job is running; other db-managers are bound to a Hibernate session 
+        this.dbManager = props.isNoDb() ? parent.dbManager : DbManager.createDbManager(props);
+        this.jobContext = parent.jobContext.createChildContext(dbManager);
+        // no. of lines in chunk is estimated (used for parse error threshold)
+        long fileSize = chunkOffsets[noOfChunks];
+        this.jobContext.setNoOfLines((fileSize > 0L) ? (parent.jobContext.getNoOfLines()*(chunkEnd - chunkStart)) / fileSize : 0L);
+        String tmpDir = props.getString(AppProperties.TMP_DIR_KEY, "tmp");
+        this.exportChunkFile = new File(tmpDir, job.getName() + "_chunk-" + (chunkNo + 1) + ".tmp");
+    }
+    
+
     /**
      * Process specified file; parses file, filters, decorates, save to db,
      * and export data.
@@ -86,7 +155,8 @@ public class JobManager {
             log.info("Starting job for file: " + file.getAbsolutePath());
             
             // -- init
-            dbManager = DbManager.createDbManager(props);
+            // --no-db: do not touch the database at all 
+            dbManager = props.isNoDb() ? new NoDbManager(props) : DbManager.createDbManager(props);
             jobContext = createJobContext(file);
             job = jobContext.getJob();
             log.info("Job name: " + job.getName()); 
@@ -128,28 +198,27 @@ public class JobManager {
                 long noOfLines = countNoOfLines(file);
                 log.info("File processor executed. No. of lines before and after: " + jobContext.getNoOfLines() + " -- " + noOfLines);
                 jobContext.setNoOfLines(noOfLines);
+                jobContext.setInputFile(file);
             }
             
             // -- process line by line
-            BufferedReader in = null;
             // init attributes for printProgress 
             lastProgressPrintTime = System.currentTimeMillis(); 
             lastProgressPrintLineNo = 0L;
-            try {
-                String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
-                in = new BufferedReader(new InputStreamReader(new FileInputStream(file), charSet));
-                String line = null;
-                while ((line = in.readLine()) != null) {
-                    processLine(line);
-                }
-            } catch (IOException e) {
-                String msg = "Cannot read file: " + file.getAbsolutePath();
-                throw new MegatronException(msg, e);
-            } finally {
-                try { if (in != null) in.close(); } catch (Exception ignored) {}
+            inputFileSize = file.length();
+            chunkEnd = inputFileSize;
+            long[] chunkOffsets = processInChunks ? splitFile(file) : null;
+            if (chunkOffsets != null) {
+                processFileInChunks(file, chunkOffsets);
+            } else {
+                processFile(file);
             }
             
             // -- finishing job
+            if (logEntryWriter != null) {
+                exportLogEntries(logEntryWriter.flush());
+                log.info("Log entries saved. " + logEntryWriter.getStatistics());
+            }
             closeFileProcessors(fileProcessors, true);
             fileProcessors = null;
             
@@ -169,9 +238,8 @@ public class JobManager {
             }
         
             // -- send email if high priority organizations exists
-            OrganizationMatcherDecorator organizationMatcher = preStorageDecoratorManager.getOrganizationMatcher();
-            if (!props.isNoDb() && (organizationMatcher != null)) {
-                List<Organization> organizations = organizationMatcher.getHighPriorityOrganizations();
+            List<Organization> organizations = getHighPriorityOrganizations();
+            if (!props.isNoDb() && (organizations != null)) {
                 if (organizations.size() > 0) {
                     sendNotificationEmail(organizations);    
                 } else {
@@ -199,39 +267,87 @@ public class JobManager {
             throw newException;
         } finally {
             closeFileProcessors(fileProcessors, false);
-            closeLineFilters(preLineProcessorFilters);
-            closeLineFilters(preParserFilters);
-            if (preDecoratorFilterManager != null) preDecoratorFilterManager.closeFilters();
-            if (preStorageFilterManager != null) preStorageFilterManager.closeFilters();
-            if (preExportFilterManager != null) preExportFilterManager.closeFilters();
-            if (preStorageDecoratorManager != null) preStorageDecoratorManager.closeDecorators();
-            if (preExportDecoratorManager != null) preExportDecoratorManager.closeDecorators();
-            try { if (parser != null) parser.close(); } catch (Exception ignored) {}
-            try { if (lineProcessor != null) lineProcessor.close(); } catch (Exception ignored) {}
-            try { if (fileExporter != null) fileExporter.close(); } catch (Exception ignored) {}
+            closeComponents();
             try { dbManager.close(); } catch (Exception ignored) {}
+            SessionFactoryHolder.logPoolStatistics();
         }
     }
 
     
+    /**
+     * Processes input file (or chunk) line by line.
+     */
+    private void processFile(File file) throws MegatronException {
+        BufferedReader in = null;
+        try {
+            String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
+            FileInputStream fileIn = new FileInputStream(file);
+            inputChannel = fileIn.getChannel();
+            InputStream chunkIn = FileUtil.createRangeInputStream(fileIn, chunkEnd - chunkStart);
+            in = new BufferedReader(new InputStreamReader(chunkIn, charSet));
+            inputChannel.position(chunkStart);
+            if (noOfWorkerThreads > 1) {
+                processLinesInPipeline(in, file);
+            } else {
+                String line = null;
+                while ((line = in.readLine()) != null) {
+                    if ((parent != null) && parent.chunksAborted) {
+                        throw new MegatronException("Processing of " + chunkName + " aborted; another chunk failed.");
+                    }
+                    processLine(line);
+                }
+            }
+        } catch (IOException e) {
+            String msg = "Cannot read file: " + file.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+            inputChannel = null;
+        }
+    }
+
+    
+    private void closeComponents() {
+        closeLineFilters(preLineProcessorFilters);
+        closeLineFilters(preParserFilters);
+        if (preDecoratorFilterManager != null) preDecoratorFilterManager.closeFilters();
+        if (preStorageFilterManager != null) preStorageFilterManager.closeFilters();
+        if (preExportFilterManager != null) preExportFilterManager.closeFilters();
+        if (preStorageDecoratorManager != null) preStorageDecoratorManager.closeDecorators();
+        if (preExportDecoratorManager != null) preExportDecoratorManager.closeDecorators();
+        try { if (parser != null) parser.close(); } catch (Exception ignored) {}
+        try { if (lineProcessor != null) lineProcessor.close(); } catch (Exception ignored) {}
+        try { if (fileExporter != null) fileExporter.close(); } catch (Exception ignored) {}
+        closePipelineWorkers();
+        closeChunkJobManagers();
+    }
+
+    
     private JobContext createJobContext(File file) throws MegatronException {
         long startedTimestamp = System.currentTimeMillis();
         String jobName = getJobName(startedTimestamp);
-        String fileHash = null;
-        log.debug("Calculating hash for file: " + file.getAbsolutePath());
+        // hash and no. of lines are calculated in one pass 
+        FileUtil.FileSummary fileSummary = null;
+        log.debug("Calculating hash and no. of lines for file: " + file.getAbsolutePath());
         try {
-            fileHash = FileUtil.hashFile(file);
+            String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
+            fileSummary = FileUtil.summarizeFile(file, charSet);
         } catch (IOException e) {
             String msg = "Cannot calculate hash for file: " + file.getAbsolutePath();
             throw new MegatronException(msg, e);
         }
+        if (log.isDebugEnabled()) {
+            String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - startedTimestamp);
+            log.debug("Hash and no. of lines calculated (" + durationStr + "). No. of lines: " + fileSummary.getNoOfLines());
+        }
         
-        Job job = new Job(0L, jobName, file.getName(), fileHash, file.length(), SqlUtil.convertTimestampToSec(startedTimestamp));
+        Job job = new Job(0L, jobName, file.getName(), fileSummary.getHash(), fileSummary.getSize(), SqlUtil.convertTimestampToSec(startedTimestamp));
         job.setJobType(getJobType());
         JobContext result = new JobContext(props, job); 
         result.setStartedTimestamp(startedTimestamp);
+        result.setInputFile(file);
         result.setDbManager(dbManager);
-        result.setNoOfLines(countNoOfLines(file));
+        result.setNoOfLines(fileSummary.getNoOfLines());
         
         return result;
     }
@@ -275,24 +391,47 @@ public class JobManager {
         String className = null;
         
         // read props
+        boolean isChunk = (parent != null);
         removeTrailingSpaces = props.getBoolean(AppProperties.PARSER_REMOVE_TRAILING_SPACES_KEY, false);
-        printProgressInterval = 1000L*props.getLong(AppProperties.PRINT_PROGRESS_INTERVAL_KEY, 15L);
+        // progress for chunks is printed by parent
+        printProgressInterval = isChunk ? 0L : 1000L*props.getLong(AppProperties.PRINT_PROGRESS_INTERVAL_KEY, 15L);
+        int logEntryBatchSize = props.getInt(AppProperties.DB_LOG_ENTRY_BATCH_SIZE_KEY, 500);
+        if (!props.isNoDb() && (logEntryBatchSize > 1)) {
+            log.debug("Saving log entries in batches. Batch size: " + logEntryBatchSize);
+            logEntryWriter = new LogEntryBatchWriter(dbManager, logEntryBatchSize);
+        }
+        
+        preprocessedLines = new ArrayList<String>();
+        
+        // pipelined execution? Steps executed by workers are not initialized here.   
+        noOfWorkerThreads = isChunk ? 1 : props.getInt(AppProperties.NO_OF_WORKER_THREADS_KEY, 1);
+        String parserClassName = props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName());
+        if ((noOfWorkerThreads > 1) && containsSequentialStage(new String[] { parserClassName })) {
+            log.info("Parser must process lines in file order; using one thread instead of " + noOfWorkerThreads + " worker threads.");
+            noOfWorkerThreads = 1;
+        }
+        if ((noOfWorkerThreads > 1) && !props.isNoDb()) {
+            // each worker (or chunk) uses its own db session, and this job manager one 
+            ConnectionPool pool = SessionFactoryHolder.getConnectionPool();
+            if ((pool != null) && (noOfWorkerThreads > pool.getMaxSize() - 1)) {
+                int maxNoOfWorkerThreads = Math.max(1, pool.getMaxSize() - 1);
+                log.warn("No. of worker threads (" + noOfWorkerThreads + ") exceeds no. of free connections in pool (pool size: " + pool.getMaxSize() + "). Using " + maxNoOfWorkerThreads + " worker threads.");
+                noOfWorkerThreads = maxNoOfWorkerThreads;
+            }
+        }
+        noOfParallelSteps = (noOfWorkerThreads > 1) ? countParallelSteps() : 0;
+        if (noOfWorkerThreads > 1) {
+            log.debug("No. of worker threads: " + noOfWorkerThreads + ". No. of steps after parser executed by workers: " + noOfParallelSteps);
+        }
+        processInChunks = (noOfWorkerThreads > 1) && props.getBoolean(AppProperties.PROCESS_FILE_IN_CHUNKS_KEY, false) && canProcessInChunks();
         
         // init parser
-        className = props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName());
-        try {
-            log.debug("Using parser: " + className);
-            Class<?> clazz = Class.forName(className);
-            parser = (IParser)clazz.newInstance();
-            parser.init(jobContext);
-        } catch (Exception e) {
-            // ClassNotFoundException, InstantiationException, IllegalAccessException, MegatronException
-            String msg = "Cannot instantiate parser class: " + className;
-            throw new MegatronException(msg, e);
+        if (noOfWorkerThreads <= 1) {
+            parser = createParser(jobContext);
         }
 
         // init fileProcessors
-        fileProcessors = createFileProcessors();
+        fileProcessors = isChunk ? new ArrayList<IFileProcessor>() : createFileProcessors();
 
         // init lineProcessor
         className = props.getString(AppProperties.LINE_PROCESSOR_CLASS_NAME_KEY, null);
@@ -312,27 +451,120 @@ public class JobManager {
         // init filters
         preLineProcessorFilters = createLineFilters(AppProperties.FILTER_PRE_LINE_PROCESSOR_KEY);
         preParserFilters = createLineFilters(AppProperties.FILTER_PRE_PARSER_KEY);
-        preDecoratorFilterManager = new LogEntryFilterManager(jobContext);
-        preDecoratorFilterManager.init(AppProperties.FILTER_PRE_DECORATOR_KEY);
-        preStorageFilterManager = new LogEntryFilterManager(jobContext);
-        preStorageFilterManager.init(AppProperties.FILTER_PRE_STORAGE_KEY);
-        preExportFilterManager = new LogEntryFilterManager(jobContext);
-        preExportFilterManager.init(AppProperties.FILTER_PRE_EXPORT_KEY);
+        if (noOfParallelSteps < 1) {
+            preDecoratorFilterManager = createLogEntryFilterManager(jobContext, AppProperties.FILTER_PRE_DECORATOR_KEY);
+        }
+        if (noOfParallelSteps < 3) {
+            preStorageFilterManager = createLogEntryFilterManager(jobContext, AppProperties.FILTER_PRE_STORAGE_KEY);
+        }
+        preExportFilterManager = createLogEntryFilterManager(jobContext, AppProperties.FILTER_PRE_EXPORT_KEY);
         
         // decorators
-        preStorageDecoratorManager = new DecoratorManager(jobContext);
-        boolean useOrganizationMatcher = props.getBoolean(AppProperties.DECORATOR_USE_ORGANIZATION_MATCHER_KEY, true);
-        preStorageDecoratorManager.init(AppProperties.DECORATOR_CLASS_NAMES_KEY, useOrganizationMatcher);
+        if (noOfParallelSteps < 2) {
+            preStorageDecoratorManager = createPreStorageDecoratorManager(jobContext);
+        }
         preExportDecoratorManager = new DecoratorManager(jobContext);
-        useOrganizationMatcher = false;
+        boolean useOrganizationMatcher = false;
         preExportDecoratorManager.init(AppProperties.DECORATOR_PRE_EXPORT_CLASS_NAMES_KEY, useOrganizationMatcher);
         // FileExporter
         if (props.isExport()) {
             fileExporter = new FileExporter(jobContext);
-            fileExporter.writeHeader(job);
+            if (isChunk) {
+                fileExporter.openChunkFile(exportChunkFile);
+            } else {
+                fileExporter.writeHeader(job);
+            }
+        }
+    }
+    
+    
+    private IParser createParser(JobContext context) throws MegatronException {
+        String className = props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName());
+        try {
+            log.debug("Using parser: " + className);
+            Class<?> clazz = Class.forName(className);
+            IParser result = (IParser)clazz.newInstance();
+            result.init(context);
+            return result;
+        } catch (Exception e) {
+            // ClassNotFoundException, InstantiationException, IllegalAccessException, MegatronException
+            String msg = "Cannot instantiate parser class: " + className;
+            throw new MegatronException(msg, e);
+        }
+    }
+
+    
+    private LogEntryFilterManager createLogEntryFilterManager(JobContext context, String propKey) throws MegatronException {
+        LogEntryFilterManager result = new LogEntryFilterManager(context);
+        result.init(propKey);
+        return result;
+    }
+
+    
+    private DecoratorManager createPreStorageDecoratorManager(JobContext context) throws MegatronException {
+        DecoratorManager result = new DecoratorManager(context);
+        boolean useOrganizationMatcher = props.getBoolean(AppProperties.DECORATOR_USE_ORGANIZATION_MATCHER_KEY, true);
+        result.init(AppProperties.DECORATOR_CLASS_NAMES_KEY, useOrganizationMatcher);
+        return result;
+    }
+
+    
+    /**
+     * Returns no. of steps after the parser that can be executed by worker
+     * threads: pre-decorator filters, decorators, and pre-storage filters. 
+     * Counting stops at the first step that contains an ISequentialStage.  
+     */
+    private int countParallelSteps() {
+        String[] propKeys = { AppProperties.FILTER_PRE_DECORATOR_KEY, AppProperties.DECORATOR_CLASS_NAMES_KEY, AppProperties.FILTER_PRE_STORAGE_KEY };
+        int result = 0;
+        while ((result < propKeys.length) && !containsSequentialStage(props.getStringList(propKeys[result], new String[0]))) {
+            ++result;
         }
+        return result;
+    }
+
+    
+    /**
+     * Returns true if chunks of the file can be processed independently of 
+     * each other, i.e. no line processor is used and no component must 
+     * process lines in file order. 
+     */
+    private boolean canProcessInChunks() {
+        String lineProcessorClassName = props.getString(AppProperties.LINE_PROCESSOR_CLASS_NAME_KEY, null);
+        if ((lineProcessorClassName != null) && (lineProcessorClassName.trim().length() > 0)) {
+            log.info("File cannot be processed in chunks; a line processor is used.");
+            return false;
+        }
+        String[] propKeys = { AppProperties.FILTER_PRE_LINE_PROCESSOR_KEY, AppProperties.FILTER_PRE_PARSER_KEY, AppProperties.FILTER_PRE_DECORATOR_KEY, 
+                AppProperties.DECORATOR_CLASS_NAMES_KEY, AppProperties.FILTER_PRE_STORAGE_KEY, AppProperties.DECORATOR_PRE_EXPORT_CLASS_NAMES_KEY, 
+                AppProperties.FILTER_PRE_EXPORT_KEY };
+        for (int i = 0; i < propKeys.length; i++) {
+            if (containsSequentialStage(props.getStringList(propKeys[i], new String[0]))) {
+                log.info("File cannot be processed in chunks; lines must be processed in file order by a component in " + propKeys[i] + ".");
+                return false;
+            }
+        }
+        return true;
     }
+
     
+    private boolean containsSequentialStage(String[] classNames) {
+        for (int i = 0; i < classNames.length; i++) {
+            String className = classNames[i].trim();
+            if (className.length() == 0) {
+                continue;
+            }
+            try {
+                if (ISequentialStage.class.isAssignableFrom(Class.forName(className))) {
+                    return true;
+                }
+            } catch (ClassNotFoundException e) {
+                // reported when the component is created
+            }
+        }
+        return false;
+    }
+
     
     private List<IFileProcessor> createFileProcessors() throws MegatronException {
         List<IFileProcessor> result = new ArrayList<IFileProcessor>();
@@ -401,6 +633,47 @@ public class JobManager {
 
     
     private void processLine(String lineInFile) throws MegatronException {
+        preprocessedLines.clear();
+        preprocessLine(lineInFile, preprocessedLines);
+
+        for (Iterator<String> iterator = preprocessedLines.iterator(); iterator.hasNext(); ) {
+            String line = iterator.next();
+            if (line == null) {
+                jobContext.incNoOfFilteredLines(1);
+                continue;
+            }
+            
+            LogEntry logEntry = null;
+            try {
+                logEntry = parser.parse(line);
+                if (logEntry == null) {
+                    // skipped by parser, e.g. header line
+                    jobContext.incNoOfFilteredLines(1);
+                    continue;
+                }
+                assignLogEntry(logEntry, job, line);
+            } catch (MegatronException e) {
+                handleParseException(jobContext.getLineNo(), line, e);
+                continue;
+            }
+            updateOldestLogTimestamp(logEntry);
+    
+            if (!executePreStorageSteps(logEntry, preDecoratorFilterManager, preStorageDecoratorManager, preStorageFilterManager)) {
+                jobContext.incNoOfFilteredLines(1);
+                continue;
+            }
+            
+            saveLogEntry(logEntry);
+        }
+    }
+
+    
+    /**
+     * Executes line filters and line processor for specified line read from 
+     * file, and adds resulting lines to specified list. A filtered line is 
+     * added as null.
+     */
+    private void preprocessLine(String lineInFile, List<String> result) throws MegatronException {
         jobContext.incLineNo(1);
         printProgress();
         
@@ -409,7 +682,7 @@ public class JobManager {
         }
         
         if (!executeLineFilters(preLineProcessorFilters, lineInFile)) {
-            jobContext.incNoOfFilteredLines(1);
+            result.add(null);
             return;
         }
         
@@ -428,83 +701,434 @@ public class JobManager {
             String line = iterator.next();
 
             if (!executeLineFilters(preParserFilters, line)) {
-                jobContext.incNoOfFilteredLines(1);
+                result.add(null);
                 continue;
             }
             
             // skip empty lines
             if (line.trim().length() == 0) {
-                jobContext.incNoOfFilteredLines(1);
+                result.add(null);
                 continue;
             }
+            result.add(line);
+        }
+    }
+
+    
+    private void handleParseException(long lineNo, String line, MegatronException e) throws MegatronException {
+        jobContext.incNoOfParseExceptions(1);
+        double parseErrorThreshold = props.getDouble(AppProperties.PARSER_PARSE_ERROR_THRESHOLD_KEY, 0.20d);
+        long noOfParseErrors = jobContext.getNoOfParseExceptions(); 
+        double errorRatio = noOfParseErrors / (double)jobContext.getNoOfLines();
+        long maxNoOfParseErrors = props.getLong(AppProperties.PARSER_MAX_NO_OF_PARSE_ERRORS, 5);
+        if ((parseErrorThreshold >= 0) && (errorRatio >= parseErrorThreshold) && (maxNoOfParseErrors >= 0) && (noOfParseErrors >= maxNoOfParseErrors)) {
+            String msg = "Number of parse errors have exceeded threshold: " + jobContext.getNoOfParseExceptions() + " errors.";
+            throw new MegatronException(msg);
+        }
+        String lineNoStr = (chunkName != null) ? lineNo + " (" + chunkName + ")" : "" + lineNo;
+        String msg = "Cannot parse line at " + lineNoStr + ": " + line;
+        if (jobContext.getNoOfParseExceptions() <= MAX_NO_OF_PARSE_ERROR_TO_CONSOLE) {
+            log.warn(msg);
+            jobContext.writeToConsole(msg);
+        }
+        log.debug(msg, e);
+    }
+
+    
+    /**
+     * Executes pre-decorator filters, decorators, and pre-storage filters. 
+     * A step is skipped if its manager is null, i.e. the step is executed in 
+     * another pipeline stage.
+     * 
+     * @return true if log entry should be saved.
+     */
+    private boolean executePreStorageSteps(LogEntry logEntry, LogEntryFilterManager preDecoratorFilters, DecoratorManager decorators, 
+            LogEntryFilterManager preStorageFilters) throws MegatronException {
+        
+        if ((preDecoratorFilters != null) && !preDecoratorFilters.executeFilters(logEntry)) {
+            return false;
+        }
+        if (decorators != null) {
+            decorators.executeDecorators(logEntry);
+        }
+        if ((preStorageFilters != null) && !preStorageFilters.executeFilters(logEntry)) {
+            return false;
+        }
+        return true;
+    }
+
+    
+    private void saveLogEntry(LogEntry logEntry) throws MegatronException {
+        if (logEntryWriter != null) {
+            // entries are exported when saved (ids are assigned when saved) 
+            exportLogEntries(logEntryWriter.add(logEntry));
+            return;
+        }
+
+        if (!props.isNoDb()) {
+            dbManager.addLogEntry(logEntry);
+            jobContext.incNoOfSavedEntries(1);
+        }
+
+        exportLogEntry(logEntry);
+    }
+
+    
+    private void exportLogEntries(List<LogEntry> savedLogEntries) throws MegatronException {
+        jobContext.incNoOfSavedEntries(savedLogEntries.size());
+        for (Iterator<LogEntry> iterator = savedLogEntries.iterator(); iterator.hasNext(); ) {
+            exportLogEntry(iterator.next());
+        }
+    }
+
+    
+    private void exportLogEntry(LogEntry logEntry) throws MegatronException {
+        preExportDecoratorManager.executeDecorators(logEntry);
+        
+        if (!preExportFilterManager.executeFilters(logEntry)) {
+            jobContext.incNoOfFilteredLines(1);
+            return;
+        }
+
+        if (fileExporter != null) {
+            fileExporter.writeLogEntry(logEntry);
+            jobContext.incNoOfExportedEntries(1);
+        }
+    }
+
+    
+    /**
+     * Processes lines in a pipeline of threads connected by bounded queues:<ul>
+     * <li>Reader thread: reads lines and executes line filters and line processor.
+     * <li>Worker threads: parse lines and execute filters and decorators before 
+     *     storage, except steps containing an ISequentialStage component.
+     * <li>Calling thread: executes remaining steps, saves and exports log 
+     *     entries. Lines are processed in file order.
+     * </ul>
+     * Lines are passed between stages in batches. 
+     */
+    private void processLinesInPipeline(BufferedReader in, File file) throws MegatronException {
+        log.info("Processing lines in pipeline. No. of worker threads: " + noOfWorkerThreads);
+        int maxNoOfBatches = PIPELINE_MAX_NO_OF_BATCHES_PER_WORKER*noOfWorkerThreads;
+        // room for end markers  
+        pipelineWorkQueue = new ArrayBlockingQueue<PipelineBatch>(maxNoOfBatches + noOfWorkerThreads);
+        // bounded by pipelineBatchPermits
+        pipelineDoneQueue = new LinkedBlockingQueue<PipelineBatch>();
+        pipelineBatchPermits = new Semaphore(maxNoOfBatches);
+        pipelineWorkersFinishedLatch = new CountDownLatch(noOfWorkerThreads);
+
+        // -- Setup threads
+        pipelineWorkers = new ArrayList<PipelineWorker>(noOfWorkerThreads);
+        List<Thread> threads = new ArrayList<Thread>(noOfWorkerThreads + 1);
+        for (int i = 0; i < noOfWorkerThreads; i++) {
+            PipelineWorker worker = new PipelineWorker();
+            pipelineWorkers.add(worker);
+            threads.add(createThread(worker, "Pipeline-Worker-" + i));
+        }
+        Thread readerThread = createThread(new PipelineReader(in, file), "Pipeline-Reader");
+        threads.add(readerThread);
+        for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
+            iterator.next().start();
+        }
+        
+        // -- Save and export log entries in file order 
+        boolean finished = false;
+        try {
+            Map<Long, PipelineBatch> finishedBatches = new HashMap<Long, PipelineBatch>();
+            long nextSeqNo = 0L;
+            while (true) {
+                PipelineBatch batch = finishedBatches.remove(nextSeqNo);
+                if (batch == null) {
+                    batch = pipelineDoneQueue.take();
+                    if (batch.seqNo != nextSeqNo) {
+                        finishedBatches.put(batch.seqNo, batch);
+                        continue;
+                    }
+                }
+                if (batch.endOfFile) {
+                    if (batch.error != null) {
+                        throw batch.error;
+                    }
+                    break;
+                }
+                for (Iterator<PipelineItem> iterator = batch.items.iterator(); iterator.hasNext(); ) {
+                    processPipelineItem(iterator.next());
+                }
+                pipelineBatchPermits.release();
+                ++nextSeqNo;
+            }
             
-            LogEntry logEntry = null;
-            try {
-                logEntry = parser.parse(line);
-                assignLogEntry(logEntry, job, line);
-            } catch (MegatronException e) {
-                jobContext.incNoOfParseExceptions(1);
-                double parseErrorThreshold = props.getDouble(AppProperties.PARSER_PARSE_ERROR_THRESHOLD_KEY, 0.20d);
-                long noOfParseErrors = jobContext.getNoOfParseExceptions(); 
-                double errorRatio = noOfParseErrors / (double)jobContext.getNoOfLines();
-                long maxNoOfParseErrors = props.getLong(AppProperties.PARSER_MAX_NO_OF_PARSE_ERRORS, 5);
-                if ((parseErrorThreshold >= 0) && (errorRatio >= parseErrorThreshold) && (maxNoOfParseErrors >= 0) && (noOfParseErrors >= maxNoOfParseErrors)) {
-                    String msg = "Number of parse errors have exceeded threshold: " + jobContext.getNoOfParseExceptions() + " errors.";
-                    throw new MegatronException(msg);
+            // -- Wait for threads to finish
+            pipelineWorkersFinishedLatch.await();
+            readerThread.join();
+            for (Iterator<PipelineWorker> iterator = pipelineWorkers.iterator(); iterator.hasNext(); ) {
+                jobContext.addCounters(iterator.next().workerContext);
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            throw new MegatronException("Pipeline interrupted (should not happen).", e);
+        } finally {
+            if (!finished) {
+                log.debug("Stopping pipeline threads.");
+                for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
+                    iterator.next().interrupt();
                 }
-                String msg = "Cannot parse line at " + jobContext.getLineNo() + ": " + line;
-                if (jobContext.getNoOfParseExceptions() <= MAX_NO_OF_PARSE_ERROR_TO_CONSOLE) {
-                    log.warn(msg);
-                    jobContext.writeToConsole(msg);
+                for (Iterator<Thread> iterator = threads.iterator(); iterator.hasNext(); ) {
+                    try { iterator.next().join(PIPELINE_STOP_TIMEOUT); } catch (InterruptedException ignored) {}
                 }
-                log.debug(msg, e);
-                continue;
             }
+        }
+    }
+
     
-            if (!preDecoratorFilterManager.executeFilters(logEntry)) {
-                jobContext.incNoOfFilteredLines(1);
-                continue;
-            }
-            
-            preStorageDecoratorManager.executeDecorators(logEntry);
+    private Thread createThread(Runnable runnable, String name) {
+        Thread result = new Thread(runnable);
+        result.setName(name);
+        // a worker stuck in e.g. a DNS lookup should not prevent exit if job fails 
+        result.setDaemon(true);
+        log.debug("Creating thread: " + name);
+        return result;
+    }
+
     
-            if (!preStorageFilterManager.executeFilters(logEntry)) {
-                jobContext.incNoOfFilteredLines(1);
-                continue;
-            }
+    private void processPipelineItem(PipelineItem item) throws MegatronException {
+        if (item.error != null) {
+            throw item.error;
+        }
+        if (item.parseException != null) {
+            handleParseException(item.lineNo, item.line, item.parseException);
+            return;
+        }
+        // filtered by reader, or skipped by parser?
+        if (item.logEntry == null) {
+            jobContext.incNoOfFilteredLines(1);
+            return;
+        }
+        updateOldestLogTimestamp(item.logEntry);
+        
+        if (item.filtered || !executePreStorageSteps(item.logEntry, preDecoratorFilterManager, preStorageDecoratorManager, preStorageFilterManager)) {
+            jobContext.incNoOfFilteredLines(1);
+            return;
+        }
+
+        saveLogEntry(item.logEntry);
+    }
+
     
-            if (!props.isNoDb()) {
-                dbManager.addLogEntry(logEntry);
-                jobContext.incNoOfSavedEntries(1);
+    /**
+     * Returns high priority organizations found by all organization matchers 
+     * in job, or null if no organization matcher is used.
+     */
+    private List<Organization> getHighPriorityOrganizations() {
+        List<DecoratorManager> decoratorManagers = new ArrayList<DecoratorManager>();
+        if (preStorageDecoratorManager != null) {
+            decoratorManagers.add(preStorageDecoratorManager);
+        }
+        if (pipelineWorkers != null) {
+            for (Iterator<PipelineWorker> iterator = pipelineWorkers.iterator(); iterator.hasNext(); ) {
+                DecoratorManager decoratorManager = iterator.next().preStorageDecoratorManager;
+                if (decoratorManager != null) {
+                    decoratorManagers.add(decoratorManager);
+                }
             }
-    
-            preExportDecoratorManager.executeDecorators(logEntry);
-            
-            if (!preExportFilterManager.executeFilters(logEntry)) {
-                jobContext.incNoOfFilteredLines(1);
+        }
+        if (chunkJobManagers != null) {
+            for (Iterator<JobManager> iterator = chunkJobManagers.iterator(); iterator.hasNext(); ) {
+                DecoratorManager decoratorManager = iterator.next().preStorageDecoratorManager;
+                if (decoratorManager != null) {
+                    decoratorManagers.add(decoratorManager);
+                }
+            }
+        }
+
+        OrganizationMatcherDecorator result = null;
+        for (Iterator<DecoratorManager> iterator = decoratorManagers.iterator(); iterator.hasNext(); ) {
+            OrganizationMatcherDecorator organizationMatcher = iterator.next().getOrganizationMatcher();
+            if (organizationMatcher == null) {
                 continue;
             }
+            if (result == null) {
+                result = organizationMatcher;
+            } else {
+                result.addHighPriorityOrganizations(organizationMatcher.getHighPriorityOrganizations());
+            }
+        }
+        return (result != null) ? result.getHighPriorityOrganizations() : null;
+    }
+
+    
+    private void closePipelineWorkers() {
+        if (pipelineWorkers == null) {
+            return;
+        }
+        for (Iterator<PipelineWorker> iterator = pipelineWorkers.iterator(); iterator.hasNext(); ) {
+            iterator.next().close();
+        }
+        pipelineWorkers = null;
+    }
+
     
+    /**
+     * Returns offsets for chunks of specified file, or null if the file 
+     * should not be processed in chunks. 
+     */
+    private long[] splitFile(File file) throws MegatronException {
+        int noOfChunks = (int)Math.min(noOfWorkerThreads, file.length() / CHUNK_MIN_SIZE);
+        if (noOfChunks < 2) {
+            log.info("File is not processed in chunks; file is too small.");
+            return null;
+        }
+        String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
+        long[] result = null;
+        try {
+            result = FileUtil.splitFile(file, charSet, noOfChunks);
+        } catch (IOException e) {
+            String msg = "Cannot split file in chunks: " + file.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        }
+        if (result == null) {
+            log.info("File is not processed in chunks; line breaks are not single bytes in character set: " + charSet);
+        } else if (result.length < 3) {
+            log.info("File is not processed in chunks; too few lines.");
+            result = null;
+        }
+        return result;
+    }
+
+    
+    /**
+     * Processes chunks of the file in parallel. Each chunk is processed by a
+     * job manager with its own parser, filters, decorators, db-manager, and
+     * export file. When all chunks are finished, counters are added to this 
+     * job and export files are appended in chunk order.
+     */
+    private void processFileInChunks(File file, long[] chunkOffsets) throws MegatronException {
+        int noOfChunks = chunkOffsets.length - 1;
+        log.info("Processing file in chunks. No. of chunks: " + noOfChunks);
+        chunkJobManagers = new ArrayList<JobManager>(noOfChunks);
+        for (int i = 0; i < noOfChunks; i++) {
+            JobManager chunkJobManager = new JobManager(this, chunkOffsets, i);
+            chunkJobManagers.add(chunkJobManager);
+            chunkJobManager.init();
+        }
+        
+        // -- Start threads
+        CountDownLatch chunksFinishedLatch = new CountDownLatch(noOfChunks);
+        for (int i = 0; i < noOfChunks; i++) {
+            ChunkWorker worker = new ChunkWorker(chunkJobManagers.get(i), file, chunksFinishedLatch);
+            createThread(worker, "Chunk-" + (i + 1)).start();
+        }
+        
+        // -- Wait for threads to finish
+        try {
+            while (!chunksFinishedLatch.await(1000L, TimeUnit.MILLISECONDS)) {
+                printProgress();
+            }
+        } catch (InterruptedException e) {
+            chunksAborted = true;
+            throw new MegatronException("Wait for chunks to finish interrupted (should not happen).", e);
+        }
+        
+        // -- Merge chunks in order
+        for (Iterator<JobManager> iterator = chunkJobManagers.iterator(); iterator.hasNext(); ) {
+            JobManager chunkJobManager = iterator.next();
+            if (chunkJobManager.chunkError != null) {
+                throw chunkJobManager.chunkError;
+            }
+        }
+        for (Iterator<JobManager> iterator = chunkJobManagers.iterator(); iterator.hasNext(); ) {
+            JobManager chunkJobManager = iterator.next();
+            JobContext chunkJobContext = chunkJobManager.jobContext;
+            jobContext.addCounters(chunkJobContext);
+            jobContext.setLineNo(jobContext.getLineNo() + chunkJobContext.getLineNo());
+            jobContext.setLineNoAfterProcessor(jobContext.getLineNoAfterProcessor() + chunkJobContext.getLineNoAfterProcessor());
+            Long chunkOldestLogTimestamp = chunkJobManager.oldestLogTimestamp;
+            if ((chunkOldestLogTimestamp != null) && ((oldestLogTimestamp == null) || (oldestLogTimestamp > chunkOldestLogTimestamp))) {
+                oldestLogTimestamp = chunkOldestLogTimestamp;
+            }
             if (fileExporter != null) {
-                fileExporter.writeLogEntry(logEntry);
-                jobContext.incNoOfExportedEntries(1);
+                fileExporter.appendChunkFile(chunkJobManager.fileExporter);
+            }
+        }
+    }
+
+    
+    /**
+     * Processes chunk of file. Called in job manager for a chunk.
+     */
+    private void executeChunk(File file) throws MegatronException {
+        log.debug("Processing " + chunkName + ". Bytes: " + chunkStart + "-" + chunkEnd);
+        processFile(file);
+        if (logEntryWriter != null) {
+            exportLogEntries(logEntryWriter.flush());
+            log.info("Log entries saved (" + chunkName + "). " + logEntryWriter.getStatistics());
+        }
+        if (fileExporter != null) {
+            fileExporter.close();
+        }
+        chunkFinished = true;
+    }
+
+    
+    private void closeChunkJobManagers() {
+        if (chunkJobManagers == null) {
+            return;
+        }
+        for (Iterator<JobManager> iterator = chunkJobManagers.iterator(); iterator.hasNext(); ) {
+            JobManager chunkJobManager = iterator.next();
+            chunkJobManager.closeComponents();
+            if (chunkJobManager.dbManager != dbManager) {
+                try { chunkJobManager.dbManager.close(); } catch (Exception ignored) {}
+            }
+            if (chunkJobManager.exportChunkFile.exists() && !chunkJobManager.exportChunkFile.delete()) {
+                log.warn("Cannot delete chunk file: " + chunkJobManager.exportChunkFile.getAbsolutePath());
             }
         }
+        chunkJobManagers = null;
+    }
+
+    
+    /**
+     * Returns no. of bytes read from file (or chunk).
+     */
+    private long getBytesRead() {
+        FileChannel channel = inputChannel;
+        if (channel == null) {
+            return chunkFinished ? (chunkEnd - chunkStart) : 0L;
+        }
+        try {
+            return channel.position() - chunkStart;
+        } catch (IOException e) {
+            log.debug("Cannot get file position.", e);
+            return 0L;
+        }
     }
 
     
     private void printProgress() {
         long now = System.currentTimeMillis();
         if ((printProgressInterval > 0L) && ((lastProgressPrintTime + printProgressInterval) < now)) {
-            long lineNo = jobContext.getLineNo();
-            long noOfLines = jobContext.getNoOfLines();
-            double progress = 100d*((double)lineNo / (double)noOfLines); 
+            // progress is based on bytes read; no. of lines may change when processed  
+            long bytesRead = 0L;
+            long lineNo = 0L;
+            if (chunkJobManagers != null) {
+                for (Iterator<JobManager> iterator = chunkJobManagers.iterator(); iterator.hasNext(); ) {
+                    JobManager chunkJobManager = iterator.next();
+                    bytesRead += chunkJobManager.getBytesRead();
+                    lineNo += chunkJobManager.jobContext.getLineNo();
+                }
+            } else {
+                bytesRead = getBytesRead();
+                lineNo = jobContext.getLineNo();
+            }
+            double progress = (inputFileSize > 0L) ? 100d*((double)bytesRead / (double)inputFileSize) : 0d;
             double linesPerSecond = ((double)lineNo - (double)lastProgressPrintLineNo) / (((double)now - (double)lastProgressPrintTime) / 1000d);
             DecimalFormat format = new DecimalFormat("0.00");
             String progressStr = format.format(progress);
-            String lineInfoStr = lineNo + " of " + noOfLines + " lines";
+            String lineInfoStr = lineNo + " of " + jobContext.getNoOfLines() + " lines";
+            String byteInfoStr = format.format(bytesRead / (1024d*1024d)) + " of " + format.format(inputFileSize / (1024d*1024d)) + " MB";
             String linesPerSecondStr = format.format(linesPerSecond);
-            String msg = progressStr + "% (" + lineInfoStr + ", " + linesPerSecondStr + " lines/second)";
+            String msg = progressStr + "% (" + lineInfoStr + ", " + byteInfoStr + ", " + linesPerSecondStr + " lines/second)";
             if (props.isStdout()) {
                 log.info(msg);
             } else {
@@ -547,8 +1171,10 @@ public class JobManager {
         originalLogEntry.setCreated(now);
         originalLogEntry.setEntry(line);
         logEntry.setOriginalLogEntry(originalLogEntry);
-        
-        // assign oldestLogTimestamp
+    }
+
+    
+    private void updateOldestLogTimestamp(LogEntry logEntry) {
         if ((oldestLogTimestamp == null) || (oldestLogTimestamp > logEntry.getLogTimestamp())) {
             oldestLogTimestamp = logEntry.getLogTimestamp();
         }
@@ -592,13 +1218,16 @@ public class JobManager {
     private void writeFinishedMessage() throws MegatronException {
         // -- write finished message to log and console
         String template = "Job finished. Name: @jobName@,  Lines: @noOfLines@, @linesAfterProcessorStr@Saved Entries: @noOfSavedEntries@, High Priority Entries: " +
-            "@noOfHighPriorityEntries@, Exported Entries: @noOfExportedEntries@, Filtered Lines: @noOfFilteredLines@, Parse errors: @noOfParseException@, Duration: @duration@";
+            "@noOfHighPriorityEntries@, Exported Entries: @noOfExportedEntries@, Filtered Lines: @noOfFilteredLines@, Parse errors: @noOfParseException@, @timestampCacheStr@Duration: @duration@";
         String linesAfterProcessorTemplate = "Lines (after @action@): @lineNoAfterProcessor@, ";
         String msg = createFinishedMessage(template, linesAfterProcessorTemplate);
         if (!props.isStdout() || (jobContext.getNoOfParseExceptions() > 0)) {
             jobContext.writeToConsole(msg);
         }
         log.info(msg);
+        if (jobContext.getNoOfPrescreenRejects() > 0L) {
+            log.info("Parse errors rejected by literal pre-screen (reg-exp not used): " + jobContext.getNoOfPrescreenRejects());
+        }
         // -- issue warning that file contains old timestamps?
         if (issueTimestampWarning()) {
             Date date = SqlUtil.convertTimestamp(oldestLogTimestamp);
@@ -648,6 +1277,12 @@ public class JobManager {
             linesAfterProcessorStr = StringUtil.replace(linesAfterProcessorStr, "@lineNoAfterProcessor@", "" + jobContext.getLineNoAfterProcessor());
         }
         result = StringUtil.replace(result, "@linesAfterProcessorStr@", linesAfterProcessorStr);
+        String timestampCacheStr = "";
+        if (jobContext.getNoOfTimestampLookups() > 0L) {
+            double hitRate = (100d*jobContext.getNoOfTimestampCacheHits()) / jobContext.getNoOfTimestampLookups();
+            timestampCacheStr = "Timestamp Cache Hits: " + String.format(Locale.US, "%.1f", hitRate) + "%, ";
+        }
+        result = StringUtil.replace(result, "@timestampCacheStr@", timestampCacheStr);
     
         return result;
     }
@@ -697,4 +1332,241 @@ public class JobManager {
         mailSender.send(props);
     }
 
+
+    /**
+     * A line passed between pipeline stages.
+     */
+    private static class PipelineItem {
+        private long lineNo;
+        private String line;
+        private LogEntry logEntry;
+        private boolean filtered;
+        private MegatronException parseException;
+        private MegatronException error;
+
+        
+        public PipelineItem(long lineNo, String line) {
+            this.lineNo = lineNo;
+            this.line = line;
+        }
+        
+    }
+
+    
+    /**
+     * Lines passed between pipeline stages. Batches are numbered in file order.
+     */
+    private static class PipelineBatch {
+        private long seqNo;
+        private List<PipelineItem> items;
+        private boolean endOfFile;
+        private MegatronException error;
+        
+
+        public PipelineBatch(long seqNo) {
+            this.seqNo = seqNo;
+            this.items = new ArrayList<PipelineItem>(PIPELINE_BATCH_SIZE);
+        }
+        
+    }
+
+    
+    /**
+     * Reads lines, executes line filters and line processor, and puts 
+     * batches of lines in the work queue.
+     */
+    private class PipelineReader implements Runnable {
+        private BufferedReader in;
+        private File file;
+        
+
+        public PipelineReader(BufferedReader in, File file) {
+            this.in = in;
+            this.file = file;
+        }
+
+        
+        @Override
+        public void run() {
+            long seqNo = 0L;
+            MegatronException error = null;
+            try {
+                List<String> lines = new ArrayList<String>();
+                PipelineBatch batch = new PipelineBatch(seqNo);
+                String lineInFile = null;
+                while ((lineInFile = in.readLine()) != null) {
+                    lines.clear();
+                    preprocessLine(lineInFile, lines);
+                    for (Iterator<String> iterator = lines.iterator(); iterator.hasNext(); ) {
+                        batch.items.add(new PipelineItem(jobContext.getLineNo(), iterator.next()));
+                    }
+                    if (batch.items.size() >= PIPELINE_BATCH_SIZE) {
+                        putBatch(batch);
+                        batch = new PipelineBatch(++seqNo);
+                    }
+                }
+                if (!batch.items.isEmpty()) {
+                    putBatch(batch);
+                    ++seqNo;
+                }
+            } catch (IOException e) {
+                error = new MegatronException("Cannot read file: " + file.getAbsolutePath(), e);
+            } catch (InterruptedException e) {
+                error = new MegatronException("Pipeline reader interrupted.", e);
+            } catch (MegatronException e) {
+                error = e;
+            } catch (Throwable e) {
+                error = new MegatronException("Pipeline reader failed at line " + jobContext.getLineNo() + ".", e);
+            } finally {
+                // end marker is processed after last batch
+                PipelineBatch endBatch = new PipelineBatch(seqNo);
+                endBatch.endOfFile = true;
+                endBatch.error = error;
+                pipelineDoneQueue.add(endBatch);
+                try {
+                    for (int i = 0; i < noOfWorkerThreads; i++) {
+                        pipelineWorkQueue.put(END_BATCH_MARKER);
+                    }
+                } catch (InterruptedException e) {
+                    // pipeline is stopping
+                }
+            }
+            log.debug("Thread is exiting: " + Thread.currentThread().getName());
+        }
+
+        
+        private void putBatch(PipelineBatch batch) throws InterruptedException {
+            pipelineBatchPermits.acquire();
+            pipelineWorkQueue.put(batch);
+        }
+
+    }
+
+    
+    /**
+     * Parses lines and executes parallel steps using its own parser, 
+     * filters, decorators, and db-manager.
+     */
+    private class PipelineWorker implements Runnable {
+        private JobContext workerContext;
+        private IParser workerParser;
+        private LogEntryFilterManager preDecoratorFilterManager;
+        private DecoratorManager preStorageDecoratorManager;
+        private LogEntryFilterManager preStorageFilterManager;
+        
+
+        public PipelineWorker() throws MegatronException {
+            // NoDbManager is read-only when the job is running; other db-managers are bound to a Hibernate session 
+            DbManager workerDbManager = props.isNoDb() ? dbManager : DbManager.createDbManager(props);
+            workerContext = jobContext.createChildContext(workerDbManager);
+            workerParser = createParser(workerContext);
+            if (noOfParallelSteps > 0) {
+                preDecoratorFilterManager = createLogEntryFilterManager(workerContext, AppProperties.FILTER_PRE_DECORATOR_KEY);
+            }
+            if (noOfParallelSteps > 1) {
+                preStorageDecoratorManager = createPreStorageDecoratorManager(workerContext);
+            }
+            if (noOfParallelSteps > 2) {
+                preStorageFilterManager = createLogEntryFilterManager(workerContext, AppProperties.FILTER_PRE_STORAGE_KEY);
+            }
+        }
+
+        
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PipelineBatch batch = pipelineWorkQueue.take();
+                    if (batch == END_BATCH_MARKER) {
+                        break;
+                    }
+                    processBatch(batch);
+                    pipelineDoneQueue.add(batch);
+                }
+            } catch (InterruptedException e) {
+                log.debug("Pipeline worker interrupted: " + Thread.currentThread().getName());
+            }
+            
+            pipelineWorkersFinishedLatch.countDown();
+            log.debug("Thread is exiting: " + Thread.currentThread().getName());
+        }
+
+        
+        public void close() {
+            if (preDecoratorFilterManager != null) preDecoratorFilterManager.closeFilters();
+            if (preStorageDecoratorManager != null) preStorageDecoratorManager.closeDecorators();
+            if (preStorageFilterManager != null) preStorageFilterManager.closeFilters();
+            try { if (workerParser != null) workerParser.close(); } catch (Exception ignored) {}
+            if (workerContext.getDbManager() != dbManager) {
+                try { workerContext.getDbManager().close(); } catch (Exception ignored) {}
+            }
+        }
+
+        
+        private void processBatch(PipelineBatch batch) {
+            for (int i = 0; i < batch.items.size(); i++) {
+                PipelineItem item = batch.items.get(i);
+                // filtered by reader?
+                if (item.line == null) {
+                    continue;
+                }
+                try {
+                    workerContext.setLineNo(item.lineNo);
+                    try {
+                        item.logEntry = workerParser.parse(item.line);
+                        if (item.logEntry == null) {
+                            // skipped by parser, e.g. header line; counted as filtered
+                            continue;
+                        }
+                        assignLogEntry(item.logEntry, job, item.line);
+                    } catch (MegatronException e) {
+                        item.logEntry = null;
+                        item.parseException = e;
+                        continue;
+                    }
+                    item.filtered = !executePreStorageSteps(item.logEntry, preDecoratorFilterManager, preStorageDecoratorManager, preStorageFilterManager);
+                } catch (Throwable e) {
+                    item.error = (e instanceof MegatronException) ? (MegatronException)e : new MegatronException("Cannot process line at " + item.lineNo + ": " + item.line, e);
+                    // job will be aborted; skip remaining lines  
+                    batch.items.subList(i + 1, batch.items.size()).clear();
+                    break;
+                }
+            }
+        }
+
+    }
+
+    
+    /**
+     * Processes a chunk of the file using the job manager for the chunk.
+     */
+    private class ChunkWorker implements Runnable {
+        private JobManager chunkJobManager;
+        private File file;
+        private CountDownLatch finishedLatch;
+        
+
+        public ChunkWorker(JobManager chunkJobManager, File file, CountDownLatch finishedLatch) {
+            this.chunkJobManager = chunkJobManager;
+            this.file = file;
+            this.finishedLatch = finishedLatch;
+        }
+
+        
+        @Override
+        public void run() {
+            try {
+                chunkJobManager.executeChunk(file);
+            } catch (Throwable e) {
+                String msg = "Cannot process " + chunkJobManager.chunkName + ": " + e.getMessage();
+                chunkJobManager.chunkError = (e instanceof MegatronException) ? (MegatronException)e : new MegatronException(msg, e);
+                // stop other chunks
+                chunksAborted = true;
+            }
+            finishedLatch.countDown();
+            log.debug("Thread is exiting: " + Thread.currentThread().getName());
+        }
+
+    }
+
 }
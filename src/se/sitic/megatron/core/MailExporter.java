@@ -19,6 +19,7 @@ import se.sitic.megatron.mail.MailSender;
 import se.sitic.megatron.parser.LogEntryMapper;
 import se.sitic.megatron.tickethandler.ITicketHandler;
 import se.sitic.megatron.util.AppUtil;
+import se.sitic.megatron.util.CompiledTemplate;
 import se.sitic.megatron.util.Constants;
 import se.sitic.megatron.util.IpAddressUtil;
 import se.sitic.megatron.util.SqlUtil;
@@ -370,7 +371,7 @@ public class MailExporter extends AbstractExporter {
                 throw new MegatronException("Mandatory property not defined: " + AppProperties.MAIL_SUBJECT_TEMPLATE_KEY);
             }
         }       
-        String subject = AppUtil.replaceVariables(template, attributeMap, false, templateName);
+        String subject = compileTemplate(template, templateName).render(attributeMap, false);
         
 
         // -- body and attachment
@@ -380,7 +381,7 @@ public class MailExporter extends AbstractExporter {
         templateName = props.getString(AppProperties.MAIL_HEADER_FILE_KEY, null);
         template = readTemplate(AppProperties.MAIL_HEADER_FILE_KEY, langCode, false);
         if (template != null) {
-            body.append(AppUtil.replaceVariables(template, attributeMap, false, templateName));
+            compileTemplate(template, templateName).render(attributeMap, false, body);
         }
         // rows
         templateName = props.getString(AppProperties.MAIL_ROW_FILE_KEY, null);
@@ -395,14 +396,15 @@ public class MailExporter extends AbstractExporter {
         if ((template != null) || (attachmentTemplate != null)) {
             for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); ) {
                 LogEntry logEntry = iterator.next();
-                LogEntryMapper mapper = new LogEntryMapper(props, rewriter, logEntry);
                 if (template != null) {
-                    String template2 = replaceJobTypeVariables(template, logEntry);
-                    body.append(mapper.replaceVariables(template2, false, templateName));
+                    CompiledTemplate compiledTemplate = compileTemplate(replaceJobTypeVariables(template, logEntry), templateName);
+                    LogEntryMapper mapper = new LogEntryMapper(props, rewriter, logEntry, getAccessors(compiledTemplate));
+                    mapper.replaceVariables(compiledTemplate, false, body);
                 }
                 if (attachmentTemplate != null) {
-                    String template2 = replaceJobTypeVariables(attachmentTemplate, logEntry);
-                    attachment.append(mapper.replaceVariables(template2, false, attachmentTemplateName));
+                    CompiledTemplate compiledTemplate = compileTemplate(replaceJobTypeVariables(attachmentTemplate, logEntry), attachmentTemplateName);
+                    LogEntryMapper mapper = new LogEntryMapper(props, rewriter, logEntry, getAccessors(compiledTemplate));
+                    mapper.replaceVariables(compiledTemplate, false, attachment);
                 }
             }
         }
@@ -411,19 +413,19 @@ public class MailExporter extends AbstractExporter {
             templateName = props.getString(AppProperties.MAIL_ATTACHMENT_HEADER_FILE_KEY, null);
             template = readTemplate(AppProperties.MAIL_ATTACHMENT_HEADER_FILE_KEY, langCode, false);
             if (template != null) {
-                attachment.insert(0, AppUtil.replaceVariables(template, attributeMap, false, templateName));
+                attachment.insert(0, compileTemplate(template, templateName).render(attributeMap, false));
             }
             templateName = props.getString(AppProperties.MAIL_ATTACHMENT_FOOTER_FILE_KEY, null);
             template = readTemplate(AppProperties.MAIL_ATTACHMENT_FOOTER_FILE_KEY, langCode, false);
             if (template != null) {
-                attachment.append(AppUtil.replaceVariables(template, attributeMap, false, templateName));
+                compileTemplate(template, templateName).render(attributeMap, false, attachment);
             }
         }
         // footer
         templateName = props.getString(AppProperties.MAIL_FOOTER_FILE_KEY, null);
         template = readTemplate(AppProperties.MAIL_FOOTER_FILE_KEY, langCode, false);
         if (template != null) {
-            body.append(AppUtil.replaceVariables(template, attributeMap, false, templateName));
+            compileTemplate(template, templateName).render(attributeMap, false, body);
         }
 
         return new MessageData(subject, body.toString(), attachment.toString());
@@ -5,6 +5,7 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
@@ -24,15 +25,25 @@ public class AsnLookupDbManager {
     
     private TypedProperties props;
     private Connection conn;
+    /** Pool that conn is borrowed from, or null if conn is not pooled. */
+    private ConnectionPool connectionPool;
 
     
     public AsnLookupDbManager(TypedProperties props) throws DbException {
         this.props = props;
 
         try {
-            conn = createConnection();
+            // share connections with DbManager if possible
+            connectionPool = SessionFactoryHolder.getConnectionPool();
+            if (connectionPool != null) {
+                conn = connectionPool.getConnection();
+                // updates are not wrapped in transactions
+                conn.setAutoCommit(true);
+            } else {
+                conn = createConnection();
+            }
         } catch (Exception e) {
-            // ClassNotFoundException, SQLException
+            // ClassNotFoundException, SQLException, HibernateException
             throw new DbException("Cannot create a database connection.", e);
         }
     }
@@ -109,11 +120,58 @@ public class AsnLookupDbManager {
         return result;
     }
     
+
+    /**
+     * Reads the whole asn_lookup-table and returns it as an in-memory 
+     * lookup table.
+     */
+    public AsnLookupTable createAsnLookupTable() throws DbException {
+        String sql = "select start_address, end_address, asn from asn_lookup";
+
+        long[] startAddresses = new long[64*1024];
+        long[] endAddresses = new long[startAddresses.length];
+        long[] asNumbers = new long[startAddresses.length];
+        int size = 0;
+        log.debug("Executing sql (createAsnLookupTable): " + sql);
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (isMySql()) {
+                // stream rows instead of reading the whole result set into memory
+                stmt.setFetchSize(Integer.MIN_VALUE);
+            }
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                if (size == startAddresses.length) {
+                    int newLength = 2*size;
+                    startAddresses = Arrays.copyOf(startAddresses, newLength);
+                    endAddresses = Arrays.copyOf(endAddresses, newLength);
+                    asNumbers = Arrays.copyOf(asNumbers, newLength);
+                }
+                startAddresses[size] = resultSet.getLong(1);
+                endAddresses[size] = resultSet.getLong(2);
+                asNumbers[size] = resultSet.getLong(3);
+                ++size;
+            }
+            stmt.close();
+            log.debug("Sql executed. No. of rows read: " + size); 
+        } catch (SQLException e) {
+            try { if (stmt != null) stmt.close(); } catch (Exception ignored) { }  
+            throw new DbException("Cannot execute sql: " + sql, e);
+        }
+        return new AsnLookupTable(startAddresses, endAddresses, asNumbers, size);
+    }
+    
     
     public void close() throws DbException {
         if (conn != null) {
             try {
-                conn.close();
+                if (connectionPool != null) {
+                    connectionPool.releaseConnection(conn);
+                } else {
+                    conn.close();
+                }
+                conn = null;
             } catch (SQLException e) {
                 throw new DbException("Cannot close database connection.", e);
             }
@@ -121,6 +179,12 @@ public class AsnLookupDbManager {
     }
     
     
+    private boolean isMySql() {
+        String driverClassName = props.getString(AppProperties.JDBC_DRIVER_CLASS_KEY, "com.mysql.jdbc.Driver");
+        return driverClassName.toLowerCase().contains("mysql");
+    }
+    
+    
     private Connection createConnection() throws ClassNotFoundException, SQLException {
         String driverClassName = props.getString(AppProperties.JDBC_DRIVER_CLASS_KEY, "com.mysql.jdbc.Driver");
         String url = AppProperties.getInstance().getJdbcUrl();
@@ -0,0 +1,354 @@
+package se.sitic.megatron.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.FileUtil;
+
+
+/**
+ * In-memory version of the asn_lookup-table for fast "IP --> ASN"-lookups.
+ * <p>
+ * BGP prefixes may overlap. The smallest prefix (longest prefix match) that
+ * an IP address is a member of is used, which gives the same result as
+ * AsnLookupDbManager.searchAsn. When the table is created, the prefixes are
+ * flattened to non-overlapping segments where each segment has the ASN for
+ * the most specific prefix. A lookup is then a binary search in a sorted
+ * int-array.
+ * <p>
+ * Memory usage is 8 bytes per segment, i.e. less than 20 MB for a full
+ * IPv4 BGP table.
+ * <p>
+ * The table can be saved to a binary snapshot file (see writeSnapshot), 
+ * which is done by ImportBgpTable if "bgp.snapshotFile" is defined. The 
+ * snapshot file is memory mapped when read, which takes a few ms and does 
+ * not use the database. Snapshot file format (big endian): magic ("MBGP"), 
+ * format version (int), created timestamp in ms (long), no. of segments 
+ * (int), segment start addresses (int[]), and ASNs (int[]).
+ * <p>
+ * The table is cached and shared by all jobs in the JVM. If a snapshot 
+ * file exists, it is re-mapped when the file is modified. Otherwise the 
+ * table is re-read from the database when it is older than CACHE_TTL, or 
+ * after the BGP table has been imported (see ImportBgpTable). This class 
+ * is thread safe.
+ */
+public class AsnLookupTable {
+    private static final Logger log = Logger.getLogger(AsnLookupTable.class);
+
+    /** Value used for segments without an ASN. ASN 4294967295 is reserved. */
+    private static final int NO_ASN = -1;
+
+    /** XOR:ed with an IP address to make signed int comparisons work like unsigned. */
+    private static final int SIGN_FLIP = 0x80000000;
+
+    // -- snapshot file
+    private static final int SNAPSHOT_MAGIC = 0x4D424750;
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_SIZE = 20;
+
+    // -- cache handling
+    private static final long CACHE_TTL = 30*60*1000L;
+    private static final Object cacheMutex = new Object();
+    private static AsnLookupTable tableCached;
+    private static long lastCacheFetch;
+    /** Last modified for the mapped snapshot file, or 0 if the table was read from the database. */
+    private static long snapshotLastModified;
+
+    /** Start address for each segment (sign bit flipped). Sorted. */
+    private final IntBuffer starts;
+    /** ASN for each segment, or NO_ASN. */
+    private final IntBuffer asns;
+
+
+    /**
+     * Constructor.
+     *
+     * @param startAddresses start address for each BGP prefix.
+     * @param endAddresses end address for each BGP prefix.
+     * @param asNumbers ASN for each BGP prefix.
+     * @param size no. of used elements in the arrays.
+     */
+    public AsnLookupTable(long[] startAddresses, long[] endAddresses, long[] asNumbers, int size) {
+        // -- boundary points for all segments
+        long[] points = new long[2*size];
+        int noOfPoints = 0;
+        for (int i = 0; i < size; i++) {
+            if (isValidRange(startAddresses[i], endAddresses[i])) {
+                points[noOfPoints++] = startAddresses[i];
+                points[noOfPoints++] = endAddresses[i] + 1L;
+            }
+        }
+        Arrays.sort(points, 0, noOfPoints);
+        int noOfUniquePoints = 0;
+        for (int i = 0; i < noOfPoints; i++) {
+            if ((noOfUniquePoints == 0) || (points[noOfUniquePoints - 1] != points[i])) {
+                points[noOfUniquePoints++] = points[i];
+            }
+        }
+
+        // -- paint segments; largest ranges first, smaller ranges overwrites
+        // Sort key: range size (max 32 bits) and position. Equal sized ranges
+        // are painted in reverse order to make the first one win, same as in
+        // AsnLookupDbManager.searchAsn.
+        long[] sortKeys = new long[size];
+        int noOfRanges = 0;
+        for (int i = 0; i < size; i++) {
+            if (isValidRange(startAddresses[i], endAddresses[i])) {
+                sortKeys[noOfRanges++] = ((endAddresses[i] - startAddresses[i]) << 31) | i;
+            }
+        }
+        Arrays.sort(sortKeys, 0, noOfRanges);
+        int[] segmentAsns = new int[noOfUniquePoints];
+        Arrays.fill(segmentAsns, NO_ASN);
+        for (int k = noOfRanges - 1; k >= 0; k--) {
+            int i = (int)(sortKeys[k] & 0x7FFFFFFFL);
+            int fromIndex = Arrays.binarySearch(points, 0, noOfUniquePoints, startAddresses[i]);
+            int toIndex = Arrays.binarySearch(points, 0, noOfUniquePoints, endAddresses[i] + 1L);
+            Arrays.fill(segmentAsns, fromIndex, toIndex, (int)asNumbers[i]);
+        }
+
+        // -- merge adjacent segments with the same ASN
+        // Last point may be 2^32 (end of a range ending at 255.255.255.255); it
+        // is outside the address space and is skipped.
+        int noOfSegments = 0;
+        for (int i = 0; (i < noOfUniquePoints) && (points[i] <= 0xFFFFFFFFL); i++) {
+            if ((noOfSegments == 0) || (segmentAsns[noOfSegments - 1] != segmentAsns[i])) {
+                points[noOfSegments] = points[i];
+                segmentAsns[noOfSegments] = segmentAsns[i];
+                ++noOfSegments;
+            }
+        }
+        int[] startArray = new int[noOfSegments];
+        for (int i = 0; i < noOfSegments; i++) {
+            startArray[i] = ((int)points[i]) ^ SIGN_FLIP;
+        }
+        this.starts = IntBuffer.wrap(startArray);
+        this.asns = IntBuffer.wrap(Arrays.copyOf(segmentAsns, noOfSegments));
+    }
+
+
+    private AsnLookupTable(IntBuffer starts, IntBuffer asns) {
+        this.starts = starts;
+        this.asns = asns;
+    }
+
+
+    /**
+     * Returns cached table. The table is read from the snapshot file, or 
+     * from the database if no snapshot exists, when not cached or if it's 
+     * too old. If no snapshot exists and --no-db is specified, an empty 
+     * table is returned.
+     */
+    public static AsnLookupTable getInstance(TypedProperties props) throws DbException {
+        synchronized (cacheMutex) {
+            long t1 = System.currentTimeMillis();
+            File snapshotFile = getSnapshotFile(props);
+            if ((snapshotFile != null) && snapshotFile.isFile()) {
+                long lastModified = snapshotFile.lastModified();
+                if ((tableCached == null) || (snapshotLastModified != lastModified)) {
+                    tableCached = readSnapshot(snapshotFile);
+                    snapshotLastModified = lastModified;
+                    lastCacheFetch = System.currentTimeMillis();
+                    String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+                    log.info("ASN lookup table mapped from snapshot file " + snapshotFile.getAbsolutePath() + " (" + durationStr + 
+                            "). No. of segments: " + tableCached.size() + ".");
+                }
+            } else if (props.isNoDb()) {
+                // --no-db: the database must not be used  
+                log.warn("BGP snapshot file not found and --no-db specified; ASN lookups are disabled. Snapshot file: " + 
+                        ((snapshotFile != null) ? snapshotFile.getAbsolutePath() : "[not specified]"));
+                return new AsnLookupTable(new long[0], new long[0], new long[0], 0);
+            } else if ((tableCached == null) || (snapshotLastModified != 0L) || ((lastCacheFetch + CACHE_TTL) < t1)) {
+                if (snapshotFile != null) {
+                    log.info("BGP snapshot file not found (run --import-bgp to create it); reading ASN lookup table from db: " + snapshotFile.getAbsolutePath());
+                }
+                AsnLookupDbManager dbManager = new AsnLookupDbManager(props);
+                try {
+                    tableCached = dbManager.createAsnLookupTable();
+                    snapshotLastModified = 0L;
+                    lastCacheFetch = System.currentTimeMillis();
+                } finally {
+                    dbManager.close();
+                }
+                String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+                log.info("ASN lookup table read from db (" + durationStr + "). No. of segments: " + tableCached.size() +
+                        ", memory usage: " + (tableCached.getMemoryUsage() / 1024L) + " KB.");
+            }
+            return tableCached;
+        }
+    }
+
+
+    /**
+     * Returns snapshot file as specified in "bgp.snapshotFile", or null if
+     * not defined.
+     */
+    public static File getSnapshotFile(TypedProperties props) {
+        String filename = props.getString(AppProperties.BGP_SNAPSHOT_FILE_KEY, "");
+        return (filename.trim().length() > 0) ? new File(filename) : null;
+    }
+
+
+    /**
+     * Memory maps specified snapshot file.
+     * 
+     * @throws DbException if file cannot be read or have an invalid format.
+     */
+    public static AsnLookupTable readSnapshot(File file) throws DbException {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            if (channel.size() < SNAPSHOT_HEADER_SIZE) {
+                throw new DbException("BGP snapshot file is too small: " + file.getAbsolutePath());
+            }
+            // the mapping is valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            int magic = buffer.getInt(0);
+            int version = buffer.getInt(4);
+            int noOfSegments = buffer.getInt(16);
+            if ((magic != SNAPSHOT_MAGIC) || (version != SNAPSHOT_FORMAT_VERSION)) {
+                throw new DbException("Invalid BGP snapshot file (magic: " + Integer.toHexString(magic) + ", version: " + version + 
+                        "). Run --import-bgp to re-create file: " + file.getAbsolutePath());
+            }
+            if ((noOfSegments < 0) || (channel.size() != (SNAPSHOT_HEADER_SIZE + 8L*noOfSegments))) {
+                throw new DbException("BGP snapshot file is truncated: " + file.getAbsolutePath());
+            }
+            buffer.position(SNAPSHOT_HEADER_SIZE);
+            IntBuffer starts = buffer.slice().asIntBuffer();
+            starts.limit(noOfSegments);
+            buffer.position(SNAPSHOT_HEADER_SIZE + 4*noOfSegments);
+            IntBuffer asns = buffer.slice().asIntBuffer();
+            asns.limit(noOfSegments);
+            return new AsnLookupTable(starts.slice(), asns.slice());
+        } catch (IOException e) {
+            throw new DbException("Cannot read BGP snapshot file: " + file.getAbsolutePath(), e);
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+    }
+
+
+    /**
+     * Removes cached table, which will be re-read from the database on next
+     * call to getInstance. Called when a BGP table have been imported.
+     */
+    public static void clearCache() {
+        synchronized (cacheMutex) {
+            tableCached = null;
+            lastCacheFetch = 0L;
+        }
+    }
+
+
+    /**
+     * Writes this table to specified snapshot file. The file is written to a
+     * temporary file that is renamed when finished, i.e. readers will never
+     * see a half-written file. Jobs that already have mapped the old file
+     * will continue to use it.
+     */
+    public void writeSnapshot(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            FileUtil.ensureDir(dir);
+        }
+        File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+        int noOfSegments = size();
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + 8*noOfSegments);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(SNAPSHOT_FORMAT_VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putInt(noOfSegments);
+        for (int i = 0; i < noOfSegments; i++) {
+            buffer.putInt(starts.get(i));
+        }
+        for (int i = 0; i < noOfSegments; i++) {
+            buffer.putInt(asns.get(i));
+        }
+        buffer.flip();
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            try { if (out != null) out.close(); } catch (Exception ignored) {}
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Returns ASN for specified IP address, or -1 if not found.
+     */
+    public long searchAsn(long ipAddress) {
+        if ((ipAddress < 0L) || (ipAddress > 0xFFFFFFFFL)) {
+            return -1L;
+        }
+        int key = ((int)ipAddress) ^ SIGN_FLIP;
+
+        // find last segment that starts at or before key
+        int low = 0;
+        int high = starts.limit() - 1;
+        int index = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= key) {
+                index = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (index == -1) {
+            return -1L;
+        }
+        int asn = asns.get(index);
+        return (asn != NO_ASN) ? (asn & 0xFFFFFFFFL) : -1L;
+    }
+
+
+    /**
+     * Returns no. of segments in table.
+     */
+    public int size() {
+        return starts.limit();
+    }
+
+
+    /**
+     * Returns approximate no. of bytes used by this table.
+     */
+    public long getMemoryUsage() {
+        return 8L*size();
+    }
+
+
+    /**
+     * Returns true if specified range should be included. Ranges with a
+     * single address are not included, which is the same as in
+     * AsnLookupDbManager.searchAsn.
+     */
+    private static boolean isValidRange(long startAddress, long endAddress) {
+        return (startAddress >= 0L) && (endAddress <= 0xFFFFFFFFL) && (startAddress < endAddress);
+    }
+
+}
@@ -0,0 +1,221 @@
+package se.sitic.megatron.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Bounded JDBC connection pool that is shared by DbManager, ReadOnlyDbManager
+ * and AsnLookupDbManager. Hibernate uses the pool via PooledConnectionProvider,
+ * and the pool is created when the SessionFactory is built (see
+ * SessionFactoryHolder).
+ * <p>
+ * If all connections are in use, getConnection waits until a connection is
+ * released or the max wait time has passed.
+ */
+public class ConnectionPool {
+    private static final Logger log = Logger.getLogger(ConnectionPool.class);
+
+    private final String url;
+    private final Properties connectionProps;
+    private final int maxSize;
+    private final long maxWaitTime;
+    private final boolean autocommit;
+    private final int isolation;
+
+    private final LinkedList<Connection> idleConnections;
+    private int noOfActiveConnections;
+    private boolean closed;
+
+    // -- statistics
+    private long noOfRequests;
+    private long noOfCreatedConnections;
+    private long noOfWaits;
+    private long totalWaitTime;
+    private long longestWaitTime;
+
+
+    /**
+     * Constructor.
+     *
+     * @param url JDBC URL.
+     * @param connectionProps properties to DriverManager.getConnection, e.g. user and password.
+     * @param maxSize max no. of connections (active + idle).
+     * @param maxWaitTime max time in ms to wait for a free connection.
+     * @param autocommit autocommit mode for connections handed out.
+     * @param isolation transaction isolation level, or -1 to use driver default.
+     */
+    public ConnectionPool(String url, Properties connectionProps, int maxSize, long maxWaitTime, boolean autocommit, int isolation) {
+        this.url = url;
+        this.connectionProps = connectionProps;
+        this.maxSize = maxSize;
+        this.maxWaitTime = maxWaitTime;
+        this.autocommit = autocommit;
+        this.isolation = isolation;
+        this.idleConnections = new LinkedList<Connection>();
+        log.info("Connection pool created. Max size: " + maxSize + ", url: " + url);
+    }
+
+
+    /**
+     * Returns a connection from the pool, or creates a new one if no idle
+     * connection exists and the pool is not full. Release the connection
+     * with releaseConnection.
+     *
+     * @throws SQLException if connection cannot be created, or timeout
+     *      when waiting for a free connection.
+     */
+    public Connection getConnection() throws SQLException {
+        Connection result = null;
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("Connection pool is closed.");
+            }
+            ++noOfRequests;
+            if (idleConnections.isEmpty() && (noOfActiveConnections >= maxSize)) {
+                long t1 = System.currentTimeMillis();
+                long timeLeft = maxWaitTime;
+                while (idleConnections.isEmpty() && (noOfActiveConnections >= maxSize) && (timeLeft > 0L)) {
+                    try {
+                        wait(timeLeft);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection.");
+                    }
+                    timeLeft = maxWaitTime - (System.currentTimeMillis() - t1);
+                }
+                long waitTime = System.currentTimeMillis() - t1;
+                ++noOfWaits;
+                totalWaitTime += waitTime;
+                longestWaitTime = Math.max(longestWaitTime, waitTime);
+                if (idleConnections.isEmpty() && (noOfActiveConnections >= maxSize)) {
+                    throw new SQLException("Timeout waiting for a database connection (" + waitTime + " ms). All connections in pool are in use: " + maxSize);
+                }
+            }
+            // reserve a slot; a new connection is created outside of the lock
+            ++noOfActiveConnections;
+            result = idleConnections.poll();
+        }
+
+        try {
+            if (result == null) {
+                result = createConnection();
+            }
+            if (result.getAutoCommit() != autocommit) {
+                result.setAutoCommit(autocommit);
+            }
+        } catch (SQLException e) {
+            synchronized (this) {
+                --noOfActiveConnections;
+                notifyAll();
+            }
+            try { if (result != null) result.close(); } catch (Exception ignored) {}
+            throw e;
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns specified connection to the pool.
+     */
+    public void releaseConnection(Connection conn) throws SQLException {
+        boolean discard = conn.isClosed();
+        synchronized (this) {
+            --noOfActiveConnections;
+            if (!discard && !closed) {
+                idleConnections.add(conn);
+            } else {
+                discard = true;
+            }
+            notifyAll();
+        }
+        if (discard && !conn.isClosed()) {
+            conn.close();
+        }
+    }
+
+
+    /**
+     * Closes all idle connections. Active connections are closed when
+     * released.
+     */
+    public void close() {
+        LinkedList<Connection> connections = null;
+        synchronized (this) {
+            closed = true;
+            connections = new LinkedList<Connection>(idleConnections);
+            idleConnections.clear();
+            notifyAll();
+        }
+        for (Connection conn : connections) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.warn("Cannot close pooled connection.", e);
+            }
+        }
+    }
+
+
+    /**
+     * Returns max no. of connections (active + idle).
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    public synchronized int getNoOfActiveConnections() {
+        return noOfActiveConnections;
+    }
+
+
+    public synchronized int getNoOfIdleConnections() {
+        return idleConnections.size();
+    }
+
+
+    /**
+     * Returns total time in ms spent waiting for a free connection.
+     */
+    public synchronized long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+
+    /**
+     * Returns pool metrics as a string, e.g. to be written to the log.
+     */
+    public synchronized String getStatistics() {
+        StringBuilder result = new StringBuilder(256);
+        result.append("Active: ").append(noOfActiveConnections);
+        result.append(", Idle: ").append(idleConnections.size());
+        result.append(", Max size: ").append(maxSize);
+        result.append(", Requests: ").append(noOfRequests);
+        result.append(", Created connections: ").append(noOfCreatedConnections);
+        result.append(", Waits: ").append(noOfWaits);
+        result.append(", Total wait time: ").append(totalWaitTime).append(" ms");
+        result.append(", Longest wait time: ").append(longestWaitTime).append(" ms");
+        return result.toString();
+    }
+
+
+    private Connection createConnection() throws SQLException {
+        log.debug("Creating new connection to: " + url);
+        Connection result = DriverManager.getConnection(url, connectionProps);
+        if (isolation != -1) {
+            result.setTransactionIsolation(isolation);
+        }
+        synchronized (this) {
+            ++noOfCreatedConnections;
+        }
+        return result;
+    }
+
+}
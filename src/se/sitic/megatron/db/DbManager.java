@@ -2,6 +2,7 @@ package se.sitic.megatron.db;
 
 import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -18,7 +19,6 @@ import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.cfg.Configuration;
 
 import se.sitic.megatron.core.TypedProperties;
 import se.sitic.megatron.entity.ASNumber;
@@ -40,16 +40,32 @@ public class DbManager {
 
     protected Session session = null;    
     protected Logger log = null;    
+    private Boolean mySql = null;
     protected DbManager()
 
             throws DbException { 
 
+        this(true);
+    }
+
+
+    /**
+     * Constructor. Subclasses that do not use the database (NoDbManager) 
+     * specify false to skip Hibernate initialization.
+     */
+    protected DbManager(boolean openSession)
+
+            throws DbException { 
+
         this.log = Logger.getLogger(this.getClass());
+        if (!openSession) {
+            return;
+        }
 
         try {
-            // This step will read hibernate.cfg.xml             
-            //    and prepare hibernate for use
-            SessionFactory sessionFactory = new Configuration().configure().buildSessionFactory();            
+            // The SessionFactory (and connection pool) is shared by all
+            //    DbManager instances in the process
+            SessionFactory sessionFactory = SessionFactoryHolder.getSessionFactory();
             session = sessionFactory.openSession();
         }
         catch (HibernateException he) {                    
@@ -222,6 +238,35 @@ public class DbManager {
     }
 
 
+    /**
+     * Saves specified log entries with JDBC batch inserts (multi-row inserts
+     * for MySQL), which is much faster than addLogEntry. The entries are
+     * committed as one unit, and ids are assigned to the log entries and 
+     * their original log entries. If the batch fails, no rows are kept.  
+     */
+    @SuppressWarnings({ "deprecation" })
+    public void addLogEntries(List<LogEntry> logEntries) 
+            throws DbException { 
+
+        if (logEntries.isEmpty()) {
+            return;
+        }
+        try {
+            // write pending Hibernate operations before the batch 
+            session.flush();
+            Connection conn = session.connection();
+            if (mySql == null) {
+                String productName = conn.getMetaData().getDatabaseProductName();
+                mySql = Boolean.valueOf((productName != null) && productName.toLowerCase().contains("mysql"));
+            }
+            new LogEntryInserter(conn, mySql.booleanValue()).insert(logEntries);
+        } 
+        catch (Exception e) {
+            throw handleException(e.getClass().getSimpleName() + " exception in addLogEntries", e);
+        }
+    }
+
+
     public void updateLogEntry(LogEntry logEntry) 
             throws DbException { 
         try {                
@@ -494,6 +539,34 @@ public class DbManager {
     }
 
 
+    /**
+     * Returns all organizations with priority and contacts fetched, i.e.
+     * they can be used without a session (e.g. in a cache).
+     */
+    @SuppressWarnings("unchecked")
+    public List<Organization> getAllOrganizations(boolean includeDisabledOrgs)
+            throws DbException {
+
+        try {
+            String hql = "select distinct o from Organization o left join fetch o.Priority left join fetch o.Contacts";
+            Query query = null;
+            if (includeDisabledOrgs) {
+                query = session.createQuery(hql);
+            }
+            else {
+                query = session.createQuery(hql + " where o.Enabled = ?");
+                query.setBoolean(0, true);
+            }
+
+            return query.list();
+        }
+        catch (Exception e) {
+            throw handleException(e.getClass().getSimpleName() + " exception in getAllOrganizations", e);
+        }
+
+    }
+
+
     public void addMailJob(MailJob mailJob) 
             throws DbException { 
 
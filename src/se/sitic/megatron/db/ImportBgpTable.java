@@ -23,7 +23,8 @@ import se.sitic.megatron.util.IpAddressUtil;
 
 
 /**
- * Imports a BGP dump file to the database.
+ * Imports a BGP dump file to the database, and writes a binary snapshot
+ * of the table that is used for lookups (see AsnLookupTable).
  *  
  * Command to dump the whole BGP table:
  * ssh -lmegatron rdist01 "sh ip bgp" > ./bgp.table
@@ -81,6 +82,9 @@ public class ImportBgpTable {
                 }
             }
             log.info("Import finished. No. of imported line: " + noOfImportedLines + ", no. of skipped lines: " + noOfSkippedLines);
+            writeSnapshotFile();
+            // the in-memory table is stale; re-read on next lookup
+            AsnLookupTable.clearCache();
         } catch (IOException e) {
             String msg = "Cannot read file: " + file.getAbsolutePath();
             throw new MegatronException(msg, e);
@@ -91,6 +95,27 @@ public class ImportBgpTable {
     }
     
     
+    /**
+     * Writes imported BGP table to the snapshot file, if "bgp.snapshotFile"
+     * is defined. 
+     */
+    private void writeSnapshotFile() throws MegatronException {
+        File snapshotFile = AsnLookupTable.getSnapshotFile(props);
+        if (snapshotFile == null) {
+            log.info("No BGP snapshot file written; not defined in config: " + AppProperties.BGP_SNAPSHOT_FILE_KEY);
+            return;
+        }
+        AsnLookupTable table = dbManager.createAsnLookupTable();
+        try {
+            table.writeSnapshot(snapshotFile);
+        } catch (IOException e) {
+            String msg = "Cannot write BGP snapshot file: " + snapshotFile.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        }
+        log.info("BGP snapshot file written: " + snapshotFile.getAbsolutePath() + ". No. of segments: " + table.size());
+    }
+    
+    
     private int addHardCodedPrefixes() throws MegatronException {
         String propKey = AppProperties.BGP_HARD_CODED_PREFIXES_KEY;
         List<NameValuePair> nvList = props.getNameValuePairList(propKey, null);
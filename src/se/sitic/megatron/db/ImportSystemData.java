@@ -63,6 +63,15 @@ public class ImportSystemData {
     
     
     public ImportSystemData(TypedProperties props) throws MegatronException {
+        this(props, null);
+    }
+    
+
+    /**
+     * Constructor. Imported data is saved using specified DbManager, e.g. 
+     * NoDbManager to keep data in memory. If null, a DbManager is created.
+     */
+    public ImportSystemData(TypedProperties props, DbManager dbManager) throws MegatronException {
         this.props = props;
         this.commentMatcher = Pattern.compile(COMMENT_REG_EXP).matcher("");
         
@@ -73,11 +82,15 @@ public class ImportSystemData {
         objectParameterNames = new HashMap<String,String[]>();
         objectKeyIndexes = new HashMap<String, Integer>();
         
-        try {
-            dbm = DbManager.createDbManager(props);
-        } catch (DbException e) {
-            throw handleException("ImportSystemData", e);            
-        }                
+        if (dbManager != null) {
+            dbm = dbManager;
+        } else {
+            try {
+                dbm = DbManager.createDbManager(props);
+            } catch (DbException e) {
+                throw handleException("ImportSystemData", e);            
+            }                
+        }
         
     }
     
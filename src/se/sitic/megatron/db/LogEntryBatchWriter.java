@@ -0,0 +1,132 @@
+package se.sitic.megatron.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.DateUtil;
+
+
+/**
+ * Buffers log entries and saves them in batches using
+ * DbManager.addLogEntries. Each batch is committed as one unit.
+ * <p>
+ * If a batch fails, its entries are saved one by one to isolate the failing
+ * row. Entries before the failing row are saved, and an exception
+ * containing the original log line for the failing row is thrown.
+ * <p>
+ * Ids are assigned to log entries when they are written, i.e. not when
+ * added. Entries returned from add and flush have been saved and have ids.
+ */
+public class LogEntryBatchWriter {
+    private static final Logger log = Logger.getLogger(LogEntryBatchWriter.class);
+
+    private DbManager dbManager;
+    private int batchSize;
+    private List<LogEntry> buffer;
+
+    private long noOfBatches;
+    private long noOfFailedBatches;
+    private long noOfWrittenEntries;
+    private long writeTime;
+
+
+    /**
+     * Constructor.
+     *
+     * @param batchSize max no. of entries in a batch.
+     */
+    public LogEntryBatchWriter(DbManager dbManager, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.dbManager = dbManager;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayList<LogEntry>(batchSize);
+    }
+
+
+    /**
+     * Adds specified log entry to the batch. If the batch is full, it is
+     * written.
+     *
+     * @return entries written, or an empty list if the batch is not full.
+     */
+    public List<LogEntry> add(LogEntry logEntry) throws DbException {
+        buffer.add(logEntry);
+        if (buffer.size() >= batchSize) {
+            return flush();
+        }
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Writes buffered entries.
+     *
+     * @return entries written.
+     */
+    public List<LogEntry> flush() throws DbException {
+        if (buffer.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<LogEntry> result = buffer;
+        buffer = new ArrayList<LogEntry>(batchSize);
+        long t1 = System.currentTimeMillis();
+        try {
+            dbManager.addLogEntries(result);
+        } catch (DbException e) {
+            ++noOfFailedBatches;
+            log.warn("Cannot save batch of " + result.size() + " log entries. Saving entries one by one to isolate failing entry.", e);
+            writeOneByOne(result);
+        } finally {
+            writeTime += System.currentTimeMillis() - t1;
+        }
+        ++noOfBatches;
+        noOfWrittenEntries += result.size();
+        return result;
+    }
+
+
+    /**
+     * Returns no. of entries written so far.
+     */
+    public long getNoOfWrittenEntries() {
+        return noOfWrittenEntries;
+    }
+
+
+    /**
+     * Returns write statistics as a string, e.g. to be written to the log.
+     */
+    public String getStatistics() {
+        StringBuilder result = new StringBuilder(128);
+        result.append("Entries: ").append(noOfWrittenEntries);
+        result.append(", Batches: ").append(noOfBatches);
+        result.append(", Failed batches: ").append(noOfFailedBatches);
+        result.append(", Write time: ").append(DateUtil.formatDuration(writeTime));
+        if (writeTime > 0L) {
+            result.append(", Entries/s: ").append((1000L*noOfWrittenEntries) / writeTime);
+        }
+        return result.toString();
+    }
+
+
+    private void writeOneByOne(List<LogEntry> logEntries) throws DbException {
+        for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); ) {
+            LogEntry logEntry = iterator.next();
+            try {
+                dbManager.addLogEntries(Collections.singletonList(logEntry));
+            } catch (DbException e) {
+                String line = (logEntry.getOriginalLogEntry() != null) ? logEntry.getOriginalLogEntry().getEntry() : null;
+                throw new DbException("Cannot save log entry: " + line, e);
+            }
+        }
+    }
+
+}
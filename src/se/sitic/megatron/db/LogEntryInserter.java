@@ -0,0 +1,465 @@
+package se.sitic.megatron.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.entity.OriginalLogEntry;
+
+
+/**
+ * Writes log entries with JDBC batch inserts, bypassing Hibernate. Used by
+ * DbManager.addLogEntries.
+ * <p>
+ * For MySQL multi-row inserts are used ("insert into ... values (...),
+ * (...)"), and generated ids are fetched with getGeneratedKeys. Other
+ * databases get one insert per row for tables with generated ids, and a
+ * JDBC batch for the rest.
+ */
+class LogEntryInserter {
+    private static final Logger log = Logger.getLogger(LogEntryInserter.class);
+
+    /** Max no. of rows in a multi-row insert. */
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+    /** Max size in chars of values in a multi-row insert (max_allowed_packet is 1 MB in older MySQL versions). */
+    private static final int MAX_CHARS_PER_STATEMENT = 512*1024;
+    /** Max no. of ids in a "where ... in (...)" clause. */
+    private static final int MAX_IDS_PER_DELETE = 1000;
+
+    private static final String[] ORIGINAL_LOG_ENTRY_COLUMNS = { "created", "entry" };
+    private static final int[] ORIGINAL_LOG_ENTRY_TYPES = { Types.BIGINT, Types.VARCHAR };
+
+    private static final String[] LOG_ENTRY_COLUMNS = { "created", "log_timestamp",
+        "ip_address", "hostname", "port", "asn", "country_code",
+        "ip_address2", "hostname2", "port2", "asn2", "country_code2",
+        "ip_range_start", "ip_range_end", "url", "original_log_entry_id",
+        "org_id", "org_id2", "job_id" };
+    private static final int[] LOG_ENTRY_TYPES = { Types.BIGINT, Types.BIGINT,
+        Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.VARCHAR,
+        Types.BIGINT, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.VARCHAR,
+        Types.BIGINT, Types.BIGINT, Types.VARCHAR, Types.BIGINT,
+        Types.INTEGER, Types.INTEGER, Types.BIGINT };
+
+    private static final String[] ADDITIONAL_ITEM_COLUMNS = { "log_entry_id", "name", "value" };
+    private static final int[] ADDITIONAL_ITEM_TYPES = { Types.BIGINT, Types.VARCHAR, Types.VARCHAR };
+
+    private static final String[] FREE_TEXT_COLUMNS = { "log_entry_id", "text_index", "text" };
+    private static final int[] FREE_TEXT_TYPES = { Types.BIGINT, Types.INTEGER, Types.VARCHAR };
+
+    private final Connection conn;
+    private final boolean multiRowInsert;
+
+    // multi-row insert into original_log_entry that failed, and that may have been partly executed
+    private List<Object[]> failedOriginalRows;
+    private long failedOriginalMinId;
+
+
+    /**
+     * Constructor.
+     *
+     * @param multiRowInsert use multi-row inserts (MySQL syntax).
+     */
+    public LogEntryInserter(Connection conn, boolean multiRowInsert) {
+        this.conn = conn;
+        this.multiRowInsert = multiRowInsert;
+    }
+
+
+    /**
+     * Inserts specified log entries, including original log entries,
+     * additional items and free texts, and assigns ids to the log entries
+     * and original log entries.
+     * <p>
+     * If an insert fails, the transaction is rolled back (if not in
+     * autocommit mode) and rows already written are deleted. The latter is
+     * needed for non-transactional tables, e.g. MyISAM, where a multi-row
+     * insert may be partly executed before its generated ids are read.
+     */
+    public void insert(List<LogEntry> logEntries) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        failedOriginalRows = null;
+        List<Long> originalLogEntryIds = new ArrayList<Long>(logEntries.size());
+        List<Long> logEntryIds = new ArrayList<Long>(logEntries.size());
+        try {
+            List<Object[]> rows = new ArrayList<Object[]>(logEntries.size());
+            for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); ) {
+                OriginalLogEntry originalLogEntry = iterator.next().getOriginalLogEntry();
+                rows.add(new Object[] { originalLogEntry.getCreated(), originalLogEntry.getEntry() });
+            }
+            insertRows("original_log_entry", ORIGINAL_LOG_ENTRY_COLUMNS, ORIGINAL_LOG_ENTRY_TYPES, rows, originalLogEntryIds);
+
+            rows.clear();
+            int i = 0;
+            for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); i++) {
+                rows.add(createLogEntryRow(iterator.next(), originalLogEntryIds.get(i)));
+            }
+            insertRows("log_entry", LOG_ENTRY_COLUMNS, LOG_ENTRY_TYPES, rows, logEntryIds);
+
+            rows.clear();
+            i = 0;
+            for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); i++) {
+                Map<String, String> additionalItems = iterator.next().getAdditionalItems();
+                if (additionalItems == null) {
+                    continue;
+                }
+                for (Iterator<Map.Entry<String, String>> iterator2 = additionalItems.entrySet().iterator(); iterator2.hasNext(); ) {
+                    Map.Entry<String, String> entry = iterator2.next();
+                    if ((entry.getKey() != null) && (entry.getValue() != null)) {
+                        rows.add(new Object[] { logEntryIds.get(i), entry.getKey(), entry.getValue() });
+                    }
+                }
+            }
+            insertRows("additional_item", ADDITIONAL_ITEM_COLUMNS, ADDITIONAL_ITEM_TYPES, rows, null);
+
+            rows.clear();
+            i = 0;
+            for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); i++) {
+                List<String> freeTexts = iterator.next().getFreeTexts();
+                if (freeTexts == null) {
+                    continue;
+                }
+                for (int j = 0; j < freeTexts.size(); j++) {
+                    if (freeTexts.get(j) != null) {
+                        rows.add(new Object[] { logEntryIds.get(i), j, freeTexts.get(j) });
+                    }
+                }
+            }
+            insertRows("free_text", FREE_TEXT_COLUMNS, FREE_TEXT_TYPES, rows, null);
+
+            if (!autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            if (!autoCommit) {
+                try { conn.rollback(); } catch (Exception ignored) {}
+            }
+            deleteRows(originalLogEntryIds, logEntryIds, getJobId(logEntries), autoCommit);
+            throw e;
+        }
+
+        int i = 0;
+        for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); i++) {
+            LogEntry logEntry = iterator.next();
+            logEntry.setId(logEntryIds.get(i));
+            logEntry.getOriginalLogEntry().setId(originalLogEntryIds.get(i));
+        }
+    }
+
+
+    private Object[] createLogEntryRow(LogEntry logEntry, Long originalLogEntryId) {
+        Object[] result = new Object[LOG_ENTRY_COLUMNS.length];
+        int i = 0;
+        result[i++] = logEntry.getCreated();
+        result[i++] = logEntry.getLogTimestamp();
+        result[i++] = logEntry.getIpAddress();
+        result[i++] = logEntry.getHostname();
+        result[i++] = logEntry.getPort();
+        result[i++] = logEntry.getAsn();
+        result[i++] = logEntry.getCountryCode();
+        result[i++] = logEntry.getIpAddress2();
+        result[i++] = logEntry.getHostname2();
+        result[i++] = logEntry.getPort2();
+        result[i++] = logEntry.getAsn2();
+        result[i++] = logEntry.getCountryCode2();
+        result[i++] = logEntry.getIpRangeStart();
+        result[i++] = logEntry.getIpRangeEnd();
+        result[i++] = logEntry.getUrl();
+        result[i++] = originalLogEntryId;
+        result[i++] = (logEntry.getOrganization() != null) ? logEntry.getOrganization().getId() : null;
+        result[i++] = (logEntry.getOrganization2() != null) ? logEntry.getOrganization2().getId() : null;
+        result[i++] = (logEntry.getJob() != null) ? logEntry.getJob().getId() : null;
+        return result;
+    }
+
+
+    /**
+     * Inserts specified rows into table.
+     *
+     * @param generatedIds generated ids are added to this list, in the same
+     *      order as rows. Null if table has no generated id.
+     */
+    private void insertRows(String table, String[] columns, int[] types, List<Object[]> rows, List<Long> generatedIds) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        if (!multiRowInsert) {
+            String sql = createInsertSql(table, columns, 1);
+            PreparedStatement stmt = null;
+            try {
+                if (generatedIds != null) {
+                    stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                    for (Iterator<Object[]> iterator = rows.iterator(); iterator.hasNext(); ) {
+                        setParameters(stmt, 0, types, iterator.next());
+                        stmt.executeUpdate();
+                        readGeneratedKeys(stmt, 1, generatedIds);
+                    }
+                } else {
+                    stmt = conn.prepareStatement(sql);
+                    for (Iterator<Object[]> iterator = rows.iterator(); iterator.hasNext(); ) {
+                        setParameters(stmt, 0, types, iterator.next());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            } finally {
+                try { if (stmt != null) stmt.close(); } catch (Exception ignored) {}
+            }
+            return;
+        }
+
+        int fromIndex = 0;
+        while (fromIndex < rows.size()) {
+            // find rows for this statement
+            int toIndex = fromIndex;
+            long noOfChars = 0L;
+            while ((toIndex < rows.size()) && ((toIndex - fromIndex) < MAX_ROWS_PER_STATEMENT) && ((toIndex == fromIndex) || (noOfChars < MAX_CHARS_PER_STATEMENT))) {
+                noOfChars += estimateSize(rows.get(toIndex));
+                ++toIndex;
+            }
+
+            int noOfRows = toIndex - fromIndex;
+            String sql = createInsertSql(table, columns, noOfRows);
+            // Rows in original_log_entry cannot be found by foreign key. Ids of
+            // rows from this statement are greater than ids already read, or 
+            // than max id in the table if this is the first statement. 
+            boolean trackFailure = table.equals("original_log_entry") && (generatedIds != null);
+            long minId = 0L;
+            if (trackFailure) {
+                minId = generatedIds.isEmpty() ? selectMaxId(table) : generatedIds.get(generatedIds.size() - 1).longValue();
+            }
+            PreparedStatement stmt = null;
+            try {
+                stmt = (generatedIds != null) ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql);
+                int paramIndex = 0;
+                for (int i = fromIndex; i < toIndex; i++) {
+                    paramIndex = setParameters(stmt, paramIndex, types, rows.get(i));
+                }
+                try {
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    if (trackFailure) {
+                        failedOriginalRows = new ArrayList<Object[]>(rows.subList(fromIndex, toIndex));
+                        failedOriginalMinId = minId;
+                    }
+                    throw e;
+                }
+                if (generatedIds != null) {
+                    readGeneratedKeys(stmt, noOfRows, generatedIds);
+                }
+            } finally {
+                try { if (stmt != null) stmt.close(); } catch (Exception ignored) {}
+            }
+            fromIndex = toIndex;
+        }
+    }
+
+
+    private String createInsertSql(String table, String[] columns, int noOfRows) {
+        StringBuilder placeholders = new StringBuilder(2 + 2*columns.length);
+        placeholders.append('(');
+        for (int i = 0; i < columns.length; i++) {
+            placeholders.append((i == 0) ? "?" : ",?");
+        }
+        placeholders.append(')');
+
+        StringBuilder result = new StringBuilder(64 + 16*columns.length + noOfRows*(placeholders.length() + 1));
+        result.append("insert into ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(columns[i]);
+        }
+        result.append(") values ");
+        for (int i = 0; i < noOfRows; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(placeholders);
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Sets parameters for a row, and returns the last parameter index used.
+     */
+    private int setParameters(PreparedStatement stmt, int paramIndex, int[] types, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            ++paramIndex;
+            if (row[i] == null) {
+                stmt.setNull(paramIndex, types[i]);
+            } else {
+                stmt.setObject(paramIndex, row[i], types[i]);
+            }
+        }
+        return paramIndex;
+    }
+
+
+    private void readGeneratedKeys(PreparedStatement stmt, int noOfRows, List<Long> generatedIds) throws SQLException {
+        int noOfKeys = 0;
+        ResultSet resultSet = stmt.getGeneratedKeys();
+        try {
+            while (resultSet.next()) {
+                generatedIds.add(resultSet.getLong(1));
+                ++noOfKeys;
+            }
+        } finally {
+            try { resultSet.close(); } catch (Exception ignored) {}
+        }
+        if (noOfKeys != noOfRows) {
+            throw new SQLException("Unexpected no. of generated keys: " + noOfKeys + " (expected " + noOfRows + ").");
+        }
+    }
+
+
+    private long estimateSize(Object[] row) {
+        long result = 0L;
+        for (int i = 0; i < row.length; i++) {
+            result += (row[i] instanceof String) ? (2 + 2*((String)row[i]).length()) : 16;
+        }
+        return result;
+    }
+
+
+    /**
+     * Deletes rows written before a failure. Child rows are deleted by
+     * foreign key, which also removes rows from a partially executed
+     * multi-row insert into log_entry. Rows from a partially executed
+     * insert into original_log_entry are deleted by id range and content.
+     */
+    private void deleteRows(List<Long> originalLogEntryIds, List<Long> logEntryIds, Long jobId, boolean autoCommit) {
+        try {
+            deleteRows("free_text", "log_entry_id", logEntryIds);
+            deleteRows("additional_item", "log_entry_id", logEntryIds);
+            // original_log_entry_id is not indexed; narrow the search by job_id
+            String jobFilter = (jobId != null) ? "job_id = " + jobId.longValue() : null;
+            deleteRows("log_entry", jobFilter, "original_log_entry_id", originalLogEntryIds);
+            deleteRows("original_log_entry", "id", originalLogEntryIds);
+            deleteFailedOriginalRows();
+            if (!autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            String idRange = originalLogEntryIds.isEmpty() ? "none" : originalLogEntryIds.get(0) + "-" + originalLogEntryIds.get(originalLogEntryIds.size() - 1);
+            log.error("Cannot delete rows from failed batch insert. Original log entry ids: " + idRange + ", failed statement after id: " + 
+                    ((failedOriginalRows != null) ? Long.toString(failedOriginalMinId) : "none"), e);
+        }
+    }
+
+
+    /**
+     * Deletes rows that may have been written by the failed multi-row insert
+     * into original_log_entry. Generated ids are not known, but the rows
+     * have ids greater than failedOriginalMinId, and their content is known.
+     * Other writers may insert rows with the same content, hence the limit
+     * and order (MySQL syntax; multi-row inserts are only used for MySQL).
+     */
+    private void deleteFailedOriginalRows() throws SQLException {
+        if (failedOriginalRows == null) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(128 + 2*failedOriginalRows.size());
+        sql.append("delete from original_log_entry where id > ? and entry in (");
+        for (int i = 0; i < failedOriginalRows.size(); i++) {
+            sql.append((i == 0) ? "?" : ",?");
+        }
+        sql.append(") order by id limit ").append(failedOriginalRows.size());
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(sql.toString());
+            stmt.setLong(1, failedOriginalMinId);
+            int paramIndex = 1;
+            for (Iterator<Object[]> iterator = failedOriginalRows.iterator(); iterator.hasNext(); ) {
+                stmt.setString(++paramIndex, (String)iterator.next()[1]);
+            }
+            int noOfRows = stmt.executeUpdate();
+            if (noOfRows > 0) {
+                log.info("Rows deleted from partially executed insert into original_log_entry: " + noOfRows);
+            }
+        } finally {
+            try { if (stmt != null) stmt.close(); } catch (Exception ignored) {}
+        }
+    }
+
+
+    private long selectMaxId(String table) throws SQLException {
+        Statement stmt = null;
+        ResultSet resultSet = null;
+        try {
+            stmt = conn.createStatement();
+            resultSet = stmt.executeQuery("select max(id) from " + table);
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        } finally {
+            try { if (resultSet != null) resultSet.close(); } catch (Exception ignored) {}
+            try { if (stmt != null) stmt.close(); } catch (Exception ignored) {}
+        }
+    }
+
+
+    /**
+     * Returns job id if all log entries belong to the same job, otherwise null.
+     */
+    private Long getJobId(List<LogEntry> logEntries) {
+        Long result = null;
+        for (Iterator<LogEntry> iterator = logEntries.iterator(); iterator.hasNext(); ) {
+            LogEntry logEntry = iterator.next();
+            Long jobId = (logEntry.getJob() != null) ? logEntry.getJob().getId() : null;
+            if ((jobId == null) || ((result != null) && !result.equals(jobId))) {
+                return null;
+            }
+            result = jobId;
+        }
+        return result;
+    }
+
+
+    private void deleteRows(String table, String column, List<Long> ids) throws SQLException {
+        deleteRows(table, null, column, ids);
+    }
+
+
+    /**
+     * Deletes rows where column is one of specified ids.
+     * 
+     * @param filter additional condition, e.g. "job_id = 42", or null.
+     */
+    private void deleteRows(String table, String filter, String column, List<Long> ids) throws SQLException {
+        for (int fromIndex = 0; fromIndex < ids.size(); fromIndex += MAX_IDS_PER_DELETE) {
+            int toIndex = Math.min(fromIndex + MAX_IDS_PER_DELETE, ids.size());
+            StringBuilder sql = new StringBuilder(64 + 12*(toIndex - fromIndex));
+            sql.append("delete from ").append(table).append(" where ");
+            if (filter != null) {
+                sql.append(filter).append(" and ");
+            }
+            sql.append(column).append(" in (");
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (i > fromIndex) {
+                    sql.append(',');
+                }
+                sql.append(ids.get(i).longValue());
+            }
+            sql.append(')');
+            Statement stmt = null;
+            try {
+                stmt = conn.createStatement();
+                stmt.executeUpdate(sql.toString());
+            } finally {
+                try { if (stmt != null) stmt.close(); } catch (Exception ignored) {}
+            }
+        }
+    }
+
+}
@@ -0,0 +1,414 @@
+package se.sitic.megatron.db;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.ASNumber;
+import se.sitic.megatron.entity.Contact;
+import se.sitic.megatron.entity.DomainName;
+import se.sitic.megatron.entity.EntryType;
+import se.sitic.megatron.entity.IpRange;
+import se.sitic.megatron.entity.Job;
+import se.sitic.megatron.entity.JobType;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.entity.MailJob;
+import se.sitic.megatron.entity.Organization;
+import se.sitic.megatron.entity.Priority;
+import se.sitic.megatron.util.Constants;
+
+
+/**
+ * DbManager that does not use a database; no Hibernate session is created
+ * and no connection is made. Used by JobManager for --no-db, e.g. to convert
+ * files on a host without a database.
+ * <p>
+ * Writes are ignored. Priorities, entry types, job types and organizations
+ * are read from the system data file specified in "db.noDb.dataFile" (same
+ * format as for --import-contacts). If no file is specified, no
+ * organizations exist, and job types are created on the fly.
+ */
+public class NoDbManager extends DbManager {
+
+    private Map<String, List<Object>> objectMap;
+    private Map<Integer, Organization> organizationMap;
+    private int nextId;
+
+
+    public NoDbManager(TypedProperties props) throws DbException {
+        super(false);
+
+        objectMap = new HashMap<String, List<Object>>();
+        organizationMap = new LinkedHashMap<Integer, Organization>();
+        nextId = 1;
+
+        String fileName = props.getString(AppProperties.NO_DB_DATA_FILE_KEY, "");
+        if (fileName.trim().length() > 0) {
+            long t1 = System.currentTimeMillis();
+            try {
+                new ImportSystemData(props, this).importFile(fileName);
+            } catch (MegatronException e) {
+                throw new DbException("Cannot read system data file: " + fileName, e);
+            }
+            log.info("System data read from file (" + (System.currentTimeMillis() - t1) + " ms): " + fileName + ". No. of organizations: " + organizationMap.size());
+        }
+    }
+
+
+    // -- Methods used by ImportSystemData
+
+    @Override
+    public Object genericLoadObject(String className, String searchField, Object value)
+            throws DbException {
+
+        List<Object> objects = objectMap.get(className);
+        if ((objects == null) || (value == null)) {
+            return null;
+        }
+        try {
+            for (Iterator<Object> iterator = objects.iterator(); iterator.hasNext(); ) {
+                Object obj = iterator.next();
+                Method method = obj.getClass().getMethod("get" + searchField);
+                if (value.equals(method.invoke(obj))) {
+                    return obj;
+                }
+            }
+        } catch (Exception e) {
+            // NoSuchMethodException, IllegalAccessException, InvocationTargetException
+            throw new DbException("Cannot search for " + className + " (" + searchField + "=" + value + ")", e);
+        }
+        return null;
+    }
+
+
+    @Override
+    public void addPriority(Priority prio)
+            throws DbException {
+
+        if (prio.getId() == null) {
+            prio.setId(nextId++);
+        }
+        addObject("Priority", prio);
+    }
+
+
+    @Override
+    public void addEntryType(EntryType entryType)
+            throws DbException {
+
+        if (entryType.getId() == null) {
+            entryType.setId(nextId++);
+        }
+        addObject("EntryType", entryType);
+    }
+
+
+    @Override
+    public void addJobType(JobType jobType)
+            throws DbException {
+
+        if (jobType.getId() == null) {
+            jobType.setId(nextId++);
+        }
+        addObject("JobType", jobType);
+    }
+
+
+    /**
+     * Adds or updates specified organization. Signature used by
+     * ImportSystemData.
+     */
+    public void addOrganization(Organization org)
+            throws DbException {
+
+        if (org.getId() == null) {
+            org.setId(nextId++);
+        }
+        if (org.getContacts() == null) {
+            // an empty collection is returned from Hibernate 
+            org.setContacts(new TreeSet<Contact>());
+        }
+        Integer id = org.getId();
+        if (!organizationMap.containsKey(id)) {
+            organizationMap.put(id, org);
+            addObject("Organization", org);
+        }
+        if (org.getIpRanges() != null) {
+            for (Iterator<IpRange> iterator = org.getIpRanges().iterator(); iterator.hasNext(); ) {
+                iterator.next().setOrganizationId(id);
+            }
+        }
+        if (org.getASNumbers() != null) {
+            for (Iterator<ASNumber> iterator = org.getASNumbers().iterator(); iterator.hasNext(); ) {
+                iterator.next().setOrganizationId(id);
+            }
+        }
+        if (org.getDomainNames() != null) {
+            for (Iterator<DomainName> iterator = org.getDomainNames().iterator(); iterator.hasNext(); ) {
+                iterator.next().setOrganizationId(id);
+            }
+        }
+    }
+
+
+    @Override
+    public void addOrganization(Organization org, String modifiedBy)
+            throws DbException {
+
+        addOrganization(org);
+    }
+
+
+    @Override
+    public void updateOrganization(Organization org, String modifiedBy)
+            throws DbException {
+
+        addOrganization(org);
+    }
+
+
+    // -- Read methods
+
+    @Override
+    public JobType searchJobType(String name)
+            throws DbException {
+
+        JobType result = (JobType)genericLoadObject("JobType", "Name", name);
+        if ((result == null) && (name != null)) {
+            // job type not in system data file; create it
+            JobType defaultJobType = (JobType)genericLoadObject("JobType", "Name", Constants.DEFAULT_JOB_TYPE);
+            EntryType entryType = (defaultJobType != null) ? defaultJobType.getEntryType() : null;
+            if (entryType == null) {
+                entryType = new EntryType();
+                entryType.setName("Default");
+            }
+            result = new JobType();
+            result.setName(name);
+            result.setEnabled(true);
+            result.setEntryType(entryType);
+            addJobType(result);
+        }
+        return result;
+    }
+
+
+    @Override
+    public EntryType searchEntryType(String name)
+            throws DbException {
+
+        return (EntryType)genericLoadObject("EntryType", "Name", name);
+    }
+
+
+    @Override
+    public Priority getPriority(int prio)
+            throws DbException {
+
+        return (Priority)genericLoadObject("Priority", "Prio", prio);
+    }
+
+
+    @Override
+    public List<Priority> getAllPriorities()
+            throws DbException {
+
+        List<Priority> result = new ArrayList<Priority>();
+        List<Object> objects = objectMap.get("Priority");
+        if (objects != null) {
+            for (Iterator<Object> iterator = objects.iterator(); iterator.hasNext(); ) {
+                result.add((Priority)iterator.next());
+            }
+        }
+        Collections.sort(result, new Comparator<Priority>() {
+                @Override
+                public int compare(Priority o1, Priority o2) {
+                    return o2.getPrio().compareTo(o1.getPrio());
+                }
+            });
+        return result;
+    }
+
+
+    @Override
+    public Organization getOrganization(int orgId)
+            throws DbException {
+
+        return organizationMap.get(orgId);
+    }
+
+
+    @Override
+    public List<Organization> getAllOrganizations(boolean includeDisabledOrgs)
+            throws DbException {
+
+        List<Organization> result = new ArrayList<Organization>();
+        for (Iterator<Organization> iterator = organizationMap.values().iterator(); iterator.hasNext(); ) {
+            Organization org = iterator.next();
+            if (includeDisabledOrgs || org.isEnabled()) {
+                result.add(org);
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public Organization searchOrganization(String name)
+            throws DbException {
+
+        return (Organization)genericLoadObject("Organization", "Name", name);
+    }
+
+
+    @Override
+    public List<IpRange> getAllIpRanges(boolean includeDisabledOrgs)
+            throws DbException {
+
+        List<IpRange> result = new ArrayList<IpRange>();
+        for (Iterator<Organization> iterator = organizationMap.values().iterator(); iterator.hasNext(); ) {
+            Organization org = iterator.next();
+            if ((includeDisabledOrgs || org.isEnabled()) && (org.getIpRanges() != null)) {
+                result.addAll(org.getIpRanges());
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public List<ASNumber> getAllASNumbers(boolean includeDisabledOrgs)
+            throws DbException {
+
+        List<ASNumber> result = new ArrayList<ASNumber>();
+        for (Iterator<Organization> iterator = organizationMap.values().iterator(); iterator.hasNext(); ) {
+            Organization org = iterator.next();
+            if ((includeDisabledOrgs || org.isEnabled()) && (org.getASNumbers() != null)) {
+                result.addAll(org.getASNumbers());
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public List<DomainName> getAllDomainNames(boolean includeDisabledOrgs)
+            throws DbException {
+
+        List<DomainName> result = new ArrayList<DomainName>();
+        for (Iterator<Organization> iterator = organizationMap.values().iterator(); iterator.hasNext(); ) {
+            Organization org = iterator.next();
+            if ((includeDisabledOrgs || org.isEnabled()) && (org.getDomainNames() != null)) {
+                result.addAll(org.getDomainNames());
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public boolean existsFileHash(String hash)
+            throws DbException {
+
+        return false;
+    }
+
+
+    @Override
+    public Job searchLogJob(String name)
+            throws DbException {
+
+        return null;
+    }
+
+
+    // -- Write methods (ignored)
+
+    @Override
+    public void addLogEntry(LogEntry logEntry)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void addLogEntries(List<LogEntry> logEntries)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void updateLogEntry(LogEntry logEntry)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void addLogJob(Job job)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void finishLogJob(Job job, String errorMsg)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void addMailJob(MailJob mailJob)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void finishMailJob(MailJob mailJob, String errorMsg)
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void flushSession()
+            throws DbException {
+
+    }
+
+
+    @Override
+    public void close()
+            throws DbException {
+
+    }
+
+
+    private void addObject(String className, Object obj) {
+        List<Object> objects = objectMap.get(className);
+        if (objects == null) {
+            objects = new ArrayList<Object>();
+            objectMap.put(className, objects);
+        }
+        // compare identity; entities without id are never equal
+        for (Iterator<Object> iterator = objects.iterator(); iterator.hasNext(); ) {
+            if (iterator.next() == obj) {
+                return;
+            }
+        }
+        objects.add(obj);
+    }
+
+}
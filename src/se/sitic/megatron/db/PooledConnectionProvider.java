@@ -0,0 +1,111 @@
+package se.sitic.megatron.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.connection.ConnectionProviderFactory;
+import org.hibernate.util.PropertiesHelper;
+import org.hibernate.util.ReflectHelper;
+
+
+/**
+ * Hibernate connection provider that hands out connections from the shared
+ * ConnectionPool. Configured in SessionFactoryHolder.
+ * <p>
+ * Uses the same properties as Hibernate's built-in provider
+ * (hibernate.connection.driver_class, url, username, password, autocommit,
+ * isolation and pool_size). In addition, hibernate.connection.pool_max_wait
+ * specifies max time in ms to wait for a free connection.
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+    private static final Logger log = Logger.getLogger(PooledConnectionProvider.class);
+
+    /** Max time in ms to wait for a free connection. */
+    public static final String POOL_MAX_WAIT_KEY = "hibernate.connection.pool_max_wait";
+
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final long DEFAULT_MAX_WAIT = 60*1000L;
+
+    private static ConnectionPool connectionPool;
+
+
+    public PooledConnectionProvider() {
+        // empty
+    }
+
+
+    /**
+     * Returns the shared connection pool, or null if not yet created.
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+
+    @Override
+    public void configure(Properties props) throws HibernateException {
+        String driverClass = props.getProperty(Environment.DRIVER);
+        if (driverClass != null) {
+            try {
+                ReflectHelper.classForName(driverClass);
+            } catch (ClassNotFoundException e) {
+                throw new HibernateException("JDBC driver class not found: " + driverClass, e);
+            }
+        }
+        String url = props.getProperty(Environment.URL);
+        if (url == null) {
+            throw new HibernateException("JDBC URL not specified: " + Environment.URL);
+        }
+        int poolSize = PropertiesHelper.getInt(Environment.POOL_SIZE, props, DEFAULT_POOL_SIZE);
+        long maxWait = PropertiesHelper.getInt(POOL_MAX_WAIT_KEY, props, (int)DEFAULT_MAX_WAIT);
+        boolean autocommit = PropertiesHelper.getBoolean(Environment.AUTOCOMMIT, props);
+        Integer isolation = PropertiesHelper.getInteger(Environment.ISOLATION, props);
+        Properties connectionProps = ConnectionProviderFactory.getConnectionProperties(props);
+
+        synchronized (PooledConnectionProvider.class) {
+            if (connectionPool == null) {
+                connectionPool = new ConnectionPool(url, connectionProps, poolSize, maxWait, autocommit, (isolation != null) ? isolation.intValue() : -1);
+            } else {
+                log.warn("Connection pool already created; reusing existing pool.");
+            }
+        }
+    }
+
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnectionPool().getConnection();
+    }
+
+
+    @Override
+    public void closeConnection(Connection conn) throws SQLException {
+        getConnectionPool().releaseConnection(conn);
+    }
+
+
+    @Override
+    public void close() throws HibernateException {
+        ConnectionPool pool = null;
+        synchronized (PooledConnectionProvider.class) {
+            pool = connectionPool;
+            connectionPool = null;
+        }
+        if (pool != null) {
+            log.info("Closing connection pool. " + pool.getStatistics());
+            pool.close();
+        }
+    }
+
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+}
@@ -5,6 +5,8 @@ package se.sitic.megatron.db;
     */
 
 
+import java.util.List;
+
 import se.sitic.megatron.entity.Job;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.entity.MailJob;
@@ -29,6 +31,14 @@ public class ReadOnlyDbManager extends  DbManager {
     }
 
     
+    @Override
+    public void addLogEntries(List<LogEntry> logEntries) 
+    throws DbException {                
+        
+
+    }
+
+    
     @Override
     public void updateLogEntry(LogEntry logEntry) 
     throws DbException {                
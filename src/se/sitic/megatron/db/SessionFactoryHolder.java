@@ -0,0 +1,92 @@
+package se.sitic.megatron.db;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+
+
+/**
+ * Holds the process-wide SessionFactory. The factory is expensive to build
+ * (reads hibernate.cfg.xml and all mappings), and each factory owns its own
+ * connections, so it is created once and shared by all DbManager instances.
+ * <p>
+ * Unless another connection provider or a datasource is specified in
+ * hibernate.cfg.xml, connections are handed out from a shared ConnectionPool
+ * via PooledConnectionProvider. AsnLookupDbManager uses the same pool.
+ */
+public class SessionFactoryHolder {
+    private static final Logger log = Logger.getLogger(SessionFactoryHolder.class);
+
+    private static SessionFactory sessionFactory;
+
+
+    private SessionFactoryHolder() {
+        // empty
+    }
+
+
+    /**
+     * Returns the shared SessionFactory. Created the first time this method
+     * is called.
+     */
+    public static synchronized SessionFactory getSessionFactory() throws HibernateException {
+        if (sessionFactory == null) {
+            long t1 = System.currentTimeMillis();
+            // This step will read hibernate.cfg.xml and prepare hibernate for use
+            Configuration cfg = new Configuration().configure();
+            if ((cfg.getProperty(Environment.CONNECTION_PROVIDER) == null) && (cfg.getProperty(Environment.DATASOURCE) == null)) {
+                cfg.setProperty(Environment.CONNECTION_PROVIDER, PooledConnectionProvider.class.getName());
+            }
+            sessionFactory = cfg.buildSessionFactory();
+            log.debug("SessionFactory created: " + (System.currentTimeMillis() - t1) + " ms.");
+        }
+        return sessionFactory;
+    }
+
+
+    /**
+     * Returns the shared connection pool, or null if a custom connection
+     * provider is used. The SessionFactory, and hence the pool, is created
+     * if needed.
+     */
+    public static ConnectionPool getConnectionPool() throws HibernateException {
+        getSessionFactory();
+        return PooledConnectionProvider.getConnectionPool();
+    }
+
+
+    /**
+     * Writes connection pool metrics (active and idle connections, wait
+     * time etc.) to the log. Does nothing if the pool is not in use.
+     */
+    public static void logPoolStatistics() {
+        ConnectionPool pool = null;
+        synchronized (SessionFactoryHolder.class) {
+            if (sessionFactory != null) {
+                pool = PooledConnectionProvider.getConnectionPool();
+            }
+        }
+        if (pool != null) {
+            log.info("Connection pool statistics. " + pool.getStatistics());
+        }
+    }
+
+
+    /**
+     * Closes the SessionFactory and the connection pool. A new factory is
+     * created if getSessionFactory is called again.
+     */
+    public static synchronized void close() {
+        if (sessionFactory != null) {
+            try {
+                sessionFactory.close();
+            } catch (HibernateException e) {
+                log.error("Cannot close SessionFactory.", e);
+            }
+            sessionFactory = null;
+        }
+    }
+
+}
@@ -8,7 +8,7 @@ import org.apache.log4j.Logger;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
-import se.sitic.megatron.db.AsnLookupDbManager;
+import se.sitic.megatron.db.AsnLookupTable;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.util.AppUtil;
 
@@ -16,9 +16,10 @@ import se.sitic.megatron.util.AppUtil;
 /**
  * Adds ASN if missing and ip-address exists.
  * <p>
- * This class is using the database for "ip --> ASN"-lookups. BGP data must
- * be imported, otherwise lookups will fail. Use AsnGeoIpDecorator if
- * BGP data are not available. 
+ * This class is using the BGP data in the database for "ip --> ASN"-lookups.
+ * The data is read into memory once and shared between jobs (see 
+ * AsnLookupTable). BGP data must be imported, otherwise lookups will fail. 
+ * Use AsnGeoIpDecorator if BGP data are not available. 
  * <p>
  * Alternative implementation:
  * Login to BGP-router using SSH and parse result from the command
@@ -35,7 +36,7 @@ import se.sitic.megatron.util.AppUtil;
 public class AsnDecorator implements IDecorator {
     private static final Logger log = Logger.getLogger(AsnDecorator.class);
 
-    private AsnLookupDbManager dbManager;
+    private AsnLookupTable asnLookupTable;
     private long noOfLookups;
     private long noOfLookups2;
 
@@ -43,7 +44,7 @@ public class AsnDecorator implements IDecorator {
     @Override
     public void init(JobContext jobContext) throws MegatronException {
         TypedProperties props = jobContext.getProps();
-        dbManager = new AsnLookupDbManager(props);
+        asnLookupTable = AsnLookupTable.getInstance(props);
     }    
 
 
@@ -52,7 +53,7 @@ public class AsnDecorator implements IDecorator {
         List<Long> ipAddresses = AppUtil.getIpAddressesToDecorate(logEntry);
         Iterator<Long> iterator = (ipAddresses != null) ? ipAddresses.iterator() : null;
         while ((logEntry.getAsn() == null) && (iterator != null) && iterator.hasNext()) {
-            long asn = dbManager.searchAsn(iterator.next());
+            long asn = asnLookupTable.searchAsn(iterator.next());
             if (asn != -1L) {
                 logEntry.setAsn(new Long(asn));
             }
@@ -60,7 +61,7 @@ public class AsnDecorator implements IDecorator {
         }
 
         if ((logEntry.getAsn2() == null) && (logEntry.getIpAddress2() != null)) {
-            long asn = dbManager.searchAsn(logEntry.getIpAddress2().longValue());
+            long asn = asnLookupTable.searchAsn(logEntry.getIpAddress2().longValue());
             if (asn != -1L) {
                 logEntry.setAsn2(new Long(asn));
             }
@@ -72,9 +73,7 @@ public class AsnDecorator implements IDecorator {
     @Override
     public void close() throws MegatronException {
         long noOfTotalLookups = noOfLookups + noOfLookups2;
-        log.info("No. of lookups by AsnDecorator (ip --> asn): " + noOfTotalLookups + " (" + noOfLookups + "+" + noOfLookups2 + ")."); 
-
-        dbManager.close();
+        log.info("No. of lookups by AsnDecorator (ip --> asn): " + noOfTotalLookups + " (" + noOfLookups + "+" + noOfLookups2 + ").");
     }
 
 }
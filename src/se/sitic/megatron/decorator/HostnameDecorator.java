@@ -2,7 +2,6 @@ package se.sitic.megatron.decorator;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -11,7 +10,9 @@ import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.fileprocessor.MultithreadedDnsProcessor;
 import se.sitic.megatron.util.AppUtil;
+import se.sitic.megatron.util.ConcurrentLongObjectHashMap;
 import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.DnsCache;
 import se.sitic.megatron.util.IpAddressUtil;
 import se.sitic.megatron.util.StringUtil;
 
@@ -22,7 +23,8 @@ import se.sitic.megatron.util.StringUtil;
 public class HostnameDecorator implements IDecorator {
     private static final Logger log = Logger.getLogger(HostnameDecorator.class);    
 
-    private Map<Long, String> reverseDnsMap;
+    private ConcurrentLongObjectHashMap<String> reverseDnsMap;
+    private MultithreadedDnsProcessor dnsPrefetch;
     private long noOfLookups;
     private long noOfLookups2;
     private long noOfFailedLookups;
@@ -34,7 +36,8 @@ public class HostnameDecorator implements IDecorator {
     @SuppressWarnings("unchecked")
     @Override
     public void init(JobContext jobContext) throws MegatronException {
-        reverseDnsMap = (Map<Long, String>)jobContext.getAdditionalData(MultithreadedDnsProcessor.REVERSE_DNS_MAP_KEY);
+        reverseDnsMap = (ConcurrentLongObjectHashMap<String>)jobContext.getAdditionalData(MultithreadedDnsProcessor.REVERSE_DNS_MAP_KEY);
+        dnsPrefetch = (MultithreadedDnsProcessor)jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_PREFETCH_KEY);
     }
 
 
@@ -72,6 +75,7 @@ public class HostnameDecorator implements IDecorator {
 
     @Override
     public void close() throws MegatronException {
+        DnsCache.getInstance().flush();
         long noOfTotalLookups = noOfLookups + noOfLookups2;
         log.info("No. of lookups (ip --> hostname): " + noOfTotalLookups + " (" + noOfLookups + "+" + noOfLookups2 + ")."); 
         long noOfTotalFailedLookups = noOfFailedLookups + noOfFailedLookups2;
@@ -84,7 +88,11 @@ public class HostnameDecorator implements IDecorator {
     }
     
     
-    private String reverseDnsLookup(long ipAddress) {
+    private String reverseDnsLookup(long ipAddress) throws MegatronException {
+        if (dnsPrefetch != null) {
+            // streaming mode; waits for lookup
+            return dnsPrefetch.getHostname(ipAddress);
+        }
         if (reverseDnsMap != null) {
             return reverseDnsMap.get(ipAddress);
         }
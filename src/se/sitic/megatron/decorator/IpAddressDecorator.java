@@ -1,14 +1,14 @@
 package se.sitic.megatron.decorator;
 
-import java.util.Map;
-
 import org.apache.log4j.Logger;
 
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.fileprocessor.MultithreadedDnsProcessor;
+import se.sitic.megatron.util.ConcurrentObjectLongHashMap;
 import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.DnsCache;
 import se.sitic.megatron.util.IpAddressUtil;
 
 
@@ -18,7 +18,8 @@ import se.sitic.megatron.util.IpAddressUtil;
 public class IpAddressDecorator implements IDecorator {
     private static final Logger log = Logger.getLogger(IpAddressDecorator.class);    
 
-    private Map<String, Long> dnsMap;
+    private ConcurrentObjectLongHashMap<String> dnsMap;
+    private MultithreadedDnsProcessor dnsPrefetch;
     private long noOfLookups;
     private long noOfLookups2;
     private long noOfFailedLookups;
@@ -30,7 +31,8 @@ public class IpAddressDecorator implements IDecorator {
     @SuppressWarnings("unchecked")
     @Override
     public void init(JobContext jobContext) throws MegatronException {
-        dnsMap = (Map<String, Long>)jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_MAP_KEY);
+        dnsMap = (ConcurrentObjectLongHashMap<String>)jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_MAP_KEY);
+        dnsPrefetch = (MultithreadedDnsProcessor)jobContext.getAdditionalData(MultithreadedDnsProcessor.DNS_PREFETCH_KEY);
     }
 
 
@@ -66,6 +68,7 @@ public class IpAddressDecorator implements IDecorator {
 
     @Override
     public void close() throws MegatronException {
+        DnsCache.getInstance().flush();
         long noOfTotalLookups = noOfLookups + noOfLookups2;
         log.info("No. of lookups (hostname --> ip): " + noOfTotalLookups + " (" + noOfLookups + "+" + noOfLookups2 + ").");
         long noOfTotalFailedLookups = noOfFailedLookups + noOfFailedLookups2;
@@ -78,10 +81,13 @@ public class IpAddressDecorator implements IDecorator {
     }
     
     
-    private long dnsLookup(String hostname) {
+    private long dnsLookup(String hostname) throws MegatronException {
+        if (dnsPrefetch != null) {
+            // streaming mode; waits for lookup
+            return dnsPrefetch.getIpAddress(hostname);
+        }
         if (dnsMap != null) {
-            Long result = dnsMap.get(hostname);
-            return (result != null) ? result.longValue() : 0L;
+            return dnsMap.get(hostname, 0L);
         }
         return IpAddressUtil.dnsLookup(hostname);
     }
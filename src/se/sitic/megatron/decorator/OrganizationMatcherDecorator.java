@@ -11,7 +11,7 @@ import org.apache.log4j.Logger;
 
 import se.sitic.megatron.core.AppProperties;
 import se.sitic.megatron.core.Interval;
-import se.sitic.megatron.core.IntervalList;
+import se.sitic.megatron.core.IntervalIndex;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.db.DbException;
@@ -42,13 +42,15 @@ public class OrganizationMatcherDecorator implements IDecorator {
     private static final Object cacheMutex = new Object();
     private static Map<Long, ASNumber> asnMapCached;
     private static Map<String, DomainName> domainNameMapCached;
-    private static IntervalList ipIntervalsCached;
+    private static IntervalIndex ipIntervalsCached;
+    private static Organization[] organizationsCached;
     private static long lastCacheFetch;
     
     private JobContext jobContext;
     private Map<Long, ASNumber> asnMap;
     private Map<String, DomainName> domainNameMap;
-    private IntervalList ipIntervals;
+    private IntervalIndex ipIntervals;
+    private Organization[] organizations;
     private boolean matchIpAddress;
     private boolean matchHostname;
     private boolean matchAsn;
@@ -79,14 +81,13 @@ public class OrganizationMatcherDecorator implements IDecorator {
     public void execute(LogEntry logEntry) throws MegatronException {
         int orgId = 0;
         boolean highPriorityEntryFound = false;
-        DbManager dbManager = jobContext.getDbManager();
         
         orgId = findOrganizationId(logEntry.getIpAddress(), logEntry.getHostname(), getAsn(true, logEntry));
         if (orgId == -1) {
             orgId = findOrganizationId(logEntry.getIpRangeStart(), logEntry.getIpRangeEnd()); 
         }
         if (orgId != -1) {           
-            Organization organization = dbManager.getOrganization(orgId);
+            Organization organization = getOrganization(orgId);
             logEntry.setOrganization(organization);
             ++noOfOrganizationsFound;
             if (isHighPriorityOrganization(organization)) {
@@ -98,7 +99,7 @@ public class OrganizationMatcherDecorator implements IDecorator {
 
         orgId = findOrganizationId(logEntry.getIpAddress2(), logEntry.getHostname2(), getAsn(false, logEntry));
         if (orgId != -1) {
-            Organization organization2 = dbManager.getOrganization(orgId);
+            Organization organization2 = getOrganization(orgId);
             logEntry.setOrganization2(organization2);
             ++noOfOrganizationsFound2;
             if (isHighPriorityOrganization(organization2)) {
@@ -141,6 +142,17 @@ public class OrganizationMatcherDecorator implements IDecorator {
     }
 
     
+    /**
+     * Adds high priority organizations found by another instance, e.g. by a 
+     * worker thread in the same job.
+     */
+    public void addHighPriorityOrganizations(List<Organization> organizations) {
+        for (Iterator<Organization> iterator = organizations.iterator(); iterator.hasNext(); ) {
+            addHighPriorityOrganization(iterator.next());
+        }
+    }
+
+    
     public void setMatchIpAddress(boolean matchIpAddress) {
         this.matchIpAddress = matchIpAddress;
     }
@@ -185,14 +197,34 @@ public class OrganizationMatcherDecorator implements IDecorator {
                 log.info("All domain names read from db. Size: " + domainNameMapCached.size());
                 
                 // ipIntervals
-                ipIntervalsCached = new IntervalList();
                 List<IpRange> ipRanges = dbManager.getAllIpRanges(false);
-                for (Iterator<IpRange> iterator = ipRanges.iterator(); iterator.hasNext(); ) {
-                    IpInterval ipInterval = new IpInterval(iterator.next());
-                    ipIntervalsCached.add(ipInterval);
+                long[] starts = new long[ipRanges.size()];
+                long[] ends = new long[ipRanges.size()];
+                int[] organizationIds = new int[ipRanges.size()];
+                int i = 0;
+                for (Iterator<IpRange> iterator = ipRanges.iterator(); iterator.hasNext(); i++) {
+                    IpRange ipRange = iterator.next();
+                    starts[i] = ipRange.getStartAddress();
+                    ends[i] = ipRange.getEndAddress();
+                    organizationIds[i] = ipRange.getOrganizationId();
                 }
+                ipIntervalsCached = new IntervalIndex(starts, ends, organizationIds);
                 log.info("All IP ranges read from db. Size: " + ipRanges.size());
                 
+                // organizations (indexed by id)
+                List<Organization> orgList = dbManager.getAllOrganizations(false);
+                int maxId = 0;
+                for (Iterator<Organization> iterator = orgList.iterator(); iterator.hasNext(); ) {
+                    maxId = Math.max(maxId, iterator.next().getId().intValue());
+                }
+                Organization[] orgs = new Organization[maxId + 1];
+                for (Iterator<Organization> iterator = orgList.iterator(); iterator.hasNext(); ) {
+                    Organization organization = iterator.next();
+                    orgs[organization.getId().intValue()] = organization;
+                }
+                organizationsCached = orgs;
+                log.info("All organizations read from db. Size: " + orgList.size());
+                
                 if (log.isDebugEnabled()) {
                     String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
                     log.debug("Time to read contact info from db: " + durationStr);
@@ -227,10 +259,20 @@ public class OrganizationMatcherDecorator implements IDecorator {
     }
     
     
-    private IntervalList createIpIntervals() throws DbException {
+    private IntervalIndex createIpIntervals() throws DbException {
+        // IntervalIndex is immutable; no need to copy it.
         synchronized (cacheMutex) {
             initCache(jobContext.getDbManager());
-            return new IntervalList(ipIntervalsCached);
+            return ipIntervalsCached;
+        }
+    }
+    
+    
+    private Organization[] createOrganizations() throws DbException {
+        // The array is never modified after it's created; no need to copy it.
+        synchronized (cacheMutex) {
+            initCache(jobContext.getDbManager());
+            return organizationsCached;
         }
     }
     
@@ -239,6 +281,7 @@ public class OrganizationMatcherDecorator implements IDecorator {
         asnMap = createAsnMap();
         domainNameMap = createDomainNameMap();
         ipIntervals = createIpIntervals();
+        organizations = createOrganizations();
 
         highPriorityOrganizations = new ArrayList<Organization>();
         highPriorityThreshold = jobContext.getProps().getInt(AppProperties.HIGH_PRIORITY_THRESHOLD_KEY, 50);
@@ -275,10 +318,13 @@ public class OrganizationMatcherDecorator implements IDecorator {
     
     private int findOrganizationId(Long ipAddress, String hostname, Long asn) {
         if (matchIpAddress && (ipAddress != null) && (ipAddress.longValue() != 0L)) {
-            IpInterval ipInterval = (IpInterval)ipIntervals.findFirstInterval(ipAddress.longValue());
-            if (ipInterval != null) {
-                log.debug("Organization#" + ipInterval.getOrganizationId() + " found by IP: " + ipAddress);
-                return ipInterval.getOrganizationId();
+            int index = ipIntervals.findFirstIndex(ipAddress.longValue());
+            if (index != -1) {
+                int orgId = ipIntervals.getValue(index);
+                if (log.isDebugEnabled()) {
+                    log.debug("Organization#" + orgId + " found by IP: " + ipAddress);
+                }
+                return orgId;
             }
         }
         
@@ -306,17 +352,36 @@ public class OrganizationMatcherDecorator implements IDecorator {
     
     private int findOrganizationId(Long ipRangeStart, Long ipRangeEnd) {
         if (matchIpAddress && (ipRangeStart != null) && (ipRangeStart.longValue() != 0L) && (ipRangeEnd != null) && (ipRangeEnd.longValue() != 0L)) {
-            Interval ipRange = new Interval(ipRangeStart.longValue(), ipRangeEnd.longValue());
-            IpInterval ipInterval = (IpInterval)ipIntervals.findFirstInterval(ipRange);
-            if (ipInterval != null) {
-                log.debug("Organization#" + ipInterval.getOrganizationId() + " found by IP-range: " + ipRange + " overlaps with " + ipInterval);
-                return ipInterval.getOrganizationId();
+            int index = ipIntervals.findFirstIndex(ipRangeStart.longValue(), ipRangeEnd.longValue());
+            if (index != -1) {
+                int orgId = ipIntervals.getValue(index);
+                if (log.isDebugEnabled()) {
+                    Interval ipRange = new Interval(ipRangeStart.longValue(), ipRangeEnd.longValue());
+                    Interval ipInterval = new Interval(ipIntervals.getStart(index), ipIntervals.getEnd(index));
+                    log.debug("Organization#" + orgId + " found by IP-range: " + ipRange + " overlaps with " + ipInterval);
+                }
+                return orgId;
             }
         }
         return -1;
     }
     
     
+    /**
+     * Returns organization from the preloaded array. The db is only used if
+     * the organization is missing, e.g. if the cache was refreshed between 
+     * the create-calls in init.
+     */
+    private Organization getOrganization(int orgId) throws DbException {
+        Organization result = ((orgId >= 0) && (orgId < organizations.length)) ? organizations[orgId] : null;
+        if (result == null) {
+            log.debug("Organization#" + orgId + " not in cache; reading from db.");
+            result = jobContext.getDbManager().getOrganization(orgId);
+        }
+        return result;
+    }
+    
+    
     private boolean isHighPriorityOrganization(Organization organization) {
         if (!checkHighPriorityOrganization) {
             return false;
@@ -350,21 +415,4 @@ public class OrganizationMatcherDecorator implements IDecorator {
         return ((headTail == null) || (headTail[1].indexOf('.') == -1)) ? null : headTail[1];
     }
 
-    
-    private static class IpInterval extends Interval {
-        private int organizationId;
-        
-        
-        public IpInterval(IpRange ipRange) {
-            super(ipRange.getStartAddress(), ipRange.getEndAddress());
-            organizationId = ipRange.getOrganizationId();
-        }
-
-        
-        public int getOrganizationId() {
-            return organizationId;
-        }
-
-    }
-
 }
@@ -5,28 +5,34 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.text.DecimalFormat;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.Logger;
+import org.xbill.DNS.TextParseException;
 
 import se.sitic.megatron.core.AppProperties;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.AsyncDnsResolver;
+import se.sitic.megatron.util.ConcurrentLongObjectHashMap;
+import se.sitic.megatron.util.ConcurrentObjectLongHashMap;
 import se.sitic.megatron.util.Constants;
 import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.DnsCache;
 import se.sitic.megatron.util.IpAddressUtil;
 import se.sitic.megatron.util.StringUtil;
 
@@ -36,7 +42,24 @@ import se.sitic.megatron.util.StringUtil;
  * respective reverse DNS lookups in multiple threads to improve performance.
  * <p>
  * The result is saved in a map, which is used by IpAddressDecorator and 
- * HostnameDecorator.
+ * HostnameDecorator. The maps are thread-safe primitive maps that grow as 
+ * results are added.
+ * <p>
+ * If fileProcessor.multithreadedDnsProcessor.asyncResolver is true, lookups 
+ * are made by an AsyncDnsResolver instead of consumer threads, i.e. many 
+ * queries are in flight over a few UDP sockets, and the thread that reads 
+ * the file is blocked only when the max no. of queries are in flight. 
+ * <p>
+ * Items in the persistent DNS cache (dnsCache.file) are not looked up again. 
+ * <p>
+ * If fileProcessor.multithreadedDnsProcessor.streaming is true, execute 
+ * returns directly, and the file is read by a prefetch thread while the job 
+ * processes the file, i.e. DNS lookups overlap with parsing, decoration etc. 
+ * The prefetch thread is at most streamingWindow lines ahead of the job. 
+ * The decorators get the processor by DNS_PREFETCH_KEY, and wait only for the 
+ * lookup they need (getHostname or getIpAddress). A lookup that is not 
+ * prefetched, e.g. because the prefetch thread is behind, is submitted by 
+ * the decorator. Lookups are waited for in close. 
  * <p>
  * TODO: Add support to write the result (IP address or hostname) in the file 
  * instead of storing the result in memory. 
@@ -46,6 +69,8 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
     public static final String DNS_MAP_KEY = "MultithreadedDnsProcessor.dnsMap";
     /** Key for reverseDnsMap in JobContext.additionalData */
     public static final String REVERSE_DNS_MAP_KEY = "MultithreadedDnsProcessor.reverseDnsMap";
+    /** Key for this processor in JobContext.additionalData (streaming mode) */
+    public static final String DNS_PREFETCH_KEY = "MultithreadedDnsProcessor.dnsPrefetch";
     
     // protected due to acess from innner class
     protected static final Logger log = Logger.getLogger(MultithreadedDnsProcessor.class);
@@ -55,12 +80,25 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
     // protected due to acess from innner class 
     protected CountDownLatch allThreadsFinishedLatch;
     protected BlockingQueue<String> queue;
-    protected Map<String, Long> dnsMap;
-    protected Map<Long, String> reverseDnsMap;
+    protected ConcurrentObjectLongHashMap<String> dnsMap;
+    protected ConcurrentLongObjectHashMap<String> reverseDnsMap;
     
     private JobContext jobContext;
     private TypedProperties props;
+    private boolean reverseDnsLookup;
     private int noOfThreads;
+    private AsyncDnsResolver resolver;
+    // protected due to acess from innner class
+    protected DnsCache dnsCache;
+    protected volatile boolean resolverClosing;
+    protected boolean streaming;
+    protected ConcurrentMap<Object, CountDownLatch> pendingLookups;
+    protected AtomicLong noOfSuccessfulLookups = new AtomicLong();
+    protected AtomicLong noOfFailedLookups = new AtomicLong();
+    private long streamingWindow;
+    private Thread prefetchThread;
+    private volatile boolean prefetchStopped;
+    private boolean consumersStopped;
     private Matcher matcher;
     private Set<String> processedItems;
     private long printProgressInterval;
@@ -79,25 +117,23 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
     public void init(JobContext jobContext) throws MegatronException {
         this.jobContext = jobContext; 
         props = jobContext.getProps();
+        dnsCache = DnsCache.getInstance();
 
         // -- Setup result maps, queue, matcher etc.
-        int initialCapacity = (int)jobContext.getNoOfLines();
-        if (initialCapacity < 16) {
-            initialCapacity = 32;
-        }
-        processedItems = new HashSet<String>(initialCapacity); 
+        // not sized by no. of lines; most lines may contain the same few items 
+        processedItems = new HashSet<String>(); 
         queue = new ArrayBlockingQueue<String>(256);
-        boolean reverseDnsLookup = props.getBoolean(AppProperties.FILE_PROCESSOR_DNS_REVERSE_DNS_LOOKUP_KEY, true);
+        reverseDnsLookup = props.getBoolean(AppProperties.FILE_PROCESSOR_DNS_REVERSE_DNS_LOOKUP_KEY, true);
         String regExp = null;
         if (reverseDnsLookup) {
-            reverseDnsMap = Collections.synchronizedMap(new HashMap<Long, String>(initialCapacity));
+            reverseDnsMap = new ConcurrentLongObjectHashMap<String>();
             jobContext.addAdditionalData(REVERSE_DNS_MAP_KEY, reverseDnsMap);
             regExp = props.getString(AppProperties.FILE_PROCESSOR_DNS_REG_EXP_IP_KEY, null);
             if (StringUtil.isNullOrEmpty(regExp)) {
                 throw new MegatronException("Regular expression not defined: " + AppProperties.FILE_PROCESSOR_DNS_REG_EXP_IP_KEY);
             }
         } else {
-            dnsMap = Collections.synchronizedMap(new HashMap<String, Long>(initialCapacity));
+            dnsMap = new ConcurrentObjectLongHashMap<String>();
             jobContext.addAdditionalData(DNS_MAP_KEY, dnsMap);
             regExp = props.getString(AppProperties.FILE_PROCESSOR_DNS_REG_EXP_HOSTNAME_KEY, null);
             if (StringUtil.isNullOrEmpty(regExp)) {
@@ -110,12 +146,29 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
             String msg = "Cannot compile reg-exp: " + regExp; 
             throw new MegatronException(msg, e);
         }
+        // -- Setup streaming mode
+        streaming = props.getBoolean(AppProperties.FILE_PROCESSOR_DNS_STREAMING_KEY, false);
+        if (streaming) {
+            pendingLookups = new ConcurrentHashMap<Object, CountDownLatch>();
+            jobContext.addAdditionalData(DNS_PREFETCH_KEY, this);
+            streamingWindow = props.getLong(AppProperties.FILE_PROCESSOR_DNS_STREAMING_WINDOW_KEY, 50000L);
+            if (props.getBoolean(AppProperties.PROCESS_FILE_IN_CHUNKS_KEY, false)) {
+                // line no. in job context is not updated until all chunks are finished
+                log.info("Streaming window is not used when the file is processed in chunks.");
+                streamingWindow = 0L;
+            }
+        }
+
         // init attributes for printProgress 
         lastProgressPrintTime = System.currentTimeMillis(); 
         lastProgressPrintLineNo = 0L;
         printProgressInterval = 1000L*props.getLong(AppProperties.PRINT_PROGRESS_INTERVAL_KEY, 15L);
 
-        // -- Setup threads
+        // -- Setup resolver or threads
+        if (props.getBoolean(AppProperties.FILE_PROCESSOR_DNS_ASYNC_RESOLVER_KEY, false)) {
+            resolver = createResolver();
+            return;
+        }
         noOfThreads = props.getInt(AppProperties.FILE_PROCESSOR_DNS_NO_OF_THREADS_KEY, 100);
         if (jobContext.getNoOfLines() < 10L) {
             noOfThreads = 4;
@@ -140,14 +193,77 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
     public File execute(File inputFile) throws MegatronException {
         long t1 = System.currentTimeMillis();
 
-        // -- Read file
+        if (streaming) {
+            final File file = inputFile;
+            prefetchThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            readFile(file);
+                            log.debug("DNS prefetch finished; all items submitted.");
+                        } catch (MegatronException e) {
+                            log.error("DNS prefetch failed; remaining lookups are made when needed.", e);
+                        }
+                    }
+                });
+            prefetchThread.setName("DnsPrefetch");
+            prefetchThread.start();
+            log.info("DNS prefetch started (streaming mode). Window: " + streamingWindow + " lines.");
+            return inputFile;
+        }
+
+        readFile(inputFile);
+        
+        if (resolver != null) {
+            // -- Wait for queries to finish
+            log.debug("All queries submitted; waiting for them to finish."); 
+            try {
+                resolver.flush();
+            } catch (InterruptedException e) {
+                throw new MegatronException("Wait for DNS queries to finish interrupted (should not happen)", e);
+            }
+            resolver.close();
+            log.info("Asynchronous DNS resolver statistics: " + resolver.getStatistics());
+            String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+            log.info("Total time for DNS lookups: " + durationStr);
+            return inputFile;
+        }
+        
+        // -- Add "end of queue" items
+        for (int i = 0; i < noOfThreads; i++) {
+            try {
+                queue.put(END_ITEM_MARKER);
+            } catch (InterruptedException e) {
+                throw new MegatronException("Cannot put 'end of queue' marker in queue (should not happen)", e);
+            }
+        }
+        
+        // -- Wait for threads to finish
+        log.debug("All items added to queue; waiting for threads to finish."); 
+        try {
+            allThreadsFinishedLatch.await();
+        } catch (InterruptedException e) {
+            throw new MegatronException("Wait for all threads to finish interrupted (should not happen)", e);
+        }
+        
+        String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+        log.info("Total time for DNS lookups: " + durationStr);
+
+        return inputFile;
+    }
+
+    
+    /**
+     * Reads file and submits lookups for extracted items.
+     */
+    private void readFile(File inputFile) throws MegatronException {
         BufferedReader in = null;
         try {
             String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
             in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), charSet));
             long lineNo = 0L;
             String line = null;
-            while ((line = in.readLine()) != null) {
+            while (!prefetchStopped && ((line = in.readLine()) != null)) {
                 matcher.reset(line);
                 while (matcher.find()) {
                     if (matcher.groupCount() > 0) {
@@ -159,7 +275,11 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
                     }
                 }
                 ++lineNo;
-                printProgress(lineNo - queue.size());
+                if (streaming) {
+                    waitForJob(lineNo);
+                } else {
+                    printProgress((resolver != null) ? lineNo : (lineNo - queue.size()));
+                }
             }
             if ((noOfProcessedItems == 0L) && (lineNo > 10L)) {
                 throw new MegatronException("No IP addresses or hostnames extracted. Please check regular expression: " +
@@ -171,40 +291,232 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
         } finally {
             try { if (in != null) in.close(); } catch (Exception ignored) {}
         }
-        
-        
-        // -- Add "end of queue" items
-        for (int i = 0; i < noOfThreads; i++) {
-            try {
-                queue.put(END_ITEM_MARKER);
-            } catch (InterruptedException e) {
-                throw new MegatronException("Cannot put 'end of queue' marker in queue (should not happen)", e);
-            }
+    }
+
+
+    /**
+     * Waits while the prefetch thread is more than streamingWindow lines 
+     * ahead of the job.
+     */
+    private void waitForJob(long lineNo) throws MegatronException {
+        if (streamingWindow <= 0L) {
+            return;
         }
-        
-        // -- Wait for threads to finish
-        log.debug("All items added to queue; waiting for threads to finish."); 
         try {
-            allThreadsFinishedLatch.await();
+            // notified when the job reaches the line; time-out to check prefetchStopped
+            while (!prefetchStopped && !jobContext.awaitLineNo(lineNo - streamingWindow, 100L)) {
+                // empty
+            }
         } catch (InterruptedException e) {
-            throw new MegatronException("Wait for all threads to finish interrupted (should not happen)", e);
+            throw new MegatronException("DNS prefetch interrupted (should not happen)", e);
         }
-        
-        String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
-        log.info("Total time for DNS lookups: " + durationStr);
-
-        return inputFile;
     }
 
     
     @Override
     public void close(boolean jobSuccessful) throws MegatronException {
+        if (streaming) {
+            stopStreaming(jobSuccessful);
+        }
+        if (resolver != null) {
+            // resolver is already closed if execute was successful (not streaming mode); unfinished queries should not be cached
+            resolverClosing = true;
+            resolver.close();
+        }
+        dnsCache.flush();
+        if (dnsCache.isEnabled()) {
+            log.info(dnsCache.getStatistics());
+        }
         if (dnsMap != null) {
             log.info("No. of parsed hostnames for DNS lookup [total / total unique]: " + noOfProcessedItems + " / " + noOfUniqueProcessedItems);
-            log.info("No. of DNS lookups (hostname --> ip) [successful / failed]: " + dnsMap.size() + " / " + (noOfUniqueProcessedItems - dnsMap.size()));
+            log.info("No. of DNS lookups (hostname --> ip) [successful / failed]: " + noOfSuccessfulLookups.get() + " / " + noOfFailedLookups.get());
         } else {
             log.info("No. of parsed IP addresses for reverse DNS lookup [total / total unique]: " + noOfProcessedItems + " / " + noOfUniqueProcessedItems);
-            log.info("No. of DNS lookups (ip --> hostname) [successful / failed]: " + reverseDnsMap.size() + " / " + (noOfUniqueProcessedItems - reverseDnsMap.size()));
+            log.info("No. of DNS lookups (ip --> hostname) [successful / failed]: " + noOfSuccessfulLookups.get() + " / " + noOfFailedLookups.get());
+        }
+    }
+
+
+    /**
+     * Returns hostname for specified IP address (streaming mode). Waits 
+     * until the lookup is finished, and submits the lookup if it is not 
+     * prefetched. Thread-safe.
+     * 
+     * @return hostname, or null or empty string if lookup failed.
+     */
+    public String getHostname(long ipAddress) throws MegatronException {
+        if (reverseDnsMap == null) {
+            return IpAddressUtil.reverseDnsLookup(ipAddress);
+        }
+        String result = reverseDnsMap.get(ipAddress);
+        if (result == null) {
+            await(submitIfNeeded(Long.valueOf(ipAddress), IpAddressUtil.convertIpAddress(ipAddress, false)));
+            result = reverseDnsMap.get(ipAddress);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns IP address for specified hostname (streaming mode). Waits 
+     * until the lookup is finished, and submits the lookup if it is not 
+     * prefetched. Thread-safe.
+     * 
+     * @return IP address, or 0 if lookup failed.
+     */
+    public long getIpAddress(String hostname) throws MegatronException {
+        if (dnsMap == null) {
+            return IpAddressUtil.dnsLookup(hostname);
+        }
+        long result = dnsMap.get(hostname, -1L);
+        if (result == -1L) {
+            await(submitIfNeeded(hostname, hostname));
+            result = dnsMap.get(hostname, 0L);
+        }
+        return result;
+    }
+
+
+    /**
+     * Stops prefetch thread, and waits for lookups to finish if the job is 
+     * successful. Consumer threads are always stopped. 
+     */
+    private void stopStreaming(boolean jobSuccessful) throws MegatronException {
+        long t1 = System.currentTimeMillis();
+        prefetchStopped = true;
+        try {
+            if (prefetchThread != null) {
+                prefetchThread.join();
+            }
+            if ((resolver == null) && !consumersStopped) {
+                consumersStopped = true;
+                for (int i = 0; i < noOfThreads; i++) {
+                    queue.put(END_ITEM_MARKER);
+                }
+                if (jobSuccessful) {
+                    allThreadsFinishedLatch.await();
+                }
+            } else if ((resolver != null) && jobSuccessful) {
+                resolver.flush();
+            }
+        } catch (InterruptedException e) {
+            throw new MegatronException("Wait for DNS prefetch to finish interrupted (should not happen)", e);
+        }
+        if (resolver != null) {
+            log.info("Asynchronous DNS resolver statistics: " + resolver.getStatistics());
+        }
+        String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+        log.info("Time to wait for remaining DNS lookups (streaming mode): " + durationStr);
+    }
+
+
+    /**
+     * Submits lookup for specified key unless it is finished or pending 
+     * (streaming mode). 
+     * 
+     * @param key IP address (Long) or hostname.
+     * @param itemStr IP address or hostname as a string.
+     * @return latch that is released when the lookup is finished, or null if 
+     *      it is finished.
+     */
+    private CountDownLatch submitIfNeeded(Object key, String itemStr) throws MegatronException {
+        CountDownLatch result = pendingLookups.get(key);
+        if ((result != null) || isLookupFinished(key)) {
+            return result;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        result = pendingLookups.putIfAbsent(key, latch);
+        if (result != null) {
+            return result;
+        }
+        if (isLookupFinished(key)) {
+            // finished by another thread after the first check 
+            lookupFinished(key);
+            return null;
+        }
+        boolean submitted = false;
+        try {
+            submitItem(itemStr);
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                // e.g. resolver closed; release waiters, and let next call submit again
+                pendingLookups.remove(key, latch);
+                latch.countDown();
+            }
+        }
+        return latch;
+    }
+
+
+    private boolean isLookupFinished(Object key) {
+        if (key instanceof Long) {
+            return reverseDnsMap.containsKey(((Long)key).longValue());
+        }
+        return dnsMap.containsKey((String)key);
+    }
+
+
+    private void await(CountDownLatch latch) throws MegatronException {
+        if (latch == null) {
+            return;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new MegatronException("Wait for DNS lookup interrupted (should not happen)", e);
+        }
+    }
+
+
+    /**
+     * Adds result of a reverse DNS lookup. A failed lookup is added as an 
+     * empty string in streaming mode to mark it as finished. 
+     */
+    protected void reverseDnsLookupFinished(long ipAddress, String hostname) {
+        if (!StringUtil.isNullOrEmpty(hostname)) {
+            reverseDnsMap.put(ipAddress, hostname);
+            noOfSuccessfulLookups.incrementAndGet();
+        } else {
+            noOfFailedLookups.incrementAndGet();
+            if (streaming) {
+                reverseDnsMap.put(ipAddress, "");
+            }
+        }
+        if (streaming) {
+            lookupFinished(Long.valueOf(ipAddress));
+        }
+    }
+
+
+    /**
+     * Adds result of a DNS lookup. A failed lookup is added as 0 in 
+     * streaming mode to mark it as finished. 
+     */
+    protected void dnsLookupFinished(String hostname, long ipAddress) {
+        if (ipAddress != 0L) {
+            dnsMap.put(hostname, ipAddress);
+            noOfSuccessfulLookups.incrementAndGet();
+        } else {
+            noOfFailedLookups.incrementAndGet();
+            if (streaming) {
+                dnsMap.put(hostname, 0L);
+            }
+        }
+        if (streaming) {
+            lookupFinished(hostname);
+        }
+    }
+
+
+    /**
+     * Releases threads that wait for specified lookup. Must be called after 
+     * the result is added to the result map. 
+     */
+    private void lookupFinished(Object key) {
+        CountDownLatch latch = pendingLookups.remove(key);
+        if (latch != null) {
+            latch.countDown();
         }
     }
 
@@ -223,6 +535,30 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
         ++noOfUniqueProcessedItems;
         
         processedItems.add(itemStr);
+        if (!streaming) {
+            submitItem(itemStr);
+        } else if (!reverseDnsLookup) {
+            submitIfNeeded(itemStr, itemStr);
+        } else {
+            try {
+                submitIfNeeded(Long.valueOf(IpAddressUtil.convertIpAddress(itemStr)), itemStr);
+            } catch (UnknownHostException e) {
+                log.warn("Cannot convert hostname to IP address: " + itemStr);
+                noOfFailedLookups.incrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * Submits lookup for specified IP address or hostname to the asynchronous 
+     * resolver or to the consumer threads.
+     */
+    private void submitItem(String itemStr) throws MegatronException {
+        if (resolver != null) {
+            submitQuery(itemStr);
+            return;
+        }
         try {
             queue.put(itemStr);
         } catch (InterruptedException e) {
@@ -231,6 +567,101 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
     }
   
     
+    /**
+     * Submits a DNS lookup or reverse DNS lookup for specified item to the 
+     * asynchronous resolver. The result is added to the result map by a 
+     * listener, which is called by the resolver thread.
+     */
+    private void submitQuery(String itemStr) throws MegatronException {
+        try {
+            if (reverseDnsLookup) {
+                long ipAddress = IpAddressUtil.convertIpAddress(itemStr);
+                String hostname = dnsCache.getHostname(ipAddress);
+                if (hostname != null) {
+                    reverseDnsLookupFinished(ipAddress, hostname);
+                    return;
+                }
+                resolver.submitReverseLookup(ipAddress, Long.valueOf(ipAddress), new ReverseDnsLookupListener());
+            } else {
+                // Address.getByName in the synchronous lookup accepts an IP address
+                long ipAddress = IpAddressUtil.parseIpAddress(itemStr, 0, itemStr.length());
+                if (ipAddress != -1L) {
+                    dnsLookupFinished(itemStr, ipAddress);
+                    return;
+                }
+                Long cachedIpAddress = dnsCache.getIpAddress(itemStr);
+                if (cachedIpAddress != null) {
+                    dnsLookupFinished(itemStr, cachedIpAddress.longValue());
+                    return;
+                }
+                resolver.submitLookup(itemStr, itemStr, new DnsLookupListener());
+            }
+        } catch (UnknownHostException e) {
+            // not in streaming mode; IP address is converted before the lookup is submitted 
+            log.warn("Cannot convert hostname to IP address: " + itemStr);
+            noOfFailedLookups.incrementAndGet();
+        } catch (TextParseException e) {
+            log.debug("Invalid hostname; DNS lookup skipped: " + itemStr);
+            dnsLookupFinished(itemStr, 0L);
+        } catch (InterruptedException e) {
+            throw new MegatronException("Cannot submit DNS query (should not happen)", e);
+        }
+    }
+    
+    
+    private AsyncDnsResolver createResolver() throws MegatronException {
+        InetSocketAddress[] servers = null;
+        String[] serverNames = props.getStringListFromCommaSeparatedValue(AppProperties.FILE_PROCESSOR_DNS_ASYNC_DNS_SERVERS_KEY, null, true);
+        if ((serverNames == null) || (serverNames.length == 0)) {
+            serverNames = props.getStringListFromCommaSeparatedValue(AppProperties.DNS_JAVA_DNS_SERVERS_KEY, null, true);
+        }
+        if ((serverNames != null) && (serverNames.length > 0)) {
+            servers = new InetSocketAddress[serverNames.length];
+            for (int i = 0; i < servers.length; i++) {
+                servers[i] = parseServerAddress(serverNames[i]);
+            }
+        }
+        int noOfSockets = props.getInt(AppProperties.FILE_PROCESSOR_DNS_ASYNC_NO_OF_SOCKETS_KEY, 4);
+        int maxQueriesInFlight = props.getInt(AppProperties.FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_IN_FLIGHT_KEY, 2000);
+        long timeOut = props.getLong(AppProperties.FILE_PROCESSOR_DNS_ASYNC_TIME_OUT_KEY, 2000L);
+        int noOfRetries = props.getInt(AppProperties.FILE_PROCESSOR_DNS_ASYNC_NO_OF_RETRIES_KEY, 2);
+        int maxQueriesPerSecond = props.getInt(AppProperties.FILE_PROCESSOR_DNS_ASYNC_MAX_QUERIES_PER_SECOND_KEY, 1000);
+        try {
+            AsyncDnsResolver result = new AsyncDnsResolver(servers, noOfSockets, maxQueriesInFlight, timeOut, noOfRetries, maxQueriesPerSecond);
+            log.debug("Asynchronous DNS resolver created. Sockets: " + noOfSockets + ", max queries in flight: " + maxQueriesInFlight + 
+                    ", max queries per second: " + maxQueriesPerSecond);
+            return result;
+        } catch (IOException e) {
+            throw new MegatronException("Cannot create asynchronous DNS resolver.", e);
+        } catch (IllegalArgumentException e) {
+            throw new MegatronException("Invalid asynchronous DNS resolver configuration.", e);
+        }
+    }
+
+    
+    /**
+     * Parses "host" or "host:port".
+     */
+    private InetSocketAddress parseServerAddress(String serverStr) throws MegatronException {
+        String host = serverStr;
+        int port = 53;
+        int index = serverStr.lastIndexOf(':');
+        if ((index != -1) && (serverStr.indexOf(':') == index)) {
+            host = serverStr.substring(0, index);
+            try {
+                port = Integer.parseInt(serverStr.substring(index + 1));
+            } catch (NumberFormatException e) {
+                throw new MegatronException("Invalid port in DNS server: " + serverStr, e);
+            }
+        }
+        InetSocketAddress result = new InetSocketAddress(host, port);
+        if (result.isUnresolved()) {
+            throw new MegatronException("Cannot resolve DNS server: " + serverStr);
+        }
+        return result;
+    }
+
+    
     private void printProgress(long lineNo) {
         long now = System.currentTimeMillis();
         if ((printProgressInterval > 0L) && ((lastProgressPrintTime + printProgressInterval) < now)) {
@@ -302,10 +733,7 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
         
         @Override
         protected void processItem(String itemStr) {
-            long ipAddress = IpAddressUtil.dnsLookup(itemStr);
-            if (ipAddress != 0L) {
-                dnsMap.put(itemStr, ipAddress);
-            }
+            dnsLookupFinished(itemStr, IpAddressUtil.dnsLookup(itemStr));
         }
         
     }
@@ -326,16 +754,74 @@ public class MultithreadedDnsProcessor implements IFileProcessor {
         protected void processItem(String itemStr) {
             try {
                 long ipAddress = IpAddressUtil.convertIpAddress(itemStr);
-                String hostname = IpAddressUtil.reverseDnsLookupWithoutCache(ipAddress);
-                if (!StringUtil.isNullOrEmpty(hostname)) {
-                    reverseDnsMap.put(ipAddress, hostname);
-                }
+                reverseDnsLookupFinished(ipAddress, IpAddressUtil.reverseDnsLookupWithoutCache(ipAddress));
             } catch (UnknownHostException e) {
                 log.warn("Cannot convert hostname to IP address: " + itemStr);
+                noOfFailedLookups.incrementAndGet();
             }
         }
         
     }
 
 
+    /**
+     * Adds the hostname from a finished PTR query to reverseDnsMap and to 
+     * the DNS cache. 
+     */
+    private class ReverseDnsLookupListener implements AsyncDnsResolver.Listener {
+
+
+        public ReverseDnsLookupListener() {
+            // empty
+        }
+
+
+        @Override
+        public void queryFinished(AsyncDnsResolver.Query query) {
+            if (resolverClosing) {
+                return;
+            }
+            Long ipAddress = (Long)query.getAttachment();
+            String hostname = query.getHostname();
+            if (!StringUtil.isNullOrEmpty(hostname)) {
+                try {
+                    IpAddressUtil.validateHostname(hostname);
+                } catch (UnknownHostException e) {
+                    log.warn("Invalid hostname in PTR record: " + query.getName() + " --> " + hostname);
+                    hostname = null;
+                }
+            }
+            dnsCache.putHostname(ipAddress, hostname, query.getTtl());
+            reverseDnsLookupFinished(ipAddress, hostname);
+        }
+
+    }
+
+
+    /**
+     * Adds the IP address from a finished A query to dnsMap and to the DNS 
+     * cache. 
+     */
+    private class DnsLookupListener implements AsyncDnsResolver.Listener {
+
+
+        public DnsLookupListener() {
+            // empty
+        }
+
+
+        @Override
+        public void queryFinished(AsyncDnsResolver.Query query) {
+            if (resolverClosing) {
+                return;
+            }
+            String hostname = (String)query.getAttachment();
+            long ipAddress = query.getIpAddress();
+            dnsCache.putIpAddress(hostname, ipAddress, query.getTtl());
+            dnsLookupFinished(hostname, ipAddress);
+        }
+
+    }
+
+
 }
@@ -0,0 +1,243 @@
+package se.sitic.megatron.fileprocessor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.filter.ILineFilter;
+import se.sitic.megatron.filter.OccurrenceFilter;
+import se.sitic.megatron.lineprocessor.ILineProcessor;
+import se.sitic.megatron.parser.IParser;
+import se.sitic.megatron.parser.LogEntryAccessor;
+import se.sitic.megatron.parser.ParseException;
+import se.sitic.megatron.parser.RegExpParser;
+import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.LongIntHashMap;
+import se.sitic.megatron.util.StringUtil;
+
+
+/**
+ * First pass for OccurrenceFilter in two-pass mode
+ * (filter.occurrenceFilter.twoPass=true): parses every line in the input
+ * file and counts occurrences of the attribute values in
+ * filter.occurrenceFilter.attributeNames. The filter then knows the total
+ * count of a value already for its first occurrence, e.g. "11-" includes all
+ * occurrences of values that occur more than 10 times, even if the file is
+ * unsorted.
+ * <p>
+ * Counts are stored by a 64-bit hash of the attribute values in a
+ * LongIntHashMap, which is saved in JobContext.additionalData. The input
+ * file is not modified.
+ * <p>
+ * Lines are read in the same way as by the job, i.e. by separate instances
+ * of the job's line filters, line processor, and parser. Decorators and log
+ * entry filters are not executed; OccurrenceFilter checks that its attributes
+ * are set by the parser, and that it is the first log entry filter. Should be
+ * the last file processor.
+ */
+public class OccurrenceCountProcessor implements IFileProcessor {
+    /** Key for occurrenceCountMap in JobContext.additionalData */
+    public static final String OCCURRENCE_COUNT_MAP_KEY = "OccurrenceCountProcessor.occurrenceCountMap";
+
+    private static final Logger log = Logger.getLogger(OccurrenceCountProcessor.class);
+
+    private JobContext jobContext;
+    private TypedProperties props;
+    private LogEntryAccessor[] accessors;
+    private LongIntHashMap occurrenceCountMap;
+    private long noOfLines;
+    private long noOfParsedLines;
+
+
+    public OccurrenceCountProcessor() {
+        // empty
+    }
+
+
+    @Override
+    public void init(JobContext jobContext) throws MegatronException {
+        this.jobContext = jobContext;
+        props = jobContext.getProps();
+
+        accessors = OccurrenceFilter.createAccessors(props);
+        occurrenceCountMap = new LongIntHashMap(1024);
+        jobContext.addAdditionalData(OCCURRENCE_COUNT_MAP_KEY, occurrenceCountMap);
+    }
+
+
+    @Override
+    public File execute(File inputFile) throws MegatronException {
+        long t1 = System.currentTimeMillis();
+
+        // parser counters, e.g. no. of parse errors, should not be added to the job
+        JobContext parserContext = new JobContext(props, jobContext.getJob());
+        // input file is set in the job's context after all file processors are executed, e.g. read by CsvParser for header names
+        parserContext.setInputFile(inputFile);
+        boolean removeTrailingSpaces = props.getBoolean(AppProperties.PARSER_REMOVE_TRAILING_SPACES_KEY, false);
+        List<ILineFilter> preLineProcessorFilters = new ArrayList<ILineFilter>();
+        List<ILineFilter> preParserFilters = new ArrayList<ILineFilter>();
+        ILineProcessor lineProcessor = null;
+        IParser parser = null;
+        BufferedReader in = null;
+        try {
+            preLineProcessorFilters = createLineFilters(parserContext, AppProperties.FILTER_PRE_LINE_PROCESSOR_KEY);
+            preParserFilters = createLineFilters(parserContext, AppProperties.FILTER_PRE_PARSER_KEY);
+            lineProcessor = createLineProcessor(parserContext);
+            parser = createParser(parserContext);
+            String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), charSet));
+            String lineInFile = null;
+            while ((lineInFile = in.readLine()) != null) {
+                ++noOfLines;
+                parserContext.incLineNo(1);
+                if (removeTrailingSpaces) {
+                    lineInFile = StringUtil.removeTrailingSpaces(lineInFile);
+                }
+                if (!executeLineFilters(preLineProcessorFilters, lineInFile)) {
+                    continue;
+                }
+                List<String> lines = null;
+                if (lineProcessor != null) {
+                    lines = lineProcessor.execute(lineInFile);
+                    if (lines == null) {
+                        continue;
+                    }
+                } else {
+                    lines = Collections.singletonList(lineInFile);
+                }
+                for (Iterator<String> iterator = lines.iterator(); iterator.hasNext(); ) {
+                    parserContext.incLineNoAfterProcessor(1);
+                    String line = iterator.next();
+                    if (!executeLineFilters(preParserFilters, line) || (line.trim().length() == 0)) {
+                        continue;
+                    }
+                    LogEntry logEntry = null;
+                    try {
+                        logEntry = parser.parse(line);
+                    } catch (MegatronException e) {
+                        // ParseException, or invalid header (InvalidExpressionException).
+                        // Line is not counted; it will be reported as a parse error by the job
+                        continue;
+                    }
+                    if (logEntry == null) {
+                        // skipped by parser, e.g. header line
+                        continue;
+                    }
+                    occurrenceCountMap.increment(OccurrenceFilter.hashAttributeValues(accessors, logEntry));
+                    ++noOfParsedLines;
+                }
+            }
+        } catch (IOException e) {
+            String msg = "Cannot read file: " + inputFile.getAbsolutePath();
+            throw new MegatronException(msg, e);
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+            try { if (parser != null) parser.close(); } catch (Exception ignored) {}
+            try { if (lineProcessor != null) lineProcessor.close(); } catch (Exception ignored) {}
+            closeLineFilters(preLineProcessorFilters);
+            closeLineFilters(preParserFilters);
+        }
+
+        String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+        log.info("Occurrences counted (first pass) [lines / parsed lines / distinct values]: " + noOfLines + " / " + noOfParsedLines + " / " +
+                occurrenceCountMap.size() + ". Time: " + durationStr);
+        return inputFile;
+    }
+
+
+    @Override
+    public void close(boolean jobSuccessful) throws MegatronException {
+        DecimalFormat format = new DecimalFormat("0.0");
+        log.info("Memory used by occurrence counts: " + format.format(occurrenceCountMap.getMemoryUsage() / (1024d*1024d)) + " MB.");
+    }
+
+
+    private List<ILineFilter> createLineFilters(JobContext context, String propKey) throws MegatronException {
+        List<ILineFilter> result = new ArrayList<ILineFilter>();
+        String[] classNames = props.getStringList(propKey, new String[0]);
+        for (int i = 0; i < classNames.length; i++) {
+            String className =  classNames[i];
+            if (className.trim().length() == 0) {
+                continue;
+            }
+            try {
+                Class<?> clazz = Class.forName(className);
+                ILineFilter filter = (ILineFilter)clazz.newInstance();
+                filter.init(context);
+                result.add(filter);
+            } catch (Exception e) {
+                // ClassNotFoundException, InstantiationException, IllegalAccessException, MegatronException
+                closeLineFilters(result);
+                String msg = "Cannot instantiate filter class: " + className;
+                throw new MegatronException(msg, e);
+            }
+        }
+        return result;
+    }
+
+
+    private void closeLineFilters(List<ILineFilter> filters) {
+        for (Iterator<ILineFilter> iterator = filters.iterator(); iterator.hasNext(); ) {
+            try { iterator.next().close(); } catch (Exception ignored) {}
+        }
+    }
+
+
+    private boolean executeLineFilters(List<ILineFilter> filters, String line) throws MegatronException {
+        for (Iterator<ILineFilter> iterator = filters.iterator(); iterator.hasNext(); ) {
+            if (!iterator.next().accept(line)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private ILineProcessor createLineProcessor(JobContext context) throws MegatronException {
+        String className = props.getString(AppProperties.LINE_PROCESSOR_CLASS_NAME_KEY, null);
+        if ((className == null) || (className.trim().length() == 0)) {
+            return null;
+        }
+        try {
+            Class<?> clazz = Class.forName(className);
+            ILineProcessor result = (ILineProcessor)clazz.newInstance();
+            result.init(context);
+            return result;
+        } catch (Exception e) {
+            // ClassNotFoundException, InstantiationException, IllegalAccessException, MegatronException
+            String msg = "Cannot instantiate line processor class: " + className;
+            throw new MegatronException(msg, e);
+        }
+    }
+
+
+    private IParser createParser(JobContext context) throws MegatronException {
+        String className = props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName());
+        try {
+            Class<?> clazz = Class.forName(className);
+            IParser result = (IParser)clazz.newInstance();
+            result.init(context);
+            return result;
+        } catch (Exception e) {
+            // ClassNotFoundException, InstantiationException, IllegalAccessException, MegatronException
+            String msg = "Cannot instantiate parser class: " + className;
+            throw new MegatronException(msg, e);
+        }
+    }
+
+}
@@ -11,7 +11,7 @@ import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
 import se.sitic.megatron.entity.LogEntry;
-import se.sitic.megatron.parser.LogEntryMapper;
+import se.sitic.megatron.parser.LogEntryAccessor;
 
 
 /**
@@ -25,6 +25,7 @@ public class AttributeFilter implements ILogEntryFilter {
 
     private TypedProperties props;
     private String attributeName;
+    private LogEntryAccessor accessor;
     private Matcher excludeMatcher;
     private Matcher includeMatcher;
     private long noOfFilteredEntries;
@@ -43,6 +44,7 @@ public class AttributeFilter implements ILogEntryFilter {
         if (attributeName == null) {
             throw new MegatronException("No attribute name defined: " + AppProperties.FILTER_ATTRIBUTE_NAME_KEY);
         }
+        accessor = LogEntryAccessor.create(props, attributeName);
 
         String excludeRegExp = props.getString(AppProperties.FILTER_ATTRIBUTE_EXCLUDE_REG_EXP_KEY, null);
         if (excludeRegExp != null) {
@@ -80,19 +82,8 @@ public class AttributeFilter implements ILogEntryFilter {
     public boolean accept(LogEntry logEntry) throws MegatronException {
         boolean result = false;
 
-        // -- create mapper
-// Note: It's rather expensive to create a LogEntryMapper-object: 3-4 ms
-//        long t1 = System.currentTimeMillis();
-//        LogEntryMapper mapper = new LogEntryMapper(props, logEntry);
-//        if (log.isDebugEnabled()) {
-//            long diff = System.currentTimeMillis() - t1;
-//            String durationStr = DateUtil.formatDuration(diff);
-//            log.debug("Time to create LogEntryMapper-object: " + durationStr);
-//        }
-        LogEntryMapper mapper = new LogEntryMapper(props, logEntry);
-
         // -- get attribute and match
-        String attributeVal = mapper.getAttribute(attributeName);
+        String attributeVal = accessor.getValue(logEntry);
         attributeVal = (attributeVal != null) ? attributeVal : "-";
         
         if (excludeMatcher != null) {
@@ -3,6 +3,7 @@ package se.sitic.megatron.filter;
 import org.apache.log4j.Logger;
 
 import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ISequentialStage;
 import se.sitic.megatron.core.IntervalList;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
@@ -12,7 +13,7 @@ import se.sitic.megatron.core.TypedProperties;
 /**
  * Filter log lines using intervals of line numbers. 
  */
-public class LineNumberFilter implements ILineFilter {
+public class LineNumberFilter implements ILineFilter, ISequentialStage {
     private static final Logger log = Logger.getLogger(LineNumberFilter.class);    
 
     private JobContext jobContext;
@@ -1,17 +1,27 @@
 package se.sitic.megatron.filter;
 
+import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
 import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ISequentialStage;
 import se.sitic.megatron.core.IntervalList;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
 import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.fileprocessor.OccurrenceCountProcessor;
+import se.sitic.megatron.parser.LogEntryAccessor;
 import se.sitic.megatron.parser.LogEntryMapper;
+import se.sitic.megatron.util.CountMinSketch;
+import se.sitic.megatron.util.LongIntHashMap;
 
 
 /**
@@ -20,17 +30,41 @@ import se.sitic.megatron.parser.LogEntryMapper;
  * <p>
  * Note: This filter can consume a lot of memory if fileSorted==false, because attribute values 
  * are then kept in memory.  
+ * <p>
+ * To bound memory for large files, memoryMode may be set to "compact" (a 64-bit hash of the 
+ * attribute values is kept in a primitive hash map), or "approximate" (counts are estimated 
+ * by a count-min sketch in fixed memory; a count may be too high, but never too low).
+ * <p>
+ * In two-pass mode (twoPass==true), occurrences are counted by OccurrenceCountProcessor 
+ * before the file is processed, and intervals are matched against the total count of 
+ * a value, e.g. "11-" includes all log entries with a value that occurs more than 10 times.
+ * Decorators and log entry filters are not executed in the first pass; attributes must 
+ * be set by the parser, and no other log entry filter may be executed before this filter.
  */
-public class OccurrenceFilter implements ILogEntryFilter {
+public class OccurrenceFilter implements ILogEntryFilter, ISequentialStage {
     private static final Logger log = Logger.getLogger(OccurrenceFilter.class);    
 
+    private static final String MEMORY_MODE_EXACT = "exact";
+    private static final String MEMORY_MODE_COMPACT = "compact";
+    private static final String MEMORY_MODE_APPROXIMATE = "approximate";
+    private static final double DEFAULT_APPROXIMATE_ERROR_RATE = 0.000001;
+    /** Probability that a count in approximate mode exceeds the error bound. */
+    private static final double APPROXIMATE_ERROR_PROBABILITY = 0.001;
+    // FNV-1a (64-bit)
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     private JobContext jobContext;
-    private String[] attributeNames;    
+    private LogEntryAccessor[] accessors;
     private IntervalList excludeIntervals;
     private IntervalList includeIntervals;
     private long noOfFilteredLines;
     private boolean fileSorted;
     private Map<String, Long> attributeValueOccurrenceMap;
+    private LongIntHashMap hashOccurrenceMap;
+    private CountMinSketch countMinSketch;
+    /** Total counts from first pass (two-pass mode). */
+    private LongIntHashMap totalOccurrenceMap;
     private String prevAttributeValueStr;
     private long noOfOccurrences;
 
@@ -45,10 +79,7 @@ public class OccurrenceFilter implements ILogEntryFilter {
         this.jobContext = jobContext;
         TypedProperties props = jobContext.getProps();
         
-        attributeNames = props.getStringListFromCommaSeparatedValue(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, null, true);
-        if (attributeNames == null) {
-            throw new MegatronException("No attribute names defined: " + AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY);
-        }
+        accessors = createAccessors(props);
         
         String[] intervals = props.getStringListFromCommaSeparatedValue(AppProperties.FILTER_OCCURRENCE_EXCLUDE_INTERVALS_KEY, null, true);
         excludeIntervals = IntervalList.createIntervalList(intervals);
@@ -72,8 +103,38 @@ public class OccurrenceFilter implements ILogEntryFilter {
         }
         
         fileSorted = props.getBoolean(AppProperties.FILTER_OCCURRENCE_FILE_SORTED_KEY, false);
-        if (!fileSorted) {
-            attributeValueOccurrenceMap = new HashMap<String, Long>();            
+        String memoryMode = props.getString(AppProperties.FILTER_OCCURRENCE_MEMORY_MODE_KEY, MEMORY_MODE_EXACT).trim();
+        if (props.getBoolean(AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY, false)) {
+            // file processors are initialized before filters, but executed later
+            totalOccurrenceMap = (LongIntHashMap)jobContext.getAdditionalData(OccurrenceCountProcessor.OCCURRENCE_COUNT_MAP_KEY);
+            if (totalOccurrenceMap == null) {
+                String msg = "Two-pass mode is used (" + AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY + "), but " + 
+                    OccurrenceCountProcessor.class.getName() + " is not defined in " + AppProperties.FILE_PROCESSOR_CLASS_NAMES_KEY + ".";
+                throw new MegatronException(msg);
+            }
+            checkTwoPassMode(props);
+            log.info("Using two-pass mode; intervals are matched against total no. of occurrences.");
+        } else if (!fileSorted) {
+            if (memoryMode.equals(MEMORY_MODE_EXACT)) {
+                attributeValueOccurrenceMap = new HashMap<String, Long>();            
+            } else if (memoryMode.equals(MEMORY_MODE_COMPACT)) {
+                hashOccurrenceMap = new LongIntHashMap(1024);
+                log.info("Using compact memory mode; occurrences are counted by a 64-bit hash of attribute values.");
+            } else if (memoryMode.equals(MEMORY_MODE_APPROXIMATE)) {
+                double errorRate = props.getDouble(AppProperties.FILTER_OCCURRENCE_APPROXIMATE_ERROR_RATE_KEY, DEFAULT_APPROXIMATE_ERROR_RATE);
+                try {
+                    countMinSketch = new CountMinSketch(errorRate, APPROXIMATE_ERROR_PROBABILITY);
+                } catch (IllegalArgumentException e) {
+                    String msg = "Invalid error rate: " + AppProperties.FILTER_OCCURRENCE_APPROXIMATE_ERROR_RATE_KEY + "=" + errorRate;
+                    throw new MegatronException(msg, e);
+                }
+                log.info("Using approximate memory mode; occurrences are estimated by a count-min sketch (" + countMinSketch.getWidth() + "x" + 
+                        countMinSketch.getDepth() + ", " + formatMegaBytes(countMinSketch.getMemoryUsage()) + " MB). Error rate: " + errorRate);
+            } else {
+                String msg = "Invalid memory mode: " + AppProperties.FILTER_OCCURRENCE_MEMORY_MODE_KEY + "=" + memoryMode + 
+                    ". Valid modes: " + MEMORY_MODE_EXACT + ", " + MEMORY_MODE_COMPACT + ", " + MEMORY_MODE_APPROXIMATE;
+                throw new MegatronException(msg);
+            }
         }
         prevAttributeValueStr = null;
         noOfOccurrences = 0L;
@@ -84,19 +145,16 @@ public class OccurrenceFilter implements ILogEntryFilter {
     public boolean accept(LogEntry logEntry) throws MegatronException {
         boolean result = true;
         
-        LogEntryMapper mapper = new LogEntryMapper(jobContext.getProps(), logEntry);
-
-        // -- get attribute values
-        StringBuilder valueStringBuilder = new StringBuilder(256);
-        for (int i = 0; i < attributeNames.length; i++) {
-            String attributeVal = mapper.getAttribute(attributeNames[i]);
-            attributeVal = (attributeVal != null) ? attributeVal : "-";
-            valueStringBuilder.append(attributeVal);
-        }
-        String attributeValueStr = valueStringBuilder.toString();
-
         // -- set noOfOccurrences
-        if (fileSorted) {
+        if (totalOccurrenceMap != null) {
+            // log entry may not have been counted, e.g. if created by a line processor
+            noOfOccurrences = Math.max(totalOccurrenceMap.get(hashAttributeValues(accessors, logEntry), 0), 1);
+        } else if (hashOccurrenceMap != null) {
+            noOfOccurrences = hashOccurrenceMap.increment(hashAttributeValues(accessors, logEntry));
+        } else if (countMinSketch != null) {
+            noOfOccurrences = countMinSketch.add(hashAttributeValues(accessors, logEntry));
+        } else if (fileSorted) {
+            String attributeValueStr = getAttributeValueString(logEntry);
             if ((prevAttributeValueStr != null) && attributeValueStr.equals(prevAttributeValueStr)) {
                 ++noOfOccurrences;
             } else {
@@ -104,6 +162,7 @@ public class OccurrenceFilter implements ILogEntryFilter {
             }
             prevAttributeValueStr = attributeValueStr;
         } else {
+            String attributeValueStr = getAttributeValueString(logEntry);
             Long val = attributeValueOccurrenceMap.get(attributeValueStr);
             if (val != null) {
                 val = new Long(val.longValue() + 1L);
@@ -135,6 +194,122 @@ public class OccurrenceFilter implements ILogEntryFilter {
     @Override
     public void close() throws MegatronException {
         log.info("No. of filtered lines (OccurrenceFilter): " + noOfFilteredLines);
+        if (attributeValueOccurrenceMap != null) {
+            log.info("No. of distinct attribute values (OccurrenceFilter): " + attributeValueOccurrenceMap.size());
+        } else if (hashOccurrenceMap != null) {
+            // probability that two of n distinct values have the same 64-bit hash is about n^2 / 2^65
+            double collisionProbability = Math.min(1.0, Math.pow(hashOccurrenceMap.size(), 2) / Math.pow(2.0, 65));
+            DecimalFormat format = new DecimalFormat("0.00");
+            log.info("No. of distinct attribute values (OccurrenceFilter): " + hashOccurrenceMap.size() + ". Memory used: " + 
+                    formatMegaBytes(hashOccurrenceMap.getMemoryUsage()) + " MB. Average probe length: " + 
+                    format.format(hashOccurrenceMap.getAverageProbeLength()) + ", max probe length: " + hashOccurrenceMap.getMaxProbeLength() + 
+                    ". Probability of a hash collision: " + collisionProbability);
+        } else if (countMinSketch != null) {
+            log.info("Count-min sketch (OccurrenceFilter): " + countMinSketch.getTotalCount() + " values counted. Memory used: " + 
+                    formatMegaBytes(countMinSketch.getMemoryUsage()) + " MB. Max overestimation of a count: " + countMinSketch.getErrorBound() + 
+                    " (" + (100.0*(1.0 - countMinSketch.getErrorProbability())) + "% probability).");
+        }
+    }
+
+
+    /**
+     * Returns accessors for attributes in filter.occurrenceFilter.attributeNames.
+     */
+    /**
+     * Checks that counts from the first pass match what this filter sees, 
+     * i.e. that attributes are set by the parser, and that no log entry 
+     * filter is executed before this filter.
+     */
+    private void checkTwoPassMode(TypedProperties props) throws MegatronException {
+        Set<String> parserAttributes = LogEntryMapper.getParserAttributes(props);
+        if (parserAttributes != null) {
+            String[] attributeNames = props.getStringListFromCommaSeparatedValue(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, null, true);
+            for (int i = 0; i < attributeNames.length; i++) {
+                if (!parserAttributes.contains(attributeNames[i])) {
+                    String msg = "Two-pass mode is used (" + AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY + "), but attribute is not set by the parser: " + 
+                        attributeNames[i] + ". Decorators are not executed in the first pass. Attributes set by the parser: " + new TreeSet<String>(parserAttributes);
+                    throw new MegatronException(msg);
+                }
+            }
+        } else {
+            log.warn("Two-pass mode is used with an unknown parser; attributes are assumed to be set by the parser.");
+        }
+
+        // filters are executed in this order
+        String[] propKeys = { AppProperties.FILTER_PRE_DECORATOR_KEY, AppProperties.FILTER_PRE_STORAGE_KEY, AppProperties.FILTER_PRE_EXPORT_KEY };
+        List<String> previousFilters = new ArrayList<String>();
+        for (int i = 0; i < propKeys.length; i++) {
+            String[] classNames = props.getStringList(propKeys[i], new String[0]);
+            for (int j = 0; j < classNames.length; j++) {
+                String className = classNames[j].trim();
+                if (className.equals(OccurrenceFilter.class.getName())) {
+                    if (!previousFilters.isEmpty()) {
+                        String msg = "Two-pass mode is used (" + AppProperties.FILTER_OCCURRENCE_TWO_PASS_KEY + "), but other log entry filters are executed " + 
+                            "before OccurrenceFilter: " + previousFilters + ". Filters are not executed in the first pass; place OccurrenceFilter first.";
+                        throw new MegatronException(msg);
+                    }
+                    return;
+                } else if (className.length() > 0) {
+                    previousFilters.add(className);
+                }
+            }
+        }
+    }
+
+
+    public static LogEntryAccessor[] createAccessors(TypedProperties props) throws MegatronException {
+        String[] attributeNames = props.getStringListFromCommaSeparatedValue(AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY, null, true);
+        if (attributeNames == null) {
+            throw new MegatronException("No attribute names defined: " + AppProperties.FILTER_OCCURRENCE_ATTRIBUTE_NAMES_KEY);
+        }
+        LogEntryAccessor[] result = new LogEntryAccessor[attributeNames.length];
+        for (int i = 0; i < attributeNames.length; i++) {
+            result[i] = LogEntryAccessor.create(props, attributeNames[i]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns 64-bit hash of the attribute values concatenated (as in exact 
+     * mode) without creating the string.
+     */
+    public static long hashAttributeValues(LogEntryAccessor[] accessors, LogEntry logEntry) {
+        long result = FNV_OFFSET_BASIS;
+        for (int i = 0; i < accessors.length; i++) {
+            String attributeVal = accessors[i].getValue(logEntry);
+            attributeVal = (attributeVal != null) ? attributeVal : "-";
+            for (int j = 0; j < attributeVal.length(); j++) {
+                result ^= attributeVal.charAt(j);
+                result *= FNV_PRIME;
+            }
+        }
+        // mix bits (MurmurHash3 finalizer); the low bits are used as index
+        result ^= (result >>> 33);
+        result *= 0xff51afd7ed558ccdL;
+        result ^= (result >>> 33);
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= (result >>> 33);
+        return result;
+    }
+
+
+    /**
+     * Returns attribute values concatenated; "-" is used for a missing value.
+     */
+    private String getAttributeValueString(LogEntry logEntry) {
+        StringBuilder result = new StringBuilder(256);
+        for (int i = 0; i < accessors.length; i++) {
+            String attributeVal = accessors[i].getValue(logEntry);
+            attributeVal = (attributeVal != null) ? attributeVal : "-";
+            result.append(attributeVal);
+        }
+        return result.toString();
+    }
+
+
+    private String formatMegaBytes(long bytes) {
+        return new DecimalFormat("0.0").format(bytes / (1024d*1024d));
     }
 
 }
@@ -10,10 +10,14 @@ import se.sitic.megatron.core.AppProperties;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.parser.LiteralPrescreen;
 
 
 /**
  * Filter log lines using regular expressions. 
+ * <p>
+ * A LiteralPrescreen is used to find lines that cannot match the expression 
+ * without using the matcher. 
  */
 public class RegExpLineFilter implements ILineFilter {
     private static final Logger log = Logger.getLogger(RegExpLineFilter.class);    
@@ -21,7 +25,9 @@ public class RegExpLineFilter implements ILineFilter {
     // UNUSED: private JobContext jobContext;
     private Matcher excludeMatcher;
     private Matcher includeMatcher;
+    private LiteralPrescreen prescreen;
     private long noOfFilteredLines;
+    private long noOfPrescreenRejects;
     
     
     public RegExpLineFilter() {
@@ -38,6 +44,7 @@ public class RegExpLineFilter implements ILineFilter {
         if (excludeRegExp != null) {
             try {
                 excludeMatcher = Pattern.compile(excludeRegExp).matcher("");
+                prescreen = LiteralPrescreen.create(excludeRegExp);
                 log.info("Using line filter; " + AppProperties.FILTER_EXCLUDE_REG_EXP_KEY + "=" + excludeRegExp);
             } catch (PatternSyntaxException e) {
                 String msg = "Cannot compile reg-exp (" + AppProperties.FILTER_EXCLUDE_REG_EXP_KEY + "): " + excludeRegExp; 
@@ -48,6 +55,7 @@ public class RegExpLineFilter implements ILineFilter {
         if (includeRegExp != null) {
             try {
                 includeMatcher = Pattern.compile(includeRegExp).matcher("");
+                prescreen = LiteralPrescreen.create(includeRegExp);
                 log.info("Using line filter; " + AppProperties.FILTER_INCLUDE_REG_EXP_KEY + "=" + includeRegExp);
             } catch (PatternSyntaxException e) {
                 String msg = "Cannot compile reg-exp (" + AppProperties.FILTER_INCLUDE_REG_EXP_KEY + "): " + includeRegExp; 
@@ -70,12 +78,14 @@ public class RegExpLineFilter implements ILineFilter {
     public boolean accept(String line) throws MegatronException {
         boolean result = true;
 
-        if (excludeMatcher != null) {
+        if ((prescreen != null) && !prescreen.accept(line)) {
+            // line cannot match; accepted if exclude reg-exp is used
+            ++noOfPrescreenRejects;
+            result = (excludeMatcher != null);
+        } else if (excludeMatcher != null) {
             excludeMatcher.reset(line);
             result = !excludeMatcher.find();
-        }
-
-        if (includeMatcher != null) {
+        } else if (includeMatcher != null) {
             includeMatcher.reset(line);
             result = includeMatcher.find();
         }
@@ -91,7 +101,7 @@ public class RegExpLineFilter implements ILineFilter {
 
     @Override
     public void close() throws MegatronException {
-        log.info("No. of filtered lines (RegExpLineFilter): " + noOfFilteredLines);
+        log.info("No. of filtered lines (RegExpLineFilter): " + noOfFilteredLines + ". Lines not matched by literal pre-screen: " + noOfPrescreenRejects);
     }
 
 }
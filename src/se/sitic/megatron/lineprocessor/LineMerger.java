@@ -11,6 +11,7 @@ import java.util.regex.PatternSyntaxException;
 import org.apache.log4j.Logger;
 
 import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ISequentialStage;
 import se.sitic.megatron.core.JobContext;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
@@ -19,7 +20,7 @@ import se.sitic.megatron.core.TypedProperties;
 /**
  * Merges lines using reg-exp.
  */
-public class LineMerger implements ILineProcessor {
+public class LineMerger implements ILineProcessor, ISequentialStage {
     private static final Logger log = Logger.getLogger(LineMerger.class);
 
     private Matcher startMatcher;
@@ -0,0 +1,415 @@
+package se.sitic.megatron.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.AttributeValueRewriter;
+import se.sitic.megatron.core.ConversionException;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.ObjectStringSorter;
+import se.sitic.megatron.util.StringUtil;
+
+
+/**
+ * Parses a line with delimited values, e.g. CSV (RFC 4180). Columns are
+ * mapped to variables by "parser.csv.column.&lt;variable&gt;", where the
+ * value is a header name or a column number (first column is 1). No regular
+ * expression is used; the line is tokenized in one pass.
+ * <p>
+ * Values may be enclosed in quotes ("parser.csv.quoteChar"). A quote in a
+ * quoted value is escaped by another quote. Values spanning several lines
+ * are not supported.
+ * <p>
+ * If header names are used, the header is read from the first line in the
+ * input file the first time a line is parsed. The header line is skipped
+ * ("parser.csv.skipHeader", default true if header names are used), i.e.
+ * parse returns null for a line that equals the header. No line filter is
+ * needed, so the job may still be pipelined or processed in chunks.
+ * <p>
+ * Not thread-safe; each thread must use its own parser.
+ */
+public class CsvParser implements IParser {
+    private static final Logger log = Logger.getLogger(CsvParser.class);
+
+    private TypedProperties props;
+    private JobContext jobContext;
+
+    private char delimiter;
+    private char quoteChar;
+    private boolean useQuoteChar;
+    private boolean trimValue;
+    private String removeEnclosingCharsFromValue;
+    private AttributeValueRewriter rewriter;
+
+    /** Column names or numbers from "parser.csv.column.*". Index is variable index. */
+    private String[] columnKeys;
+    /** Variable index for each column, or -1 if column is not mapped. Null until resolved. */
+    private int[] columnVariables;
+    private boolean skipHeader;
+    /** True if header is read, or if it is not needed. */
+    private boolean headerRead;
+    /** First line in input file, or null if not read. */
+    private String headerLine;
+    private InvalidExpressionException headerError;
+
+    private LogEntryMappingPlan mappingPlan;
+    /** Values for the current line; index is variable index. */
+    private String[] values;
+    private boolean[] freeTextVariables;
+    private boolean[] rewrittenVariables;
+    private StringBuilder quotedValue;
+
+
+    public CsvParser() {
+        // empty
+    }
+
+
+    @Override
+    public void init(JobContext jobContext) throws InvalidExpressionException, MegatronException {
+        this.jobContext = jobContext;
+        this.props = jobContext.getProps();
+
+        delimiter = parseChar(props.getString(AppProperties.PARSER_CSV_DELIMITER_KEY, ","), AppProperties.PARSER_CSV_DELIMITER_KEY);
+        String quoteCharStr = props.getString(AppProperties.PARSER_CSV_QUOTE_CHAR_KEY, "\"");
+        useQuoteChar = (quoteCharStr.length() > 0);
+        quoteChar = useQuoteChar ? parseChar(quoteCharStr, AppProperties.PARSER_CSV_QUOTE_CHAR_KEY) : 0;
+        if (useQuoteChar && (quoteChar == delimiter)) {
+            throw new InvalidExpressionException("Delimiter and quote character must differ (parser.csv.delimiter, parser.csv.quoteChar).");
+        }
+        trimValue = props.getBoolean(AppProperties.PARSER_TRIM_VALUE_KEY, false);
+        removeEnclosingCharsFromValue = props.getString(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, null);
+        if ((removeEnclosingCharsFromValue != null) && (removeEnclosingCharsFromValue.length() == 0)) {
+            removeEnclosingCharsFromValue = null;
+        }
+        String[] rewriterArray = props.getStringList(AppProperties.PARSER_REWRITERS_KEY, null);
+        rewriter = AttributeValueRewriter.createAttributeValueRewriter(rewriterArray);
+
+        // -- compile mapping plan
+        List<String> variables = getColumnVariables(props);
+        if (variables.isEmpty()) {
+            throw new InvalidExpressionException("Columns are missing (parser.csv.column.*).");
+        }
+        columnKeys = new String[variables.size()];
+        freeTextVariables = new boolean[variables.size()];
+        rewrittenVariables = new boolean[variables.size()];
+        boolean headerNamesUsed = false;
+        for (int i = 0; i < variables.size(); i++) {
+            String variable = variables.get(i);
+            if (!Arrays.asList(LogEntryMapper.EXPRESSION_VARIABLES).contains(variable) && !variable.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX) &&
+                    !variable.matches(LogEntryMapper.FREE_TEXT_PREFIX + "\\d+")) {
+                throw new InvalidExpressionException("Unknown variable in column property: " + AppProperties.PARSER_CSV_COLUMN_PREFIX + variable);
+            }
+            columnKeys[i] = props.getString(AppProperties.PARSER_CSV_COLUMN_PREFIX + variable, "").trim();
+            if (columnKeys[i].length() == 0) {
+                throw new InvalidExpressionException("Column name or number is missing: " + AppProperties.PARSER_CSV_COLUMN_PREFIX + variable);
+            }
+            headerNamesUsed |= (parseColumnNo(columnKeys[i]) == -1);
+            freeTextVariables[i] = variable.startsWith(LogEntryMapper.FREE_TEXT_PREFIX);
+            rewrittenVariables[i] = (rewriter != null) && rewriter.isRewritten(variable);
+        }
+        mappingPlan = new LogEntryMappingPlan(props, variables, jobContext);
+        values = new String[variables.size()];
+        quotedValue = new StringBuilder(64);
+        skipHeader = props.getBoolean(AppProperties.PARSER_CSV_SKIP_HEADER_KEY, headerNamesUsed);
+        if (!headerNamesUsed) {
+            resolveColumns(null);
+        }
+        headerRead = !headerNamesUsed && !skipHeader;
+    }
+
+
+    @Override
+    public LogEntry parse(String logLine) throws MegatronException {
+        if (!headerRead) {
+            // header is read once; if invalid, all lines fail
+            headerRead = true;
+            try {
+                headerLine = readHeaderLine();
+                if (columnVariables == null) {
+                    resolveColumns(parseHeader(headerLine));
+                }
+            } catch (InvalidExpressionException e) {
+                headerError = e;
+            }
+        }
+        if (headerError != null) {
+            throw headerError;
+        }
+        if (skipHeader && logLine.equals(headerLine)) {
+            // also skipped if the file is processed in chunks, or if headers are repeated in the file
+            return null;
+        }
+
+        Arrays.fill(values, null);
+        int noOfColumns = tokenize(logLine, columnVariables, values);
+        if (noOfColumns < columnVariables.length) {
+            String msg = "Cannot parse line at " + jobContext.getLineNo() + "; too few columns (" + noOfColumns + "<" + columnVariables.length + "). Line: '" + logLine + "'.";
+            throw new ParseException(msg);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (trimValue) {
+                value = value.trim();
+            }
+            // empty value is treated as NULL
+            if (value.length() != 0) {
+                if (removeEnclosingCharsFromValue != null) {
+                    value = StringUtil.removeEnclosingChars(value, removeEnclosingCharsFromValue);
+                }
+            } else if (!freeTextVariables[i]) {
+                // empty value is stored for free text (otherwise list order cannot be preserved)
+                value = null;
+            }
+            if (rewrittenVariables[i] && (value != null)) {
+                value = rewriter.rewrite(mappingPlan.getAttributeName(i), value);
+            }
+            values[i] = value;
+        }
+
+        try {
+            return mappingPlan.createLogEntry(values);
+        } catch (ConversionException e) {
+            String msg = "Cannot parse line at " + jobContext.getLineNo() + "; " + e.getMessage() + " Line: '" + logLine + "'.";
+            throw new ParseException(msg, e);
+        }
+    }
+
+
+    @Override
+    public void close() throws MegatronException {
+        // empty
+    }
+
+
+    /**
+     * Returns variables that are mapped to a column, e.g. "ipAddress" or
+     * "additionalItem_rbl" (without variable prefix).
+     */
+    public static List<String> getColumnVariables(TypedProperties typedProperties) {
+        List<String> result = new ArrayList<String>();
+        String prefix = AppProperties.PARSER_CSV_COLUMN_PREFIX;
+        for (Iterator<String> iterator = typedProperties.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(prefix)) {
+                result.add(StringUtil.removePrefix(key, prefix));
+            }
+        }
+        Collections.sort(result, ObjectStringSorter.createDefaultSorter());
+        return result;
+    }
+
+
+    /**
+     * Returns true if specified properties uses this parser.
+     */
+    public static boolean isUsed(TypedProperties typedProperties) {
+        return CsvParser.class.getName().equals(typedProperties.getString(AppProperties.PARSER_CLASS_NAME_KEY, null));
+    }
+
+
+    /**
+     * Splits specified line into values for mapped columns.
+     *
+     * @param columnVariables variable index for each column, or -1 if column is not mapped.
+     * @param values values for mapped columns; index is variable index.
+     * @return no. of columns scanned. Scanning stops after the last mapped column.
+     */
+    private int tokenize(String line, int[] columnVariables, String[] values) throws ParseException {
+        final int length = line.length();
+        final int lastColumn = columnVariables.length - 1;
+        int column = 0;
+        int pos = 0;
+        while (true) {
+            int variableIndex = columnVariables[column];
+            String value = null;
+            if (useQuoteChar && (pos < length) && (line.charAt(pos) == quoteChar)) {
+                // quoted value; "" is an escaped quote
+                int start = pos + 1;
+                int end = line.indexOf(quoteChar, start);
+                boolean escaped = false;
+                while ((end != -1) && ((end + 1) < length) && (line.charAt(end + 1) == quoteChar)) {
+                    if (variableIndex != -1) {
+                        if (!escaped) {
+                            quotedValue.setLength(0);
+                            escaped = true;
+                        }
+                        quotedValue.append(line, start, end + 1);
+                    }
+                    start = end + 2;
+                    end = line.indexOf(quoteChar, start);
+                }
+                if (end == -1) {
+                    String msg = "Cannot parse line at " + jobContext.getLineNo() + "; quote is not closed in column " + (column + 1) + ". Line: '" + line + "'.";
+                    throw new ParseException(msg);
+                }
+                if (variableIndex != -1) {
+                    value = escaped ? quotedValue.append(line, start, end).toString() : line.substring(start, end);
+                }
+                pos = end + 1;
+                if ((pos < length) && (line.charAt(pos) != delimiter)) {
+                    String msg = "Cannot parse line at " + jobContext.getLineNo() + "; delimiter expected after quoted value in column " + (column + 1) + ". Line: '" + line + "'.";
+                    throw new ParseException(msg);
+                }
+            } else {
+                int end = line.indexOf(delimiter, pos);
+                if (end == -1) {
+                    end = length;
+                }
+                if (variableIndex != -1) {
+                    value = line.substring(pos, end);
+                }
+                pos = end;
+            }
+            if (variableIndex != -1) {
+                values[variableIndex] = value;
+            }
+            ++column;
+            // pos is at a delimiter or at end of line
+            if ((column > lastColumn) || (pos >= length)) {
+                return column;
+            }
+            ++pos;
+            if (pos == length) {
+                // line ends with a delimiter; last value is empty
+                if (column <= lastColumn) {
+                    variableIndex = columnVariables[column];
+                    if (variableIndex != -1) {
+                        values[variableIndex] = "";
+                    }
+                }
+                return column + 1;
+            }
+        }
+    }
+
+
+    /**
+     * Resolves column numbers from column keys.
+     *
+     * @param header header names, or null if only column numbers are used.
+     */
+    private void resolveColumns(List<String> header) throws InvalidExpressionException {
+        int[] columnNos = new int[columnKeys.length];
+        int maxColumnNo = 0;
+        for (int i = 0; i < columnKeys.length; i++) {
+            int columnNo = parseColumnNo(columnKeys[i]);
+            if (columnNo == -1) {
+                columnNo = header.indexOf(columnKeys[i]) + 1;
+                if (columnNo == 0) {
+                    throw new InvalidExpressionException("Column name not found in header: '" + columnKeys[i] + "'. Header: " + header);
+                }
+            }
+            columnNos[i] = columnNo;
+            maxColumnNo = Math.max(maxColumnNo, columnNo);
+        }
+        int[] result = new int[maxColumnNo];
+        Arrays.fill(result, -1);
+        for (int i = 0; i < columnNos.length; i++) {
+            if (result[columnNos[i] - 1] != -1) {
+                throw new InvalidExpressionException("Column is mapped to more than one variable: " + columnKeys[i]);
+            }
+            result[columnNos[i] - 1] = i;
+        }
+        columnVariables = result;
+    }
+
+
+    /**
+     * Reads the header line, i.e. the first line in the input file. Trailing
+     * spaces are removed if the job removes them before the line is parsed.
+     */
+    private String readHeaderLine() throws InvalidExpressionException {
+        File file = jobContext.getInputFile();
+        if (file == null) {
+            throw new InvalidExpressionException("Cannot read header; input file is unknown. Use column numbers instead of names (parser.csv.column.*), " +
+                    "and set parser.csv.skipHeader to false.");
+        }
+        String line = null;
+        BufferedReader in = null;
+        try {
+            String charSet = props.getString(AppProperties.INPUT_CHAR_SET_KEY, Constants.UTF8);
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), charSet));
+            line = in.readLine();
+        } catch (IOException e) {
+            throw new InvalidExpressionException("Cannot read header from file: " + file.getAbsolutePath(), e);
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+        if (line == null) {
+            throw new InvalidExpressionException("Cannot read header; file is empty: " + file.getAbsolutePath());
+        }
+        if (props.getBoolean(AppProperties.PARSER_REMOVE_TRAILING_SPACES_KEY, false)) {
+            line = StringUtil.removeTrailingSpaces(line);
+        }
+        return line;
+    }
+
+
+    /**
+     * Returns header names in specified header line.
+     */
+    private List<String> parseHeader(String line) throws InvalidExpressionException {
+        // tokenize header with all columns mapped; quoted names may contain delimiters
+        int maxNoOfColumns = 1;
+        for (int i = 0; i < line.length(); i++) {
+            maxNoOfColumns += (line.charAt(i) == delimiter) ? 1 : 0;
+        }
+        int[] allColumns = new int[maxNoOfColumns];
+        for (int i = 0; i < allColumns.length; i++) {
+            allColumns[i] = i;
+        }
+        String[] names = new String[maxNoOfColumns];
+        int noOfColumns = 0;
+        try {
+            noOfColumns = tokenize(line, allColumns, names);
+        } catch (ParseException e) {
+            throw new InvalidExpressionException("Cannot parse header in file: " + jobContext.getInputFile().getAbsolutePath() + ". " + e.getMessage(), e);
+        }
+        List<String> result = new ArrayList<String>(noOfColumns);
+        for (int i = 0; i < noOfColumns; i++) {
+            result.add(names[i].trim());
+        }
+        log.debug("Header read from file: " + result);
+        return result;
+    }
+
+
+    private int parseColumnNo(String columnKey) {
+        for (int i = 0; i < columnKey.length(); i++) {
+            if (!Character.isDigit(columnKey.charAt(i))) {
+                return -1;
+            }
+        }
+        int result = Integer.parseInt(columnKey);
+        return (result > 0) ? result : -1;
+    }
+
+
+    private char parseChar(String str, String key) throws InvalidExpressionException {
+        if (str.equals("\\t") || str.equalsIgnoreCase("tab")) {
+            return '\t';
+        }
+        if (str.length() != 1) {
+            throw new InvalidExpressionException("Invalid character for " + key + ": '" + str + "'.");
+        }
+        return str.charAt(0);
+    }
+
+}
@@ -13,6 +13,12 @@ public interface IParser {
 
     public void init(JobContext jobContext) throws MegatronException;
     
+    /**
+     * Parses specified line.
+     * 
+     * @return log entry, or null if line is skipped, e.g. a header line 
+     *      (counted as a filtered line).
+     */
     public LogEntry parse(String logLine) throws MegatronException;
 
     public void close() throws MegatronException;
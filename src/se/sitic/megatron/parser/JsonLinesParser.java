@@ -0,0 +1,527 @@
+package se.sitic.megatron.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.AttributeValueRewriter;
+import se.sitic.megatron.core.ConversionException;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.MegatronException;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.ObjectStringSorter;
+import se.sitic.megatron.util.StringUtil;
+
+
+/**
+ * Parses a line containing a JSON object, i.e. newline-delimited JSON
+ * (JSON lines). Values are mapped to variables by
+ * "parser.json.path.&lt;variable&gt;", where the value is a dot-separated
+ * path, e.g. "src.ip" or "tags.0" (array index).
+ * <p>
+ * No object tree is created. The line is scanned once, and only values for
+ * mapped paths are extracted; other values are skipped. Scanning stops when
+ * all mapped values have been found. Strings are unescaped, numbers and
+ * booleans are used as is, and null or a missing path is treated as NULL.
+ * If a path refers to an object or array, the JSON text is used as value.
+ * If a name occurs more than once in an object, the first value is used.
+ * Objects and arrays may be nested at most MAX_DEPTH levels.
+ * <p>
+ * Not thread-safe; each thread must use its own parser.
+ */
+public class JsonLinesParser implements IParser {
+    private static final Logger log = Logger.getLogger(JsonLinesParser.class);
+
+    /** Max nesting of objects and arrays; deeper nesting is a parse error (and not a stack overflow). */
+    private static final int MAX_DEPTH = 64;
+
+    private TypedProperties props;
+    private JobContext jobContext;
+
+    private boolean trimValue;
+    private String removeEnclosingCharsFromValue;
+    private AttributeValueRewriter rewriter;
+
+    /** Root of the path tree for mapped paths. */
+    private PathNode rootNode;
+    private LogEntryMappingPlan mappingPlan;
+    /** Values for the current line; index is variable index. */
+    private String[] values;
+    /** True if value for variable has been found in the current line. */
+    private boolean[] foundVariables;
+    private boolean[] freeTextVariables;
+    private boolean[] rewrittenVariables;
+    private StringBuilder stringValue;
+
+    // state for the current line
+    private String line;
+    private int pos;
+    private int depth;
+    private int noOfFoundValues;
+
+
+    public JsonLinesParser() {
+        // empty
+    }
+
+
+    @Override
+    public void init(JobContext jobContext) throws InvalidExpressionException, MegatronException {
+        this.jobContext = jobContext;
+        this.props = jobContext.getProps();
+
+        trimValue = props.getBoolean(AppProperties.PARSER_TRIM_VALUE_KEY, false);
+        removeEnclosingCharsFromValue = props.getString(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, null);
+        if ((removeEnclosingCharsFromValue != null) && (removeEnclosingCharsFromValue.length() == 0)) {
+            removeEnclosingCharsFromValue = null;
+        }
+        String[] rewriterArray = props.getStringList(AppProperties.PARSER_REWRITERS_KEY, null);
+        rewriter = AttributeValueRewriter.createAttributeValueRewriter(rewriterArray);
+
+        // -- compile path tree and mapping plan
+        List<String> variables = getPathVariables(props);
+        if (variables.isEmpty()) {
+            throw new InvalidExpressionException("Paths are missing (parser.json.path.*).");
+        }
+        rootNode = new PathNode(null);
+        freeTextVariables = new boolean[variables.size()];
+        rewrittenVariables = new boolean[variables.size()];
+        for (int i = 0; i < variables.size(); i++) {
+            String variable = variables.get(i);
+            if (!Arrays.asList(LogEntryMapper.EXPRESSION_VARIABLES).contains(variable) && !variable.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX) &&
+                    !variable.matches(LogEntryMapper.FREE_TEXT_PREFIX + "\\d+")) {
+                throw new InvalidExpressionException("Unknown variable in path property: " + AppProperties.PARSER_JSON_PATH_PREFIX + variable);
+            }
+            String path = props.getString(AppProperties.PARSER_JSON_PATH_PREFIX + variable, "").trim();
+            if ((path.length() == 0) || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new InvalidExpressionException("Invalid path: " + AppProperties.PARSER_JSON_PATH_PREFIX + variable + "=" + path);
+            }
+            PathNode node = rootNode;
+            String[] names = path.split("\\.");
+            for (int j = 0; j < names.length; j++) {
+                node = node.getOrAddChild(names[j]);
+            }
+            if (node.variableIndex != -1) {
+                throw new InvalidExpressionException("Path is mapped to more than one variable: " + path);
+            }
+            node.variableIndex = i;
+            freeTextVariables[i] = variable.startsWith(LogEntryMapper.FREE_TEXT_PREFIX);
+            rewrittenVariables[i] = (rewriter != null) && rewriter.isRewritten(variable);
+        }
+        mappingPlan = new LogEntryMappingPlan(props, variables, jobContext);
+        values = new String[variables.size()];
+        foundVariables = new boolean[variables.size()];
+        stringValue = new StringBuilder(64);
+    }
+
+
+    @Override
+    public LogEntry parse(String logLine) throws MegatronException {
+        Arrays.fill(values, null);
+        Arrays.fill(foundVariables, false);
+        line = logLine;
+        pos = 0;
+        depth = 0;
+        noOfFoundValues = 0;
+        skipWhitespace();
+        if ((pos >= line.length()) || (line.charAt(pos) != '{')) {
+            throw createParseException("JSON object expected");
+        }
+        parseValue(rootNode);
+        if (noOfFoundValues < values.length) {
+            skipWhitespace();
+            if (pos < line.length()) {
+                throw createParseException("end of line expected");
+            }
+        }
+        line = null;
+
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (trimValue) {
+                value = value.trim();
+            }
+            // empty value is treated as NULL
+            if (value.length() != 0) {
+                if (removeEnclosingCharsFromValue != null) {
+                    value = StringUtil.removeEnclosingChars(value, removeEnclosingCharsFromValue);
+                }
+            } else if (!freeTextVariables[i]) {
+                // empty value is stored for free text (otherwise list order cannot be preserved)
+                value = null;
+            }
+            if (rewrittenVariables[i] && (value != null)) {
+                value = rewriter.rewrite(mappingPlan.getAttributeName(i), value);
+            }
+            values[i] = value;
+        }
+
+        try {
+            return mappingPlan.createLogEntry(values);
+        } catch (ConversionException e) {
+            String msg = "Cannot parse line at " + jobContext.getLineNo() + "; " + e.getMessage() + " Line: '" + logLine + "'.";
+            throw new ParseException(msg, e);
+        }
+    }
+
+
+    @Override
+    public void close() throws MegatronException {
+        // empty
+    }
+
+
+    /**
+     * Returns variables that are mapped to a path, e.g. "ipAddress" or
+     * "additionalItem_rbl" (without variable prefix).
+     */
+    public static List<String> getPathVariables(TypedProperties typedProperties) {
+        List<String> result = new ArrayList<String>();
+        String prefix = AppProperties.PARSER_JSON_PATH_PREFIX;
+        for (Iterator<String> iterator = typedProperties.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(prefix)) {
+                result.add(StringUtil.removePrefix(key, prefix));
+            }
+        }
+        Collections.sort(result, ObjectStringSorter.createDefaultSorter());
+        return result;
+    }
+
+
+    /**
+     * Returns true if specified properties uses this parser.
+     */
+    public static boolean isUsed(TypedProperties typedProperties) {
+        return JsonLinesParser.class.getName().equals(typedProperties.getString(AppProperties.PARSER_CLASS_NAME_KEY, null));
+    }
+
+
+    /**
+     * Parses value at current position.
+     *
+     * @param node path node for the value, or null if value is not mapped (skipped).
+     */
+    private void parseValue(PathNode node) throws ParseException {
+        if (pos >= line.length()) {
+            throw createParseException("value expected");
+        }
+        int start = pos;
+        char ch = line.charAt(pos);
+        if ((ch == '{') || (ch == '[')) {
+            if (++depth > MAX_DEPTH) {
+                throw createParseException("objects or arrays nested more than " + MAX_DEPTH + " levels");
+            }
+            if (ch == '{') {
+                parseObject(node);
+            } else {
+                parseArray(node);
+            }
+            --depth;
+            storeValue(node, start);
+        } else if (ch == '"') {
+            boolean mapped = (node != null) && (node.variableIndex != -1);
+            String value = parseString(mapped);
+            if (mapped) {
+                setValue(node, value);
+            }
+        } else {
+            // number, true, false, or null
+            while ((pos < line.length()) && isLiteralChar(line.charAt(pos))) {
+                ++pos;
+            }
+            if (pos == start) {
+                throw createParseException("value expected");
+            }
+            if ((node != null) && (node.variableIndex != -1)) {
+                boolean isNull = ((pos - start) == 4) && line.startsWith("null", start);
+                setValue(node, isNull ? null : line.substring(start, pos));
+            }
+        }
+    }
+
+
+    private void parseObject(PathNode node) throws ParseException {
+        // skip '{'
+        ++pos;
+        skipWhitespace();
+        if ((pos < line.length()) && (line.charAt(pos) == '}')) {
+            ++pos;
+            return;
+        }
+        while (true) {
+            if ((pos >= line.length()) || (line.charAt(pos) != '"')) {
+                throw createParseException("name expected");
+            }
+            PathNode child = null;
+            if ((node != null) && (node.children != null)) {
+                int start = pos + 1;
+                String name = parseString(false);
+                int end = pos - 1;
+                child = (name != null) ? node.getChild(name) : node.getChild(line, start, end);
+            } else {
+                parseString(false);
+            }
+            skipWhitespace();
+            if ((pos >= line.length()) || (line.charAt(pos) != ':')) {
+                throw createParseException("':' expected");
+            }
+            ++pos;
+            skipWhitespace();
+            parseValue(child);
+            if (noOfFoundValues == values.length) {
+                return;
+            }
+            skipWhitespace();
+            if (pos < line.length()) {
+                char ch = line.charAt(pos++);
+                if (ch == '}') {
+                    return;
+                } else if (ch == ',') {
+                    skipWhitespace();
+                    continue;
+                }
+            }
+            throw createParseException("',' or '}' expected");
+        }
+    }
+
+
+    private void parseArray(PathNode node) throws ParseException {
+        // skip '['
+        ++pos;
+        skipWhitespace();
+        if ((pos < line.length()) && (line.charAt(pos) == ']')) {
+            ++pos;
+            return;
+        }
+        int index = 0;
+        while (true) {
+            PathNode child = ((node != null) && (node.children != null)) ? node.getChild(index) : null;
+            parseValue(child);
+            if (noOfFoundValues == values.length) {
+                return;
+            }
+            ++index;
+            skipWhitespace();
+            if (pos < line.length()) {
+                char ch = line.charAt(pos++);
+                if (ch == ']') {
+                    return;
+                } else if (ch == ',') {
+                    skipWhitespace();
+                    continue;
+                }
+            }
+            throw createParseException("',' or ']' expected");
+        }
+    }
+
+
+    /**
+     * Parses string at current position (starts with a quote). Position is
+     * after the closing quote when finished.
+     *
+     * @param unescape returns the unescaped string if true. If false, the
+     *      string is skipped and null is returned, unless the string contains
+     *      escapes; then the unescaped string is returned.
+     */
+    private String parseString(boolean unescape) throws ParseException {
+        int start = pos + 1;
+        int end = start;
+        final int length = line.length();
+        while (end < length) {
+            char ch = line.charAt(end);
+            if (ch == '"') {
+                pos = end + 1;
+                return unescape ? line.substring(start, end) : null;
+            } else if (ch == '\\') {
+                break;
+            }
+            ++end;
+        }
+        if (end >= length) {
+            pos = end;
+            throw createParseException("string is not closed");
+        }
+
+        // string contains escapes
+        stringValue.setLength(0);
+        stringValue.append(line, start, end);
+        pos = end;
+        while (pos < length) {
+            char ch = line.charAt(pos++);
+            if (ch == '"') {
+                return stringValue.toString();
+            } else if (ch != '\\') {
+                stringValue.append(ch);
+                continue;
+            }
+            if (pos >= length) {
+                break;
+            }
+            ch = line.charAt(pos++);
+            switch (ch) {
+            case '"':
+            case '\\':
+            case '/':
+                stringValue.append(ch);
+                break;
+            case 'b':
+                stringValue.append('\b');
+                break;
+            case 'f':
+                stringValue.append('\f');
+                break;
+            case 'n':
+                stringValue.append('\n');
+                break;
+            case 'r':
+                stringValue.append('\r');
+                break;
+            case 't':
+                stringValue.append('\t');
+                break;
+            case 'u':
+                if ((pos + 4) > length) {
+                    throw createParseException("invalid unicode escape");
+                }
+                try {
+                    stringValue.append((char)Integer.parseInt(line.substring(pos, pos + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw createParseException("invalid unicode escape");
+                }
+                pos += 4;
+                break;
+            default:
+                throw createParseException("invalid escape '\\" + ch + "'");
+            }
+        }
+        throw createParseException("string is not closed");
+    }
+
+
+    /**
+     * Stores JSON text for an object or array if node is mapped.
+     */
+    private void storeValue(PathNode node, int start) {
+        if ((node != null) && (node.variableIndex != -1)) {
+            setValue(node, line.substring(start, pos));
+        }
+    }
+
+
+    /**
+     * Sets value for a mapped node. If a name occurs more than once in an
+     * object, the first value is used; scanning may stop before the others
+     * are reached.
+     */
+    private void setValue(PathNode node, String value) {
+        int index = node.variableIndex;
+        if (!foundVariables[index]) {
+            foundVariables[index] = true;
+            ++noOfFoundValues;
+            values[index] = value;
+        }
+    }
+
+
+    private void skipWhitespace() {
+        final int length = line.length();
+        while (pos < length) {
+            char ch = line.charAt(pos);
+            if ((ch != ' ') && (ch != '\t') && (ch != '\r') && (ch != '\n')) {
+                break;
+            }
+            ++pos;
+        }
+    }
+
+
+    private boolean isLiteralChar(char ch) {
+        return ((ch >= '0') && (ch <= '9')) || ((ch >= 'a') && (ch <= 'z')) || (ch == '-') || (ch == '+') || (ch == '.') || (ch == 'E');
+    }
+
+
+    private ParseException createParseException(String reason) {
+        String msg = "Cannot parse line at " + jobContext.getLineNo() + "; " + reason + " at position " + (pos + 1) + ". Line: '" + line + "'.";
+        if (log.isDebugEnabled()) {
+            log.debug(msg);
+        }
+        return new ParseException(msg);
+    }
+
+
+    /**
+     * Node in the tree of mapped paths. Names are compared without creating
+     * strings from the line.
+     */
+    private static class PathNode {
+        private String name;
+        /** Index if name is an array index, otherwise -1. */
+        private int arrayIndex;
+        private int variableIndex = -1;
+        private PathNode[] children;
+
+
+        public PathNode(String name) {
+            this.name = name;
+            this.arrayIndex = ((name != null) && name.matches("\\d+")) ? Integer.parseInt(name) : -1;
+        }
+
+
+        public PathNode getOrAddChild(String childName) {
+            PathNode result = getChild(childName);
+            if (result == null) {
+                result = new PathNode(childName);
+                children = (children == null) ? new PathNode[1] : Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = result;
+            }
+            return result;
+        }
+
+
+        public PathNode getChild(String childName) {
+            return getChild(childName, 0, childName.length());
+        }
+
+
+        /**
+         * Returns child with name in specified region, or null if not found.
+         */
+        public PathNode getChild(String str, int start, int end) {
+            if (children != null) {
+                int length = end - start;
+                for (int i = 0; i < children.length; i++) {
+                    String childName = children[i].name;
+                    if ((childName.length() == length) && str.regionMatches(start, childName, 0, length)) {
+                        return children[i];
+                    }
+                }
+            }
+            return null;
+        }
+
+
+        public PathNode getChild(int index) {
+            if (children != null) {
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i].arrayIndex == index) {
+                        return children[i];
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+}
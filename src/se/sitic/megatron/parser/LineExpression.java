@@ -29,6 +29,7 @@ public class LineExpression {
     
     private TypedProperties props;
     private String lineRegExp;
+    private String expandedLineRegExp;
     
     
     public LineExpression(TypedProperties props, String lineRegExp) {
@@ -93,7 +94,22 @@ public class LineExpression {
      * Creates a regular expression from this line expression.
      */
     public Matcher createRegExp() throws InvalidExpressionException {
-        Matcher result = Pattern.compile(expandRegExp()).matcher("");
+        Matcher result = Pattern.compile(getExpandedRegExp()).matcher("");
+        return result;
+    }
+
+    
+    /**
+     * Creates a pre-screen that rejects lines that cannot match the regular
+     * expression from this line expression.
+     * 
+     * @return pre-screen, or null if the expression contains no required literals. 
+     */
+    public LiteralPrescreen createPrescreen() throws InvalidExpressionException {
+        LiteralPrescreen result = LiteralPrescreen.create(getExpandedRegExp());
+        if (result != null) {
+            log.info("Literal pre-screen (parser.lineRegExp): " + result);
+        }
         return result;
     }
 
@@ -137,6 +153,14 @@ public class LineExpression {
     }
 
     
+    private String getExpandedRegExp() throws InvalidExpressionException {
+        if (expandedLineRegExp == null) {
+            expandedLineRegExp = expandRegExp();
+        }
+        return expandedLineRegExp;
+    }
+
+    
     private String expandRegExp() throws InvalidExpressionException {
         String result = lineRegExp;
 
@@ -0,0 +1,420 @@
+package se.sitic.megatron.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Rejects lines that cannot match a regular expression by checking for
+ * literal substrings that are required by the expression, e.g. '","' in
+ * "^"(.*?)","(.*?)"$". The check is a few indexOf-calls, which is much
+ * faster than a failed match (backtracking).
+ * <p>
+ * Literals are extracted conservatively; constructs that are not understood
+ * are treated as "anything", and if the expression contains alternation at
+ * top level or inline flags, e.g. "(?i)", no pre-screen is created. A line
+ * that is accepted may still not match the expression.
+ */
+public class LiteralPrescreen {
+    private static final Logger log = Logger.getLogger(LiteralPrescreen.class);
+
+    /** Literal that the line must start with (expression starts with '^'), or null. */
+    private String prefix;
+    /** Literals that must exist in the line in this order. */
+    private String[] literals;
+
+
+    private LiteralPrescreen(String prefix, List<String> literals) {
+        this.prefix = prefix;
+        this.literals = literals.toArray(new String[literals.size()]);
+    }
+
+
+    /**
+     * Creates a pre-screen for specified regular expression.
+     *
+     * @return pre-screen, or null if no required literals was found.
+     */
+    public static LiteralPrescreen create(String regExp) {
+        LiteralPrescreen result = null;
+        try {
+            Analyzer analyzer = new Analyzer(regExp);
+            List<String> literals = new ArrayList<String>();
+            String prefix = analyzer.analyze(literals);
+            if ((prefix != null) || !literals.isEmpty()) {
+                result = new LiteralPrescreen(prefix, literals);
+                log.debug("Pre-screen created for reg-exp: " + regExp + ". Pre-screen: " + result);
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Pre-screen not used for reg-exp: " + regExp + ". Reason: " + e.getMessage());
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns false if specified line cannot match the expression.
+     */
+    public boolean accept(String line) {
+        int fromIndex = 0;
+        if (prefix != null) {
+            if (!line.startsWith(prefix)) {
+                return false;
+            }
+            fromIndex = prefix.length();
+        }
+        for (int i = 0; i < literals.length; i++) {
+            int index = line.indexOf(literals[i], fromIndex);
+            if (index == -1) {
+                return false;
+            }
+            fromIndex = index + literals[i].length();
+        }
+        return true;
+    }
+
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+
+    public String[] getLiterals() {
+        return literals;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(128);
+        result.append("prefix=").append(prefix).append(", literals=[");
+        for (int i = 0; i < literals.length; i++) {
+            result.append((i > 0) ? ", " : "").append("'").append(literals[i]).append("'");
+        }
+        result.append("]");
+        return result.toString();
+    }
+
+
+    /**
+     * Extracts required literals from a regular expression (java.util.regex
+     * syntax). Throws IllegalArgumentException if no literals can be
+     * extracted safely.
+     */
+    private static class Analyzer {
+        private String regExp;
+        private int pos;
+
+
+        public Analyzer(String regExp) {
+            this.regExp = regExp;
+        }
+
+
+        /**
+         * Adds required literals to specified list, and returns prefix (or null).
+         */
+        public String analyze(List<String> literals) {
+            boolean anchored = regExp.startsWith("^");
+            pos = anchored ? 1 : 0;
+            List<String> result = new ArrayList<String>();
+            StringBuilder firstRun = new StringBuilder();
+            if (!parseSequence(result, anchored ? firstRun : null)) {
+                throw new IllegalArgumentException("alternation at top level");
+            }
+            if (pos < regExp.length()) {
+                throw new IllegalArgumentException("unbalanced parenthesis");
+            }
+            literals.addAll(result);
+            return (firstRun.length() > 0) ? firstRun.toString() : null;
+        }
+
+
+        /**
+         * Parses a sequence until ')' or end of expression.
+         *
+         * @param firstRun literal run at start of sequence is added to this
+         *      builder instead of the list, or null.
+         * @return false if sequence contains alternation, i.e. no literal is required.
+         */
+        private boolean parseSequence(List<String> literals, StringBuilder firstRun) {
+            boolean alternation = false;
+            StringBuilder run = new StringBuilder();
+            boolean isFirstRun = (firstRun != null);
+            while (pos < regExp.length()) {
+                char ch = regExp.charAt(pos);
+                if (ch == ')') {
+                    break;
+                } else if (ch == '|') {
+                    alternation = true;
+                    isFirstRun = false;
+                    run.setLength(0);
+                    ++pos;
+                    continue;
+                }
+
+                String literal = null;
+                List<String> groupLiterals = null;
+                if (ch == '\\') {
+                    literal = parseEscape();
+                } else if (ch == '[') {
+                    skipCharClass();
+                } else if (ch == '(') {
+                    groupLiterals = parseGroup();
+                } else if ((ch == '.') || (ch == '^') || (ch == '$')) {
+                    ++pos;
+                } else if ((ch == '*') || (ch == '+') || (ch == '?') || (ch == '{')) {
+                    throw new IllegalArgumentException("dangling quantifier at " + pos);
+                } else {
+                    literal = String.valueOf(ch);
+                    ++pos;
+                }
+
+                int minOccurrences = parseQuantifier();
+                if ((literal != null) && (literal.length() > 0)) {
+                    // a quantifier applies to the last char
+                    run.append(literal, 0, literal.length() - 1);
+                    if (minOccurrences >= 1) {
+                        run.append(literal.charAt(literal.length() - 1));
+                    }
+                    if (minOccurrences != 1) {
+                        isFirstRun = flushRun(run, literals, firstRun, isFirstRun);
+                    }
+                } else {
+                    isFirstRun = flushRun(run, literals, firstRun, isFirstRun);
+                    if ((groupLiterals != null) && (minOccurrences >= 1)) {
+                        literals.addAll(groupLiterals);
+                    }
+                }
+            }
+            flushRun(run, literals, firstRun, isFirstRun);
+            if (alternation) {
+                literals.clear();
+                if (firstRun != null) {
+                    firstRun.setLength(0);
+                }
+            }
+            return !alternation;
+        }
+
+
+        /**
+         * Adds run to list (or to firstRun), and clears it.
+         *
+         * @return false, i.e. next run is not first run.
+         */
+        private boolean flushRun(StringBuilder run, List<String> literals, StringBuilder firstRun, boolean isFirstRun) {
+            if (isFirstRun) {
+                firstRun.append(run);
+            } else if (run.length() > 0) {
+                literals.add(run.toString());
+            }
+            run.setLength(0);
+            return false;
+        }
+
+
+        /**
+         * Parses group at current position.
+         *
+         * @return required literals in group, or null if group is zero-width
+         *      or contains alternation.
+         */
+        private List<String> parseGroup() {
+            // skip '('
+            ++pos;
+            boolean zeroWidth = false;
+            if (regExp.startsWith("?", pos)) {
+                if (regExp.startsWith("?:", pos) || regExp.startsWith("?>", pos)) {
+                    pos += 2;
+                } else if (regExp.startsWith("?=", pos) || regExp.startsWith("?!", pos)) {
+                    pos += 2;
+                    zeroWidth = true;
+                } else if (regExp.startsWith("?<=", pos) || regExp.startsWith("?<!", pos)) {
+                    pos += 3;
+                    zeroWidth = true;
+                } else if (regExp.startsWith("?<", pos)) {
+                    int end = regExp.indexOf('>', pos);
+                    if (end == -1) {
+                        throw new IllegalArgumentException("invalid named group at " + pos);
+                    }
+                    pos = end + 1;
+                } else {
+                    throw new IllegalArgumentException("inline flags at " + pos);
+                }
+            }
+            List<String> result = new ArrayList<String>();
+            boolean hasLiterals = parseSequence(result, null);
+            if ((pos >= regExp.length()) || (regExp.charAt(pos) != ')')) {
+                throw new IllegalArgumentException("unbalanced parenthesis");
+            }
+            ++pos;
+            return (hasLiterals && !zeroWidth) ? result : null;
+        }
+
+
+        /**
+         * Parses escape at current position.
+         *
+         * @return literal text, or null if escape is not a literal.
+         */
+        private String parseEscape() {
+            // skip '\'
+            ++pos;
+            if (pos >= regExp.length()) {
+                throw new IllegalArgumentException("escape at end of expression");
+            }
+            char ch = regExp.charAt(pos++);
+            switch (ch) {
+            case 't':
+                return "\t";
+            case 'n':
+                return "\n";
+            case 'r':
+                return "\r";
+            case 'f':
+                return "\f";
+            case 'a':
+                return "\u0007";
+            case 'e':
+                return "\u001B";
+            case 'Q':
+                int end = regExp.indexOf("\\E", pos);
+                end = (end == -1) ? regExp.length() : end;
+                String result = regExp.substring(pos, end);
+                pos = Math.min(end + 2, regExp.length());
+                return result;
+            case 'd': case 'D': case 's': case 'S': case 'w': case 'W':
+            case 'b': case 'B': case 'A': case 'G': case 'Z': case 'z':
+            case 'h': case 'H': case 'v': case 'V': case 'R': case 'X':
+                return null;
+            case 'x':
+                if (regExp.startsWith("{", pos)) {
+                    skipTo('}');
+                } else {
+                    pos += 2;
+                }
+                return null;
+            case 'u':
+                pos += 4;
+                return null;
+            case 'c':
+                ++pos;
+                return null;
+            case '0':
+                while ((pos < regExp.length()) && (regExp.charAt(pos) >= '0') && (regExp.charAt(pos) <= '7')) {
+                    ++pos;
+                }
+                return null;
+            case 'p':
+            case 'P':
+                if (regExp.startsWith("{", pos)) {
+                    skipTo('}');
+                } else {
+                    ++pos;
+                }
+                return null;
+            case 'k':
+                skipTo('>');
+                return null;
+            default:
+                if (Character.isDigit(ch)) {
+                    // back reference
+                    while ((pos < regExp.length()) && Character.isDigit(regExp.charAt(pos))) {
+                        ++pos;
+                    }
+                    return null;
+                }
+                if (Character.isLetter(ch)) {
+                    throw new IllegalArgumentException("unknown escape '\\" + ch + "'");
+                }
+                return String.valueOf(ch);
+            }
+        }
+
+
+        /**
+         * Parses optional quantifier at current position.
+         *
+         * @return minimum no. of occurrences (1 if no quantifier).
+         */
+        private int parseQuantifier() {
+            if (pos >= regExp.length()) {
+                return 1;
+            }
+            int result = 1;
+            char ch = regExp.charAt(pos);
+            if ((ch == '?') || (ch == '*')) {
+                result = 0;
+                ++pos;
+            } else if (ch == '+') {
+                // "1" would allow a literal run to continue
+                result = 2;
+                ++pos;
+            } else if (ch == '{') {
+                int start = pos + 1;
+                skipTo('}');
+                String[] minMax = regExp.substring(start, pos - 1).split(",", -1);
+                try {
+                    int min = Integer.parseInt(minMax[0].trim());
+                    boolean exact = (minMax.length == 1) && (min == 1);
+                    result = (min == 0) ? 0 : (exact ? 1 : 2);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid quantifier at " + start);
+                }
+            } else {
+                return 1;
+            }
+            // lazy or possessive quantifier
+            if ((pos < regExp.length()) && ((regExp.charAt(pos) == '?') || (regExp.charAt(pos) == '+'))) {
+                ++pos;
+            }
+            return result;
+        }
+
+
+        /**
+         * Skips character class at current position, e.g. "[^a-z\]]".
+         */
+        private void skipCharClass() {
+            // skip '['
+            ++pos;
+            int depth = 1;
+            if (regExp.startsWith("^", pos)) {
+                ++pos;
+            }
+            // ']' first in class is a literal
+            if (regExp.startsWith("]", pos)) {
+                ++pos;
+            }
+            while (pos < regExp.length()) {
+                char ch = regExp.charAt(pos++);
+                if (ch == '\\') {
+                    ++pos;
+                } else if (ch == '[') {
+                    ++depth;
+                } else if (ch == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("unclosed character class");
+        }
+
+
+        /**
+         * Moves position to after next occurrence of specified char.
+         */
+        private void skipTo(char ch) {
+            int index = regExp.indexOf(ch, pos);
+            if (index == -1) {
+                throw new IllegalArgumentException("'" + ch + "' expected after " + pos);
+            }
+            pos = index + 1;
+        }
+    }
+
+}
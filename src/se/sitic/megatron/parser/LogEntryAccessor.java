@@ -0,0 +1,298 @@
+package se.sitic.megatron.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.entity.Organization;
+import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.SqlUtil;
+
+
+/**
+ * Reads an attribute, e.g. "ipAddress", "organizationName",
+ * "additionalItem_httpStatusCode", or "freeText0", directly from a log
+ * entry. The value is the same as in the attribute map created by
+ * LogEntryMapper, but no map is created; use an accessor when only a few
+ * attributes are needed for each log entry, e.g. in a filter.
+ * <p>
+ * Created once per attribute name. Not thread-safe.
+ */
+public class LogEntryAccessor {
+    // Attribute types
+    private static final int UNKNOWN = 0;
+    private static final int URL = 1;
+    private static final int IP_RANGE_START = 2;
+    private static final int IP_RANGE_END = 3;
+    private static final int LOG_ENTRY_ID = 4;
+    private static final int CREATED = 5;
+    private static final int LOG_TIMESTAMP = 6;
+    private static final int ORIGINAL_LOG_ENTRY = 7;
+    private static final int ORGANIZATION_NAME = 8;
+    private static final int ORGANIZATION_EMAIL_ADDRESSES = 9;
+    private static final int ORGANIZATION_NAME2 = 10;
+    private static final int ORGANIZATION_EMAIL_ADDRESSES2 = 11;
+    private static final int IP_ADDRESS = 12;
+    private static final int HOSTNAME = 13;
+    private static final int PORT = 14;
+    private static final int ASN = 15;
+    private static final int COUNTRY_CODE = 16;
+    private static final int IP_ADDRESS2 = 17;
+    private static final int HOSTNAME2 = 18;
+    private static final int PORT2 = 19;
+    private static final int ASN2 = 20;
+    private static final int COUNTRY_CODE2 = 21;
+    private static final int ADDITIONAL_ITEM = 22;
+    private static final int FREE_TEXT = 23;
+
+    // Key: attribute name. Value: type.
+    private static final Map<String, Integer> TYPE_MAP = new HashMap<String, Integer>();
+    static {
+        TYPE_MAP.put(LogEntryMapper.URL, URL);
+        TYPE_MAP.put(LogEntryMapper.IP_RANGE_START, IP_RANGE_START);
+        TYPE_MAP.put(LogEntryMapper.IP_RANGE_END, IP_RANGE_END);
+        TYPE_MAP.put(LogEntryMapper.LOG_ENTRY_ID, LOG_ENTRY_ID);
+        TYPE_MAP.put(LogEntryMapper.CREATED, CREATED);
+        TYPE_MAP.put(LogEntryMapper.LOG_TIMESTAMP, LOG_TIMESTAMP);
+        TYPE_MAP.put(LogEntryMapper.ORIGINAL_LOG_ENTRY, ORIGINAL_LOG_ENTRY);
+        TYPE_MAP.put(LogEntryMapper.ORGANIZATION_NAME, ORGANIZATION_NAME);
+        TYPE_MAP.put(LogEntryMapper.ORGANIZATION_EMAIL_ADDRESSES, ORGANIZATION_EMAIL_ADDRESSES);
+        TYPE_MAP.put(LogEntryMapper.ORGANIZATION_NAME2, ORGANIZATION_NAME2);
+        TYPE_MAP.put(LogEntryMapper.ORGANIZATION_EMAIL_ADDRESSES2, ORGANIZATION_EMAIL_ADDRESSES2);
+        TYPE_MAP.put(LogEntryMapper.IP_ADDRESS, IP_ADDRESS);
+        TYPE_MAP.put(LogEntryMapper.HOSTNAME, HOSTNAME);
+        TYPE_MAP.put(LogEntryMapper.PORT, PORT);
+        TYPE_MAP.put(LogEntryMapper.ASN, ASN);
+        TYPE_MAP.put(LogEntryMapper.COUNTRY_CODE, COUNTRY_CODE);
+        TYPE_MAP.put(LogEntryMapper.IP_ADDRESS2, IP_ADDRESS2);
+        TYPE_MAP.put(LogEntryMapper.HOSTNAME2, HOSTNAME2);
+        TYPE_MAP.put(LogEntryMapper.PORT2, PORT2);
+        TYPE_MAP.put(LogEntryMapper.ASN2, ASN2);
+        TYPE_MAP.put(LogEntryMapper.COUNTRY_CODE2, COUNTRY_CODE2);
+    }
+
+    private String attributeName;
+    private int type;
+    /** Key in additional items, or index in free texts. */
+    private String itemName;
+    private int freeTextIndex;
+    /** Additional items or free texts are defined in the job type. */
+    private boolean variablesUsed;
+    /** Additional item is defined in the job type (empty string if missing). */
+    private boolean itemDefined;
+    private String timestampFormat;
+    /** Reused when IP-addresses are converted to strings. */
+    private StringBuilder ipAddressBuf = new StringBuilder(15);
+
+
+    private LogEntryAccessor(String attributeName, int type) {
+        this.attributeName = attributeName;
+        this.type = type;
+    }
+
+
+    /**
+     * Creates an accessor for specified attribute.
+     *
+     * @param props job type properties; used for time-stamp format and
+     *      additional items and free texts defined by the parser.
+     * @param attributeName attribute name without variable prefix, e.g.
+     *      "ipAddress". An unknown name gives an accessor that returns null.
+     */
+    public static LogEntryAccessor create(TypedProperties props, String attributeName) {
+        Integer type = TYPE_MAP.get(attributeName);
+        LogEntryAccessor result = new LogEntryAccessor(attributeName, (type != null) ? type.intValue() : UNKNOWN);
+        if ((result.type == CREATED) || (result.type == LOG_TIMESTAMP)) {
+            result.timestampFormat = props.getString(AppProperties.EXPORT_TIMESTAMP_FORMAT_KEY, "yyyy-MM-dd HH:mm:ss z");
+        } else if (attributeName.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX)) {
+            List<String> parserVariables = LogEntryMapper.getParserVariables(props);
+            result.type = ADDITIONAL_ITEM;
+            result.itemName = attributeName.substring(LogEntryMapper.ADDITIONAL_ITEM_PREFIX.length());
+            result.variablesUsed = LogEntryMapper.getLineRegExp(props).contains(LogEntryMapper.VARIABLE_PREFIX + LogEntryMapper.ADDITIONAL_ITEM_PREFIX) ||
+                LogEntryMapper.containsPrefix(parserVariables, LogEntryMapper.ADDITIONAL_ITEM_PREFIX);
+            List<String> definedItems = LineExpression.getAdditionalItemVariables(props);
+            if (parserVariables != null) {
+                definedItems.addAll(parserVariables);
+            }
+            result.itemDefined = definedItems.contains(attributeName);
+        } else if (attributeName.startsWith(LogEntryMapper.FREE_TEXT_PREFIX)) {
+            String indexStr = attributeName.substring(LogEntryMapper.FREE_TEXT_PREFIX.length());
+            try {
+                int index = Integer.parseInt(indexStr);
+                // "freeText01" or "freeText+1" is not an attribute
+                if ((index >= 0) && Integer.toString(index).equals(indexStr)) {
+                    result.type = FREE_TEXT;
+                    result.freeTextIndex = index;
+                    result.variablesUsed = LogEntryMapper.getLineRegExp(props).contains(LogEntryMapper.VARIABLE_PREFIX + LogEntryMapper.FREE_TEXT_PREFIX) ||
+                        LogEntryMapper.containsPrefix(LogEntryMapper.getParserVariables(props), LogEntryMapper.FREE_TEXT_PREFIX);
+                }
+            } catch (NumberFormatException e) {
+                // not a free text
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Creates accessors for specified attributes, e.g. variables in a
+     * template. Unknown attributes are skipped.
+     *
+     * @return accessors, or null if all attributes are needed, i.e.
+     *      "freeTextList" or "additionalItemList" is used.
+     */
+    public static LogEntryAccessor[] createAccessors(TypedProperties props, Collection<String> attributeNames) {
+        List<LogEntryAccessor> result = new ArrayList<LogEntryAccessor>(attributeNames.size());
+        for (Iterator<String> iterator = attributeNames.iterator(); iterator.hasNext(); ) {
+            String attributeName = iterator.next();
+            if (attributeName.equals(LogEntryMapper.FREE_TEXT_LIST) || attributeName.equals(LogEntryMapper.ADDITIONAL_ITEM_LIST)) {
+                return null;
+            }
+            LogEntryAccessor accessor = create(props, attributeName);
+            if (accessor.type != UNKNOWN) {
+                result.add(accessor);
+            }
+        }
+        return result.toArray(new LogEntryAccessor[result.size()]);
+    }
+
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+
+    /**
+     * Returns attribute value for specified log entry, or null if the
+     * attribute does not exist, e.g. an additional item that is not
+     * defined. Missing values for fields are returned as an empty string.
+     */
+    public String getValue(LogEntry logEntry) {
+        switch (type) {
+        case URL:
+            return toString(logEntry.getUrl());
+        case IP_RANGE_START:
+            return formatIpAddress(ipAddressBuf, logEntry.getIpRangeStart());
+        case IP_RANGE_END:
+            return formatIpAddress(ipAddressBuf, logEntry.getIpRangeEnd());
+        case LOG_ENTRY_ID:
+            return "" + logEntry.getId();
+        case CREATED:
+            return formatTimestamp(timestampFormat, logEntry.getCreated());
+        case LOG_TIMESTAMP:
+            return formatTimestamp(timestampFormat, logEntry.getLogTimestamp());
+        case ORIGINAL_LOG_ENTRY:
+            return (logEntry.getOriginalLogEntry() != null) ? toString(logEntry.getOriginalLogEntry().getEntry()) : "";
+        case ORGANIZATION_NAME:
+            return getOrganizationName(logEntry.getOrganization());
+        case ORGANIZATION_EMAIL_ADDRESSES:
+            return getOrganizationEmailAddresses(logEntry.getOrganization());
+        case ORGANIZATION_NAME2:
+            return getOrganizationName(logEntry.getOrganization2());
+        case ORGANIZATION_EMAIL_ADDRESSES2:
+            return getOrganizationEmailAddresses(logEntry.getOrganization2());
+        case IP_ADDRESS:
+            return formatIpAddress(ipAddressBuf, logEntry.getIpAddress());
+        case HOSTNAME:
+            return toString(logEntry.getHostname());
+        case PORT:
+            return formatInteger(logEntry.getPort());
+        case ASN:
+            return formatLong(logEntry.getAsn());
+        case COUNTRY_CODE:
+            return toString(logEntry.getCountryCode());
+        case IP_ADDRESS2:
+            return formatIpAddress(ipAddressBuf, logEntry.getIpAddress2());
+        case HOSTNAME2:
+            return toString(logEntry.getHostname2());
+        case PORT2:
+            return formatInteger(logEntry.getPort2());
+        case ASN2:
+            return formatLong(logEntry.getAsn2());
+        case COUNTRY_CODE2:
+            return toString(logEntry.getCountryCode2());
+        case ADDITIONAL_ITEM:
+            return getAdditionalItem(logEntry);
+        case FREE_TEXT:
+            return getFreeText(logEntry);
+        default:
+            return null;
+        }
+    }
+
+
+    static String formatIpAddress(StringBuilder buf, Long ipAddress) {
+        String result = "";
+        if ((ipAddress != null) && (ipAddress > 0L) && (ipAddress <= 0xFFFFFFFFL)) {
+            buf.setLength(0);
+            result = IpAddressUtil.appendIpAddress(buf, ipAddress).toString();
+        } else if ((ipAddress != null) && (ipAddress > 0L)) {
+            // above 32 bits; converted as before (masked or empty string)
+            result = IpAddressUtil.convertIpAddress(ipAddress, false);
+        }
+        return result;
+    }
+
+
+    static String formatInteger(Integer num) {
+        return (num != null) ? num.toString() : "";
+    }
+
+
+    static String formatLong(Long num) {
+        return ((num != null) && (num >= 0)) ? "" + num : "";
+    }
+
+
+    static String formatTimestamp(String timestampFormat, Long timestampInUtc) {
+        if ((timestampInUtc == null) || (timestampInUtc <= 0)) {
+            return "";
+        }
+        Date date = SqlUtil.convertTimestamp(timestampInUtc);
+        return DateUtil.formatDateTime(timestampFormat, date);
+    }
+
+
+    private String getAdditionalItem(LogEntry logEntry) {
+        Map<String, String> items = logEntry.getAdditionalItems();
+        boolean itemsExists = (items != null) && !items.isEmpty();
+        if (itemsExists && items.containsKey(itemName)) {
+            return toString(items.get(itemName));
+        }
+        // defined items have empty string as value (same as LogEntryMapper.addEmptyAdditionalItems)
+        return (itemDefined && (variablesUsed || itemsExists)) ? "" : null;
+    }
+
+
+    private String getFreeText(LogEntry logEntry) {
+        List<String> freeTexts = logEntry.getFreeTexts();
+        if (!variablesUsed || (freeTexts == null) || (freeTextIndex >= freeTexts.size())) {
+            return null;
+        }
+        return toString(freeTexts.get(freeTextIndex));
+    }
+
+
+    private String getOrganizationName(Organization organization) {
+        return (organization != null) ? toString(organization.getName()) : "";
+    }
+
+
+    private String getOrganizationEmailAddresses(Organization organization) {
+        return (organization != null) ? toString(organization.getEmailAddresses()) : "";
+    }
+
+
+    private String toString(String str) {
+        return (str != null) ? str : "";
+    }
+
+}
@@ -1,14 +1,13 @@
 package se.sitic.megatron.parser;
 
-import java.text.ParseException;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
 
 import se.sitic.megatron.core.AppProperties;
 import se.sitic.megatron.core.AttributeValueRewriter;
@@ -16,51 +15,45 @@ import se.sitic.megatron.core.ConversionException;
 import se.sitic.megatron.core.TypedProperties;
 import se.sitic.megatron.entity.LogEntry;
 import se.sitic.megatron.util.AppUtil;
-import se.sitic.megatron.util.Constants;
-import se.sitic.megatron.util.DateUtil;
-import se.sitic.megatron.util.IpAddressUtil;
-import se.sitic.megatron.util.SqlUtil;
-import se.sitic.megatron.util.StringUtil;
+import se.sitic.megatron.util.CompiledTemplate;
 
 
 /**
  * Maps a hash-map to a LogEntry-object, and vice versa.
  */
 public class LogEntryMapper {
-    /** Values that are considred null in an integer field. */
-    private static final String[] INTEGER_NULL_VALUES = { "0", "-", "\"\"", "''" }; 
-
     // Common item attributes
     // IP_RANGE is expanded to IP_RANGE_START and IP_RANGE_END when parsed
-    private static final String LOG_TIMESTAMP = "logTimestamp";
-    private static final String URL = "url";
-    private static final String IP_RANGE = "ipRange";
-    private static final String IP_RANGE_START = "ipRangeStart";
-    private static final String IP_RANGE_END = "ipRangeEnd";
+    static final String LOG_TIMESTAMP = "logTimestamp";
+    static final String URL = "url";
+    static final String IP_RANGE = "ipRange";
+    static final String IP_RANGE_START = "ipRangeStart";
+    static final String IP_RANGE_END = "ipRangeEnd";
 
     // Primary host attributes
-    private static final String IP_ADDRESS = "ipAddress";
-    private static final String HOSTNAME = "hostname";        
-    private static final String PORT = "port";  
-    private static final String ASN = "asn";
-    private static final String COUNTRY_CODE = "countryCode";
+    static final String IP_ADDRESS = "ipAddress";
+    static final String HOSTNAME = "hostname";        
+    static final String PORT = "port";  
+    static final String ASN = "asn";
+    static final String COUNTRY_CODE = "countryCode";
 
     // Secondary host attributes
-    private static final String IP_ADDRESS2 = "ipAddress2";
-    private static final String HOSTNAME2 = "hostname2";        
-    private static final String PORT2 = "port2";  
-    private static final String ASN2 = "asn2";
-    private static final String COUNTRY_CODE2 = "countryCode2";
+    static final String IP_ADDRESS2 = "ipAddress2";
+    static final String HOSTNAME2 = "hostname2";        
+    static final String PORT2 = "port2";  
+    static final String ASN2 = "asn2";
+    static final String COUNTRY_CODE2 = "countryCode2";
 
     // Attributes used only when created from LogEntry-object
-    private static final String ORIGINAL_LOG_ENTRY = "originalLogEntry";
-    private static final String LOG_ENTRY_ID = "logEntryid";
-    private static final String CREATED = "created";
-    private static final String ORGANIZATION_NAME = "organizationName";
-    private static final String ORGANIZATION_EMAIL_ADDRESSES = "organizationEmailAddresses";
-    private static final String ORGANIZATION_NAME2 = "organizationName2";
-    private static final String ORGANIZATION_EMAIL_ADDRESSES2 = "organizationEmailAddresses2";
+    static final String ORIGINAL_LOG_ENTRY = "originalLogEntry";
+    static final String LOG_ENTRY_ID = "logEntryid";
+    static final String CREATED = "created";
+    static final String ORGANIZATION_NAME = "organizationName";
+    static final String ORGANIZATION_EMAIL_ADDRESSES = "organizationEmailAddresses";
+    static final String ORGANIZATION_NAME2 = "organizationName2";
+    static final String ORGANIZATION_EMAIL_ADDRESSES2 = "organizationEmailAddresses2";
     
+    // Order is used by LogEntryMappingPlan (conversion order)
     public static final String[] EXPRESSION_VARIABLES = {
         LOG_TIMESTAMP, URL, IP_RANGE, 
         IP_ADDRESS, HOSTNAME, PORT, ASN, COUNTRY_CODE,
@@ -70,11 +63,16 @@ public class LogEntryMapper {
     public static final String VARIABLE_PREFIX = "$";
     public static final String ADDITIONAL_ITEM_PREFIX = "additionalItem_";
     public static final String FREE_TEXT_PREFIX = "freeText";
+    // Template variables created from all free texts or additional items
+    static final String FREE_TEXT_LIST = "freeTextList";
+    static final String ADDITIONAL_ITEM_LIST = "additionalItemList";
 
     private TypedProperties props;
     private AttributeValueRewriter rewriter;
     private Map<String, String> attrMap;
     private String timestampFormat;
+    /** Reused when IP-addresses are converted to strings. */
+    private StringBuilder ipAddressBuf = new StringBuilder(15);
 
 
     public LogEntryMapper(TypedProperties props, Map<String, String> attributeMap) {
@@ -93,189 +91,43 @@ public class LogEntryMapper {
     public LogEntryMapper(TypedProperties props, LogEntry logEntry) {
         this(props, null, logEntry);
     }
-    
-    
-    public LogEntry createLogEntry() throws ConversionException {
-        LogEntry result = new LogEntry();
-
-        String field = null;
-        try {
-            // -- common
-            field = LOG_TIMESTAMP;
-            if (!isNullOrEmpty(attrMap.get(field))) {
-                String format = props.getString(AppProperties.PARSER_TIME_STAMP_FORMAT_KEY, "yyyy-MM-dd HH:mm:ss z");
-                if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_EPOCH_IN_SEC) || format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_EPOCH_IN_MS) || 
-                        format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_WINDOWS_EPOCH)) {
-                    long epoch = 0L;
-                    try {
-                        epoch = Long.parseLong(attrMap.get(field));
-                    } catch (NumberFormatException e) {
-                        String msg = "Cannot parse time-stamp in epoch format: '" + attrMap.get(field) + "'.";
-                        throw new ConversionException(msg, e);
-                    }
-                    if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_EPOCH_IN_MS)) {
-                        epoch = SqlUtil.convertTimestampToSec(epoch);
-                    } else if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_WINDOWS_EPOCH)) {
-                        // convert to Unix epoch in seconds
-                        long epochDiff = 11644473600L;
-                        epoch = (epoch / 10000000L) - epochDiff;
-                    }
-                    // sanity check
-                    if (epoch < 946684800L) {
-                        String msg = "Time-stamp not in epoch format; value is before 2000-01-01: " + epoch;
-                        throw new ConversionException(msg);
-                    }
-                    String timeZone = props.getString(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, null);
-                    if (timeZone != null) {
-                        TimeZone tz = TimeZone.getTimeZone(timeZone);
-                        epoch += Math.round(tz.getOffset(epoch) / 1000d);
-                    }
-                    result.setLogTimestamp(epoch);
-                } else {
-                    // add year if missing in format (otherwise year will be 1970) 
-                    String year = "";
-                    if (format.indexOf('y') == -1) {
-                        format = "yyyy " + format;
-                        year = Calendar.getInstance().get(Calendar.YEAR) + " ";
-                    }
-                    // add time zone if specified 
-                    String timeZone = props.getString(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, "");
-                    if ((timeZone.length() != 0) && !format.toLowerCase().endsWith("z")) {
-                        format = format + "z";
-                    }
-                    StringBuilder timestamp = new StringBuilder(32); 
-                    timestamp.append(year).append(attrMap.get(field)).append(timeZone);
-                    boolean addCurrentDate = props.getBoolean(AppProperties.PARSER_ADD_CURRENT_DATE_TO_TIMESTAMP_KEY, false);
-                    if (addCurrentDate) {
-                        String dateStr = DateUtil.formatDateTime(DateUtil.DATE_FORMAT, new Date()) + " ";
-                        timestamp.insert(0, dateStr);
-                    }
-                    try {
-                        Date date = DateUtil.parseDateTime(format, timestamp.toString());
-                        result.setLogTimestamp(SqlUtil.convertTimestampToSec(date.getTime()));
-                    } catch (ParseException e) {
-                        String msg = "Cannot parse time-stamp: '" + timestamp + "'. Expected format: '" + format + "'.";
-                        throw new ConversionException(msg, e);
-                    }
-                }
-            }
-            field = URL;
-            if (!isNullOrEmpty(attrMap.get(field))) {
-                result.setUrl(attrMap.get(field));
-            }
-            field = IP_RANGE;
-            if (!isNullOrEmpty(attrMap.get(field))) {
-                boolean expandZeroOctets = props.getBoolean(AppProperties.PARSER_EXPAND_IP_RANGE_WITH_ZERO_OCTETS_KEY, false);
-                // IP_RANGE is expanded to IP_RANGE_START and IP_RANGE_END 
-                long ipRange[] = IpAddressUtil.convertIpRange(attrMap.get(field), expandZeroOctets);
-                result.setIpRangeStart(ipRange[0]);
-                result.setIpRangeEnd(ipRange[1]);
-                // Set ipAddress to start address. Makes manual searches easier and simplifies DbManager.existsMailForIp
-                result.setIpAddress(ipRange[0]);
-            }
-            
-            // -- Primary host
-            field = IP_ADDRESS;
-            if (!isNullOrEmpty(attrMap.get(field), "0.0.0.0")) {
-                result.setIpAddress(IpAddressUtil.convertIpAddress(attrMap.get(field)));
-            }
-            field = HOSTNAME;
-            if (!isNullOrEmpty(attrMap.get(field))) {
-                result.setHostname(attrMap.get(field));
-            }
-            field = PORT;
-            if (!isNullOrEmpty(attrMap.get(field), INTEGER_NULL_VALUES)) {
-                result.setPort(new Integer(attrMap.get(field)));
-            }
-            field = ASN;
-            if (!isNullOrEmpty(attrMap.get(field), INTEGER_NULL_VALUES)) {
-                result.setAsn(Long.parseLong(attrMap.get(field)));
-            }
-            field = COUNTRY_CODE;
-            if (!isNullOrEmpty(attrMap.get(field), "-")) {
-                result.setCountryCode(attrMap.get(field));
-            }
 
-            // -- Secondary host
-            field = IP_ADDRESS2;
-            if (!isNullOrEmpty(attrMap.get(field), "0.0.0.0")) {
-                result.setIpAddress2(IpAddressUtil.convertIpAddress(attrMap.get(field)));
-            }
-            field = HOSTNAME2;
-            if (!isNullOrEmpty(attrMap.get(field))) {
-                result.setHostname2(attrMap.get(field));
-            }
-            field = PORT2;
-            if (!isNullOrEmpty(attrMap.get(field), INTEGER_NULL_VALUES)) {
-                result.setPort2(new Integer(attrMap.get(field)));
-            }
-            field = ASN2;
-            if (!isNullOrEmpty(attrMap.get(field), INTEGER_NULL_VALUES)) {
-                result.setAsn2(Long.parseLong(attrMap.get(field)));
-            }
-            field = COUNTRY_CODE2;
-            if (!isNullOrEmpty(attrMap.get(field), "-")) {
-                result.setCountryCode2(attrMap.get(field));
-            }
-        } catch (Exception e) {
-            if (e instanceof ConversionException) {
-                throw (ConversionException)e;
-            }
-            // UnknownHostException, NumberFormatException 
-            String msg = "Cannot convert field: " + field + "='" + attrMap.get(field) + "'.";
-            throw new ConversionException(msg, e);
-        }
-        
-        // -- additionalItems
-        Map<String, String> additionalItems = new HashMap<String, String>();
-        for (Iterator<String> iterator = attrMap.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(ADDITIONAL_ITEM_PREFIX)) {
-                String[] headTail = StringUtil.splitHeadTail(key, "_", false);
-                additionalItems.put(headTail[1], attrMap.get(key));
-            }
-        }
-        result.setAdditionalItems(additionalItems);
 
-        // -- freeTexts
-        List<String> freeTexts = new ArrayList<String>();
-        int freeTextIndex = 0; 
-        boolean freeTextFound = true; 
-        while (freeTextFound) {
-            String key = FREE_TEXT_PREFIX + (freeTextIndex++);
-            if (attrMap.get(key) != null) {
-                freeTexts.add(attrMap.get(key));
-            } else {
-                freeTextFound = false;
+    /**
+     * Creates a mapper with only the attributes read by specified accessors, 
+     * which is cheaper than a full attribute map.
+     * 
+     * @param accessors attributes to read from the log entry. All attributes 
+     *      are read if null.
+     */
+    public LogEntryMapper(TypedProperties props, AttributeValueRewriter rewriter, LogEntry logEntry, LogEntryAccessor[] accessors) {
+        this.props = props;
+        this.rewriter = rewriter;
+        if (accessors == null) {
+            this.attrMap = createAttributeMap(logEntry);
+        } else {
+            this.attrMap = new HashMap<String, String>(2*accessors.length);
+            for (int i = 0; i < accessors.length; i++) {
+                String value = accessors[i].getValue(logEntry);
+                if (value != null) {
+                    attrMap.put(accessors[i].getAttributeName(), value);
+                }
             }
         }
-        result.setFreeTexts(freeTexts);
-        
-        // -- Check fields
-        // check freeText index
-        if ((attrMap.get(FREE_TEXT_PREFIX + "0") == null) && (attrMap.get(FREE_TEXT_PREFIX + "1") != null)) {
-            String msg = "Cannot convert free text; freeText1 exists, but not freeText0. Index for freetext starts at 0.";
-            throw new ConversionException(msg);
-        }
-        // check country code
-        if ((result.getCountryCode() != null) && (result.getCountryCode().length() != 2)) {
-            String msg = "Country code must be 2 characters long. countryCode='" + result.getCountryCode() + "'.";
-            throw new ConversionException(msg);
-        }
-        if ((result.getCountryCode2() != null) && (result.getCountryCode2().length() != 2)) {
-            String msg = "Country code must be 2 characters long. countryCode2='" + result.getCountryCode2() + "'.";
-            throw new ConversionException(msg);
-        }
-        
-        // -- Convert fields
-        if (result.getCountryCode() != null) {
-            result.setCountryCode(result.getCountryCode().toUpperCase());
-        }
-        if (result.getCountryCode2() != null) {
-            result.setCountryCode2(result.getCountryCode2().toUpperCase());
+    }
+    
+    
+    /**
+     * Creates a log entry from the attribute map. Compiles a mapping plan for
+     * each call; a parser should compile a LogEntryMappingPlan once instead.
+     */
+    public LogEntry createLogEntry() throws ConversionException {
+        List<String> attributeNames = new ArrayList<String>(attrMap.keySet());
+        String[] values = new String[attributeNames.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = attrMap.get(attributeNames.get(i));
         }
-        
-        return result;
+        return new LogEntryMappingPlan(props, attributeNames, null).createLogEntry(values);
     }
 
     
@@ -293,6 +145,31 @@ public class LogEntryMapper {
     }
 
     
+    /**
+     * Expands variables in specified template, and appends result to 
+     * specified output. Rewrites, if any rewriters are defined, attribute 
+     * values before expansion. 
+     */
+    public void replaceVariables(CompiledTemplate template, boolean isXml, Appendable out) throws IOException {
+        if (rewriter != null) {
+            rewriter.rewrite(attrMap);
+        }
+        template.render(attrMap, isXml, out);
+    }
+
+
+    /**
+     * Expands variables in specified template, and appends result to 
+     * specified buffer. Rewrites attribute values before expansion. 
+     */
+    public void replaceVariables(CompiledTemplate template, boolean isXml, StringBuilder out) {
+        if (rewriter != null) {
+            rewriter.rewrite(attrMap);
+        }
+        template.render(attrMap, isXml, out);
+    }
+
+    
     /**
      * Returns attribute value for specified key.
      * 
@@ -303,31 +180,6 @@ public class LogEntryMapper {
     }
     
     
-    private boolean isNullOrEmpty(String str) {
-        return str == null || str.length() == 0;
-    }
-
-    
-    private boolean isNullOrEmpty(String str, String nullValue) {
-        return str == null || str.length() == 0 || nullValue.equals(str);
-    }
-
-    
-    private boolean isNullOrEmpty(String str, String[] nullValues) {
-        if ((str == null) || (str.length() == 0)) {
-            return true;
-        }
-        
-        for (int i = 0; i < nullValues.length; i++) {
-            if (str.equals(nullValues[i])) {
-                return true;
-            }
-        }
-        
-        return false;
-    }
-
-
     private Map<String, String> createAttributeMap(LogEntry logEntry) {
         Map<String, String> result = new HashMap<String, String>();
 
@@ -374,21 +226,21 @@ public class LogEntryMapper {
         addString(result, COUNTRY_CODE2, logEntry.getCountryCode2());
 
         // -- additionalItems
-        String lineRegExp = props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, ""); 
+        JobTypeVariables variables = JobTypeVariables.getInstance(props);
         Map<String, String> items = logEntry.getAdditionalItems();
         // decorators may add additional items without any corresponding variables
-        if (lineRegExp.contains(VARIABLE_PREFIX + ADDITIONAL_ITEM_PREFIX) || ((items != null) && !items.isEmpty())) {
+        if (variables.additionalItemsUsed || ((items != null) && !items.isEmpty())) {
             if (items != null) {
                 for (Iterator<String> iterator = items.keySet().iterator(); iterator.hasNext(); ) {
                     String key = iterator.next();
                     addString(result, ADDITIONAL_ITEM_PREFIX + key,  items.get(key));
                 }
             }
-            addEmptyAdditionalItems(result);
+            addEmptyAdditionalItems(result, variables.additionalItemVariables);
         }
         
         // -- freeTexts
-        if (lineRegExp.contains(VARIABLE_PREFIX + FREE_TEXT_PREFIX)) {
+        if (variables.freeTextsUsed) {
             List<String> freeTexts = logEntry.getFreeTexts();
             if (freeTexts != null) {
                 int index = 0;
@@ -410,13 +262,13 @@ public class LogEntryMapper {
     
     /**
      * Adds empty additional items to specified map that are defined in the
-     * job type, but does not exist in the map. Empty or null values for 
-     * additional items are not stored in the database. All variables in the
-     * job type may be used in a template, and no values can be null.
+     * job type (parser.lineRegExp, CSV columns, or JSON paths), but does not exist in the 
+     * map. Empty or null values for additional items are not stored in the 
+     * database. All variables in the job type may be used in a template, and 
+     * no values can be null.
      */
-    private void addEmptyAdditionalItems(Map<String, String> attributeMap) {
-        List<String> vars = LineExpression.getAdditionalItemVariables(props);
-        for (Iterator<String> iterator = vars.iterator(); iterator.hasNext(); ) {
+    private void addEmptyAdditionalItems(Map<String, String> attributeMap, List<String> additionalItemVariables) {
+        for (Iterator<String> iterator = additionalItemVariables.iterator(); iterator.hasNext(); ) {
             String var = iterator.next();
             if (!attributeMap.containsKey(var)) {
                 attributeMap.put(var, "");
@@ -425,6 +277,85 @@ public class LogEntryMapper {
     }
     
     
+    /**
+     * Returns parser.lineRegExp, or all expressions in parser.lineRegExp.N
+     * (concatenated).
+     */
+    static String getLineRegExp(TypedProperties props) {
+        String[] lineRegExps = RegExpParser.getLineRegExps(props);
+        if (lineRegExps.length == 1) {
+            return lineRegExps[0];
+        }
+        StringBuilder result = new StringBuilder(256);
+        for (int i = 0; i < lineRegExps.length; i++) {
+            result.append(lineRegExps[i]).append('\n');
+        }
+        return result.toString();
+    }
+    
+    
+    /**
+     * Returns attributes that are set by the job's parser, e.g. "ipAddress" 
+     * or "additionalItem_rbl", or null if the parser is not known. 
+     * Attributes that are set later, e.g. by a decorator, are not included.
+     * 
+     * @throws InvalidExpressionException if parser.lineRegExp is invalid.
+     */
+    public static Set<String> getParserAttributes(TypedProperties props) throws InvalidExpressionException {
+        List<String> variables = getParserVariables(props);
+        if (variables == null) {
+            String className = props.getString(AppProperties.PARSER_CLASS_NAME_KEY, RegExpParser.class.getName());
+            if (!className.equals(RegExpParser.class.getName())) {
+                return null;
+            }
+            variables = new ArrayList<String>();
+            String[] lineRegExps = RegExpParser.getLineRegExps(props);
+            for (int i = 0; i < lineRegExps.length; i++) {
+                List<String> expressionVariables = new LineExpression(props, lineRegExps[i]).extractVariables();
+                for (Iterator<String> iterator = expressionVariables.iterator(); iterator.hasNext(); ) {
+                    variables.add(iterator.next().substring(VARIABLE_PREFIX.length()));
+                }
+            }
+            if (RegExpParser.isMultiExpressionUsed(props)) {
+                variables.add(ADDITIONAL_ITEM_PREFIX + RegExpParser.LINE_REG_EXP_NO_ITEM);
+            }
+        }
+        Set<String> result = new HashSet<String>(variables);
+        if (result.contains(IP_RANGE)) {
+            result.add(IP_RANGE_START);
+            result.add(IP_RANGE_END);
+            result.add(IP_ADDRESS);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns variables mapped by a parser that does not use 
+     * parser.lineRegExp, or null if RegExpParser is used.
+     */
+    static List<String> getParserVariables(TypedProperties props) {
+        if (CsvParser.isUsed(props)) {
+            return CsvParser.getColumnVariables(props);
+        } else if (JsonLinesParser.isUsed(props)) {
+            return JsonLinesParser.getPathVariables(props);
+        }
+        return null;
+    }
+    
+    
+    static boolean containsPrefix(List<String> variables, String prefix) {
+        if (variables != null) {
+            for (Iterator<String> iterator = variables.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    
     private void addString(Map<String, String> map, String key, String str) {
         String value = (str != null) ? str : ""; 
         map.put(key, value);
@@ -432,20 +363,17 @@ public class LogEntryMapper {
 
     
     private void addIpAddress(Map<String, String> map, String key, Long ipAddress) {
-        String value = ((ipAddress != null) && (ipAddress > 0)) ? IpAddressUtil.convertIpAddress(ipAddress, false) : "";
-        map.put(key, value);
+        map.put(key, LogEntryAccessor.formatIpAddress(ipAddressBuf, ipAddress));
     }
     
     
     private void addInteger(Map<String, String> map, String key, Integer num) {
-        String value = (num != null) ? num.toString() : ""; 
-        map.put(key, value);
+        map.put(key, LogEntryAccessor.formatInteger(num));
     }
     
     
     private void addLong(Map<String, String> map, String key, Long num) {
-        String value = ((num != null) && (num >= 0)) ? "" + num : "";
-        map.put(key, value);
+        map.put(key, LogEntryAccessor.formatLong(num));
     }
 
     
@@ -453,9 +381,55 @@ public class LogEntryMapper {
         if (timestampFormat == null) {
             timestampFormat = props.getString(AppProperties.EXPORT_TIMESTAMP_FORMAT_KEY, "yyyy-MM-dd HH:mm:ss z");
         }
-        Date date = SqlUtil.convertTimestamp(timestampInUtc);
-        String value = ((timestampInUtc != null) && (timestampInUtc > 0)) ? DateUtil.formatDateTime(timestampFormat, date) : "";
-        map.put(key, value);
+        map.put(key, LogEntryAccessor.formatTimestamp(timestampFormat, timestampInUtc));
+    }
+
+
+    /**
+     * Variables defined in a job type that are needed when all attributes
+     * are read from a log entry. Scanning the properties for each log entry
+     * is expensive, so the variables are computed once per properties
+     * object, i.e. once per job.
+     */
+    private static final class JobTypeVariables {
+        /** Variables for the last properties object; a job uses only one. */
+        private static volatile JobTypeVariables lastInstance;
+
+        private final TypedProperties props;
+        private final boolean additionalItemsUsed;
+        private final boolean freeTextsUsed;
+        /** Additional item variables defined by the line expression or parser. */
+        private final List<String> additionalItemVariables;
+
+
+        private JobTypeVariables(TypedProperties props) {
+            this.props = props;
+            String lineRegExp = getLineRegExp(props);
+            List<String> parserVariables = getParserVariables(props);
+            this.additionalItemsUsed = lineRegExp.contains(VARIABLE_PREFIX + ADDITIONAL_ITEM_PREFIX) || containsPrefix(parserVariables, ADDITIONAL_ITEM_PREFIX);
+            this.freeTextsUsed = lineRegExp.contains(VARIABLE_PREFIX + FREE_TEXT_PREFIX) || containsPrefix(parserVariables, FREE_TEXT_PREFIX);
+            List<String> vars = LineExpression.getAdditionalItemVariables(props);
+            if (parserVariables != null) {
+                for (Iterator<String> iterator = parserVariables.iterator(); iterator.hasNext(); ) {
+                    String var = iterator.next();
+                    if (var.startsWith(ADDITIONAL_ITEM_PREFIX)) {
+                        vars.add(var);
+                    }
+                }
+            }
+            this.additionalItemVariables = vars;
+        }
+
+
+        static JobTypeVariables getInstance(TypedProperties props) {
+            JobTypeVariables result = lastInstance;
+            if ((result == null) || (result.props != props)) {
+                result = new JobTypeVariables(props);
+                lastInstance = result;
+            }
+            return result;
+        }
+
     }
 
 }
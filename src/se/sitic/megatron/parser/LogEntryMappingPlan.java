@@ -0,0 +1,295 @@
+package se.sitic.megatron.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ConversionException;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.entity.LogEntry;
+import se.sitic.megatron.util.IpAddressUtil;
+import se.sitic.megatron.util.StringUtil;
+
+
+/**
+ * Maps parsed attribute values to a LogEntry-object. The plan is compiled
+ * once for a job from the attribute names, e.g. the variables in
+ * "parser.lineRegExp", and the parser properties. Converting a line does
+ * not use any intermediate map; values are read by index.
+ * <p>
+ * Time-stamp format, default time zone, and current date (if
+ * "parser.addCurrentDateToTimestamp" is set) are resolved when the plan is
+ * compiled. Converted time-stamps are cached in the plan (see
+ * TimestampParser); a plan is not thread-safe.
+ */
+public class LogEntryMappingPlan {
+    /** Values that are considred null in an integer field. */
+    private static final String[] INTEGER_NULL_VALUES = { "0", "-", "\"\"", "''" };
+
+    // Fields in conversion order; index in LogEntryMapper.EXPRESSION_VARIABLES
+    private static final int LOG_TIMESTAMP = 0;
+    private static final int URL = 1;
+    private static final int IP_RANGE = 2;
+    private static final int IP_ADDRESS = 3;
+    private static final int HOSTNAME = 4;
+    private static final int PORT = 5;
+    private static final int ASN = 6;
+    private static final int COUNTRY_CODE = 7;
+    private static final int IP_ADDRESS2 = 8;
+    private static final int HOSTNAME2 = 9;
+    private static final int PORT2 = 10;
+    private static final int ASN2 = 11;
+    private static final int COUNTRY_CODE2 = 12;
+
+    private String[] attributeNames;
+
+    /** Index in attributeNames for each field, or -1 if field is not mapped. */
+    private int[] fieldIndexes;
+    /** Index in attributeNames for additional items. */
+    private int[] additionalItemIndexes;
+    private String[] additionalItemNames;
+    /** Index in attributeNames for freeText0, freeText1, etc. */
+    private int[] freeTextIndexes;
+    private boolean freeTextIndexError;
+
+    private boolean expandZeroOctets;
+    private TimestampParser timestampParser;
+
+
+    /**
+     * Compiles a plan for specified attribute names.
+     *
+     * @param attributeNames attribute names without variable prefix, e.g. "ipAddress" or "additionalItem_rbl".
+     * @param jobContext time-stamp cache lookups are counted in this context. May be null.
+     */
+    public LogEntryMappingPlan(TypedProperties props, List<String> attributeNames, JobContext jobContext) {
+        this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+
+        // -- map attributes
+        fieldIndexes = new int[LogEntryMapper.EXPRESSION_VARIABLES.length];
+        Arrays.fill(fieldIndexes, -1);
+        List<Integer> additionalItemIndexList = new ArrayList<Integer>();
+        List<String> additionalItemNameList = new ArrayList<String>();
+        Map<String, Integer> freeTextIndexMap = new HashMap<String, Integer>();
+        for (int i = 0; i < this.attributeNames.length; i++) {
+            String name = this.attributeNames[i];
+            int fieldNo = Arrays.asList(LogEntryMapper.EXPRESSION_VARIABLES).indexOf(name);
+            if (fieldNo != -1) {
+                fieldIndexes[fieldNo] = i;
+            } else if (name.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX)) {
+                String[] headTail = StringUtil.splitHeadTail(name, "_", false);
+                additionalItemIndexList.add(i);
+                additionalItemNameList.add(headTail[1]);
+            } else if (name.startsWith(LogEntryMapper.FREE_TEXT_PREFIX)) {
+                freeTextIndexMap.put(name, i);
+            }
+        }
+        additionalItemIndexes = toIntArray(additionalItemIndexList);
+        additionalItemNames = additionalItemNameList.toArray(new String[additionalItemNameList.size()]);
+        // free texts are read from freeText0 until an index is missing
+        List<Integer> freeTextIndexList = new ArrayList<Integer>();
+        while (freeTextIndexMap.containsKey(LogEntryMapper.FREE_TEXT_PREFIX + freeTextIndexList.size())) {
+            freeTextIndexList.add(freeTextIndexMap.get(LogEntryMapper.FREE_TEXT_PREFIX + freeTextIndexList.size()));
+        }
+        freeTextIndexes = toIntArray(freeTextIndexList);
+        freeTextIndexError = !freeTextIndexMap.containsKey(LogEntryMapper.FREE_TEXT_PREFIX + "0") && freeTextIndexMap.containsKey(LogEntryMapper.FREE_TEXT_PREFIX + "1");
+
+        // -- resolve properties
+        expandZeroOctets = props.getBoolean(AppProperties.PARSER_EXPAND_IP_RANGE_WITH_ZERO_OCTETS_KEY, false);
+        timestampParser = new TimestampParser(props, jobContext);
+    }
+
+
+    /**
+     * Returns attribute name for specified value index in createLogEntry.
+     */
+    public String getAttributeName(int index) {
+        return attributeNames[index];
+    }
+
+
+    /**
+     * Creates a log entry from specified values.
+     *
+     * @param values values in the same order as the attribute names. A value
+     *      is null if the attribute is missing.
+     */
+    public LogEntry createLogEntry(String[] values) throws ConversionException {
+        LogEntry result = new LogEntry();
+
+        int fieldNo = -1;
+        try {
+            // -- common
+            fieldNo = LOG_TIMESTAMP;
+            String value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value)) {
+                result.setLogTimestamp(timestampParser.parse(value));
+            }
+            fieldNo = URL;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value)) {
+                result.setUrl(value);
+            }
+            fieldNo = IP_RANGE;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value)) {
+                // IP_RANGE is expanded to IP_RANGE_START and IP_RANGE_END
+                long ipRange[] = IpAddressUtil.convertIpRange(value, expandZeroOctets);
+                result.setIpRangeStart(ipRange[0]);
+                result.setIpRangeEnd(ipRange[1]);
+                // Set ipAddress to start address. Makes manual searches easier and simplifies DbManager.existsMailForIp
+                result.setIpAddress(ipRange[0]);
+            }
+
+            // -- Primary host
+            fieldNo = IP_ADDRESS;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, "0.0.0.0")) {
+                result.setIpAddress(IpAddressUtil.convertIpAddress(value));
+            }
+            fieldNo = HOSTNAME;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value)) {
+                result.setHostname(value);
+            }
+            fieldNo = PORT;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, INTEGER_NULL_VALUES)) {
+                result.setPort(Integer.valueOf(value));
+            }
+            fieldNo = ASN;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, INTEGER_NULL_VALUES)) {
+                result.setAsn(Long.parseLong(value));
+            }
+            fieldNo = COUNTRY_CODE;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, "-")) {
+                result.setCountryCode(value);
+            }
+
+            // -- Secondary host
+            fieldNo = IP_ADDRESS2;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, "0.0.0.0")) {
+                result.setIpAddress2(IpAddressUtil.convertIpAddress(value));
+            }
+            fieldNo = HOSTNAME2;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value)) {
+                result.setHostname2(value);
+            }
+            fieldNo = PORT2;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, INTEGER_NULL_VALUES)) {
+                result.setPort2(Integer.valueOf(value));
+            }
+            fieldNo = ASN2;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, INTEGER_NULL_VALUES)) {
+                result.setAsn2(Long.parseLong(value));
+            }
+            fieldNo = COUNTRY_CODE2;
+            value = getValue(values, fieldNo);
+            if (!isNullOrEmpty(value, "-")) {
+                result.setCountryCode2(value);
+            }
+        } catch (Exception e) {
+            if (e instanceof ConversionException) {
+                throw (ConversionException)e;
+            }
+            // UnknownHostException, NumberFormatException
+            String field = LogEntryMapper.EXPRESSION_VARIABLES[fieldNo];
+            String msg = "Cannot convert field: " + field + "='" + getValue(values, fieldNo) + "'.";
+            throw new ConversionException(msg, e);
+        }
+
+        // -- additionalItems
+        Map<String, String> additionalItems = new HashMap<String, String>();
+        for (int i = 0; i < additionalItemIndexes.length; i++) {
+            String value = values[additionalItemIndexes[i]];
+            if (value != null) {
+                additionalItems.put(additionalItemNames[i], value);
+            }
+        }
+        result.setAdditionalItems(additionalItems);
+
+        // -- freeTexts
+        List<String> freeTexts = new ArrayList<String>(freeTextIndexes.length);
+        for (int i = 0; (i < freeTextIndexes.length) && (values[freeTextIndexes[i]] != null); i++) {
+            freeTexts.add(values[freeTextIndexes[i]]);
+        }
+        result.setFreeTexts(freeTexts);
+
+        // -- Check fields
+        // check freeText index
+        if (freeTextIndexError) {
+            String msg = "Cannot convert free text; freeText1 exists, but not freeText0. Index for freetext starts at 0.";
+            throw new ConversionException(msg);
+        }
+        // check country code
+        if ((result.getCountryCode() != null) && (result.getCountryCode().length() != 2)) {
+            String msg = "Country code must be 2 characters long. countryCode='" + result.getCountryCode() + "'.";
+            throw new ConversionException(msg);
+        }
+        if ((result.getCountryCode2() != null) && (result.getCountryCode2().length() != 2)) {
+            String msg = "Country code must be 2 characters long. countryCode2='" + result.getCountryCode2() + "'.";
+            throw new ConversionException(msg);
+        }
+
+        // -- Convert fields
+        if (result.getCountryCode() != null) {
+            result.setCountryCode(result.getCountryCode().toUpperCase());
+        }
+        if (result.getCountryCode2() != null) {
+            result.setCountryCode2(result.getCountryCode2().toUpperCase());
+        }
+
+        return result;
+    }
+
+
+    private String getValue(String[] values, int fieldNo) {
+        int index = fieldIndexes[fieldNo];
+        return (index != -1) ? values[index] : null;
+    }
+
+
+    private boolean isNullOrEmpty(String str) {
+        return str == null || str.length() == 0;
+    }
+
+
+    private boolean isNullOrEmpty(String str, String nullValue) {
+        return str == null || str.length() == 0 || nullValue.equals(str);
+    }
+
+
+    private boolean isNullOrEmpty(String str, String[] nullValues) {
+        if ((str == null) || (str.length() == 0)) {
+            return true;
+        }
+
+        for (int i = 0; i < nullValues.length; i++) {
+            if (str.equals(nullValues[i])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private int[] toIntArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+}
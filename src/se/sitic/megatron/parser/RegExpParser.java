@@ -1,10 +1,11 @@
 package se.sitic.megatron.parser;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 
+import org.apache.log4j.Logger;
+
 import se.sitic.megatron.core.AppProperties;
 import se.sitic.megatron.core.AttributeValueRewriter;
 import se.sitic.megatron.core.ConversionException;
@@ -17,94 +18,149 @@ import se.sitic.megatron.util.StringUtil;
 
 /**
  * Parses a log entry line using regular expression defined in "parser.lineRegExp".
+ * <p>
+ * Groups are mapped to log entry fields by a LogEntryMappingPlan, which is
+ * compiled when the parser is initialized. Lines that lack literals required
+ * by the expression are rejected by a LiteralPrescreen before the matcher is
+ * used. Not thread-safe; each thread must use its own parser.
+ * <p>
+ * Files with several line formats may use a list of expressions instead,
+ * i.e. "parser.lineRegExp.0", "parser.lineRegExp.1", etc. Expressions are
+ * tried in order of no. of matched lines (most matches first), and the
+ * index of the matched expression is stored in the additional item
+ * "lineRegExpNo". The expressions should not overlap; if a line matches
+ * several expressions, the first one in the current order is used.
  */
 public class RegExpParser implements IParser {
-    // private static final Logger log = Logger.getLogger(RegExpParser.class);
-    
+    private static final Logger log = Logger.getLogger(RegExpParser.class);
+
+    /** Additional item with index of matched expression (parser.lineRegExp.N). */
+    public static final String LINE_REG_EXP_NO_ITEM = "lineRegExpNo";
+
     private TypedProperties props;
     private JobContext jobContext;
 
-    private List<String> variables;
-    private Matcher matcher;
     private boolean trimValue;
     private String removeEnclosingCharsFromValue;
     private AttributeValueRewriter rewriter;
 
+    private LineFormat[] lineFormats;
+    /** Index in lineFormats, sorted by no. of matched lines (descending). */
+    private int[] order;
+    /** Expression list (parser.lineRegExp.N) is used. */
+    private boolean multiExpression;
+
 
     public RegExpParser() {
         // empty
     }
 
-    
+
     @Override
     public void init(JobContext jobContext) throws InvalidExpressionException, MegatronException {
         this.jobContext = jobContext;
         this.props = jobContext.getProps();
-        
-        String lineRegExp = props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, "");
-        if (lineRegExp.length() == 0) {
-            String msg = "Line expression is missing (parser.lineRegExp).";
-            throw new InvalidExpressionException(msg);
-        }
-        LineExpression expression = new LineExpression(props, lineRegExp);
-        variables = expression.extractVariables();
-        matcher = expression.createRegExp();
+
         trimValue = props.getBoolean(AppProperties.PARSER_TRIM_VALUE_KEY, false);
         removeEnclosingCharsFromValue = props.getString(AppProperties.PARSER_REMOVE_ENCLOSING_CHARS_FROM_VALUE_KEY, null);
+        if ((removeEnclosingCharsFromValue != null) && (removeEnclosingCharsFromValue.length() == 0)) {
+            removeEnclosingCharsFromValue = null;
+        }
         String[] rewriterArray = props.getStringList(AppProperties.PARSER_REWRITERS_KEY, null);
         rewriter = AttributeValueRewriter.createAttributeValueRewriter(rewriterArray);
+
+        multiExpression = isMultiExpressionUsed(props);
+        String[] lineRegExps = getLineRegExps(props);
+        if (!multiExpression && (lineRegExps[0].length() == 0)) {
+            String msg = "Line expression is missing (parser.lineRegExp).";
+            throw new InvalidExpressionException(msg);
+        }
+        int firstNo = getFirstLineRegExpNo(props);
+        LineFormat[] formats = new LineFormat[lineRegExps.length];
+        order = new int[lineRegExps.length];
+        for (int i = 0; i < lineRegExps.length; i++) {
+            String no = multiExpression ? Integer.toString(firstNo + i) : null;
+            if (lineRegExps[i].trim().length() == 0) {
+                String msg = "Line expression is empty (" + AppProperties.PARSER_LINE_REG_EXP_KEY + "." + no + ").";
+                throw new InvalidExpressionException(msg);
+            }
+            formats[i] = new LineFormat(new LineExpression(props, lineRegExps[i]), no);
+            order[i] = i;
+        }
+        lineFormats = formats;
+        if (multiExpression) {
+            log.info("No. of line expressions (parser.lineRegExp.N): " + lineFormats.length);
+        }
     }
 
-    
+
     @Override
     public LogEntry parse(String logLine) throws ParseException {
         LogEntry result = null;
 
-        matcher.reset(logLine);
-        Map<String, String> parsedLogEntry = new HashMap<String, String>();
-        if (matcher.find()) {
-            if (matcher.groupCount() != variables.size()) {
-                String msg = "Cannot parse line at " + jobContext.getLineNo() + "; groups in reg-exp does not match (" + variables.size() + "!=" + 
-                    matcher.groupCount() + "). Line: '" + logLine + "'.";
-                throw new ParseException(msg);
+        // find first matching expression
+        LineFormat lineFormat = null;
+        boolean matcherUsed = false;
+        for (int i = 0; (i < order.length) && (lineFormat == null); i++) {
+            LineFormat candidate = lineFormats[order[i]];
+            if ((candidate.prescreen != null) && !candidate.prescreen.accept(logLine)) {
+                continue;
             }
-            
-            for (int i = 0; i < variables.size(); i++) {
-                String value = matcher.group(i+1);
-                if (value == null) {
-                    String msg = "Cannot parse line at " + jobContext.getLineNo() + "; group " + i + " is unmatched. Line: '" + logLine + "'.";
-                    throw new ParseException(msg);
-                }
-                if (trimValue) {
-                    value = value.trim();
-                }
-                // empty value is treated as NULL
-                if (value.length() != 0) {
-                    if ((removeEnclosingCharsFromValue != null) && (removeEnclosingCharsFromValue.length() != 0)) {
-                        value = StringUtil.removeEnclosingChars(value, removeEnclosingCharsFromValue);
-                    }
-                    parsedLogEntry.put(variables.get(i).substring(1), value);
-                } else if (variables.get(i).startsWith(LogEntryMapper.VARIABLE_PREFIX + LogEntryMapper.FREE_TEXT_PREFIX)) {
-                    // empty value is stored for free text (otherwise list order cannot be preserved) 
-                    parsedLogEntry.put(variables.get(i).substring(1), value);
-                }
+            matcherUsed = true;
+            if (candidate.matcher.reset(logLine).find()) {
+                lineFormat = candidate;
+                ++lineFormat.noOfMatches;
+                moveTowardsFront(i);
             }
-            
-            if (rewriter != null) {
-                rewriter.rewrite(parsedLogEntry);
+        }
+        if (lineFormat == null) {
+            if (!matcherUsed) {
+                jobContext.incNoOfPrescreenRejects(1);
             }
-        } else {
             String msg = "Cannot parse line at " + jobContext.getLineNo() + "; line is unmatched. Line: '" + logLine + "'.";
             throw new ParseException(msg);
         }
-        
-        LogEntryMapper mapper = new LogEntryMapper(props, parsedLogEntry);
+
+        Matcher matcher = lineFormat.matcher;
+        String[] values = lineFormat.values;
+        if (matcher.groupCount() != values.length) {
+            String msg = "Cannot parse line at " + jobContext.getLineNo() + "; groups in reg-exp does not match (" + values.length + "!=" +
+                matcher.groupCount() + "). Line: '" + logLine + "'.";
+            throw new ParseException(msg);
+        }
+        for (int i = 0; i < values.length; i++) {
+            String value = matcher.group(i+1);
+            if (value == null) {
+                String msg = "Cannot parse line at " + jobContext.getLineNo() + "; group " + i + " is unmatched. Line: '" + logLine + "'.";
+                throw new ParseException(msg);
+            }
+            if (trimValue) {
+                value = value.trim();
+            }
+            // empty value is treated as NULL
+            if (value.length() != 0) {
+                if (removeEnclosingCharsFromValue != null) {
+                    value = StringUtil.removeEnclosingChars(value, removeEnclosingCharsFromValue);
+                }
+            } else if (!lineFormat.freeTextVariables[i]) {
+                // empty value is stored for free text (otherwise list order cannot be preserved)
+                value = null;
+            }
+            if (lineFormat.rewrittenVariables[i] && (value != null)) {
+                value = rewriter.rewrite(lineFormat.mappingPlan.getAttributeName(i), value);
+            }
+            values[i] = value;
+        }
+
         try {
-            result = mapper.createLogEntry();
+            result = lineFormat.mappingPlan.createLogEntry(values);
         } catch (ConversionException e) {
             String msg = "Cannot parse line at " + jobContext.getLineNo() + "; " + e.getMessage() + " Line: '" + logLine + "'.";
             throw new ParseException(msg, e);
         }
+        if (multiExpression) {
+            result.getAdditionalItems().put(LINE_REG_EXP_NO_ITEM, lineFormat.no);
+        }
 
         return result;
     }
@@ -112,7 +168,98 @@ public class RegExpParser implements IParser {
 
     @Override
     public void close() throws MegatronException {
-        // empty
+        if (multiExpression && (lineFormats != null)) {
+            StringBuilder msg = new StringBuilder(128);
+            msg.append("Matched lines per expression (parser.lineRegExp.N): ");
+            for (int i = 0; i < lineFormats.length; i++) {
+                msg.append((i > 0) ? ", " : "").append(lineFormats[i].no).append("=").append(lineFormats[i].noOfMatches);
+            }
+            log.info(msg.toString());
+        }
+    }
+
+
+    /**
+     * Returns all line expressions, i.e. "parser.lineRegExp" or
+     * "parser.lineRegExp.N".
+     */
+    public static String[] getLineRegExps(TypedProperties props) {
+        String[] result = props.getStringList(AppProperties.PARSER_LINE_REG_EXP_KEY, null);
+        if ((result == null) || (result.length == 0)) {
+            result = new String[] { props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY, "") };
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns true if a list of line expressions (parser.lineRegExp.N) is used.
+     */
+    public static boolean isMultiExpressionUsed(TypedProperties props) {
+        String[] lineRegExps = props.getStringList(AppProperties.PARSER_LINE_REG_EXP_KEY, null);
+        return (lineRegExps != null) && (lineRegExps.length > 0);
+    }
+
+
+    /**
+     * Returns index of first expression in list, i.e. 0 or 1 (same as
+     * TypedProperties.getStringList).
+     */
+    private static int getFirstLineRegExpNo(TypedProperties props) {
+        return (props.getString(AppProperties.PARSER_LINE_REG_EXP_KEY + ".0", null) != null) ? 0 : 1;
+    }
+
+
+    /**
+     * Moves expression at specified position in order before expressions
+     * with fewer matches. Order is kept sorted by no. of matches.
+     */
+    private void moveTowardsFront(int pos) {
+        while ((pos > 0) && (lineFormats[order[pos]].noOfMatches > lineFormats[order[pos - 1]].noOfMatches)) {
+            int tmp = order[pos - 1];
+            order[pos - 1] = order[pos];
+            order[pos] = tmp;
+            --pos;
+        }
+    }
+
+
+    /**
+     * Compiled line expression with its own mapping plan.
+     */
+    private class LineFormat {
+        /** Index in parser.lineRegExp.N, or null if parser.lineRegExp is used. */
+        private String no;
+        private Matcher matcher;
+        private LiteralPrescreen prescreen;
+        private LogEntryMappingPlan mappingPlan;
+        /** Values for the current line; index is group no. - 1. */
+        private String[] values;
+        /** Index for groups with a free text variable, or a rewriter. */
+        private boolean[] freeTextVariables;
+        private boolean[] rewrittenVariables;
+        private long noOfMatches;
+
+
+        public LineFormat(LineExpression expression, String no) throws InvalidExpressionException {
+            this.no = no;
+            List<String> variables = expression.extractVariables();
+            matcher = expression.createRegExp();
+            prescreen = expression.createPrescreen();
+
+            // -- compile mapping plan
+            List<String> attributeNames = new ArrayList<String>(variables.size());
+            freeTextVariables = new boolean[variables.size()];
+            rewrittenVariables = new boolean[variables.size()];
+            for (int i = 0; i < variables.size(); i++) {
+                String attributeName = variables.get(i).substring(1);
+                attributeNames.add(attributeName);
+                freeTextVariables[i] = attributeName.startsWith(LogEntryMapper.FREE_TEXT_PREFIX);
+                rewrittenVariables[i] = (rewriter != null) && rewriter.isRewritten(attributeName);
+            }
+            mappingPlan = new LogEntryMappingPlan(props, attributeNames, jobContext);
+            values = new String[variables.size()];
+        }
     }
-    
+
 }
@@ -0,0 +1,289 @@
+package se.sitic.megatron.parser;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.ConversionException;
+import se.sitic.megatron.core.JobContext;
+import se.sitic.megatron.core.TypedProperties;
+import se.sitic.megatron.util.Constants;
+import se.sitic.megatron.util.DateUtil;
+import se.sitic.megatron.util.SqlUtil;
+
+
+/**
+ * Converts a time-stamp in a log line to epoch in seconds, using
+ * "parser.timestampFormat" and "parser.defaultTimeZone".
+ * <p>
+ * Converted time-stamps are cached, because consecutive lines in a log
+ * often have the same time-stamp. Time-stamps in the format
+ * "yyyy-MM-dd HH:mm:ss" or "yyyy-MM-dd'T'HH:mm:ss" (optionally followed by
+ * a time zone) are converted
+ * without SimpleDateFormat; the time zone offset is resolved by
+ * SimpleDateFormat once per hour and time zone. Other formats, and values
+ * that the fast path cannot handle, are converted by SimpleDateFormat.
+ * <p>
+ * Not thread-safe; each parser must use its own object.
+ */
+public class TimestampParser {
+    /** No. of entries in the cache. Must be a power of 2. */
+    private static final int CACHE_SIZE = 256;
+    private static final String ISO_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String ISO_T_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+    /** Length of value in ISO format, excluding time zone. */
+    private static final int ISO_LENGTH = 19;
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    // Time-stamp formats
+    private static final int FORMAT_DATE = 0;
+    private static final int FORMAT_EPOCH_IN_SEC = 1;
+    private static final int FORMAT_EPOCH_IN_MS = 2;
+    private static final int FORMAT_WINDOWS_EPOCH = 3;
+
+    private JobContext jobContext;
+
+    private int formatType;
+    private String format;
+    private String prefix;
+    private String suffix;
+    private TimeZone epochTimeZone;
+    private SimpleDateFormat dateFormat;
+    private boolean isoFormat;
+    /** Separator between date and time in ISO format, i.e. ' ' or 'T'. */
+    private char isoSeparator;
+
+    private String[] cacheKeys;
+    private long[] cacheValues;
+
+    // time zone offset for the last converted hour (fast path)
+    private long offsetHour = NO_VALUE;
+    private String offsetZone;
+    private long offset;
+    private boolean offsetValid;
+
+
+    /**
+     * Constructs a parser for the time-stamp format in specified properties.
+     *
+     * @param jobContext cache lookups are counted in this context. May be null.
+     */
+    public TimestampParser(TypedProperties props, JobContext jobContext) {
+        this.jobContext = jobContext;
+
+        String format = props.getString(AppProperties.PARSER_TIME_STAMP_FORMAT_KEY, "yyyy-MM-dd HH:mm:ss z");
+        if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_EPOCH_IN_SEC)) {
+            formatType = FORMAT_EPOCH_IN_SEC;
+        } else if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_EPOCH_IN_MS)) {
+            formatType = FORMAT_EPOCH_IN_MS;
+        } else if (format.equalsIgnoreCase(Constants.TIME_STAMP_FORMAT_WINDOWS_EPOCH)) {
+            formatType = FORMAT_WINDOWS_EPOCH;
+        } else {
+            formatType = FORMAT_DATE;
+        }
+        if (formatType != FORMAT_DATE) {
+            String timeZone = props.getString(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, null);
+            epochTimeZone = (timeZone != null) ? TimeZone.getTimeZone(timeZone) : null;
+            return;
+        }
+
+        // add year if missing in format (otherwise year will be 1970)
+        String year = "";
+        if (format.indexOf('y') == -1) {
+            format = "yyyy " + format;
+            year = Calendar.getInstance().get(Calendar.YEAR) + " ";
+        }
+        // add time zone if specified
+        String timeZone = props.getString(AppProperties.PARSER_DEFAULT_TIME_ZONE_KEY, "");
+        if ((timeZone.length() != 0) && !format.toLowerCase().endsWith("z")) {
+            format = format + "z";
+        }
+        boolean addCurrentDate = props.getBoolean(AppProperties.PARSER_ADD_CURRENT_DATE_TO_TIMESTAMP_KEY, false);
+        String dateStr = addCurrentDate ? DateUtil.formatDateTime(DateUtil.DATE_FORMAT, new Date()) + " " : "";
+        this.format = format;
+        this.prefix = dateStr + year;
+        this.suffix = timeZone;
+        dateFormat = new SimpleDateFormat(format);
+        dateFormat.setLenient(false);
+        // fast path if format is ISO, optionally followed by a time zone
+        String zoneFormat = null;
+        if (format.startsWith(ISO_FORMAT)) {
+            isoSeparator = ' ';
+            zoneFormat = format.substring(ISO_FORMAT.length());
+        } else if (format.startsWith(ISO_T_FORMAT)) {
+            isoSeparator = 'T';
+            zoneFormat = format.substring(ISO_T_FORMAT.length());
+        }
+        isoFormat = (prefix.length() == 0) && (zoneFormat != null) && zoneFormat.trim().matches("[zZX]*");
+        cacheKeys = new String[CACHE_SIZE];
+        cacheValues = new long[CACHE_SIZE];
+    }
+
+
+    /**
+     * Converts specified time-stamp to epoch in seconds.
+     */
+    public long parse(String value) throws ConversionException {
+        if (formatType != FORMAT_DATE) {
+            return convertEpoch(value);
+        }
+
+        if (jobContext != null) {
+            jobContext.incNoOfTimestampLookups(1);
+        }
+        int slot = value.hashCode() & (CACHE_SIZE - 1);
+        if (value.equals(cacheKeys[slot])) {
+            if (jobContext != null) {
+                jobContext.incNoOfTimestampCacheHits(1);
+            }
+            return cacheValues[slot];
+        }
+        long result = isoFormat ? convertIsoTimestamp(value) : NO_VALUE;
+        if (result == NO_VALUE) {
+            result = convertDate(value);
+        }
+        cacheKeys[slot] = value;
+        cacheValues[slot] = result;
+        return result;
+    }
+
+
+    private long convertDate(String value) throws ConversionException {
+        String timestamp = prefix + value + suffix;
+        try {
+            Date date = dateFormat.parse(timestamp);
+            return SqlUtil.convertTimestampToSec(date.getTime());
+        } catch (ParseException e) {
+            String msg = "Cannot parse time-stamp: '" + timestamp + "'. Expected format: '" + format + "'.";
+            throw new ConversionException(msg, e);
+        }
+    }
+
+
+    /**
+     * Converts a time-stamp in the format "yyyy-MM-dd HH:mm:ss" (or with 'T'
+     * as separator), optionally followed by a time zone.
+     *
+     * @return epoch in seconds, or NO_VALUE if value cannot be handled by
+     *      the fast path.
+     */
+    private long convertIsoTimestamp(String value) {
+        if ((value.length() < ISO_LENGTH) || (value.charAt(4) != '-') || (value.charAt(7) != '-') || (value.charAt(10) != isoSeparator) ||
+                (value.charAt(13) != ':') || (value.charAt(16) != ':')) {
+            return NO_VALUE;
+        }
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 7);
+        int day = parseDigits(value, 8, 10);
+        int hour = parseDigits(value, 11, 13);
+        int minute = parseDigits(value, 14, 16);
+        int second = parseDigits(value, 17, 19);
+        // SimpleDateFormat continues to parse a number if the zone starts with a digit
+        boolean zoneStartsWithDigit = (value.length() > ISO_LENGTH) ? Character.isDigit(value.charAt(ISO_LENGTH)) :
+            ((suffix.length() > 0) && Character.isDigit(suffix.charAt(0)));
+        if ((year < 1970) || (year > 2099) || (month < 1) || (month > 12) || (day < 1) || (day > getDaysInMonth(year, month)) ||
+                (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 59) || zoneStartsWithDigit) {
+            return NO_VALUE;
+        }
+
+        long localTime = getDaysSinceEpoch(year, month, day)*86400L + hour*3600L + minute*60L + second;
+        long localHour = localTime / 3600L;
+        int zoneLength = value.length() - ISO_LENGTH;
+        if ((localHour != offsetHour) || (offsetZone.length() != zoneLength) || !value.regionMatches(ISO_LENGTH, offsetZone, 0, zoneLength)) {
+            resolveOffset(value, localHour);
+        }
+        return offsetValid ? (localTime - offset) : NO_VALUE;
+    }
+
+
+    /**
+     * Resolves time zone offset for the hour in specified value. The offset
+     * is only valid if it is the same at the start and end of the hour.
+     */
+    private void resolveOffset(String value, long localHour) {
+        offsetHour = localHour;
+        offsetZone = value.substring(ISO_LENGTH);
+        offsetValid = false;
+        String head = value.substring(0, ISO_LENGTH - 5);
+        try {
+            long startTime = SqlUtil.convertTimestampToSec(dateFormat.parse(head + "00:00" + offsetZone + suffix).getTime());
+            long endTime = SqlUtil.convertTimestampToSec(dateFormat.parse(head + "59:59" + offsetZone + suffix).getTime());
+            long startOffset = localHour*3600L - startTime;
+            long endOffset = (localHour*3600L + 3599L) - endTime;
+            offset = startOffset;
+            offsetValid = (startOffset == endOffset);
+        } catch (ParseException e) {
+            // handled by SimpleDateFormat for each value, e.g. hour is missing due to daylight saving time
+        }
+    }
+
+
+    private long convertEpoch(String value) throws ConversionException {
+        long epoch = 0L;
+        try {
+            epoch = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            String msg = "Cannot parse time-stamp in epoch format: '" + value + "'.";
+            throw new ConversionException(msg, e);
+        }
+        if (formatType == FORMAT_EPOCH_IN_MS) {
+            epoch = SqlUtil.convertTimestampToSec(epoch);
+        } else if (formatType == FORMAT_WINDOWS_EPOCH) {
+            // convert to Unix epoch in seconds
+            long epochDiff = 11644473600L;
+            epoch = (epoch / 10000000L) - epochDiff;
+        }
+        // sanity check
+        if (epoch < 946684800L) {
+            String msg = "Time-stamp not in epoch format; value is before 2000-01-01: " + epoch;
+            throw new ConversionException(msg);
+        }
+        if (epochTimeZone != null) {
+            epoch += Math.round(epochTimeZone.getOffset(epoch) / 1000d);
+        }
+        return epoch;
+    }
+
+
+    /**
+     * Returns number in specified region, or -1 if a char is not a digit.
+     */
+    private int parseDigits(String str, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char ch = str.charAt(i);
+            if ((ch < '0') || (ch > '9')) {
+                return -1;
+            }
+            result = result*10 + (ch - '0');
+        }
+        return result;
+    }
+
+
+    private int getDaysInMonth(int year, int month) {
+        if (month == 2) {
+            boolean leapYear = ((year % 4) == 0) && (((year % 100) != 0) || ((year % 400) == 0));
+            return leapYear ? 29 : 28;
+        }
+        return ((month == 4) || (month == 6) || (month == 9) || (month == 11)) ? 30 : 31;
+    }
+
+
+    /**
+     * Returns no. of days since 1970-01-01 (Gregorian calendar).
+     */
+    private long getDaysSinceEpoch(int year, int month, int day) {
+        // algorithm "days from civil" (H. Hinnant)
+        int y = (month <= 2) ? (year - 1) : year;
+        int era = y / 400;
+        int yearOfEra = y - era*400;
+        int dayOfYear = (153*(month + ((month > 2) ? -3 : 9)) + 2)/5 + day - 1;
+        int dayOfEra = yearOfEra*365 + yearOfEra/4 - yearOfEra/100 + dayOfYear;
+        return era*146097L + dayOfEra - 719468L;
+    }
+
+}
@@ -2,8 +2,6 @@ package se.sitic.megatron.util;
 
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -18,7 +16,6 @@ import se.sitic.megatron.core.ConversionException;
 import se.sitic.megatron.core.MegatronException;
 import se.sitic.megatron.core.TypedProperties;
 import se.sitic.megatron.entity.LogEntry;
-import se.sitic.megatron.parser.LogEntryMapper;
 
 
 /**
@@ -131,7 +128,8 @@ public abstract class AppUtil {
     
     
     /**
-     * Expands variables in specified template. Side effect: items may be added to attrMap. 
+     * Expands variables in specified template. Templates that are used
+     * repeatedly should be compiled once by CompiledTemplate instead.
      * 
      * @param template template with variables to expand.
      * @param attrMap map replace values (key: variable name, value: variable value).
@@ -139,105 +137,7 @@ public abstract class AppUtil {
      * @throws ConversionException if not all variables have been expanded.
      */
     public static String replaceVariables(String str, Map<String, String> attrMap, boolean isXml, String templateName) throws ConversionException {
-        
-        // TODO: Convert this method to a Class, e.g. TemplateReplacer. Can avoid creating so many objects. May also use TypedProperties.   
-        
-        // -- Add padding if present
-        // Format: variableName#padRight<num>|padLeft<num>
-        // Example: $ipAddress#padRight10
-        if ((str.indexOf("#padLeft") != -1) || (str.indexOf("#padRight") != -1)) {
-            String regExp = "\\" + LogEntryMapper.VARIABLE_PREFIX + "(\\w+?)#(padLeft|padRight)(\\d+)";
-            Matcher matcher = Pattern.compile(regExp).matcher(str);
-            while (matcher.find() && (matcher.groupCount() == 3)) {
-                String variable = matcher.group(1);
-                String padType = matcher.group(2);
-                int len = Integer.parseInt(matcher.group(3));
-                String value = attrMap.get(variable);
-                if (value != null) {
-                    if (padType.equals("padLeft")) {
-                        value = StringUtil.leftPad(value, len);
-                    } else if (padType.equals("padRight")) {
-                        value = StringUtil.rightPad(value, len);
-                    }
-                    String key = variable + "#" + padType + len;
-                    attrMap.put(key, value);
-                }
-            }
-        }
-        
-        // -- Add $freeTextList and $additionalItemList if present 
-        if (str.indexOf(LogEntryMapper.VARIABLE_PREFIX + "freeTextList") != -1) {
-            StringBuilder freeTextListStr = new StringBuilder(128);
-            int freeTextIndex = 0;
-            boolean freeTextFound = true; 
-            while (freeTextFound) {
-                String key = LogEntryMapper.FREE_TEXT_PREFIX + (freeTextIndex++);
-                if (attrMap.get(key) != null) {
-                    if (freeTextListStr.length() > 0) {
-                        freeTextListStr.append(", ");
-                    }
-                    freeTextListStr.append('"').append(attrMap.get(key)).append('"');
-                } else {
-                    freeTextFound = false;
-                }
-            }
-            attrMap.put("freeTextList", freeTextListStr.toString());
-        }
-        if (str.indexOf(LogEntryMapper.VARIABLE_PREFIX + "additionalItemList") != -1) {
-            StringBuilder additonalItemListStr = new StringBuilder(128);
-            List<String> keys = new ArrayList<String>(attrMap.keySet());
-            Collections.sort(keys, ObjectStringSorter.createDefaultSorter());
-            for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
-                String key = iterator.next();
-                if (key.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX)) {
-                    if (additonalItemListStr.length() > 0) {
-                        additonalItemListStr.append(", ");
-                    }
-                    String[] headTail = StringUtil.splitHeadTail(key, "_", false);
-                    additonalItemListStr.append(headTail[1]).append("=").append('"').append(attrMap.get(key)).append('"');
-                }
-            }
-            attrMap.put("additionalItemList", additonalItemListStr.toString());
-        }
-        
-        // -- Sort variables by length, e.g. $ipAddress2 must come before $ipAddress (otherwise "2" will not be replaced)
-        List<String> keys = new ArrayList<String>(attrMap.keySet());
-        Collections.sort(keys, new Comparator<String>() {
-                @Override
-                public int compare(String o1, String o2) {
-                    // reverse sort order
-                    return (o1.length() > o2.length()) ? -1 : (o1.length() == o2.length() ? 0 : 1);
-                }
-            });
-        
-        // -- Replace variables
-        String result = str;
-        int indexOfVariable = result.indexOf(LogEntryMapper.VARIABLE_PREFIX);
-        for (Iterator<String> iterator = keys.iterator(); (indexOfVariable != -1) && iterator.hasNext(); ) {
-            String key = iterator.next();
-            String value = isXml ? StringUtil.encodeCharacterEntities(attrMap.get(key)) : attrMap.get(key);
-            value = (value != null) ? value : "";
-            result = StringUtil.replace(result, LogEntryMapper.VARIABLE_PREFIX + key, value);
-            indexOfVariable = result.indexOf(LogEntryMapper.VARIABLE_PREFIX);
-        }
-        
-        // Note: '$' not allowed in template.
-        if (indexOfVariable != -1) {
-            boolean dollarSignInvalues = false;
-            for (Iterator<String> iterator = keys.iterator(); !dollarSignInvalues && iterator.hasNext(); ) {
-                if (attrMap.get(iterator.next()).indexOf(LogEntryMapper.VARIABLE_PREFIX) != -1) {
-                    dollarSignInvalues = true;
-                }
-            }
-            if (!dollarSignInvalues) {
-                String msg = "The template '" + templateName + "' may contain unused variables because '$' is present. Replaced template: " + result;               
-               // Issue Warning message instead of exception until a better solution is implemented
-               //TODO Fix issue with two stage variable replacement
-               log.warn(msg);
-            }
-        }
-        
-        return result;
+        return CompiledTemplate.compile(str, templateName).render(attrMap, isXml);
     }
 
     
@@ -0,0 +1,677 @@
+package se.sitic.megatron.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.ReverseMap;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+
+/**
+ * DNS resolver that keeps many queries in flight over a few non-blocking UDP
+ * sockets. All sockets are handled by one thread with a selector, i.e. no
+ * thread is blocked per query.
+ * <p>
+ * dnsjava is used to create and parse DNS messages. Its asynchronous API
+ * (Resolver.sendAsync) starts a thread per query, and is therefore not used.
+ * <p>
+ * A query that is not answered within the time-out is resent, to the next DNS
+ * server if several are specified, until the retry budget is exhausted.
+ * SERVFAIL and REFUSED are retried in the same way. The total no. of packets
+ * sent per second (including retries) may be limited. submit() blocks when
+ * the max no. of queries is in flight.
+ * <p>
+ * The listener is called by the resolver thread, and must not block.
+ * Thread-safe.
+ */
+public class AsyncDnsResolver {
+    private static final Logger log = Logger.getLogger(AsyncDnsResolver.class);
+
+    private static final int DNS_PORT = 53;
+    private static final int MAX_PACKET_SIZE = 4096;
+    private static final int NO_OF_IDS = 65536;
+    /** Responses may arrive in bursts; avoid that the kernel drops them. */
+    private static final int RECEIVE_BUFFER_SIZE = 1024*1024;
+
+    private InetSocketAddress[] servers;
+    private long timeOutNanos;
+    private int noOfRetries;
+    private int maxQueriesPerSecond;
+
+    private Selector selector;
+    private DatagramChannel[] channels;
+    /** Queries in flight for each channel; index is DNS message id. */
+    private Query[][] pendingQueries;
+    private Thread resolverThread;
+    private volatile boolean closed;
+    /** Resolver thread exited without close() being called. */
+    private volatile boolean failed;
+
+    private Semaphore inFlightPermits;
+    private ConcurrentLinkedQueue<Query> submittedQueries;
+    private Object finishedMonitor = new Object();
+    private int noOfUnfinishedQueries;
+
+    // -- used by resolver thread only
+    /** Queries to send; new queries and retries. */
+    private ArrayDeque<Query> sendQueue;
+    /** Sent queries in order of time-out; one entry per sent packet. */
+    private ArrayDeque<SentQuery> sentQueries;
+    /** No. of queries in flight for each channel. */
+    private int[] noOfPendingQueries;
+    private Random random;
+    private int nextChannel;
+    private double rateTokens;
+    private long lastRefillTime;
+
+    // -- statistics
+    private volatile long noOfSubmittedQueries;
+    private volatile long noOfSentPackets;
+    private volatile long noOfResentPackets;
+    private volatile long noOfTimeOuts;
+    private volatile long noOfResponses;
+    private volatile long noOfUnexpectedResponses;
+
+
+    /**
+     * Constructor. Starts the resolver thread.
+     *
+     * @param servers DNS servers, or null to use system DNS servers (or "dns.server").
+     * @param noOfSockets no. of UDP sockets.
+     * @param maxQueriesInFlight max no. of queries that are sent and not yet answered;
+     *     at most 65536 per socket (no. of DNS message ids).
+     * @param timeOut time to wait for an answer before a query is resent (ms).
+     * @param noOfRetries no. of times a query may be resent.
+     * @param maxQueriesPerSecond max no. of packets to send per second, or 0 if unlimited.
+     */
+    public AsyncDnsResolver(InetSocketAddress[] servers, int noOfSockets, int maxQueriesInFlight, long timeOut, int noOfRetries,
+            int maxQueriesPerSecond) throws IOException {
+        if ((noOfSockets < 1) || (maxQueriesInFlight < 1) || (maxQueriesInFlight > (long)NO_OF_IDS*noOfSockets) || (timeOut < 1L) || (noOfRetries < 0) || (maxQueriesPerSecond < 0)) {
+            throw new IllegalArgumentException("Invalid resolver parameter: noOfSockets=" + noOfSockets + ", maxQueriesInFlight=" + maxQueriesInFlight +
+                    ", timeOut=" + timeOut + ", noOfRetries=" + noOfRetries + ", maxQueriesPerSecond=" + maxQueriesPerSecond);
+        }
+        this.servers = (servers != null) ? servers : getSystemServers();
+        this.timeOutNanos = TimeUnit.MILLISECONDS.toNanos(timeOut);
+        this.noOfRetries = noOfRetries;
+        this.maxQueriesPerSecond = maxQueriesPerSecond;
+
+        inFlightPermits = new Semaphore(maxQueriesInFlight);
+        submittedQueries = new ConcurrentLinkedQueue<Query>();
+        sendQueue = new ArrayDeque<Query>();
+        sentQueries = new ArrayDeque<SentQuery>();
+        noOfPendingQueries = new int[noOfSockets];
+        random = new Random();
+        lastRefillTime = System.nanoTime();
+        rateTokens = getMaxRateTokens();
+
+        selector = Selector.open();
+        channels = new DatagramChannel[noOfSockets];
+        pendingQueries = new Query[noOfSockets][];
+        try {
+            for (int i = 0; i < noOfSockets; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+                channels[i].setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+                channels[i].bind(null);
+                channels[i].register(selector, SelectionKey.OP_READ, Integer.valueOf(i));
+                pendingQueries[i] = new Query[NO_OF_IDS];
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+
+        resolverThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runResolver();
+                }
+            });
+        resolverThread.setName("AsyncDnsResolver");
+        resolverThread.setDaemon(true);
+        resolverThread.start();
+    }
+
+
+    /**
+     * Returns DNS servers from "dns.server" or the system configuration.
+     */
+    public static InetSocketAddress[] getSystemServers() throws UnknownHostException {
+        String[] serverNames = ResolverConfig.getCurrentConfig().servers();
+        if ((serverNames == null) || (serverNames.length == 0)) {
+            serverNames = new String[] { "localhost" };
+        }
+        InetSocketAddress[] result = new InetSocketAddress[serverNames.length];
+        for (int i = 0; i < serverNames.length; i++) {
+            result[i] = new InetSocketAddress(serverNames[i], DNS_PORT);
+            if (result[i].isUnresolved()) {
+                throw new UnknownHostException("Cannot resolve DNS server: " + serverNames[i]);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Submits a reverse DNS lookup (PTR) for specified IP address.
+     *
+     * @param attachment object that is available in the finished query, e.g. a key.
+     */
+    public void submitReverseLookup(long ipAddress, Object attachment, Listener listener) throws InterruptedException {
+        byte[] address = new byte[] { (byte)(ipAddress >>> 24), (byte)(ipAddress >>> 16), (byte)(ipAddress >>> 8), (byte)ipAddress };
+        submit(new Query(ReverseMap.fromAddress(address), Type.PTR, attachment, listener));
+    }
+
+
+    /**
+     * Submits a DNS lookup (A) for specified hostname. The hostname is
+     * treated as absolute, i.e. the search path is not used.
+     *
+     * @param attachment object that is available in the finished query, e.g. a key.
+     * @throws TextParseException if hostname is invalid.
+     */
+    public void submitLookup(String hostname, Object attachment, Listener listener) throws TextParseException, InterruptedException {
+        submit(new Query(Name.fromString(hostname.trim(), Name.root), Type.A, attachment, listener));
+    }
+
+
+    /**
+     * Submits specified query. Blocks if the max no. of queries are in flight.
+     *
+     * @throws IllegalStateException if resolver is closed, or if the resolver thread has failed.
+     */
+    public void submit(Query query) throws InterruptedException {
+        checkNotClosed();
+        inFlightPermits.acquire();
+        synchronized (finishedMonitor) {
+            // the resolver thread finishes all submitted queries after closed is set
+            if (closed) {
+                inFlightPermits.release();
+                checkNotClosed();
+            }
+            ++noOfUnfinishedQueries;
+            ++noOfSubmittedQueries;
+            submittedQueries.add(query);
+        }
+        selector.wakeup();
+    }
+
+
+    /**
+     * Waits until all submitted queries are finished.
+     *
+     * @throws IllegalStateException if the resolver thread has failed; unfinished queries are then finished as timed out.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (finishedMonitor) {
+            while (noOfUnfinishedQueries > 0) {
+                finishedMonitor.wait();
+            }
+        }
+        if (failed) {
+            throw new IllegalStateException("DNS resolver thread has failed; unfinished queries are treated as timed out.");
+        }
+    }
+
+
+    /**
+     * Stops the resolver thread and closes the sockets. Queries that are not
+     * finished are finished as timed out.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            resolverThread.join();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for resolver thread to exit.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Returns statistics, e.g. no. of sent packets and time-outs.
+     */
+    public String getStatistics() {
+        return "Queries: " + noOfSubmittedQueries + ", sent packets: " + noOfSentPackets + ", retries: " + noOfResentPackets + ", time-outs: " + noOfTimeOuts +
+            ", responses: " + noOfResponses + ", unexpected responses: " + noOfUnexpectedResponses;
+    }
+
+
+    public long getNoOfSentPackets() {
+        return noOfSentPackets;
+    }
+
+
+    public long getNoOfResentPackets() {
+        return noOfResentPackets;
+    }
+
+
+    public long getNoOfTimeOuts() {
+        return noOfTimeOuts;
+    }
+
+
+    private void checkNotClosed() {
+        if (failed) {
+            throw new IllegalStateException("DNS resolver thread has failed.");
+        } else if (closed) {
+            throw new IllegalStateException("Resolver is closed.");
+        }
+    }
+
+
+    private void runResolver() {
+        ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        try {
+            while (!closed) {
+                Query query = null;
+                while ((query = submittedQueries.poll()) != null) {
+                    sendQueue.add(query);
+                }
+                long now = System.nanoTime();
+                expireQueries(now);
+                long waitNanos = sendQueries(now);
+
+                // wait for response, time-out, rate limit, or submitted query.
+                // expireQueries has removed stale entries from the head.
+                if (!sentQueries.isEmpty()) {
+                    waitNanos = Math.min(waitNanos, Math.max(sentQueries.peekFirst().deadline - now, 0L));
+                }
+                long waitMillis = (waitNanos == Long.MAX_VALUE) ? 0L : Math.max(TimeUnit.NANOSECONDS.toMillis(waitNanos), 1L);
+                if (submittedQueries.isEmpty()) {
+                    selector.select(waitMillis);
+                } else {
+                    selector.selectNow();
+                }
+                for (Iterator<SelectionKey> iterator = selector.selectedKeys().iterator(); iterator.hasNext(); ) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        receiveResponses(((Integer)key.attachment()).intValue(), receiveBuffer);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("DNS resolver failed; all unfinished queries are treated as timed out.", e);
+        } catch (RuntimeException e) {
+            log.error("DNS resolver failed; all unfinished queries are treated as timed out.", e);
+        } finally {
+            synchronized (finishedMonitor) {
+                failed = !closed;
+                closed = true;
+            }
+            finishAllQueries();
+            closeChannels();
+        }
+    }
+
+
+    /**
+     * Sends queries in send queue as long as rate limit permits, and returns
+     * time until next query may be sent, or Long.MAX_VALUE if queue is empty.
+     */
+    private long sendQueries(long now) {
+        if (maxQueriesPerSecond > 0) {
+            rateTokens = Math.min(getMaxRateTokens(), rateTokens + ((now - lastRefillTime) / 1000000000d)*maxQueriesPerSecond);
+            lastRefillTime = now;
+        }
+        while (!sendQueue.isEmpty()) {
+            if ((maxQueriesPerSecond > 0) && (rateTokens < 1.0)) {
+                return (long)(((1.0 - rateTokens) / maxQueriesPerSecond)*1000000000d);
+            }
+            Query query = sendQueue.pollFirst();
+            send(query, now);
+            if (maxQueriesPerSecond > 0) {
+                rateTokens -= 1.0;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+
+    private void send(Query query, long now) {
+        // -- allocate id. A free id exists in some channel because
+        //    maxQueriesInFlight <= NO_OF_IDS*channels.length.
+        int channelIndex = nextChannel;
+        while (noOfPendingQueries[channelIndex] >= NO_OF_IDS) {
+            channelIndex = (channelIndex + 1) % channels.length;
+        }
+        nextChannel = (channelIndex + 1) % channels.length;
+        Query[] pending = pendingQueries[channelIndex];
+        int id = random.nextInt(NO_OF_IDS);
+        while (pending[id] != null) {
+            id = (id + 1) & (NO_OF_IDS - 1);
+        }
+
+        // -- send
+        Record question = Record.newRecord(query.name, query.type, DClass.IN);
+        Message message = Message.newQuery(question);
+        message.getHeader().setID(id);
+        InetSocketAddress server = servers[(query.serverOffset + query.noOfAttempts) % servers.length];
+        ++query.noOfAttempts;
+        query.channelIndex = channelIndex;
+        query.id = id;
+        query.server = server;
+        query.sent = true;
+        pending[id] = query;
+        ++noOfPendingQueries[channelIndex];
+        sentQueries.addLast(new SentQuery(query, now + timeOutNanos));
+        try {
+            channels[channelIndex].send(ByteBuffer.wrap(message.toWire()), server);
+            ++noOfSentPackets;
+        } catch (IOException e) {
+            // retried at time-out
+            log.debug("Cannot send DNS query: " + query.name, e);
+        }
+    }
+
+
+    private void expireQueries(long now) {
+        while (!sentQueries.isEmpty()) {
+            SentQuery sentQuery = sentQueries.peekFirst();
+            Query query = sentQuery.query;
+            boolean stale = !query.sent || (query.noOfAttempts != sentQuery.attempt);
+            if (!stale && (sentQuery.deadline > now)) {
+                break;
+            }
+            sentQueries.pollFirst();
+            if (stale) {
+                // answered, or resent (a later entry exists)
+                continue;
+            }
+            removePending(query);
+            if (query.noOfAttempts <= noOfRetries) {
+                ++noOfResentPackets;
+                sendQueue.addFirst(query);
+            } else {
+                ++noOfTimeOuts;
+                query.timedOut = true;
+                finish(query);
+            }
+        }
+    }
+
+
+    private void receiveResponses(int channelIndex, ByteBuffer buffer) throws IOException {
+        SocketAddress source = null;
+        buffer.clear();
+        while ((source = channels[channelIndex].receive(buffer)) != null) {
+            buffer.flip();
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            buffer.clear();
+
+            Message response = null;
+            try {
+                response = new Message(data);
+            } catch (IOException e) {
+                ++noOfUnexpectedResponses;
+                continue;
+            }
+            Query query = pendingQueries[channelIndex][response.getHeader().getID()];
+            Record question = response.getQuestion();
+            if ((query == null) || !source.equals(query.server) || (question == null) || (question.getType() != query.type) ||
+                    !question.getName().equals(query.name)) {
+                ++noOfUnexpectedResponses;
+                continue;
+            }
+            ++noOfResponses;
+            removePending(query);
+            int rcode = response.getRcode();
+            if (((rcode == Rcode.SERVFAIL) || (rcode == Rcode.REFUSED)) && (query.noOfAttempts <= noOfRetries)) {
+                ++noOfResentPackets;
+                sendQueue.addFirst(query);
+            } else {
+                query.response = response;
+                finish(query);
+            }
+        }
+    }
+
+
+    private void removePending(Query query) {
+        pendingQueries[query.channelIndex][query.id] = null;
+        --noOfPendingQueries[query.channelIndex];
+        query.sent = false;
+    }
+
+
+    private void finish(Query query) {
+        try {
+            if (query.listener != null) {
+                query.listener.queryFinished(query);
+            }
+        } catch (RuntimeException e) {
+            log.error("DNS query listener failed: " + query.name, e);
+        } finally {
+            // an Error kills the resolver thread; query must still be counted as finished
+            inFlightPermits.release();
+            synchronized (finishedMonitor) {
+                --noOfUnfinishedQueries;
+                if (noOfUnfinishedQueries == 0) {
+                    finishedMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    private void finishAllQueries() {
+        Query query = null;
+        while ((query = submittedQueries.poll()) != null) {
+            sendQueue.add(query);
+        }
+        for (Iterator<SentQuery> iterator = sentQueries.iterator(); iterator.hasNext(); ) {
+            query = iterator.next().query;
+            if (query.sent) {
+                query.sent = false;
+                sendQueue.add(query);
+            }
+        }
+        sentQueries.clear();
+        while ((query = sendQueue.pollFirst()) != null) {
+            query.timedOut = true;
+            finish(query);
+        }
+    }
+
+
+    private void closeChannels() {
+        for (int i = 0; i < channels.length; i++) {
+            try { if (channels[i] != null) channels[i].close(); } catch (Exception ignored) {}
+        }
+        try { selector.close(); } catch (Exception ignored) {}
+    }
+
+
+    private double getMaxRateTokens() {
+        // burst of max 100 ms
+        return Math.max(1.0, maxQueriesPerSecond / 10.0);
+    }
+
+
+    /**
+     * Called by the resolver thread when a query is finished.
+     */
+    public interface Listener {
+
+        public void queryFinished(Query query);
+
+    }
+
+
+    /**
+     * DNS query and its result.
+     */
+    public static class Query {
+        private Name name;
+        private int type;
+        private Object attachment;
+        private Listener listener;
+        private int serverOffset;
+
+        // -- used by resolver thread
+        private int noOfAttempts;
+        private int channelIndex;
+        private int id;
+        private InetSocketAddress server;
+        /** Sent and waiting for response. */
+        private boolean sent;
+        private Message response;
+        private boolean timedOut;
+
+
+        /**
+         * Constructor.
+         *
+         * @param type record type, e.g. Type.PTR.
+         * @param attachment object that is available in the finished query, e.g. a key.
+         */
+        public Query(Name name, int type, Object attachment, Listener listener) {
+            this.name = name;
+            this.type = type;
+            this.attachment = attachment;
+            this.listener = listener;
+            // spread first attempts over all servers
+            this.serverOffset = name.hashCode() & Integer.MAX_VALUE;
+        }
+
+
+        public Name getName() {
+            return name;
+        }
+
+
+        public int getType() {
+            return type;
+        }
+
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+
+        /**
+         * Returns response, or null if query timed out.
+         */
+        public Message getResponse() {
+            return response;
+        }
+
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+
+        /**
+         * Returns no. of times the query was sent.
+         */
+        public int getNoOfAttempts() {
+            return noOfAttempts;
+        }
+
+
+        /**
+         * Returns rcode of response, e.g. Rcode.NXDOMAIN, or -1 if query
+         * timed out.
+         */
+        public int getRcode() {
+            return (response != null) ? response.getRcode() : -1;
+        }
+
+
+        /**
+         * Returns target of first PTR record in answer (without trailing "."),
+         * or null if not found.
+         */
+        public String getHostname() {
+            Record[] answers = (response != null) ? response.getSectionArray(Section.ANSWER) : new Record[0];
+            for (int i = 0; i < answers.length; i++) {
+                if (answers[i] instanceof PTRRecord) {
+                    String result = ((PTRRecord)answers[i]).getTarget().toString();
+                    return result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
+                }
+            }
+            return null;
+        }
+
+
+        /**
+         * Returns address of first A record in answer, or 0L if not found.
+         */
+        public long getIpAddress() {
+            Record[] answers = (response != null) ? response.getSectionArray(Section.ANSWER) : new Record[0];
+            for (int i = 0; i < answers.length; i++) {
+                if (answers[i] instanceof ARecord) {
+                    byte[] address = ((ARecord)answers[i]).getAddress().getAddress();
+                    return ((address[0] & 0xFFL) << 24) | ((address[1] & 0xFFL) << 16) | ((address[2] & 0xFFL) << 8) | (address[3] & 0xFFL);
+                }
+            }
+            return 0L;
+        }
+
+
+        /**
+         * Returns smallest TTL of records in answer (seconds), or -1 if
+         * answer is empty.
+         */
+        public long getTtl() {
+            Record[] answers = (response != null) ? response.getSectionArray(Section.ANSWER) : new Record[0];
+            long result = -1L;
+            for (int i = 0; i < answers.length; i++) {
+                result = (result == -1L) ? answers[i].getTTL() : Math.min(result, answers[i].getTTL());
+            }
+            return result;
+        }
+
+    }
+
+
+    /**
+     * Entry in sentQueries. A query that is resent gets a new entry; the
+     * old entry is stale and skipped.
+     */
+    private static final class SentQuery {
+        private final Query query;
+        private final int attempt;
+        private final long deadline;
+
+
+        public SentQuery(Query query, long deadline) {
+            this.query = query;
+            this.attempt = query.noOfAttempts;
+            this.deadline = deadline;
+        }
+
+    }
+
+}
@@ -0,0 +1,333 @@
+package se.sitic.megatron.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.parser.LogEntryMapper;
+
+
+/**
+ * Template with variables, e.g. "$ipAddress", that is parsed once into
+ * literal and variable segments. Used for export and mail templates.
+ * <p>
+ * A variable is replaced with the value for the longest attribute name that
+ * the text after "$" starts with, e.g. "$ipAddress2" is replaced with
+ * the value for "ipAddress2" if it exists, otherwise with the value for
+ * "ipAddress" followed by "2". Padding is specified as
+ * "$variable#padLeft&lt;len&gt;" or "$variable#padRight&lt;len&gt;".
+ * "$freeTextList" and "$additionalItemList" are created from free texts
+ * and additional items. Variables that are not found are kept in the
+ * output. Values are not expanded, i.e. a "$" in a value is kept.
+ * <p>
+ * Immutable; may be shared by threads.
+ */
+public class CompiledTemplate {
+    private static final Logger log = Logger.getLogger(CompiledTemplate.class);
+
+    private static final String FREE_TEXT_LIST = "freeTextList";
+    private static final String ADDITIONAL_ITEM_LIST = "additionalItemList";
+    private static final String PAD_LEFT = "#padLeft";
+    private static final String PAD_RIGHT = "#padRight";
+
+    private String templateName;
+    /** Literal text before each variable; last element is text after last variable. */
+    private String[] literals;
+    /** Attribute names to try for each variable, longest first. */
+    private String[][] candidates;
+    /** Text after "$" for each variable; used if variable is not found. */
+    private String[] variableTexts;
+    /** Padding length, or -1 if variable has no padding. */
+    private int[] padLengths;
+    private boolean[] padLefts;
+    /** Text after variable name if padding cannot be added, e.g. "#padLeft10". */
+    private String[] padTexts;
+    /** Literal "$" in template, i.e. followed by a non-name char. */
+    private boolean literalDollarSign;
+
+
+    private CompiledTemplate(String templateName) {
+        this.templateName = templateName;
+    }
+
+
+    /**
+     * Parses specified template.
+     *
+     * @param templateName name used in log messages, e.g. file name.
+     */
+    public static CompiledTemplate compile(String template, String templateName) {
+        CompiledTemplate result = new CompiledTemplate(templateName);
+        List<String> literalList = new ArrayList<String>();
+        List<String[]> candidateList = new ArrayList<String[]>();
+        List<String> variableTextList = new ArrayList<String>();
+        List<Integer> padLengthList = new ArrayList<Integer>();
+        List<Boolean> padLeftList = new ArrayList<Boolean>();
+        List<String> padTextList = new ArrayList<String>();
+
+        StringBuilder literal = new StringBuilder(template.length());
+        final int length = template.length();
+        int pos = 0;
+        while (pos < length) {
+            char ch = template.charAt(pos);
+            if (ch != LogEntryMapper.VARIABLE_PREFIX.charAt(0)) {
+                literal.append(ch);
+                ++pos;
+                continue;
+            }
+
+            // -- padding, e.g. $ipAddress#padRight10
+            int nameEnd = skipChars(template, pos + 1, false);
+            int padLength = -1;
+            boolean padLeft = false;
+            int padEnd = nameEnd;
+            if (nameEnd > (pos + 1)) {
+                String padType = template.startsWith(PAD_LEFT, nameEnd) ? PAD_LEFT : (template.startsWith(PAD_RIGHT, nameEnd) ? PAD_RIGHT : null);
+                if (padType != null) {
+                    int digitsStart = nameEnd + padType.length();
+                    int digitsEnd = digitsStart;
+                    while ((digitsEnd < length) && (template.charAt(digitsEnd) >= '0') && (template.charAt(digitsEnd) <= '9')) {
+                        ++digitsEnd;
+                    }
+                    if (digitsEnd > digitsStart) {
+                        try {
+                            padLength = Integer.parseInt(template.substring(digitsStart, digitsEnd));
+                            padLeft = (padType == PAD_LEFT);
+                            padEnd = digitsEnd;
+                        } catch (NumberFormatException e) {
+                            padLength = -1;
+                        }
+                    }
+                }
+            }
+            if (padEnd == nameEnd) {
+                // no padding; name may also contain '.' and '-'
+                nameEnd = skipChars(template, pos + 1, true);
+                padEnd = nameEnd;
+            }
+
+            if (nameEnd == (pos + 1)) {
+                // not a variable
+                result.literalDollarSign = true;
+                literal.append(ch);
+                ++pos;
+                continue;
+            }
+            String name = template.substring(pos + 1, nameEnd);
+            String[] names = new String[name.length()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = name.substring(0, name.length() - i);
+            }
+            literalList.add(literal.toString());
+            literal.setLength(0);
+            candidateList.add(names);
+            variableTextList.add(name);
+            padLengthList.add(padLength);
+            padLeftList.add(padLeft);
+            padTextList.add(template.substring(nameEnd, padEnd));
+            pos = padEnd;
+        }
+        literalList.add(literal.toString());
+
+        result.literals = literalList.toArray(new String[literalList.size()]);
+        result.candidates = candidateList.toArray(new String[candidateList.size()][]);
+        result.variableTexts = variableTextList.toArray(new String[variableTextList.size()]);
+        result.padTexts = padTextList.toArray(new String[padTextList.size()]);
+        result.padLengths = new int[padLengthList.size()];
+        result.padLefts = new boolean[padLeftList.size()];
+        for (int i = 0; i < result.padLengths.length; i++) {
+            result.padLengths[i] = padLengthList.get(i);
+            result.padLefts[i] = padLeftList.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns template with variables replaced by values in specified map.
+     *
+     * @param isXml encode values as XML character entities?
+     */
+    public String render(Map<String, String> attrMap, boolean isXml) {
+        StringBuilder result = new StringBuilder(256);
+        render(attrMap, isXml, result);
+        return result.toString();
+    }
+
+
+    /**
+     * Appends template with variables replaced by values in specified map
+     * to specified buffer.
+     *
+     * @param isXml encode values as XML character entities?
+     */
+    public void render(Map<String, String> attrMap, boolean isXml, StringBuilder out) {
+        try {
+            render(attrMap, isXml, (Appendable)out);
+        } catch (IOException e) {
+            // cannot happen for StringBuilder
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Writes template with variables replaced by values in specified map
+     * to specified output, e.g. a Writer.
+     *
+     * @param isXml encode values as XML character entities?
+     */
+    public void render(Map<String, String> attrMap, boolean isXml, Appendable out) throws IOException {
+        boolean unresolved = literalDollarSign;
+        String unresolvedVariable = null;
+        String freeTextList = null;
+        String additionalItemList = null;
+        for (int i = 0; i < candidates.length; i++) {
+            out.append(literals[i]);
+
+            // -- padding
+            if (padLengths[i] >= 0) {
+                String value = attrMap.get(variableTexts[i]);
+                if (value != null) {
+                    value = padLefts[i] ? StringUtil.leftPad(value, padLengths[i]) : StringUtil.rightPad(value, padLengths[i]);
+                    appendValue(value, isXml, out);
+                    continue;
+                }
+            }
+
+            // -- longest attribute name that exists
+            String[] names = candidates[i];
+            String value = null;
+            int nameLength = 0;
+            for (int j = 0; (j < names.length) && (value == null); j++) {
+                String name = names[j];
+                value = attrMap.get(name);
+                if ((value == null) && name.equals(FREE_TEXT_LIST)) {
+                    freeTextList = (freeTextList != null) ? freeTextList : createFreeTextList(attrMap);
+                    value = freeTextList;
+                } else if ((value == null) && name.equals(ADDITIONAL_ITEM_LIST)) {
+                    additionalItemList = (additionalItemList != null) ? additionalItemList : createAdditionalItemList(attrMap);
+                    value = additionalItemList;
+                } else if ((value == null) && attrMap.containsKey(name)) {
+                    // null value is replaced with empty string
+                    value = "";
+                }
+                nameLength = name.length();
+            }
+            if (value != null) {
+                appendValue(value, isXml, out);
+                out.append(variableTexts[i], nameLength, variableTexts[i].length());
+            } else {
+                unresolved = true;
+                unresolvedVariable = (unresolvedVariable != null) ? unresolvedVariable : variableTexts[i];
+                out.append(LogEntryMapper.VARIABLE_PREFIX).append(variableTexts[i]);
+            }
+            out.append(padTexts[i]);
+        }
+        out.append(literals[literals.length - 1]);
+
+        // Note: '$' not allowed in template.
+        if (unresolved && !containsDollarSign(attrMap)) {
+            String variable = (unresolvedVariable != null) ? (LogEntryMapper.VARIABLE_PREFIX + unresolvedVariable) : LogEntryMapper.VARIABLE_PREFIX;
+            String msg = "The template '" + templateName + "' may contain unused variables because '$' is present. Unresolved: " + variable;
+            // Issue Warning message instead of exception until a better solution is implemented
+            log.warn(msg);
+        }
+    }
+
+
+    /**
+     * Returns attribute names that may be used by the template, i.e. all
+     * names that a variable may be replaced with.
+     */
+    public Set<String> getAttributeNames() {
+        Set<String> result = new LinkedHashSet<String>();
+        for (int i = 0; i < candidates.length; i++) {
+            result.addAll(Arrays.asList(candidates[i]));
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns end position of name that starts at specified position.
+     *
+     * @param extended name may contain '.' and '-'.
+     */
+    private static int skipChars(String str, int pos, boolean extended) {
+        int result = pos;
+        while (result < str.length()) {
+            char ch = str.charAt(result);
+            if (!Character.isLetterOrDigit(ch) && (ch != '_') && (!extended || ((ch != '.') && (ch != '-')))) {
+                break;
+            }
+            ++result;
+        }
+        return result;
+    }
+
+
+    private void appendValue(String value, boolean isXml, Appendable out) throws IOException {
+        if (isXml) {
+            StringUtil.appendCharacterEntities(out, value);
+        } else {
+            out.append(value);
+        }
+    }
+
+
+    private String createFreeTextList(Map<String, String> attrMap) {
+        StringBuilder result = new StringBuilder(128);
+        int freeTextIndex = 0;
+        String value = null;
+        while ((value = attrMap.get(LogEntryMapper.FREE_TEXT_PREFIX + (freeTextIndex++))) != null) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append('"').append(value).append('"');
+        }
+        return result.toString();
+    }
+
+
+    private String createAdditionalItemList(Map<String, String> attrMap) {
+        List<String> keys = new ArrayList<String>();
+        for (Iterator<String> iterator = attrMap.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(LogEntryMapper.ADDITIONAL_ITEM_PREFIX)) {
+                keys.add(key);
+            }
+        }
+        Collections.sort(keys, ObjectStringSorter.createDefaultSorter());
+        StringBuilder result = new StringBuilder(128);
+        for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            String[] headTail = StringUtil.splitHeadTail(key, "_", false);
+            result.append(headTail[1]).append("=").append('"').append(attrMap.get(key)).append('"');
+        }
+        return result.toString();
+    }
+
+
+    private boolean containsDollarSign(Map<String, String> attrMap) {
+        for (Iterator<String> iterator = attrMap.values().iterator(); iterator.hasNext(); ) {
+            String value = iterator.next();
+            if ((value != null) && (value.indexOf(LogEntryMapper.VARIABLE_PREFIX) != -1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
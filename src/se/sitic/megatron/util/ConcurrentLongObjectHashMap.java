@@ -0,0 +1,219 @@
+package se.sitic.megatron.util;
+
+
+/**
+ * Thread-safe hash map from long to object that stores keys in a primitive
+ * array, i.e. without a Map.Entry and Long object for every entry.
+ * <p>
+ * The map is split in segments (lock striping); a key is mapped to a segment
+ * by the high bits of its hash, and each segment is an open addressing hash
+ * table (linear probing) with its own lock. Threads that access different
+ * segments do not block each other. A segment starts small and is doubled
+ * when it is 75% full, i.e. memory is allocated when entries are added, not
+ * by an up-front size estimate.
+ * <p>
+ * Null values are not allowed (a null value marks an empty slot). Entries
+ * cannot be removed.
+ */
+public class ConcurrentLongObjectHashMap<V> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    private Segment[] segments;
+    private int segmentShift;
+
+
+    /**
+     * Constructor with 16 segments.
+     */
+    public ConcurrentLongObjectHashMap() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param concurrencyLevel estimated no. of threads that update the map;
+     *      no. of segments is concurrencyLevel rounded up to a power of two.
+     */
+    public ConcurrentLongObjectHashMap(int concurrencyLevel) {
+        int noOfSegments = 1;
+        int bits = 0;
+        while ((noOfSegments < concurrencyLevel) && (noOfSegments < MAX_SEGMENTS)) {
+            noOfSegments <<= 1;
+            ++bits;
+        }
+        segments = new Segment[noOfSegments];
+        for (int i = 0; i < noOfSegments; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 64 - bits;
+    }
+
+
+    /**
+     * Returns value for specified key, or null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        return (V)segmentFor(hash).get(key, (int)hash);
+    }
+
+
+    /**
+     * Returns true if the map contains specified key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+
+    /**
+     * Sets value for specified key, and returns previous value (null if
+     * none).
+     *
+     * @throws NullPointerException if value is null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not allowed.");
+        }
+        long hash = hash(key);
+        return (V)segmentFor(hash).put(key, (int)hash, value);
+    }
+
+
+    /**
+     * Returns no. of entries.
+     */
+    public int size() {
+        int result = 0;
+        for (int i = 0; i < segments.length; i++) {
+            result += segments[i].size();
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns memory used by the arrays (bytes); referenced values are not
+     * included.
+     */
+    public long getMemoryUsage() {
+        long result = 0L;
+        for (int i = 0; i < segments.length; i++) {
+            result += segments[i].getCapacity()*(8L + 8L);
+        }
+        return result;
+    }
+
+
+    private Segment segmentFor(long hash) {
+        // segmentShift is 64 if there is only one segment; shift distance is used mod 64
+        return (segments.length == 1) ? segments[0] : segments[(int)(hash >>> segmentShift)];
+    }
+
+
+    /**
+     * Returns a well distributed hash (MurmurHash3 finalizer). High bits
+     * select segment, and low bits the slot in a segment.
+     */
+    private static long hash(long key) {
+        long result = key;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
+
+    /**
+     * Open addressing hash table guarded by its own lock.
+     */
+    private static final class Segment {
+        private long[] keys;
+        private Object[] values;
+        private int mask;
+        private int size;
+
+
+        public Segment() {
+            keys = new long[MIN_SEGMENT_CAPACITY];
+            values = new Object[MIN_SEGMENT_CAPACITY];
+            mask = MIN_SEGMENT_CAPACITY - 1;
+        }
+
+
+        public synchronized Object get(long key, int hash) {
+            int index = hash & mask;
+            while (values[index] != null) {
+                if (keys[index] == key) {
+                    return values[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+
+        public synchronized Object put(long key, int hash, Object value) {
+            int index = hash & mask;
+            while (values[index] != null) {
+                if (keys[index] == key) {
+                    Object result = values[index];
+                    values[index] = value;
+                    return result;
+                }
+                index = (index + 1) & mask;
+            }
+            if (size + 1 >= keys.length) {
+                throw new IllegalStateException("Segment is full; max capacity is " + keys.length + " entries.");
+            }
+            keys[index] = key;
+            values[index] = value;
+            ++size;
+            if ((size*4L > keys.length*3L) && (keys.length < MAX_SEGMENT_CAPACITY)) {
+                resize(keys.length << 1);
+            }
+            return null;
+        }
+
+
+        public synchronized int size() {
+            return size;
+        }
+
+
+        public synchronized int getCapacity() {
+            return keys.length;
+        }
+
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int index = (int)hash(oldKeys[i]) & mask;
+                    while (values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+    }
+
+}
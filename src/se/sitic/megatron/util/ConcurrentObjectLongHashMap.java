@@ -0,0 +1,223 @@
+package se.sitic.megatron.util;
+
+
+/**
+ * Thread-safe hash map from object (e.g. a hostname) to long that stores
+ * values in a primitive array, i.e. without a Map.Entry and Long object for
+ * every entry.
+ * <p>
+ * Same design as ConcurrentLongObjectHashMap: the map is split in segments
+ * (lock striping), each segment is an open addressing hash table that is
+ * doubled when it is 75% full.
+ * <p>
+ * Null keys are not allowed (a null key marks an empty slot). Entries cannot
+ * be removed.
+ */
+public class ConcurrentObjectLongHashMap<K> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    private Segment[] segments;
+    private int segmentShift;
+
+
+    /**
+     * Constructor with 16 segments.
+     */
+    public ConcurrentObjectLongHashMap() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param concurrencyLevel estimated no. of threads that update the map;
+     *      no. of segments is concurrencyLevel rounded up to a power of two.
+     */
+    public ConcurrentObjectLongHashMap(int concurrencyLevel) {
+        int noOfSegments = 1;
+        int bits = 0;
+        while ((noOfSegments < concurrencyLevel) && (noOfSegments < MAX_SEGMENTS)) {
+            noOfSegments <<= 1;
+            ++bits;
+        }
+        segments = new Segment[noOfSegments];
+        for (int i = 0; i < noOfSegments; i++) {
+            segments[i] = new Segment();
+        }
+        segmentShift = 32 - bits;
+    }
+
+
+    /**
+     * Returns value for specified key, or defaultValue if not found.
+     */
+    public long get(K key, long defaultValue) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash, defaultValue);
+    }
+
+
+    /**
+     * Returns true if the map contains specified key.
+     */
+    public boolean containsKey(K key) {
+        int hash = hash(key);
+        return segmentFor(hash).containsKey(key, hash);
+    }
+
+
+    /**
+     * Sets value for specified key.
+     *
+     * @throws NullPointerException if key is null.
+     */
+    public void put(K key, long value) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not allowed.");
+        }
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, value);
+    }
+
+
+    /**
+     * Returns no. of entries.
+     */
+    public int size() {
+        int result = 0;
+        for (int i = 0; i < segments.length; i++) {
+            result += segments[i].size();
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns memory used by the arrays (bytes); referenced keys are not
+     * included.
+     */
+    public long getMemoryUsage() {
+        long result = 0L;
+        for (int i = 0; i < segments.length; i++) {
+            result += segments[i].getCapacity()*(8L + 8L);
+        }
+        return result;
+    }
+
+
+    private Segment segmentFor(int hash) {
+        // segmentShift is 32 if there is only one segment; shift distance is used mod 32
+        return (segments.length == 1) ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+
+    /**
+     * Returns a well distributed hash of key.hashCode() (MurmurHash3
+     * finalizer). High bits select segment, and low bits the slot in a
+     * segment.
+     */
+    private static int hash(Object key) {
+        int result = key.hashCode();
+        result ^= result >>> 16;
+        result *= 0x85ebca6b;
+        result ^= result >>> 13;
+        result *= 0xc2b2ae35;
+        result ^= result >>> 16;
+        return result;
+    }
+
+
+    /**
+     * Open addressing hash table guarded by its own lock.
+     */
+    private static final class Segment {
+        private Object[] keys;
+        private long[] values;
+        private int mask;
+        private int size;
+
+
+        public Segment() {
+            keys = new Object[MIN_SEGMENT_CAPACITY];
+            values = new long[MIN_SEGMENT_CAPACITY];
+            mask = MIN_SEGMENT_CAPACITY - 1;
+        }
+
+
+        public synchronized long get(Object key, int hash, long defaultValue) {
+            int index = findIndex(key, hash);
+            return (keys[index] != null) ? values[index] : defaultValue;
+        }
+
+
+        public synchronized boolean containsKey(Object key, int hash) {
+            return keys[findIndex(key, hash)] != null;
+        }
+
+
+        public synchronized void put(Object key, int hash, long value) {
+            int index = findIndex(key, hash);
+            if (keys[index] != null) {
+                values[index] = value;
+                return;
+            }
+            if (size + 1 >= keys.length) {
+                throw new IllegalStateException("Segment is full; max capacity is " + keys.length + " entries.");
+            }
+            keys[index] = key;
+            values[index] = value;
+            ++size;
+            if ((size*4L > keys.length*3L) && (keys.length < MAX_SEGMENT_CAPACITY)) {
+                resize(keys.length << 1);
+            }
+        }
+
+
+        public synchronized int size() {
+            return size;
+        }
+
+
+        public synchronized int getCapacity() {
+            return keys.length;
+        }
+
+
+        /**
+         * Returns index of specified key, or of the empty slot where it
+         * should be inserted.
+         */
+        private int findIndex(Object key, int hash) {
+            int index = hash & mask;
+            while ((keys[index] != null) && !keys[index].equals(key)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+
+        private void resize(int capacity) {
+            Object[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new Object[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int index = hash(oldKeys[i]) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+package se.sitic.megatron.util;
+
+
+/**
+ * Count-min sketch that counts occurrences of 64-bit hash values in fixed
+ * memory. The estimated count is never less than the real count, and
+ * exceeds it by at most errorRate * (total count) with probability
+ * 1 - errorProbability.
+ * <p>
+ * The sketch has depth = ceil(ln(1/errorProbability)) rows of width =
+ * ceil(e/errorRate) counters. A row index is derived from the two halves
+ * of the hash value (double hashing). Counters are incremented with
+ * conservative update, i.e. only counters that are below the new estimate
+ * are raised, which reduces overestimation.
+ * <p>
+ * Not thread-safe.
+ */
+public class CountMinSketch {
+    private int width;
+    private int depth;
+    private double errorRate;
+    private double errorProbability;
+    /** Counters for all rows; row i starts at i*width. */
+    private int[] counters;
+    private long totalCount;
+
+
+    /**
+     * Constructor.
+     *
+     * @param errorRate max overestimation as a fraction of total count, e.g. 0.0001.
+     * @param errorProbability probability that the error bound is exceeded, e.g. 0.001.
+     */
+    public CountMinSketch(double errorRate, double errorProbability) {
+        if ((errorRate <= 0.0) || (errorRate >= 1.0) || (errorProbability <= 0.0) || (errorProbability >= 1.0)) {
+            throw new IllegalArgumentException("Error rate and error probability must be in the range (0, 1): " + errorRate + ", " + errorProbability);
+        }
+        this.errorRate = errorRate;
+        this.errorProbability = errorProbability;
+        long longWidth = (long)Math.ceil(Math.E / errorRate);
+        depth = (int)Math.ceil(Math.log(1.0 / errorProbability));
+        if (longWidth*depth > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Error rate is too small; sketch does not fit in an array: " + errorRate);
+        }
+        width = (int)longWidth;
+        counters = new int[width*depth];
+    }
+
+
+    /**
+     * Counts an occurrence of specified hash value, and returns the new
+     * estimated count. Count does not overflow; it stops at
+     * Integer.MAX_VALUE.
+     */
+    public int add(long hash) {
+        ++totalCount;
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters[index(i, h1, h2)]);
+        }
+        int result = (estimate < Integer.MAX_VALUE) ? (estimate + 1) : estimate;
+        for (int i = 0; i < depth; i++) {
+            int index = index(i, h1, h2);
+            if (counters[index] < result) {
+                counters[index] = result;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns estimated count for specified hash value.
+     */
+    public int estimate(long hash) {
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        int result = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            result = Math.min(result, counters[index(i, h1, h2)]);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns no. of added hash values.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+
+    /**
+     * Returns max overestimation of a count (with probability
+     * 1 - errorProbability) for the values added so far.
+     */
+    public long getErrorBound() {
+        return (long)Math.ceil(errorRate*totalCount);
+    }
+
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+
+    public double getErrorProbability() {
+        return errorProbability;
+    }
+
+
+    public int getWidth() {
+        return width;
+    }
+
+
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+     * Returns memory used by the counters (bytes).
+     */
+    public long getMemoryUsage() {
+        return counters.length*4L;
+    }
+
+
+    private int index(int row, int h1, int h2) {
+        int hash = h1 + row*h2;
+        return row*width + ((hash & Integer.MAX_VALUE) % width);
+    }
+
+}
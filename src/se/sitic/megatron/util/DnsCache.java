@@ -0,0 +1,400 @@
+package se.sitic.megatron.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import se.sitic.megatron.core.AppProperties;
+import se.sitic.megatron.core.TypedProperties;
+
+
+/**
+ * Persistent cache for DNS lookups (hostname --> IP address) and reverse DNS
+ * lookups (IP address --> hostname), which is shared by all jobs.
+ * <p>
+ * Entries are kept in memory, and are appended to a text file (one line per
+ * entry) that is read when the cache is opened. The latest line for a key
+ * wins. When the cache is opened, expired and overwritten lines are removed
+ * by rewriting the file if they take up more than half of it.
+ * <p>
+ * An entry expires when the TTL of the DNS record has passed, or after
+ * dnsCache.defaultTtl if the TTL is not known. Failed lookups (e.g. NXDOMAIN
+ * or time-out) are cached for dnsCache.negativeTtl. Each of the two maps holds
+ * at most dnsCache.maxEntries entries; least recently used entries are evicted.
+ * <p>
+ * File format (tab-separated): "PTR ip-address hostname expire-time" and
+ * "A hostname ip-address expire-time". An empty hostname respective IP address
+ * 0 is a failed lookup. Expire time is in ms since 1970.
+ * <p>
+ * Thread-safe. Appended lines are buffered until flush() is called; several
+ * processes may share the file, but entries from another process that are
+ * appended during compaction are lost.
+ */
+public class DnsCache {
+    private static final Logger log = Logger.getLogger(DnsCache.class);
+    private static final String PTR_TYPE = "PTR";
+    private static final String A_TYPE = "A";
+    private static final char SEPARATOR = '\t';
+
+    private static DnsCache singleton;
+
+    private File file;
+    private long defaultTtl;
+    private long negativeTtl;
+    private Map<Long, CacheEntry> hostnameMap;
+    private Map<String, CacheEntry> ipAddressMap;
+    private Writer out;
+    private long noOfHits;
+    private long noOfMisses;
+    private long noOfAddedEntries;
+
+
+    /**
+     * Returns singleton, which is created from global properties. If
+     * dnsCache.file is undefined or the file cannot be opened, a disabled
+     * cache is returned.
+     */
+    public static synchronized DnsCache getInstance() {
+        if (singleton == null) {
+            TypedProperties globalProps = AppProperties.getInstance().getGlobalProperties();
+            String filename = globalProps.getString(AppProperties.DNS_CACHE_FILE_KEY, null);
+            int maxEntries = globalProps.getInt(AppProperties.DNS_CACHE_MAX_ENTRIES_KEY, 1000000);
+            long defaultTtl = globalProps.getLong(AppProperties.DNS_CACHE_DEFAULT_TTL_KEY, 86400L);
+            long negativeTtl = globalProps.getLong(AppProperties.DNS_CACHE_NEGATIVE_TTL_KEY, 3600L);
+            File file = StringUtil.isNullOrEmpty(filename) ? null : new File(filename);
+            try {
+                singleton = new DnsCache(file, maxEntries, defaultTtl, negativeTtl);
+            } catch (IOException e) {
+                log.error("Cannot open DNS cache; cache disabled: " + file.getAbsolutePath(), e);
+                singleton = new DnsCache();
+            }
+        }
+        return singleton;
+    }
+
+
+    /**
+     * Constructor. Reads specified file, which is created if missing.
+     *
+     * @param file cache file, or null to disable the cache.
+     * @param maxEntries max no. of entries in each map.
+     * @param defaultTtl TTL if TTL of DNS record is not known (seconds).
+     * @param negativeTtl TTL for failed lookups (seconds).
+     */
+    public DnsCache(File file, final int maxEntries, long defaultTtl, long negativeTtl) throws IOException {
+        this.file = file;
+        this.defaultTtl = defaultTtl;
+        this.negativeTtl = negativeTtl;
+        if (file == null) {
+            return;
+        }
+
+        hostnameMap = new LinkedHashMap<Long, CacheEntry>(1024, .75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        ipAddressMap = new LinkedHashMap<String, CacheEntry>(1024, .75F, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        long t1 = System.currentTimeMillis();
+        long noOfLines = file.exists() ? readFile() : 0L;
+        int noOfEntries = hostnameMap.size() + ipAddressMap.size();
+        if (noOfLines > 2L*noOfEntries) {
+            writeFile();
+        }
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Constants.UTF8));
+        String durationStr = DateUtil.formatDuration(System.currentTimeMillis() - t1);
+        log.info("DNS cache opened: " + file.getAbsolutePath() + " [lines / entries]: " + noOfLines + " / " + noOfEntries + ". Time: " + durationStr);
+    }
+
+
+    /**
+     * Constructor for a disabled cache.
+     */
+    private DnsCache() {
+        // empty
+    }
+
+
+    /**
+     * Returns true if entries are cached.
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+
+    /**
+     * Returns cached hostname for specified IP address, empty string if the
+     * reverse DNS lookup failed, or null if not cached (or expired).
+     */
+    public synchronized String getHostname(long ipAddress) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CacheEntry entry = hostnameMap.get(ipAddress);
+        if ((entry != null) && (entry.expireTime > System.currentTimeMillis())) {
+            ++noOfHits;
+            return entry.hostname;
+        }
+        ++noOfMisses;
+        return null;
+    }
+
+
+    /**
+     * Returns cached IP address for specified hostname, 0 if the DNS lookup
+     * failed, or null if not cached (or expired).
+     */
+    public synchronized Long getIpAddress(String hostname) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CacheEntry entry = ipAddressMap.get(hostname);
+        if ((entry != null) && (entry.expireTime > System.currentTimeMillis())) {
+            ++noOfHits;
+            return entry.ipAddress;
+        }
+        ++noOfMisses;
+        return null;
+    }
+
+
+    /**
+     * Adds result of a reverse DNS lookup.
+     *
+     * @param hostname hostname, or null or empty string if lookup failed.
+     * @param ttl TTL of the PTR record (seconds), or -1 if not known.
+     */
+    public synchronized void putHostname(long ipAddress, String hostname, long ttl) {
+        if (!isEnabled()) {
+            return;
+        }
+        hostname = StringUtil.getNotNull(hostname);
+        if (!isValidValue(hostname)) {
+            return;
+        }
+        long expireTime = calcExpireTime(hostname.length() > 0, ttl);
+        hostnameMap.put(ipAddress, new CacheEntry(hostname, ipAddress, expireTime));
+        StringBuilder line = new StringBuilder(64);
+        line.append(PTR_TYPE).append(SEPARATOR).append(ipAddress).append(SEPARATOR).append(hostname).append(SEPARATOR).append(expireTime);
+        appendLine(line.toString());
+    }
+
+
+    /**
+     * Adds result of a DNS lookup.
+     *
+     * @param ipAddress IP address, or 0 if lookup failed.
+     * @param ttl TTL of the A record (seconds), or -1 if not known.
+     */
+    public synchronized void putIpAddress(String hostname, long ipAddress, long ttl) {
+        if (!isEnabled() || StringUtil.isNullOrEmpty(hostname) || !isValidValue(hostname)) {
+            return;
+        }
+        long expireTime = calcExpireTime(ipAddress != 0L, ttl);
+        ipAddressMap.put(hostname, new CacheEntry(hostname, ipAddress, expireTime));
+        StringBuilder line = new StringBuilder(64);
+        line.append(A_TYPE).append(SEPARATOR).append(hostname).append(SEPARATOR).append(ipAddress).append(SEPARATOR).append(expireTime);
+        appendLine(line.toString());
+    }
+
+
+    /**
+     * Writes appended entries to file.
+     */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            log.error("Cannot write to DNS cache; cache disabled: " + file.getAbsolutePath(), e);
+            closeFile();
+        }
+        log.debug("DNS cache flushed. " + getStatistics());
+    }
+
+
+    /**
+     * Writes appended entries to file, and closes the file. Entries in memory
+     * can still be used.
+     */
+    public synchronized void close() {
+        flush();
+        closeFile();
+    }
+
+
+    public synchronized String getStatistics() {
+        return "DNS cache [hits / misses / added entries]: " + noOfHits + " / " + noOfMisses + " / " + noOfAddedEntries;
+    }
+
+
+    public synchronized long getNoOfHits() {
+        return noOfHits;
+    }
+
+
+    public synchronized long getNoOfMisses() {
+        return noOfMisses;
+    }
+
+
+    private long calcExpireTime(boolean successful, long ttl) {
+        long ttlToUse = successful ? ((ttl >= 0L) ? ttl : defaultTtl) : negativeTtl;
+        return System.currentTimeMillis() + 1000L*ttlToUse;
+    }
+
+
+    /**
+     * Returns false if specified value cannot be written to file.
+     */
+    private boolean isValidValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if ((ch == SEPARATOR) || (ch == '\n') || (ch == '\r')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void appendLine(String line) {
+        ++noOfAddedEntries;
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(line);
+            out.write(Constants.LINE_BREAK);
+        } catch (IOException e) {
+            log.error("Cannot write to DNS cache; cache disabled: " + file.getAbsolutePath(), e);
+            closeFile();
+        }
+    }
+
+
+    private void closeFile() {
+        try { if (out != null) out.close(); } catch (Exception ignored) {}
+        out = null;
+    }
+
+
+    /**
+     * Reads entries that have not expired from file.
+     *
+     * @return no. of lines in file.
+     */
+    private long readFile() throws IOException {
+        long result = 0L;
+        long now = System.currentTimeMillis();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF8));
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                ++result;
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) {
+                    // e.g. last line is incomplete due to a crash
+                    log.debug("Skipping invalid line in DNS cache: " + line);
+                    continue;
+                }
+                try {
+                    long expireTime = Long.parseLong(fields[3]);
+                    if (expireTime <= now) {
+                        continue;
+                    }
+                    if (fields[0].equals(PTR_TYPE)) {
+                        long ipAddress = Long.parseLong(fields[1]);
+                        hostnameMap.put(ipAddress, new CacheEntry(fields[2], ipAddress, expireTime));
+                    } else if (fields[0].equals(A_TYPE)) {
+                        ipAddressMap.put(fields[1], new CacheEntry(fields[1], Long.parseLong(fields[2]), expireTime));
+                    } else {
+                        log.debug("Skipping line with unknown type in DNS cache: " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    log.debug("Skipping invalid line in DNS cache: " + line);
+                }
+            }
+        } finally {
+            try { if (in != null) in.close(); } catch (Exception ignored) {}
+        }
+        return result;
+    }
+
+
+    /**
+     * Rewrites file with entries in memory.
+     */
+    private void writeFile() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        BufferedWriter tmpOut = null;
+        try {
+            tmpOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), Constants.UTF8));
+            // iterate in access order; least recently used entries first
+            for (Iterator<CacheEntry> iterator = hostnameMap.values().iterator(); iterator.hasNext(); ) {
+                CacheEntry entry = iterator.next();
+                tmpOut.write(PTR_TYPE + SEPARATOR + entry.ipAddress + SEPARATOR + entry.hostname + SEPARATOR + entry.expireTime);
+                tmpOut.write(Constants.LINE_BREAK);
+            }
+            for (Iterator<CacheEntry> iterator = ipAddressMap.values().iterator(); iterator.hasNext(); ) {
+                CacheEntry entry = iterator.next();
+                tmpOut.write(A_TYPE + SEPARATOR + entry.hostname + SEPARATOR + entry.ipAddress + SEPARATOR + entry.expireTime);
+                tmpOut.write(Constants.LINE_BREAK);
+            }
+        } finally {
+            try { if (tmpOut != null) tmpOut.close(); } catch (Exception ignored) {}
+        }
+        if (!tmpFile.renameTo(file)) {
+            // renameTo does not replace an existing file on all platforms
+            if (!file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Cannot rename compacted DNS cache: " + tmpFile.getAbsolutePath());
+            }
+        }
+        log.debug("DNS cache compacted: " + file.getAbsolutePath());
+    }
+
+
+    /**
+     * Cached hostname or IP address.
+     */
+    private static class CacheEntry {
+        final String hostname;
+        final long ipAddress;
+        final long expireTime;
+
+
+        public CacheEntry(String hostname, long ipAddress, long expireTime) {
+            this.hostname = hostname;
+            this.ipAddress = ipAddress;
+            this.expireTime = expireTime;
+        }
+
+    }
+
+}
@@ -6,13 +6,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -214,9 +219,19 @@ public abstract class FileUtil {
 
     
     /**
-     * Count number of lines in specified file.
+     * Count number of lines in specified file. Lines are counted as by 
+     * BufferedReader.readLine, i.e. line feed, carriage return, or carriage 
+     * return followed by line feed terminates a line.
+     * <p>
+     * If line breaks are single bytes in the character set (e.g. UTF-8 and 
+     * ISO-8859-1), the file is scanned as bytes, which is much faster than 
+     * decoding characters. 
      */
     public static long countLines(File file, String charSet) throws IOException {
+        if (hasSingleByteLineBreaks(charSet)) {
+            return scanFile(file, null);
+        }
+
         long result = 0L;
         
         BufferedReader in = null;
@@ -234,7 +249,29 @@ public abstract class FileUtil {
         return result;
     }
 
-    
+
+    /**
+     * Calculates hash value (as hashFile) and counts number of lines (as 
+     * countLines) for specified file. The file is read once if line breaks 
+     * are single bytes in the character set; otherwise twice.
+     */
+    public static FileSummary summarizeFile(File file, String charSet) throws IOException {
+        MessageDigest digest = null;
+        try {
+            digest = MessageDigest.getInstance(Constants.DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Cannot initialize digest algorithm (this should never happen).", e);
+            return new FileSummary("", countLines(file, charSet), file.length());
+        }
+
+        if (hasSingleByteLineBreaks(charSet)) {
+            long noOfLines = scanFile(file, digest);
+            return new FileSummary(StringUtil.encode(digest.digest()), noOfLines, file.length());
+        }
+        return new FileSummary(hashFile(file), countLines(file, charSet), file.length());
+    }
+
+
     /**
      * Returns hash value for specified file, e.g. using the MD5 algorithm.
      *
@@ -268,6 +305,73 @@ public abstract class FileUtil {
     }
     
     
+    /**
+     * Reads specified file as bytes and returns no. of lines. Updates digest 
+     * if not null.
+     */
+    private static long scanFile(File file, MessageDigest digest) throws IOException {
+        long result = 0L;
+        byte[] buffer = new byte[64*1024];
+        boolean prevCr = false;
+        byte lastByte = '\n';
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while ((read = in.read(buffer)) != -1) {
+                if (read == 0) {
+                    continue;
+                }
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        // CR+LF is counted once
+                        if (!prevCr) {
+                            ++result;
+                        }
+                        prevCr = false;
+                    } else if (b == '\r') {
+                        ++result;
+                        prevCr = true;
+                    } else {
+                        prevCr = false;
+                    }
+                }
+                lastByte = buffer[read - 1];
+            }
+        } finally {
+            in.close();
+        }
+        // last line without line break
+        if ((lastByte != '\n') && (lastByte != '\r')) {
+            ++result;
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns true if CR and LF are encoded as single bytes in specified 
+     * character set, i.e. lines can be counted without decoding. This is 
+     * true for UTF-8, ISO-8859-x etc., but not for UTF-16.
+     */
+    private static boolean hasSingleByteLineBreaks(String charSet) {
+        try {
+            Charset charset = Charset.forName(charSet);
+            if (!charset.canEncode()) {
+                return false;
+            }
+            byte[] bytes = "\r\n".getBytes(charset);
+            return (bytes.length == 2) && (bytes[0] == '\r') && (bytes[1] == '\n');
+        } catch (IllegalArgumentException e) {
+            // IllegalCharsetNameException, UnsupportedCharsetException
+            return false;
+        }
+    }
+    
+    
     /**
      * Copy source file to target.
      * 
@@ -306,4 +410,173 @@ public abstract class FileUtil {
         }
     }
 
+
+    /**
+     * Splits specified file in chunks of about the same size. A chunk starts
+     * after a line break, i.e. a line is never split between two chunks. 
+     * 
+     * @return offsets; chunk i starts at result[i] and ends before 
+     *      result[i+1]. Fewer chunks than requested are returned if the file
+     *      contains too few lines. Null if line breaks are not single bytes
+     *      in the character set.
+     */
+    public static long[] splitFile(File file, String charSet, int noOfChunks) throws IOException {
+        if (!hasSingleByteLineBreaks(charSet)) {
+            return null;
+        }
+        
+        long size = file.length();
+        List<Long> offsets = new ArrayList<Long>(noOfChunks + 1);
+        offsets.add(0L);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] buffer = new byte[8*1024];
+            for (int i = 1; i < noOfChunks; i++) {
+                long prevOffset = offsets.get(offsets.size() - 1);
+                long pos = Math.max((i*size) / noOfChunks - 1L, prevOffset);
+                long offset = findNextLineStart(in, pos, buffer);
+                if ((offset == -1L) || (offset >= size)) {
+                    break;
+                }
+                offsets.add(offset);
+            }
+        } finally {
+            in.close();
+        }
+        offsets.add(size);
+
+        long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+        return result;
+    }
+
+    
+    /**
+     * Returns a stream that reads at most specified no. of bytes from 
+     * specified stream, e.g. a chunk returned by splitFile. The specified 
+     * stream is closed when the returned stream is closed.
+     */
+    public static InputStream createRangeInputStream(InputStream in, long maxNoOfBytes) {
+        return new RangeInputStream(in, maxNoOfBytes);
+    }
+
+    
+    /**
+     * Returns position after the first line break at or after specified 
+     * position, or -1 if no line break is found.
+     */
+    private static long findNextLineStart(RandomAccessFile in, long pos, byte[] buffer) throws IOException {
+        in.seek(pos);
+        int len = 0;
+        while ((len = in.read(buffer)) > 0) {
+            for (int i = 0; i < len; i++) {
+                if (buffer[i] == '\n') {
+                    return pos + i + 1;
+                } else if (buffer[i] == '\r') {
+                    // CR+LF is one line break
+                    int next = ((i + 1) < len) ? buffer[i + 1] : in.read();
+                    return pos + i + ((next == '\n') ? 2 : 1);
+                }
+            }
+            pos += len;
+        }
+        return -1L;
+    }
+
+    
+    /**
+     * Hash value, no. of lines, and size of a file. See summarizeFile.
+     */
+    public static class FileSummary {
+        private final String hash;
+        private final long noOfLines;
+        private final long size;
+
+
+        public FileSummary(String hash, long noOfLines, long size) {
+            this.hash = hash;
+            this.noOfLines = noOfLines;
+            this.size = size;
+        }
+
+
+        public String getHash() {
+            return hash;
+        }
+
+
+        public long getNoOfLines() {
+            return noOfLines;
+        }
+
+
+        public long getSize() {
+            return size;
+        }
+
+    }
+
+
+    /**
+     * Input stream that reads at most a specified no. of bytes.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+        
+
+        public RangeInputStream(InputStream in, long maxNoOfBytes) {
+            super(in);
+            this.remaining = maxNoOfBytes;
+        }
+
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            int result = super.read();
+            if (result != -1) {
+                --remaining;
+            }
+            return result;
+        }
+
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            int result = super.read(b, off, (int)Math.min(len, remaining));
+            if (result > 0) {
+                remaining -= result;
+            }
+            return result;
+        }
+
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(Math.min(n, remaining));
+            remaining -= result;
+            return result;
+        }
+
+        
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+    }
+
 }
@@ -6,8 +6,6 @@ import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.xbill.DNS.Address;
@@ -15,7 +13,6 @@ import org.xbill.DNS.DClass;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
-import org.xbill.DNS.PTRRecord;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.ReverseMap;
 import org.xbill.DNS.Section;
@@ -30,6 +27,10 @@ import se.sitic.megatron.core.TypedProperties;
 /**
  * Contains static utility-methods for IP-adress conversion, 
  * reverse DNS lookup etc.
+ * <p>
+ * Conversion between IPv4-addresses as strings and integers is done by 
+ * scanning chars, without regular expressions or InetAddress, and is 
+ * thread-safe.
  */
 public abstract class IpAddressUtil {
     private static final Logger log = Logger.getLogger(IpAddressUtil.class);
@@ -39,8 +40,6 @@ public abstract class IpAddressUtil {
     private static boolean useDnsJava;
     private static boolean useSimpleResolver; 
     private static SimpleResolver simpleResolver;
-    
-    private static final Matcher IP_ADDRESS_MATCHER = Pattern.compile("(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})\\.(\\d{1,3})").matcher("");
      
     
     static {
@@ -215,31 +214,83 @@ public abstract class IpAddressUtil {
         if (ipAddress == null) {
             throw new UnknownHostException("Invalid IP-address; is null.");
         }
-                
-        String[] tokens = ipAddress.trim().split("\\.");
-        if ((tokens == null) || (tokens.length != 4)) {
+        long result = parseIpAddress(ipAddress, 0, ipAddress.length());
+        if (result == -1L) {
             throw new UnknownHostException("Invalid IP-address: " + ipAddress);
         }
-        
+        return result;
+    }
+
+
+    /**
+     * Parses an IP-address in the format XX.XX.XX.XX in specified region 
+     * of a char sequence. Leading and trailing whitespace is ignored. 
+     * No objects are created.
+     * 
+     * @return IP-address as an integer, or -1 if invalid.
+     */
+    public static long parseIpAddress(CharSequence str, int start, int end) {
+        // trim (same as String.trim)
+        while ((start < end) && (str.charAt(start) <= ' ')) {
+            ++start;
+        }
+        while ((start < end) && (str.charAt(end - 1) <= ' ')) {
+            --end;
+        }
+        // trailing dots are ignored (as String.split)
+        while ((start < end) && (str.charAt(end - 1) == '.')) {
+            --end;
+        }
+
         long result = 0L;
-        long factor = 1;
-        for (int i = 3; i >= 0; i--) {
-            try {
-                int intToken = Integer.parseInt(tokens[i]);
-                if ((intToken < 0) || (intToken > 255)) {
-                    throw new UnknownHostException("Invalid IP-address: " + ipAddress);
+        int noOfOctets = 0;
+        int pos = start;
+        while (pos <= end) {
+            // parse octet (as Integer.parseInt; sign and leading zeros are allowed)
+            boolean negative = false;
+            if ((pos < end) && ((str.charAt(pos) == '+') || (str.charAt(pos) == '-'))) {
+                negative = (str.charAt(pos) == '-');
+                ++pos;
+            }
+            int octet = 0;
+            int noOfDigits = 0;
+            while ((pos < end) && (str.charAt(pos) != '.')) {
+                int digit = Character.digit(str.charAt(pos), 10);
+                if (digit == -1) {
+                    return -1L;
                 }
-                result += intToken*factor;
-                factor = factor << 8;
-            } catch (NumberFormatException e) {
-                throw new UnknownHostException("Invalid IP-address: " + ipAddress);
+                octet = Math.min(octet*10 + digit, 256);
+                ++noOfDigits;
+                ++pos;
+            }
+            if ((noOfDigits == 0) || (octet > 255) || (negative && (octet != 0)) || (noOfOctets == 4)) {
+                return -1L;
             }
+            result = (result << 8) | octet;
+            ++noOfOctets;
+            // skip '.'
+            ++pos;
         }
-        
-        return result;
+        return (noOfOctets == 4) ? result : -1L;
     }
 
 
+    /**
+     * Appends specified integer IP-address in the format XX.XX.XX.XX to 
+     * specified buffer. The address is not validated; only the lower 32 
+     * bits are used.
+     * 
+     * @return specified buffer.
+     */
+    public static StringBuilder appendIpAddress(StringBuilder buf, long ipAddress) {
+        buf.append((ipAddress >> 24) & 0xFF).append('.');
+        buf.append((ipAddress >> 16) & 0xFF).append('.');
+        buf.append((ipAddress >> 8) & 0xFF).append('.');
+        buf.append(ipAddress & 0xFF);
+        return buf;
+    }
+
+    
     /**
      * Converts specified integer IP-address to its string representation.
      * 
@@ -263,10 +314,10 @@ public abstract class IpAddressUtil {
             hostAddress = "";
         }
         
-        String hostName = null;
-        if (includeHostName) {
-            hostName = reverseDnsLookupInternal(ipAddress, true);
+        if (!includeHostName) {
+            return hostAddress;
         }
+        String hostName = reverseDnsLookupInternal(ipAddress, true);
         
         StringBuilder result = new StringBuilder(256); 
         result.append(hostAddress);
@@ -280,40 +331,40 @@ public abstract class IpAddressUtil {
     
     /**
      * Converts specified integer IP-address and mask the two last octets.
-     * <p>Note: This method is not thread-safe.
      * 
      * @return ip-adress, or empty string if specified address is invalid or
      *      in case of an exception. Example: "130.239.x.x". 
      */
     public static String convertAndMaskIpAddress(long ipAddress) {
-        String result = convertIpAddress(ipAddress, false);
-        if (!StringUtil.isNullOrEmpty(result)) {
-            // keep first two numbers in ip-address
-            String replaceStr = "$1.$2.x.x";
-            IP_ADDRESS_MATCHER.reset(result);
-            String resultMasked = IP_ADDRESS_MATCHER.replaceFirst(replaceStr);
-            if (result.equals(resultMasked)) {
-                // may be some error if not masked at all; mask everything
-                resultMasked = "x.x.x.x";
+        if (!isValidIpAddress(ipAddress)) {
+            if (ipAddress != 0L) {
+                log.warn("Cannot convert IP-address (address probably invalid): " + ipAddress);
             }
-            // log.debug("Masked IP-address: " + result + " --> " + resultMasked);
-            result = resultMasked;
+            return "";
         }
-        
-        return result;
+        // keep first two numbers in ip-address
+        StringBuilder result = new StringBuilder(16);
+        result.append((ipAddress >> 24) & 0xFF).append('.').append((ipAddress >> 16) & 0xFF).append(".x.x");
+        return result.toString();
     }
     
     
     /**
      * Returns IP-address as an integer for specified hostname, or 0L
-     * if lookup fails.
+     * if lookup fails. The persistent DNS cache is used if enabled.
      */
     public static long dnsLookup(String hostname) {
         long result = 0L;
         String hostAddress = null;
 
+        hostname = hostname.trim();
+        DnsCache dnsCache = DnsCache.getInstance();
+        Long cachedResult = dnsCache.getIpAddress(hostname);
+        if (cachedResult != null) {
+            return cachedResult.longValue();
+        }
+
         try {
-            hostname = hostname.trim();
             InetAddress inetAddress = null;
             if (useDnsJava) {
                 inetAddress = Address.getByName(hostname);
@@ -335,13 +386,16 @@ public abstract class IpAddressUtil {
             log.warn(msg, e);
         }
 
+        // TTL is not known
+        dnsCache.putIpAddress(hostname, result, -1L);
         return result;
     }
 
     
     /**
      * Returns hostname from specified ip-address, or empty string
-     * if lookup fails. 
+     * if lookup fails. The in-memory cache, and the persistent DNS cache 
+     * if enabled, are used.
      */
     public static String reverseDnsLookup(long ipAddress) {
         return reverseDnsLookupInternal(ipAddress, true);
@@ -349,7 +403,8 @@ public abstract class IpAddressUtil {
 
     
     /**
-     * As reverseDnsLookup(long), but without cache.
+     * As reverseDnsLookup(long), but without the in-memory cache. The 
+     * persistent DNS cache is used if enabled.
      */
     public static String reverseDnsLookupWithoutCache(long ipAddress) {
         return reverseDnsLookupInternal(ipAddress, false);
@@ -369,15 +424,29 @@ public abstract class IpAddressUtil {
                 return result;
             }
         }
+        DnsCache dnsCache = DnsCache.getInstance();
+        result = dnsCache.getHostname(ipAddress);
+        if (result != null) {
+            if (useCache) {
+                hostNameCache.put(cacheKey, result);
+            }
+            return result;
+        }
         
         // -- Reverse DNS lookup 
+        long ttl = -1L;
         try {
             if (useDnsJava) {
+                Record record = null;
                 if (useSimpleResolver) {
-                    result = reverseDnsLookupUsingDnsJavaSimpleResolver(ipAddress);
+                    record = reverseDnsLookupUsingDnsJavaSimpleResolver(ipAddress);
                 } else {
-                    result = reverseDnsLookupUsingDnsJavaExtendedResolver(ipAddress);
+                    record = reverseDnsLookupUsingDnsJavaExtendedResolver(ipAddress);
                 }
+                result = record.rdataToString();
+                // remove trailing "."
+                result = result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
+                ttl = record.getTTL();
             } else {
                 result = reverseDnsLookupUsingJdk(ipAddress);
             }
@@ -399,6 +468,7 @@ public abstract class IpAddressUtil {
         }
         
         // -- Add to cache (even empty entries)
+        dnsCache.putHostname(ipAddress, result, ttl);
         if (useCache) {
             if (log.isDebugEnabled()) {
                 String ipAddressStr = null;
@@ -435,22 +505,25 @@ public abstract class IpAddressUtil {
     }
 
     
-    private static String reverseDnsLookupUsingDnsJavaExtendedResolver(long ipAddress) throws UnknownHostException {
+    /**
+     * Returns PTR record for specified IP address.
+     */
+    private static Record reverseDnsLookupUsingDnsJavaExtendedResolver(long ipAddress) throws UnknownHostException {
         byte[] address = convertLongAddressToBuf(ipAddress);
         Name name = ReverseMap.fromAddress(InetAddress.getByAddress(address));
         Record[] records = new Lookup(name, Type.PTR).run();
         if (records == null) {
             throw new UnknownHostException();
         }
-        String result = ((PTRRecord)records[0]).getTarget().toString();
-        // remove trailing "."
-        result = result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
-        return result;
+        return records[0];
     }
 
     
-    private static String reverseDnsLookupUsingDnsJavaSimpleResolver(long ipAddress) throws IOException {
-        String result = null;
+    /**
+     * Returns PTR record for specified IP address.
+     */
+    private static Record reverseDnsLookupUsingDnsJavaSimpleResolver(long ipAddress) throws IOException {
+        Record result = null;
         byte[] address = convertLongAddressToBuf(ipAddress);
         Name name = ReverseMap.fromAddress(InetAddress.getByAddress(address));
         Record record = Record.newRecord(name, Type.PTR, DClass.IN);
@@ -459,10 +532,7 @@ public abstract class IpAddressUtil {
         Record[] answers = response.getSectionArray(Section.ANSWER);
         if (answers.length != 0) {
             // If PTR-record exists this will be at index 1 or above (more than one PTR-record may exist)
-            Record answer = (answers.length > 1) ? answers[1] : answers[0];  
-            result = answer.rdataToString();
-            // remove trailing "."
-            result = result.endsWith(".") ? result.substring(0, result.length() - 1) : result;
+            result = (answers.length > 1) ? answers[1] : answers[0];  
         } else {
             throw new IOException("Empty DNS response.");
         }
@@ -471,12 +541,16 @@ public abstract class IpAddressUtil {
     
     
     private static String convertIpAddressToString(long ipAddress) throws UnknownHostException {
-        InetAddress inetAddress = convertIpAddress(ipAddress);
-        String result = inetAddress.getHostAddress();
-        if (StringUtil.isNullOrEmpty(result)) {
-            throw new UnknownHostException("Cannot convert IP-address: " + ipAddress);
+        if (!isValidIpAddress(ipAddress)) {
+            throw new UnknownHostException("IP-address out of range: " + ipAddress);
         }
-        return result;
+        return appendIpAddress(new StringBuilder(15), ipAddress).toString();
+    }
+    
+    
+    private static boolean isValidIpAddress(long ipAddress) {
+        // same range check as convertIpAddress(long)
+        return (ipAddress > 0L) && (ipAddress < 4311810304L);
     }
     
     
@@ -495,7 +569,7 @@ public abstract class IpAddressUtil {
      * 
      * @throws UnknownHostException if hostname contain malicious or invalid content.
      */
-    private static void validateHostname(String hostName) throws UnknownHostException {
+    public static void validateHostname(String hostName) throws UnknownHostException {
         // More info: http://en.wikipedia.org/wiki/Hostname
         
         // Valid letters: a..z, A..Z, 0..9, -
@@ -0,0 +1,199 @@
+package se.sitic.megatron.util;
+
+
+/**
+ * Hash map from long to int that stores keys and values in primitive
+ * arrays, i.e. without a Map.Entry, Long, and Integer object for every
+ * entry. Collisions are resolved by open addressing (linear probing), and
+ * the arrays are doubled when the map is 75% full. Entries cannot be
+ * removed.
+ * <p>
+ * Keys should be well distributed, e.g. a hash value; the low bits are
+ * used as index. The no. of probes is counted to make it possible to log
+ * collision statistics.
+ * <p>
+ * Not thread-safe.
+ */
+public class LongIntHashMap {
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    /** Key 0 marks an empty slot, and is therefore stored here. */
+    private boolean containsZeroKey;
+    private int zeroKeyValue;
+
+    private long noOfLookups;
+    private long noOfProbes;
+    private int maxProbeLength;
+
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize no. of entries that will fit without resizing.
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while ((capacity < MAX_CAPACITY) && (capacity*3L < expectedSize*4L)) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+
+    /**
+     * Returns value for specified key, or defaultValue if not found.
+     */
+    public int get(long key, int defaultValue) {
+        if (key == 0L) {
+            return containsZeroKey ? zeroKeyValue : defaultValue;
+        }
+        int index = findIndex(key);
+        return (keys[index] == key) ? values[index] : defaultValue;
+    }
+
+
+    /**
+     * Sets value for specified key.
+     */
+    public void put(long key, int value) {
+        if (key == 0L) {
+            size += containsZeroKey ? 0 : 1;
+            containsZeroKey = true;
+            zeroKeyValue = value;
+            return;
+        }
+        int index = findIndex(key);
+        if (keys[index] == key) {
+            values[index] = value;
+        } else {
+            insert(index, key, value);
+        }
+    }
+
+
+    /**
+     * Adds one to value for specified key (0 if not found), and returns the
+     * new value. Value does not overflow; it stops at Integer.MAX_VALUE.
+     */
+    public int increment(long key) {
+        if (key == 0L) {
+            size += containsZeroKey ? 0 : 1;
+            containsZeroKey = true;
+            zeroKeyValue = increment(zeroKeyValue);
+            return zeroKeyValue;
+        }
+        int index = findIndex(key);
+        if (keys[index] == key) {
+            values[index] = increment(values[index]);
+            return values[index];
+        }
+        insert(index, key, 1);
+        return 1;
+    }
+
+
+    /**
+     * Returns no. of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns no. of slots in the arrays.
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+
+    /**
+     * Returns memory used by the arrays (bytes).
+     */
+    public long getMemoryUsage() {
+        return keys.length*(8L + 4L);
+    }
+
+
+    /**
+     * Returns average no. of slots examined per lookup (1.0 if there are
+     * no collisions).
+     */
+    public double getAverageProbeLength() {
+        return (noOfLookups > 0L) ? ((double)noOfProbes / noOfLookups) : 0.0;
+    }
+
+
+    /**
+     * Returns largest no. of slots examined in a lookup.
+     */
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+
+    /**
+     * Returns index of specified key, or of the empty slot where it should
+     * be inserted.
+     */
+    private int findIndex(long key) {
+        int index = (int)key & mask;
+        int probeLength = 1;
+        while ((keys[index] != 0L) && (keys[index] != key)) {
+            index = (index + 1) & mask;
+            ++probeLength;
+        }
+        ++noOfLookups;
+        noOfProbes += probeLength;
+        if (probeLength > maxProbeLength) {
+            maxProbeLength = probeLength;
+        }
+        return index;
+    }
+
+
+    private void insert(int index, long key, int value) {
+        if (size + 1 >= keys.length) {
+            throw new IllegalStateException("Map is full; max capacity is " + keys.length + " entries.");
+        }
+        keys[index] = key;
+        values[index] = value;
+        ++size;
+        if ((size*4L > keys.length*3L) && (keys.length < MAX_CAPACITY)) {
+            resize(keys.length << 1);
+        }
+    }
+
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                int index = (int)oldKeys[i] & mask;
+                while (keys[index] != 0L) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+
+    private int increment(int value) {
+        return (value < Integer.MAX_VALUE) ? (value + 1) : value;
+    }
+
+}
@@ -1,6 +1,7 @@
 package se.sitic.megatron.util;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -193,27 +194,51 @@ public abstract class StringUtil {
             return null;
         }
 
-        StringBuilder result = new StringBuilder(str.length() + 50);
+        return appendCharacterEntities(new StringBuilder(str.length() + 50), str).toString();
+    }
+
+
+    /**
+     * Appends specified text to specified buffer using named entities (see 
+     * encodeCharacterEntities).
+     * 
+     * @return specified buffer.
+     */
+    public static StringBuilder appendCharacterEntities(StringBuilder out, String str) {
+        try {
+            appendCharacterEntities((Appendable)out, str);
+        } catch (IOException e) {
+            // cannot happen for StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return out;
+    }
+
+
+    /**
+     * Writes specified text to specified output, e.g. a Writer, using named 
+     * entities (see encodeCharacterEntities).
+     */
+    public static void appendCharacterEntities(Appendable out, String str) throws IOException {
         for (int i = 0; i < str.length(); i++) {
             char chr = str.charAt(i);
             switch (chr) {
                 case '<':
-                    result.append("&lt;");
+                    out.append("&lt;");
                     break;
                 case '>':
-                    result.append("&gt;");
+                    out.append("&gt;");
                     break;
                 case '&':
-                    result.append("&amp;");
+                    out.append("&amp;");
                     break;
                 case '"':
-                    result.append("&quot;");
+                    out.append("&quot;");
                     break;
                 default:
-                    result.append(chr);
+                    out.append(chr);
             }
         }
-        return result.toString();
     }
 
     